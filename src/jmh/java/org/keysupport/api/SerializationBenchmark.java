@@ -0,0 +1,127 @@
+package org.keysupport.api;
+
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.keysupport.api.pkix.BenchmarkPKI;
+import org.keysupport.api.pkix.ValidatePKIX;
+import org.keysupport.api.pkix.X509Util;
+import org.keysupport.api.pojo.vss.Success;
+import org.keysupport.api.pojo.vss.ValidationPolicy;
+import org.keysupport.api.pojo.vss.ValidationResult;
+import org.keysupport.api.pojo.vss.VssResponse;
+import org.keysupport.api.pojo.vss.v1.V1ResultByCertificate;
+import org.keysupport.api.pojo.vss.v1.V1ResultByCertificateData;
+import org.keysupport.api.pojo.vss.v1.V1TransactionResult;
+import org.keysupport.api.pojo.vss.v1.V1VSSResponse;
+import org.keysupport.api.pojo.vss.v1.V1ValidationResult;
+import org.keysupport.api.pojo.vss.v1.V1ValidationSuccessData;
+import org.keysupport.api.pojo.vss.v1.V1WantBack;
+import org.keysupport.api.pojo.vss.v1.V1X509CertificateList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Throughput of the JSON serialization of a successful validation response.
+ *
+ * `pojoToJson` is LoggingUtil.pojoToJson(), which logs each request, and;
+ * response. `vssResponse`, and; `v1VssResponse`, are the response bodies,
+ * serialized with a shared ObjectMapper (as Spring, and; the bulk endpoint,
+ * do).
+ *
+ * The VssResponse is the result of validating the BenchmarkPKI end entity, so
+ * it has a realistic certificate path, and; policy tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private VssResponse response;
+
+	private V1VSSResponse v1Response;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		BenchmarkPKI pki = BenchmarkPKI.generate(2);
+		ValidationPolicy validationPolicy = pki.publish(false);
+		Date now = new Date();
+		String x5tS256 = X509Util.x5tS256(pki.getEndEntity());
+		response = ValidatePKIX.validate(pki.getEndEntity(), x5tS256, validationPolicy, now);
+		if (!(response.validationResult instanceof Success)) {
+			throw new IllegalStateException(LoggingUtil.pojoToJson(response));
+		}
+		response.requestId = X509Util.strS256HexString(x5tS256 + ":" + validationPolicy.validationPolicyId);
+		response.validationTime = X509Util.ISO8601DateString(now);
+		response.nextUpdate = X509Util.ISO8601DateString(new Date(now.getTime() + TimeUnit.HOURS.toMillis(1)));
+		v1Response = toV1(response);
+	}
+
+	/*
+	 * As ValidateController.validateV1(), with a certPath wantBack
+	 */
+	private static V1VSSResponse toV1(VssResponse response) {
+		V1ResultByCertificateData resultData = new V1ResultByCertificateData();
+		resultData.vssCertId = X509Util.byteArrayToHexString(Base64.getUrlDecoder().decode(response.x5tS256));
+		resultData.x509SubjectName = response.x509SubjectName;
+		resultData.x509IssuerName = response.x509IssuerName;
+		resultData.x509SerialNumber = response.x509SerialNumber;
+		resultData.x509SubjectAltName = response.x509SubjectAltName;
+		resultData.validationTime = response.validationTime;
+		resultData.nextUpdate = response.nextUpdate;
+		resultData.validationResultToken = ValidationResult.SUCCESS_VALUE;
+		V1X509CertificateList certPath = new V1X509CertificateList();
+		certPath.x509CertificateList = ((Success) response.validationResult).x509CertificatePath;
+		V1WantBack wantBack = new V1WantBack();
+		wantBack.certPath = certPath;
+		V1ValidationSuccessData successData = new V1ValidationSuccessData();
+		successData.wantBackResultList = List.of(wantBack);
+		resultData.validationSuccessData = successData;
+		V1ResultByCertificate result = new V1ResultByCertificate();
+		result.resultByCertificate = resultData;
+		V1ValidationResult validationResult = new V1ValidationResult();
+		validationResult.resultsByCertificateList = List.of(result);
+		V1TransactionResult txResult = new V1TransactionResult();
+		txResult.transactionResultToken = "SUCCESS";
+		txResult.transactionResultText = "Validation Operation Completed Successfully";
+		V1VSSResponse v1 = new V1VSSResponse();
+		v1.transactionResult = txResult;
+		v1.validationResult = validationResult;
+		return v1;
+	}
+
+	@Benchmark
+	public String pojoToJson() {
+		return LoggingUtil.pojoToJson(response);
+	}
+
+	@Benchmark
+	public byte[] vssResponse() throws JsonProcessingException {
+		return mapper.writeValueAsBytes(response);
+	}
+
+	@Benchmark
+	public byte[] v1VssResponse() throws JsonProcessingException {
+		return mapper.writeValueAsBytes(v1Response);
+	}
+
+}
@@ -0,0 +1,58 @@
+package org.keysupport.api.config;
+
+import java.security.Provider;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.jcajce.provider.BouncyCastleFipsProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-request cost of the JVM wide security configuration.
+ *
+ * `perRequestConfiguration` is what ValidatePKIX.validate() used to do on every
+ * call. `startupConfiguration` is what is left on the request path once
+ * ServiceConfiguration.configureSecurity() has run at startup: resolving the
+ * already registered provider.
+ *
+ * Run with more than one thread (`-t 8`) to see the contention on the
+ * synchronized Security/System property tables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SecurityConfigurationBenchmark {
+
+	@Setup(Level.Trial)
+	public void setup() {
+		ServiceConfiguration.configureSecurity(true, true, true, false);
+	}
+
+	@Benchmark
+	public Provider perRequestConfiguration() {
+		System.setProperty("com.sun.security.enableCRLDP", "true");
+		Security.setProperty("ocsp.enable", "true");
+		Provider provider = new BouncyCastleFipsProvider();
+		Security.addProvider(provider);
+		return provider;
+	}
+
+	@Benchmark
+	public Provider startupConfiguration() {
+		return Security.getProvider("BCFIPS");
+	}
+
+}
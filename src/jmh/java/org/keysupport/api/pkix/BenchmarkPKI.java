@@ -0,0 +1,296 @@
+package org.keysupport.api.pkix;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.PKIXCertPathBuilderResult;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CertSelector;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLDistPoint;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.CertificatePolicies;
+import org.bouncycastle.asn1.x509.DistributionPoint;
+import org.bouncycastle.asn1.x509.DistributionPointName;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.asn1.x509.PolicyInformation;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CRLConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.keysupport.api.LoggingUtil;
+import org.keysupport.api.config.ServiceConfiguration;
+import org.keysupport.api.pojo.vss.JsonTrustAnchor;
+import org.keysupport.api.pojo.vss.ValidationPolicies;
+import org.keysupport.api.pojo.vss.ValidationPolicy;
+import org.keysupport.api.singletons.CrlCacheSingleton;
+import org.keysupport.api.singletons.OcspCacheSingleton;
+import org.keysupport.api.singletons.ValidationPoliciesSingleton;
+
+/**
+ * A small, in memory, PKI for benchmarks.
+ *
+ * A self-signed root, `intermediates` CA certificates, and; an end entity, all
+ * asserting `POLICY_OID`. There are no AIA extensions, so the chain can be
+ * built and validated without network access.
+ *
+ * If a CRL URI is given, the end entity has a CRL distribution point, and;
+ * {@link #crl(int)} issues a CRL for it, to be served by the benchmark.
+ */
+public final class BenchmarkPKI {
+
+	public final static String POLICY_OID = "2.16.840.1.101.3.2.1.48.11";
+
+	private final static String SIG_ALG = "SHA256withRSA";
+
+	private final static AtomicLong SERIAL = new AtomicLong(System.currentTimeMillis());
+
+	private final X509Certificate root;
+
+	private final List<X509Certificate> intermediates;
+
+	private final X509Certificate endEntity;
+
+	private final X509Certificate issuingCa;
+
+	private final PrivateKey issuingKey;
+
+	private BenchmarkPKI(X509Certificate root, List<X509Certificate> intermediates, X509Certificate endEntity,
+			X509Certificate issuingCa, PrivateKey issuingKey) {
+		this.root = root;
+		this.intermediates = intermediates;
+		this.endEntity = endEntity;
+		this.issuingCa = issuingCa;
+		this.issuingKey = issuingKey;
+	}
+
+	/**
+	 * @param intermediates number of CA certificates between the root and the end
+	 *                      entity
+	 * @return BenchmarkPKI
+	 * @throws Exception
+	 */
+	public static BenchmarkPKI generate(int intermediates) throws Exception {
+		return generate(intermediates, null);
+	}
+
+	/**
+	 * @param intermediates number of CA certificates between the root and the end
+	 *                      entity
+	 * @param crlUri        the CRL distribution point of the end entity, or null
+	 * @return BenchmarkPKI
+	 * @throws Exception
+	 */
+	public static BenchmarkPKI generate(int intermediates, String crlUri) throws Exception {
+		ServiceConfiguration.configureSecurity(false, false, false, false);
+		KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA", ValidatePKIX.JCE_PROVIDER);
+		kpg.initialize(2048);
+		KeyPair rootKeys = kpg.generateKeyPair();
+		X500Principal rootName = new X500Principal("CN=Benchmark Root CA, O=Benchmark, C=US");
+		X509Certificate root = issue(rootName, rootKeys.getPublic(), rootName, rootKeys.getPrivate(), null, true, null);
+		List<X509Certificate> cas = new ArrayList<>();
+		X509Certificate issuer = root;
+		PrivateKey issuerKey = rootKeys.getPrivate();
+		for (int i = 1; i <= intermediates; i++) {
+			KeyPair caKeys = kpg.generateKeyPair();
+			X500Principal caName = new X500Principal("CN=Benchmark Intermediate CA " + i + ", O=Benchmark, C=US");
+			X509Certificate ca = issue(caName, caKeys.getPublic(), issuer.getSubjectX500Principal(), issuerKey, issuer,
+					true, null);
+			cas.add(ca);
+			issuer = ca;
+			issuerKey = caKeys.getPrivate();
+		}
+		KeyPair eeKeys = kpg.generateKeyPair();
+		X500Principal eeName = new X500Principal("CN=Benchmark End Entity, O=Benchmark, C=US");
+		X509Certificate ee = issue(eeName, eeKeys.getPublic(), issuer.getSubjectX500Principal(), issuerKey, issuer,
+				false, crlUri);
+		return new BenchmarkPKI(root, Collections.unmodifiableList(cas), ee, issuer, issuerKey);
+	}
+
+	private static X509Certificate issue(X500Principal subject, PublicKey subjectKey, X500Principal issuerName,
+			PrivateKey issuerKey, X509Certificate issuer, boolean ca, String crlUri) throws Exception {
+		long now = System.currentTimeMillis();
+		Date notBefore = new Date(now - TimeUnit.DAYS.toMillis(1));
+		Date notAfter = new Date(now + TimeUnit.DAYS.toMillis(365));
+		X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(issuerName,
+				BigInteger.valueOf(SERIAL.incrementAndGet()), notBefore, notAfter, subject, subjectKey);
+		JcaX509ExtensionUtils extUtils = new JcaX509ExtensionUtils();
+		builder.addExtension(Extension.subjectKeyIdentifier, false, extUtils.createSubjectKeyIdentifier(subjectKey));
+		if (null != issuer) {
+			builder.addExtension(Extension.authorityKeyIdentifier, false,
+					extUtils.createAuthorityKeyIdentifier(issuer));
+		}
+		if (ca) {
+			builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+			builder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+		} else {
+			builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(false));
+			builder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.digitalSignature));
+			/*
+			 * A typical mix of subjectAltName types
+			 */
+			builder.addExtension(Extension.subjectAlternativeName, false, new GeneralNames(new GeneralName[] {
+					new GeneralName(GeneralName.rfc822Name, "end.entity@benchmark.example"),
+					new GeneralName(GeneralName.dNSName, "end-entity.benchmark.example"),
+					new GeneralName(GeneralName.uniformResourceIdentifier,
+							"urn:uuid:" + UUID.nameUUIDFromBytes(subject.getEncoded())) }));
+			if (null != crlUri) {
+				DistributionPointName dpName = new DistributionPointName(
+						new GeneralNames(new GeneralName(GeneralName.uniformResourceIdentifier, crlUri)));
+				builder.addExtension(Extension.cRLDistributionPoints, false,
+						new CRLDistPoint(new DistributionPoint[] { new DistributionPoint(dpName, null, null) }));
+			}
+		}
+		if (null != issuer) {
+			builder.addExtension(Extension.certificatePolicies, false,
+					new CertificatePolicies(new PolicyInformation(new ASN1ObjectIdentifier(POLICY_OID))));
+		}
+		ContentSigner signer = new JcaContentSignerBuilder(SIG_ALG).setProvider(ValidatePKIX.JCE_PROVIDER)
+				.build(issuerKey);
+		/*
+		 * Use the default (SUN) CertificateFactory, as the service does
+		 */
+		return new JcaX509CertificateConverter().getCertificate(builder.build(signer));
+	}
+
+	/**
+	 * Issue a CRL, from the CA that issued the end entity, that does not list the
+	 * end entity.
+	 *
+	 * @param revoked the number of (other) revoked serial numbers
+	 * @return X509CRL, valid for a day
+	 * @throws Exception
+	 */
+	public X509CRL crl(int revoked) throws Exception {
+		long now = System.currentTimeMillis();
+		X509v2CRLBuilder builder = new JcaX509v2CRLBuilder(issuingCa.getSubjectX500Principal(),
+				new Date(now - TimeUnit.MINUTES.toMillis(5)));
+		builder.setNextUpdate(new Date(now + TimeUnit.DAYS.toMillis(1)));
+		for (int i = 0; i < revoked; i++) {
+			builder.addCRLEntry(BigInteger.valueOf(SERIAL.incrementAndGet()), new Date(now), CRLReason.keyCompromise);
+		}
+		JcaX509ExtensionUtils extUtils = new JcaX509ExtensionUtils();
+		builder.addExtension(Extension.authorityKeyIdentifier, false, extUtils.createAuthorityKeyIdentifier(issuingCa));
+		builder.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(now)));
+		ContentSigner signer = new JcaContentSignerBuilder(SIG_ALG).setProvider(ValidatePKIX.JCE_PROVIDER)
+				.build(issuingKey);
+		return new JcaX509CRLConverter().getCRL(builder.build(signer));
+	}
+
+	/**
+	 * @return a ValidationPolicy requiring `POLICY_OID`, anchored at the root
+	 * @throws CertificateEncodingException
+	 */
+	public ValidationPolicy validationPolicy() throws CertificateEncodingException {
+		ValidationPolicy policy = new ValidationPolicy();
+		policy.validationPolicyId = "benchmark";
+		policy.validationPolicyName = "Benchmark";
+		JsonTrustAnchor anchor = new JsonTrustAnchor();
+		anchor.x509Certificate = Base64.getEncoder().encodeToString(root.getEncoded());
+		policy.trustAnchors = List.of(anchor);
+		policy.userPolicySet = List.of(POLICY_OID);
+		policy.inhibitPolicyMapping = false;
+		policy.requireExplicitPolicy = true;
+		policy.inhibitAnyPolicy = true;
+		return policy;
+	}
+
+	/**
+	 * @return the policies JSON for {@link #validationPolicy()}, as the service
+	 *         would fetch it
+	 * @throws CertificateEncodingException
+	 */
+	public String validationPoliciesJson() throws CertificateEncodingException {
+		ValidationPolicies policies = new ValidationPolicies();
+		policies.validationPolicies = List.of(validationPolicy());
+		return LoggingUtil.pojoToJson(policies);
+	}
+
+	/**
+	 * Publish {@link #validationPolicy()}, and; the intermediates, as the service
+	 * would at startup, so ValidatePKIX.validate() can be called directly.
+	 *
+	 * With `revocation`, the status of the end entity is checked against its CRL
+	 * (through the CRL cache); OCSP is disabled. The issuer path cache is
+	 * disabled, so each validation builds the path.
+	 *
+	 * @param revocation
+	 * @return the published ValidationPolicy
+	 * @throws Exception
+	 */
+	public ValidationPolicy publish(boolean revocation) throws Exception {
+		ServiceConfiguration.configureSecurity(revocation, revocation, false, false);
+		CrlCacheSingleton.getInstance().configure(revocation, 64 * 1024 * 1024, 300, 86400, 1024);
+		OcspCacheSingleton.getInstance().configure(false, 300, 1024);
+		ValidationPoliciesSingleton policies = ValidationPoliciesSingleton.getInstance();
+		policies.setMaxPathLen(7);
+		policies.setAiaChase(false);
+		policies.setRevocationEnabled(revocation);
+		policies.setRevocationEeOnly(true);
+		policies.setOcspEnabled(false);
+		policies.setCrlEnabled(revocation);
+		policies.setStrictRevalidation(false);
+		policies.setIssuerPathCacheSize(0);
+		if (!policies.loadValidationPolicies(validationPoliciesJson(), IndexedCertStore.getInstance(intermediates))) {
+			throw new IllegalStateException("Unable to publish the benchmark validation policy");
+		}
+		return policies.getCompiledPolicy(validationPolicy().validationPolicyId).getValidationPolicy();
+	}
+
+	/**
+	 * @return the path of the end entity, built without revocation checking
+	 * @throws Exception
+	 */
+	public PKIXCertPathBuilderResult build() throws Exception {
+		CompiledValidationPolicy policy = CompiledValidationPolicy.compile(validationPolicy(), Set.of(trustAnchor()),
+				IndexedCertStore.getInstance(intermediates), 7, false, false, false, false, 0);
+		X509CertSelector selector = new X509CertSelector();
+		selector.setCertificate(endEntity);
+		return (PKIXCertPathBuilderResult) CompiledValidationPolicy.newCertPathBuilder()
+				.build(policy.newBuilderParameters(selector, new Date()));
+	}
+
+	public TrustAnchor trustAnchor() {
+		return new TrustAnchor(root, null);
+	}
+
+	public X509Certificate getRoot() {
+		return root;
+	}
+
+	public List<X509Certificate> getIntermediates() {
+		return intermediates;
+	}
+
+	public X509Certificate getEndEntity() {
+		return endEntity;
+	}
+
+}
@@ -0,0 +1,123 @@
+package org.keysupport.api.pkix;
+
+import java.io.ByteArrayInputStream;
+import java.security.cert.CertPathBuilder;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXBuilderParameters;
+import java.security.cert.PKIXCertPathBuilderResult;
+import java.security.cert.PKIXCertPathValidatorResult;
+import java.security.cert.PolicyNode;
+import java.security.cert.X509CertSelector;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of the single-pass build (the default), versus build followed by
+ * `strict-revalidation`, by path length.
+ *
+ * `pathLength` is the number of certificates in the path, excluding the trust
+ * anchor. Revocation checking is disabled, so the difference is the signature
+ * verification and policy processing of the second pass; with revocation
+ * enabled the second pass also repeats the OCSP/CRL work.
+ *
+ * `cachedIssuerPath` validates the leaf against the CA path cached by
+ * IssuerPathCache, skipping path discovery.
+ *
+ * The end entity is decoded on each invocation, as it would be for a request,
+ * so its signature verification is never cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathValidationBenchmark {
+
+	@Param({ "1", "2", "3", "5" })
+	public int pathLength;
+
+	private CompiledValidationPolicy compiledPolicy;
+
+	private CompiledValidationPolicy cachingPolicy;
+
+	private byte[] endEntity;
+
+	private CertificateFactory cf;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		BenchmarkPKI pki = BenchmarkPKI.generate(pathLength - 1);
+		IndexedCertStore intermediates = IndexedCertStore.getInstance(pki.getIntermediates());
+		compiledPolicy = CompiledValidationPolicy.compile(pki.validationPolicy(), Set.of(pki.trustAnchor()),
+				intermediates, 7, false, false, false, false, 0);
+		cachingPolicy = CompiledValidationPolicy.compile(pki.validationPolicy(), Set.of(pki.trustAnchor()),
+				intermediates, 7, false, false, false, false, 16);
+		endEntity = pki.getEndEntity().getEncoded();
+		cf = CertificateFactory.getInstance("X.509");
+		/*
+		 * Populate the issuer path cache
+		 */
+		X509Certificate ee = pki.getEndEntity();
+		PKIXBuilderParameters params = cachingPolicy.newBuilderParameters(selector(ee), new Date());
+		cachingPolicy.getIssuerPathCache().put(ee,
+				(PKIXCertPathBuilderResult) CompiledValidationPolicy.newCertPathBuilder().build(params));
+	}
+
+	private X509Certificate decodeEndEntity() throws Exception {
+		return (X509Certificate) cf.generateCertificate(new ByteArrayInputStream(endEntity));
+	}
+
+	private static X509CertSelector selector(X509Certificate cert) {
+		X509CertSelector selector = new X509CertSelector();
+		selector.setCertificate(cert);
+		return selector;
+	}
+
+	@Benchmark
+	public PolicyNode build() throws Exception {
+		PKIXBuilderParameters params = compiledPolicy.newBuilderParameters(selector(decodeEndEntity()), new Date());
+		CertPathBuilder cpb = CompiledValidationPolicy.newCertPathBuilder();
+		PKIXCertPathBuilderResult result = (PKIXCertPathBuilderResult) cpb.build(params);
+		return result.getPolicyTree();
+	}
+
+	@Benchmark
+	public PolicyNode buildAndRevalidate() throws Exception {
+		PKIXBuilderParameters params = compiledPolicy.newBuilderParameters(selector(decodeEndEntity()), new Date());
+		CertPathBuilder cpb = CompiledValidationPolicy.newCertPathBuilder();
+		PKIXCertPathBuilderResult result = (PKIXCertPathBuilderResult) cpb.build(params);
+		CertPathValidator cpv = CertPathValidator.getInstance(ValidatePKIX.CERTPATH_ALGORITHM,
+				CompiledValidationPolicy.getCertPathProvider());
+		PKIXCertPathValidatorResult pvr = (PKIXCertPathValidatorResult) cpv.validate(result.getCertPath(), params);
+		return pvr.getPolicyTree();
+	}
+
+	@Benchmark
+	public PolicyNode cachedIssuerPath() throws Exception {
+		X509Certificate ee = decodeEndEntity();
+		PKIXBuilderParameters params = cachingPolicy.newBuilderParameters(selector(ee), new Date());
+		PKIXCertPathBuilderResult result = cachingPolicy.getIssuerPathCache().validate(ee, params);
+		if (null == result) {
+			throw new IllegalStateException("Issuer path cache miss");
+		}
+		return result.getPolicyTree();
+	}
+
+}
@@ -0,0 +1,116 @@
+package org.keysupport.api.pkix;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.keysupport.api.LoggingUtil;
+import org.keysupport.api.pojo.vss.Success;
+import org.keysupport.api.pojo.vss.ValidationPolicy;
+import org.keysupport.api.pojo.vss.VssResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Throughput of ValidatePKIX.validate(), the whole validation of a decoded
+ * certificate, with and without revocation checking.
+ *
+ * With `revocation`, the end entity has a CRL distribution point served from
+ * this JVM; the CRL is fetched once (in setup), so the benchmark measures the
+ * cached CRL lookup on every validation, which is the steady state of the
+ * service.
+ *
+ * The end entity is decoded on each invocation, as it would be for a request,
+ * so its signature verification is never cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidatePKIXBenchmark {
+
+	private final static int INTERMEDIATES = 2;
+
+	private final static String CRL_PATH = "/benchmark.crl";
+
+	@Param({ "false", "true" })
+	public boolean revocation;
+
+	/*
+	 * Serial numbers on the CRL, other than the end entity
+	 */
+	@Param({ "1000" })
+	public int revoked;
+
+	private HttpServer server;
+
+	private ValidationPolicy validationPolicy;
+
+	private byte[] endEntity;
+
+	private String x5tS256;
+
+	private CertificateFactory cf;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		String crlUri = "http://127.0.0.1:" + server.getAddress().getPort() + CRL_PATH;
+		BenchmarkPKI pki = BenchmarkPKI.generate(INTERMEDIATES, revocation ? crlUri : null);
+		byte[] crl = pki.crl(revoked).getEncoded();
+		server.createContext(CRL_PATH, exchange -> {
+			exchange.getResponseHeaders().set("Content-Type", "application/pkix-crl");
+			exchange.sendResponseHeaders(200, crl.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(crl);
+			} catch (IOException e) {
+				exchange.close();
+			}
+		});
+		server.start();
+		validationPolicy = pki.publish(revocation);
+		endEntity = pki.getEndEntity().getEncoded();
+		x5tS256 = X509Util.x5tS256(pki.getEndEntity());
+		cf = CertificateFactory.getInstance("X.509");
+		/*
+		 * Fetch the CRL, and; make sure the fixture validates
+		 */
+		VssResponse response = validate();
+		if (!(response.validationResult instanceof Success)) {
+			throw new IllegalStateException(LoggingUtil.pojoToJson(response));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Benchmark
+	public VssResponse validate() throws Exception {
+		X509Certificate ee = (X509Certificate) cf.generateCertificate(new ByteArrayInputStream(endEntity));
+		return ValidatePKIX.validate(ee, x5tS256, validationPolicy, new Date());
+	}
+
+}
@@ -0,0 +1,62 @@
+package org.keysupport.api.pkix;
+
+import java.io.IOException;
+import java.security.cert.PolicyNode;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.keysupport.api.pojo.vss.PKIXPolicyNode;
+import org.keysupport.api.pojo.vss.SANValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the X509Util methods called for every validation: the
+ * subjectAltName decoding, and; the x5t#S256 digest, of the end entity, and; the
+ * conversion of the policy tree of its path to JSON.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class X509UtilBenchmark {
+
+	private X509Certificate endEntity;
+
+	private PolicyNode policyTree;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		BenchmarkPKI pki = BenchmarkPKI.generate(2);
+		endEntity = pki.getEndEntity();
+		policyTree = pki.build().getPolicyTree();
+	}
+
+	@Benchmark
+	public List<SANValue> getSubjectAlternativeNames() throws IOException {
+		return X509Util.getSubjectAlternativeNames(endEntity);
+	}
+
+	@Benchmark
+	public String x5tS256() {
+		return X509Util.x5tS256(endEntity);
+	}
+
+	@Benchmark
+	public PKIXPolicyNode policyNodeToJSON() {
+		return X509Util.policyNodeToJSON(policyTree);
+	}
+
+}
@@ -0,0 +1,170 @@
+package org.keysupport.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.OutputStreamAppender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+
+/**
+ * An AsyncAppender (configured in `logback-spring.xml`) in front of the console,
+ * and; file, appenders, so a request thread only formats a log event, and;
+ * queues it, while a single writer thread writes it.
+ *
+ * The queue is a bounded ring buffer of `queueSize` events, with an explicit
+ * policy for when it fills:
+ *
+ * - when fewer than `discardingThreshold` slots remain, INFO (and lower) events
+ * are dropped (0 never drops by level)
+ *
+ * - when no slots remain, the logging thread waits for one (backpressure), or;
+ * with `neverBlock`, the event is dropped
+ *
+ * Dropped events are counted, and; published with the queue depth as the
+ * `vss.log` metrics.
+ *
+ * The attached appender does not flush each event; the writer thread flushes it
+ * after the last queued event, so a burst of events is written in buffer sized
+ * batches. The writer takes the whole queue at once, so an empty queue does not
+ * mean the burst has been written; the events are queued under a lock, which
+ * records the last one.
+ */
+public class AsyncLogAppender extends AsyncAppender {
+
+	private final static Map<String, AsyncLogAppender> APPENDERS = new ConcurrentHashMap<>();
+
+	private final LongAdder dropped = new LongAdder();
+
+	private final ReentrantLock enqueue = new ReentrantLock();
+
+	private volatile ILoggingEvent lastQueued;
+
+	@Override
+	public void start() {
+		super.start();
+		if (isStarted()) {
+			APPENDERS.put(getName(), this);
+		}
+	}
+
+	@Override
+	public void stop() {
+		APPENDERS.remove(getName(), this);
+		super.stop();
+	}
+
+	@Override
+	protected void append(ILoggingEvent event) {
+		if (isQueueBelowDiscardingThreshold() && isDiscardable(event)) {
+			dropped.increment();
+			return;
+		}
+		/*
+		 * Formatted before the lock, so only the queueing is serialized
+		 */
+		super.preprocess(event);
+		enqueue.lock();
+		try {
+			/*
+			 * Exact; only the writer thread changes the queue while the lock is held, and;
+			 * it only frees slots
+			 */
+			if (isQueueBelowDiscardingThreshold() && isDiscardable(event)) {
+				dropped.increment();
+				return;
+			}
+			if (isNeverBlock() && 0 == getRemainingCapacity()) {
+				dropped.increment();
+				return;
+			}
+			/*
+			 * Recorded before it is queued, so the writer can not write it first
+			 */
+			lastQueued = event;
+			super.append(event);
+		} finally {
+			enqueue.unlock();
+		}
+	}
+
+	/*
+	 * Done by append, before the lock
+	 */
+	@Override
+	protected void preprocess(ILoggingEvent event) {
+	}
+
+	@Override
+	public void addAppender(Appender<ILoggingEvent> appender) {
+		if (appender instanceof OutputStreamAppender<ILoggingEvent> stream) {
+			stream.setImmediateFlush(false);
+			BatchFlushAppender batch = new BatchFlushAppender(stream);
+			batch.setContext(getContext());
+			batch.setName(stream.getName());
+			batch.start();
+			super.addAppender(batch);
+		} else {
+			super.addAppender(appender);
+		}
+	}
+
+	/**
+	 * @return the queue statistics of each started AsyncLogAppender, by name
+	 */
+	public static Map<String, Object> getStats() {
+		Map<String, Object> stats = new TreeMap<>();
+		APPENDERS.forEach((name, appender) -> stats.put(name, Map.of("queueSize", appender.getQueueSize(), "queued",
+				appender.getNumberOfElementsInQueue(), "dropped", appender.dropped.sum())));
+		return stats;
+	}
+
+	/**
+	 * Called by the writer thread only; flushes the stream after the last queued
+	 * event, rather than after each event
+	 */
+	private final class BatchFlushAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+		private final OutputStreamAppender<ILoggingEvent> stream;
+
+		private BatchFlushAppender(OutputStreamAppender<ILoggingEvent> stream) {
+			this.stream = stream;
+		}
+
+		@Override
+		protected void append(ILoggingEvent event) {
+			stream.doAppend(event);
+			if (event == lastQueued) {
+				flush();
+			}
+		}
+
+		@Override
+		public void stop() {
+			flush();
+			stream.stop();
+			super.stop();
+		}
+
+		private void flush() {
+			OutputStream out = stream.getOutputStream();
+			if (null == out) {
+				return;
+			}
+			try {
+				out.flush();
+			} catch (IOException e) {
+				addError("Failed to flush " + stream.getName(), e);
+			}
+		}
+
+	}
+
+}
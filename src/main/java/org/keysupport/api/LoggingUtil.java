@@ -3,31 +3,76 @@ package org.keysupport.api;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.keysupport.api.singletons.LogPolicySingleton;
+import org.keysupport.api.singletons.MetricsSingleton;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
 public class LoggingUtil {
 
     private static final Logger LOG = LoggerFactory.getLogger(LoggingUtil.class);
-    
+
+	/*
+	 * ObjectWriter is immutable, and; thread safe, so one is shared by every log
+	 * statement
+	 */
+	private static final ObjectWriter WRITER = new ObjectMapper().writer();
+
     public static String pojoToJson(Object obj) {
-		ObjectMapper mapper = new ObjectMapper();
+		MetricsSingleton metrics = MetricsSingleton.getInstance();
+		long start = metrics.start();
 		try {
-			return mapper.writeValueAsString(obj);
+			return WRITER.writeValueAsString(obj);
 		} catch (JsonProcessingException e) {
 			LOG.error("Unable to convert object to JSON", e);
 			return null;
+		} finally {
+			metrics.record(MetricsSingleton.Stage.JSON_SERIALIZATION, start);
 		}
 
     }
-    
+
+	/**
+	 * The object as a log statement argument, which is only converted to JSON if
+	 * the level is enabled:
+	 *
+	 * `LOG.info("{}", LoggingUtil.json(obj))`
+	 *
+	 * @param obj
+	 * @return an object whose toString() is pojoToJson(obj)
+	 */
+	public static Object json(Object obj) {
+		return new Json(obj);
+	}
+
+	/**
+	 * The stack trace of t, for a log statement; stack traces are rate limited by
+	 * exception type (see LogPolicySingleton)
+	 *
+	 * @param t
+	 * @return the stack trace, or; a one line description of t
+	 */
+	public static String stackTrace(Throwable t) {
+		return LogPolicySingleton.getInstance().stackTrace(t);
+	}
+
     public static String stackTraceToString(Throwable t) {
     	return Stream.of(t.getStackTrace())
                 .map(StackTraceElement::toString)
                 .collect(Collectors.joining("\n"));
     }
 
-}
\ No newline at end of file
+	private record Json(Object obj) {
+
+		@Override
+		public String toString() {
+			return pojoToJson(obj);
+		}
+
+	}
+
+}
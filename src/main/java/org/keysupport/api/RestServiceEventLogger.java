@@ -33,12 +33,12 @@ public class RestServiceEventLogger {
 			if (t.getCause() instanceof CertificateRevokedException) {
 				event.message = t.getMessage();
 			} else {
-				LOG.error(LoggingUtil.pojoToJson(Map.of("error", "TODO: Capture this exception cause", "cause", t.getClass().getCanonicalName(),"stacktrace", LoggingUtil.stackTraceToString(e))));
+				LOG.error("{}", LoggingUtil.json(Map.of("error", "TODO: Capture this exception cause", "cause", t.getClass().getCanonicalName(),"stacktrace", LoggingUtil.stackTrace(e))));
 			}
 		} else {
 			event.message = e.getMessage();
 		}
-		LOG.warn(LoggingUtil.pojoToJson(event));
+		LOG.warn("{}", LoggingUtil.json(event));
 	}
 
 	public static void logEvent(VssResponse vssResponse, CertificateExpiredException e) {
@@ -46,7 +46,7 @@ public class RestServiceEventLogger {
 		event.x5tS256 = vssResponse.x5tS256;
 		event.eventType = "VALPOL_FAIL";
 		event.message = e.getMessage();
-		LOG.warn(LoggingUtil.pojoToJson(event));
+		LOG.warn("{}", LoggingUtil.json(event));
 	}
 
 	public static void logEvent(VssResponse vssResponse, CertificateNotYetValidException e) {
@@ -54,7 +54,7 @@ public class RestServiceEventLogger {
 		event.x5tS256 = vssResponse.x5tS256;
 		event.eventType = "VALPOL_FAIL";
 		event.message = e.getMessage();
-		LOG.warn(LoggingUtil.pojoToJson(event));
+		LOG.warn("{}", LoggingUtil.json(event));
 	}
 
 	public static void logEvent(VssResponse vssResponse, CertPathValidatorException e) {
@@ -62,7 +62,7 @@ public class RestServiceEventLogger {
 		event.x5tS256 = vssResponse.x5tS256;
 		event.eventType = "VALPOL_FAIL";
 		event.message = e.getMessage();
-		LOG.warn(LoggingUtil.pojoToJson(event));
+		LOG.warn("{}", LoggingUtil.json(event));
 	}
 
 }
@@ -0,0 +1,669 @@
+package org.keysupport.api.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.keysupport.api.pojo.vss.JsonX509Certificate;
+import org.keysupport.api.pojo.vss.ValidationResult;
+import org.keysupport.api.pojo.vss.VssRequest;
+import org.keysupport.api.pojo.vss.v1.V1VSSRequest;
+import org.keysupport.api.pojo.vss.v1.V1WantBackTypeToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * An open-loop load generator for the validation endpoints.
+ *
+ * Requests are sent at a fixed arrival rate, whether or not earlier requests
+ * have completed, and; the response time of each request is measured from the
+ * time it was scheduled to be sent (not the time it was sent). So, a stalled
+ * service (or generator) is charged for every request that should have been
+ * sent while it was stalled, and; the percentiles do not suffer from
+ * coordinated omission. The service time (from the time the request was
+ * actually sent) is reported as well; the difference between the two is the
+ * queueing delay.
+ *
+ * The corpus is newline delimited JSON, with a VssRequest per line, and; an
+ * expected `category` (`valid`, `revoked`, `expired`, or; `unknown_issuer`),
+ * as served by the test PKI (`/certs.ndjson`). Each request is drawn from the
+ * corpus by the weights of `--mix`, and; the result is checked against its
+ * category.
+ *
+ * <pre>
+ *
+ * --target       base URI of the service (https://localhost:8443)
+ * --corpus       file, or; http(s) URI, of the corpus (required)
+ * --endpoint     v2 | v2-async | v1 | v1-async | bulk (v2)
+ * --rate         requests per second (100)
+ * --duration     seconds measured (60)
+ * --warmup       seconds before measuring (10)
+ * --batch        certificates per v1, or; bulk, request (10)
+ * --mix          e.g. valid=70,revoked=10,expired=10,unknown_issuer=10 (the corpus, as is)
+ * --max-in-flight outstanding requests before the generator waits (10000)
+ * --interval     seconds between progress lines (5)
+ * --service-cores cores available to the service, to report throughput per core
+ * --hgrm         file prefix for the percentile distributions (.hgrm)
+ * --http1        use HTTP/1.1 (rather than HTTP/2)
+ * --insecure     trust any TLS server certificate, e.g. a self-signed local one
+ *
+ * </pre>
+ */
+public class LoadGenerator {
+
+	private final static Logger LOG = LoggerFactory.getLogger(LoadGenerator.class);
+
+	private final static String APPLICATION_NDJSON = "application/x-ndjson";
+
+	private final static ObjectMapper MAPPER = new ObjectMapper();
+
+	/*
+	 * Percentiles of the progress lines, and; the summary
+	 */
+	private final static double[] PERCENTILES = { 50.0, 90.0, 99.0, 99.9, 99.99, 100.0 };
+
+	/*
+	 * Histogram values are microseconds, reported as milliseconds
+	 */
+	final static double MICROS_PER_MILLI = 1000.0;
+
+	public enum Endpoint {
+
+		V2("v2", "/vss/v2/validate"), V2_ASYNC("v2-async", "/vss/v2/validate/async"), V1("v1", "/vss/rest"),
+		V1_ASYNC("v1-async", "/vss/rest/async"), BULK("bulk", "/vss/v2/validate/bulk");
+
+		private final String name;
+
+		private final String path;
+
+		Endpoint(String name, String path) {
+			this.name = name;
+			this.path = path;
+		}
+
+		public static Endpoint fromName(String name) {
+			for (Endpoint endpoint : values()) {
+				if (endpoint.name.equalsIgnoreCase(name)) {
+					return endpoint;
+				}
+			}
+			throw new IllegalArgumentException("Unknown endpoint: " + name);
+		}
+
+		boolean isV1() {
+			return this == V1 || this == V1_ASYNC;
+		}
+
+		boolean isBatch() {
+			return this == BULK || isV1();
+		}
+
+	}
+
+	/**
+	 * A corpus entry: the VssRequest line, and; its expected category
+	 */
+	record CorpusEntry(String category, String validationPolicyId, String x509Certificate, byte[] json) {
+
+		boolean expectSuccess() {
+			return "valid".equals(category);
+		}
+
+	}
+
+	private final HttpClient client;
+
+	private final URI uri;
+
+	private final Endpoint endpoint;
+
+	private final int batch;
+
+	private final Map<String, List<CorpusEntry>> corpus;
+
+	private final String[] mixCategories;
+
+	private final double[] mixCumulative;
+
+	private final Recorder responseTime = new Recorder(3);
+
+	private final Recorder serviceTime = new Recorder(3);
+
+	private final Semaphore inFlight;
+
+	private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+	private final Map<String, LongAdder> categories = new ConcurrentHashMap<>();
+
+	private final LongAdder sent = new LongAdder();
+
+	private final LongAdder completed = new LongAdder();
+
+	/*
+	 * Completed within the measured window (the throughput)
+	 */
+	private final LongAdder completedInWindow = new LongAdder();
+
+	private volatile long measureStart = Long.MAX_VALUE;
+
+	private volatile long measureEnd = Long.MAX_VALUE;
+
+	/*
+	 * Requests sent more than 1ms after they were scheduled; if this is not
+	 * small, the generator is the bottleneck
+	 */
+	private final LongAdder lateSends = new LongAdder();
+
+	private final AtomicLong maxInFlightSeen = new AtomicLong();
+
+	public LoadGenerator(HttpClient client, URI target, Endpoint endpoint, int batch, int maxInFlight,
+			List<CorpusEntry> entries, Map<String, Double> mix) {
+		this.client = client;
+		this.uri = target.resolve(endpoint.path);
+		this.endpoint = endpoint;
+		this.batch = endpoint.isBatch() ? batch : 1;
+		this.inFlight = new Semaphore(maxInFlight);
+		this.corpus = new TreeMap<>();
+		for (CorpusEntry entry : entries) {
+			this.corpus.computeIfAbsent(entry.category(), c -> new ArrayList<>()).add(entry);
+		}
+		/*
+		 * Without a mix, draw from the corpus as is
+		 */
+		Map<String, Double> weights = new LinkedHashMap<>();
+		if (null == mix || mix.isEmpty()) {
+			corpus.forEach((category, list) -> weights.put(category, (double) list.size()));
+		} else {
+			for (Map.Entry<String, Double> weight : mix.entrySet()) {
+				if (weight.getValue() > 0 && !corpus.containsKey(weight.getKey())) {
+					throw new IllegalArgumentException("The corpus has no `" + weight.getKey() + "` entries");
+				}
+				if (weight.getValue() > 0) {
+					weights.put(weight.getKey(), weight.getValue());
+				}
+			}
+		}
+		double total = weights.values().stream().mapToDouble(Double::doubleValue).sum();
+		if (total <= 0) {
+			throw new IllegalArgumentException("The mix is empty");
+		}
+		this.mixCategories = weights.keySet().toArray(new String[0]);
+		this.mixCumulative = new double[mixCategories.length];
+		double cumulative = 0;
+		for (int i = 0; i < mixCategories.length; i++) {
+			cumulative += weights.get(mixCategories[i]) / total;
+			mixCumulative[i] = cumulative;
+		}
+	}
+
+	private CorpusEntry draw(SplittableRandom random) {
+		double draw = random.nextDouble();
+		int i = 0;
+		while (i < mixCumulative.length - 1 && draw >= mixCumulative[i]) {
+			i++;
+		}
+		List<CorpusEntry> entries = corpus.get(mixCategories[i]);
+		return entries.get(random.nextInt(entries.size()));
+	}
+
+	/*
+	 * The request body, for entries drawn from the corpus
+	 */
+	private byte[] body(List<CorpusEntry> entries) throws JsonProcessingException {
+		if (endpoint == Endpoint.BULK) {
+			int length = 0;
+			for (CorpusEntry entry : entries) {
+				length += entry.json().length + 1;
+			}
+			byte[] body = new byte[length];
+			int offset = 0;
+			for (CorpusEntry entry : entries) {
+				System.arraycopy(entry.json(), 0, body, offset, entry.json().length);
+				offset += entry.json().length;
+				body[offset++] = '\n';
+			}
+			return body;
+		}
+		if (endpoint.isV1()) {
+			V1VSSRequest request = new V1VSSRequest();
+			request.validationPolicy = entries.get(0).validationPolicyId();
+			V1WantBackTypeToken certPath = new V1WantBackTypeToken();
+			certPath.wantBackTypeToken = "certPath";
+			request.wantBackList = List.of(certPath);
+			request.x509CertificateList = new ArrayList<>(entries.size());
+			for (CorpusEntry entry : entries) {
+				JsonX509Certificate cert = new JsonX509Certificate();
+				cert.x509Certificate = entry.x509Certificate();
+				request.x509CertificateList.add(cert);
+			}
+			return MAPPER.writeValueAsBytes(request);
+		}
+		return entries.get(0).json();
+	}
+
+	/**
+	 * Send at `rate`, for `warmupSeconds` (not measured), and; then
+	 * `durationSeconds`
+	 *
+	 * @param rate
+	 * @param warmupSeconds
+	 * @param durationSeconds
+	 * @param intervalSeconds between progress lines
+	 * @param out
+	 * @return the response time (from the scheduled send) histogram, in
+	 *         microseconds, and; the service time histogram
+	 * @throws JsonProcessingException
+	 */
+	public Histogram[] run(double rate, long warmupSeconds, long durationSeconds, long intervalSeconds, PrintStream out)
+			throws JsonProcessingException {
+		long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+		SplittableRandom random = new SplittableRandom(1);
+		Histogram totalResponse = new Histogram(3);
+		Histogram totalService = new Histogram(3);
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "load-generator-reporter");
+			t.setDaemon(true);
+			return t;
+		});
+		long start = System.nanoTime();
+		measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+		measureEnd = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+		/*
+		 * Discard the warmup, then report (and accumulate) each interval
+		 */
+		reporter.schedule(this::reset, measureStart - System.nanoTime(), TimeUnit.NANOSECONDS);
+		reporter.scheduleAtFixedRate(() -> {
+			Histogram response = responseTime.getIntervalHistogram();
+			Histogram service = serviceTime.getIntervalHistogram();
+			boolean measuring = System.nanoTime() > measureStart;
+			if (measuring) {
+				synchronized (totalResponse) {
+					totalResponse.add(response);
+					totalService.add(service);
+				}
+			}
+			out.println(String.format("%6.1fs %s sent=%d completed=%d maxInFlight=%d response(ms) %s",
+					(System.nanoTime() - start) / 1e9, measuring ? "measure" : "warmup ", sent.sum(), completed.sum(),
+					maxInFlightSeen.getAndSet(0), percentiles(response)));
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+		int permits = inFlight.availablePermits();
+		List<CorpusEntry> entries = new ArrayList<>(batch);
+		for (long i = 0;; i++) {
+			long intended = start + i * intervalNanos;
+			if (intended >= measureEnd) {
+				break;
+			}
+			entries.clear();
+			for (int b = 0; b < batch; b++) {
+				entries.add(draw(random));
+			}
+			byte[] body = body(entries);
+			long wait;
+			while ((wait = intended - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			/*
+			 * Waiting for a permit delays this request (and the next), but; the
+			 * delay is charged to the response time
+			 */
+			inFlight.acquireUninterruptibly();
+			maxInFlightSeen.accumulateAndGet(permits - inFlight.availablePermits(), Math::max);
+			send(intended, List.copyOf(entries), body);
+		}
+		/*
+		 * Wait for the outstanding requests
+		 */
+		inFlight.acquireUninterruptibly(permits);
+		inFlight.release(permits);
+		reporter.shutdownNow();
+		synchronized (totalResponse) {
+			totalResponse.add(responseTime.getIntervalHistogram());
+			totalService.add(serviceTime.getIntervalHistogram());
+		}
+		return new Histogram[] { totalResponse, totalService };
+	}
+
+	private void reset() {
+		responseTime.reset();
+		serviceTime.reset();
+		sent.reset();
+		completed.reset();
+		completedInWindow.reset();
+		lateSends.reset();
+		outcomes.clear();
+		categories.clear();
+	}
+
+	private void send(long intended, List<CorpusEntry> entries, byte[] body) {
+		HttpRequest request = HttpRequest.newBuilder(uri)
+				.header("Content-Type", endpoint == Endpoint.BULK ? APPLICATION_NDJSON : "application/json")
+				.POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+		long sentAt = System.nanoTime();
+		if (sentAt - intended > TimeUnit.MILLISECONDS.toNanos(1)) {
+			lateSends.increment();
+		}
+		sent.increment();
+		for (CorpusEntry entry : entries) {
+			categories.computeIfAbsent(entry.category(), c -> new LongAdder()).increment();
+		}
+		client.sendAsync(request, BodyHandlers.ofByteArray()).whenComplete((response, t) -> {
+			long now = System.nanoTime();
+			try {
+				responseTime.recordValue(TimeUnit.NANOSECONDS.toMicros(now - intended));
+				serviceTime.recordValue(TimeUnit.NANOSECONDS.toMicros(now - sentAt));
+				completed.increment();
+				if (now >= measureStart && now < measureEnd) {
+					completedInWindow.increment();
+				}
+				/*
+				 * By category, unless the request is a batch
+				 */
+				String outcome = outcome(entries, response, t);
+				if (entries.size() == 1) {
+					outcome = entries.get(0).category() + ":" + outcome;
+				}
+				outcomes.computeIfAbsent(outcome, o -> new LongAdder()).increment();
+			} finally {
+				inFlight.release();
+			}
+		});
+	}
+
+	/*
+	 * ok, unexpected_result, http_<status>, or; the exception
+	 */
+	private String outcome(List<CorpusEntry> entries, HttpResponse<byte[]> response, Throwable t) {
+		if (null != t) {
+			return "error_" + (null == t.getCause() ? t : t.getCause()).getClass().getSimpleName();
+		}
+		if (response.statusCode() < 200 || response.statusCode() >= 300) {
+			return "http_" + response.statusCode();
+		}
+		try {
+			long expectSuccess = entries.stream().filter(CorpusEntry::expectSuccess).count();
+			long success = 0;
+			long results = 0;
+			if (endpoint == Endpoint.BULK) {
+				for (String line : new String(response.body(), StandardCharsets.UTF_8).split("\n")) {
+					if (!line.isBlank()) {
+						results++;
+						success += isSuccess(MAPPER.readTree(line).path("validationResult").path("result")) ? 1 : 0;
+					}
+				}
+			} else if (endpoint.isV1()) {
+				for (JsonNode result : MAPPER.readTree(response.body()).path("validationResult")
+						.path("resultsByCertificateList")) {
+					results++;
+					success += isSuccess(result.path("resultByCertificate").path("validationResultToken")) ? 1 : 0;
+				}
+			} else {
+				results = 1;
+				success = isSuccess(MAPPER.readTree(response.body()).path("validationResult").path("result")) ? 1 : 0;
+			}
+			return (results == entries.size() && success == expectSuccess) ? "ok" : "unexpected_result";
+		} catch (IOException e) {
+			return "unparseable_response";
+		}
+	}
+
+	private static boolean isSuccess(JsonNode result) {
+		return ValidationResult.SUCCESS_VALUE.equals(result.asText());
+	}
+
+	static String percentiles(Histogram histogram) {
+		if (histogram.getTotalCount() == 0) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder();
+		for (double percentile : PERCENTILES) {
+			sb.append(String.format("p%s=%.2f ", percentile == 100.0 ? "max" : formatPercentile(percentile),
+					histogram.getValueAtPercentile(percentile) / MICROS_PER_MILLI));
+		}
+		return sb.toString().trim();
+	}
+
+	private static String formatPercentile(double percentile) {
+		return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+	}
+
+	/**
+	 * @param location file, or; http(s) URI
+	 * @param client
+	 * @return the corpus entries
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static List<CorpusEntry> loadCorpus(String location, HttpClient client)
+			throws IOException, InterruptedException {
+		List<String> lines;
+		if (location.startsWith("http://") || location.startsWith("https://")) {
+			HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(location)).GET().build(),
+					BodyHandlers.ofString());
+			if (response.statusCode() != 200) {
+				throw new IOException("Status Code of " + response.statusCode() + " received from " + location);
+			}
+			lines = response.body().lines().toList();
+		} else {
+			try (BufferedReader reader = Files.newBufferedReader(Path.of(location), StandardCharsets.UTF_8)) {
+				lines = reader.lines().toList();
+			}
+		}
+		List<CorpusEntry> entries = new ArrayList<>();
+		for (String line : lines) {
+			if (line.isBlank()) {
+				continue;
+			}
+			JsonNode node = MAPPER.readTree(line);
+			VssRequest request = new VssRequest();
+			request.validationPolicyId = node.path("validationPolicyId").asText();
+			request.x509Certificate = node.path("x509Certificate").asText();
+			entries.add(new CorpusEntry(node.path("category").asText("valid"), request.validationPolicyId,
+					request.x509Certificate, MAPPER.writeValueAsBytes(request)));
+		}
+		if (entries.isEmpty()) {
+			throw new IOException("The corpus is empty: " + location);
+		}
+		return entries;
+	}
+
+	private static Map<String, Double> parseMix(String mix) {
+		Map<String, Double> weights = new LinkedHashMap<>();
+		for (String weight : mix.split(",")) {
+			String[] kv = weight.split("=");
+			if (kv.length != 2) {
+				throw new IllegalArgumentException("Invalid mix: " + mix);
+			}
+			weights.put(kv[0].trim().toLowerCase(), Double.parseDouble(kv[1].trim()));
+		}
+		return weights;
+	}
+
+	/**
+	 * @param http1    HTTP/1.1, rather than HTTP/2
+	 * @param insecure trust any TLS server certificate
+	 * @return HttpClient
+	 * @throws NoSuchAlgorithmException
+	 * @throws KeyManagementException
+	 */
+	static HttpClient httpClient(boolean http1, boolean insecure)
+			throws NoSuchAlgorithmException, KeyManagementException {
+		if (insecure) {
+			/*
+			 * Must be set before the first HttpClient is created
+			 */
+			System.setProperty("jdk.internal.httpclient.disableHostnameVerification", "true");
+		}
+		HttpClient.Builder builder = HttpClient.newBuilder()
+				.version(http1 ? HttpClient.Version.HTTP_1_1 : HttpClient.Version.HTTP_2)
+				.connectTimeout(Duration.ofSeconds(10));
+		if (insecure) {
+			builder.sslContext(trustAll());
+		}
+		return builder.build();
+	}
+
+	/*
+	 * For a local service with a self-signed certificate
+	 */
+	private static SSLContext trustAll() throws NoSuchAlgorithmException, KeyManagementException {
+		TrustManager[] trustAll = { new X509TrustManager() {
+			@Override
+			public void checkClientTrusted(X509Certificate[] chain, String authType) {
+			}
+
+			@Override
+			public void checkServerTrusted(X509Certificate[] chain, String authType) {
+			}
+
+			@Override
+			public X509Certificate[] getAcceptedIssuers() {
+				return new X509Certificate[0];
+			}
+		} };
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(null, trustAll, null);
+		return context;
+	}
+
+	private static void summary(PrintStream out, String name, Histogram histogram) {
+		out.println(name + " (ms): " + percentiles(histogram) + String.format(" mean=%.2f",
+				histogram.getMean() / MICROS_PER_MILLI));
+	}
+
+	public static void main(String[] args) throws Exception {
+		String target = "https://localhost:8443";
+		String corpusLocation = null;
+		Endpoint endpoint = Endpoint.V2;
+		double rate = 100;
+		long duration = 60;
+		long warmup = 10;
+		int batch = 10;
+		int maxInFlight = 10000;
+		long interval = 5;
+		int serviceCores = 0;
+		String mix = null;
+		String hgrm = null;
+		boolean http1 = false;
+		boolean insecure = false;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("--http1".equals(arg)) {
+				http1 = true;
+				continue;
+			}
+			if ("--insecure".equals(arg)) {
+				insecure = true;
+				continue;
+			}
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + arg);
+			}
+			String value = args[++i];
+			switch (arg) {
+			case "--target" -> target = value;
+			case "--corpus" -> corpusLocation = value;
+			case "--endpoint" -> endpoint = Endpoint.fromName(value);
+			case "--rate" -> rate = Double.parseDouble(value);
+			case "--duration" -> duration = Long.parseLong(value);
+			case "--warmup" -> warmup = Long.parseLong(value);
+			case "--batch" -> batch = Integer.parseInt(value);
+			case "--mix" -> mix = value;
+			case "--max-in-flight" -> maxInFlight = Integer.parseInt(value);
+			case "--interval" -> interval = Long.parseLong(value);
+			case "--service-cores" -> serviceCores = Integer.parseInt(value);
+			case "--hgrm" -> hgrm = value;
+			default -> throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+		if (null == corpusLocation) {
+			throw new IllegalArgumentException("--corpus is required");
+		}
+		HttpClient client = httpClient(http1, insecure);
+		List<CorpusEntry> entries = loadCorpus(corpusLocation, client);
+		LoadGenerator generator = new LoadGenerator(client, URI.create(target), endpoint, batch, maxInFlight, entries,
+				null == mix ? null : parseMix(mix));
+		PrintStream out = System.out;
+		out.println("Corpus: " + entries.size() + " requests " + generator.corpusSizes());
+		out.println("Target: " + generator.uri + " at " + rate + " requests/s"
+				+ (generator.batch > 1 ? " (" + generator.batch + " certificates each)" : "") + ", " + warmup
+				+ "s warmup, " + duration + "s measured");
+		Histogram[] histograms = generator.run(rate, warmup, duration, interval, out);
+		double throughput = generator.completedInWindow.sum() / (double) duration;
+		out.println();
+		out.println(String.format("Sent: %d (%.1f/s), completed: %d, throughput: %.1f/s (%.1f certificates/s)",
+				generator.sent.sum(), generator.sent.sum() / (double) duration, generator.completed.sum(), throughput,
+				throughput * generator.batch));
+		if (serviceCores > 0) {
+			out.println(String.format("Per service core: %.1f requests/s, %.1f certificates/s",
+					throughput / serviceCores, throughput * generator.batch / serviceCores));
+		}
+		out.println("Outcomes: " + new TreeMap<>(sums(generator.outcomes)));
+		out.println("Categories: " + new TreeMap<>(sums(generator.categories)));
+		if (generator.lateSends.sum() > 0) {
+			out.println("Late sends (> 1ms behind schedule): " + generator.lateSends.sum());
+		}
+		summary(out, "Response time", histograms[0]);
+		summary(out, "Service time", histograms[1]);
+		out.println();
+		out.println("Response time distribution (ms):");
+		histograms[0].outputPercentileDistribution(out, MICROS_PER_MILLI);
+		if (null != hgrm) {
+			try (PrintStream response = new PrintStream(Files.newOutputStream(Path.of(hgrm + "-response.hgrm")));
+					PrintStream service = new PrintStream(Files.newOutputStream(Path.of(hgrm + "-service.hgrm")))) {
+				histograms[0].outputPercentileDistribution(response, MICROS_PER_MILLI);
+				histograms[1].outputPercentileDistribution(service, MICROS_PER_MILLI);
+			} catch (IOException e) {
+				LOG.error("Error writing the histograms", e);
+			}
+		}
+	}
+
+	private Map<String, Integer> corpusSizes() {
+		Map<String, Integer> sizes = new TreeMap<>();
+		corpus.forEach((category, list) -> sizes.put(category, list.size()));
+		return sizes;
+	}
+
+	static Map<String, Long> sums(Map<String, LongAdder> adders) {
+		Map<String, Long> sums = new TreeMap<>();
+		adders.forEach((key, adder) -> sums.put(key, adder.sum()));
+		return sums;
+	}
+
+}
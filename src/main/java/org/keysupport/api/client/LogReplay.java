@@ -0,0 +1,468 @@
+package org.keysupport.api.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.keysupport.api.controller.vss.ValidateController;
+import org.keysupport.api.pkix.X509Util;
+import org.keysupport.api.pojo.vss.VssRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Replays the validation requests recorded in the service logs (`vss.log`,
+ * and; the rolled `vss-*.log` files) against a target instance.
+ *
+ * ValidateController logs each (decoded) VssRequest, and; its VssResponse.
+ * The requests are replayed in the order, and; with the inter-arrival times,
+ * they were logged (optionally sped up), so the replay has the certificate
+ * mix, and; the repetition (cache hit ratio), of the recorded traffic. Like
+ * LoadGenerator, the replay is open-loop: the response time is measured from
+ * the time each request was scheduled to be sent.
+ *
+ * Each replayed result is compared to the logged result; a divergence is
+ * expected when the status of a certificate (or the policies) changed since
+ * it was logged.
+ *
+ * Requests that were rejected before they were logged (e.g. an invalid
+ * certificate encoding), and; the v1 requests (which are logged as the v2
+ * requests they are validated with), are not replayed as such. Nor are the
+ * requests the logging policy (LogPolicySingleton) did not sample, or; whose
+ * certificate it redacted.
+ *
+ * <pre>
+ *
+ * --target        base URI of the service (https://localhost:8443)
+ * --speedup       divide the logged inter-arrival times by this (1)
+ * --max-gap       seconds; longer logged gaps are shortened to this (no limit)
+ * --limit         replay at most this many requests
+ * --max-in-flight outstanding requests before the replay waits (10000)
+ * --interval      seconds between progress lines (5)
+ * --divergences   divergent results to print (10)
+ * --hgrm          file prefix for the percentile distributions (.hgrm)
+ * --http1         use HTTP/1.1 (rather than HTTP/2)
+ * --insecure      trust any TLS server certificate
+ * files...        the log files, in any order
+ *
+ * </pre>
+ */
+public class LogReplay {
+
+	private final static Logger LOG = LoggerFactory.getLogger(LogReplay.class);
+
+	private final static ObjectMapper MAPPER = new ObjectMapper();
+
+	/*
+	 * The logger of the logged requests, and; responses
+	 */
+	private final static String LOGGER = ValidateController.class.getName() + ":";
+
+	/*
+	 * The logback `%d` (ISO8601) format of `logging.pattern.file`
+	 */
+	private final static DateTimeFormatter LOG_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss,SSS");
+
+	private final static String VALIDATE_PATH = "/vss/v2/validate";
+
+	/*
+	 * A field redacted by the logging policy
+	 */
+	private final static String REDACTED = "[redacted]";
+
+	/**
+	 * A logged request, and; the result that was logged for it (if found)
+	 */
+	static final class Entry {
+
+		private final long timeMillis;
+
+		private final String requestId;
+
+		private final byte[] json;
+
+		private String loggedResult;
+
+		private String loggedReason;
+
+		private Entry(long timeMillis, String requestId, byte[] json) {
+			this.timeMillis = timeMillis;
+			this.requestId = requestId;
+			this.json = json;
+		}
+
+	}
+
+	/**
+	 * A replayed result that differs from the logged result
+	 */
+	record Divergence(String requestId, String logged, String loggedReason, String replayed, String replayedReason) {
+	}
+
+	private final HttpClient client;
+
+	private final URI uri;
+
+	private final Semaphore inFlight;
+
+	private final Recorder responseTime = new Recorder(3);
+
+	private final Recorder serviceTime = new Recorder(3);
+
+	private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+	private final ConcurrentLinkedQueue<Divergence> divergences = new ConcurrentLinkedQueue<>();
+
+	private final LongAdder sent = new LongAdder();
+
+	private final LongAdder completed = new LongAdder();
+
+	private final LongAdder lateSends = new LongAdder();
+
+	private final int maxDivergences;
+
+	public LogReplay(HttpClient client, URI target, int maxInFlight, int maxDivergences) {
+		this.client = client;
+		this.uri = target.resolve(VALIDATE_PATH);
+		this.inFlight = new Semaphore(maxInFlight);
+		this.maxDivergences = maxDivergences;
+	}
+
+	/**
+	 * Read the logged requests, and; pair each with its logged response.
+	 *
+	 * A failed validation response has no requestId, so responses are matched on
+	 * the requestId derived from `x5t#S256`, and; `validationPolicyId`, as
+	 * ValidateController derives it.
+	 *
+	 * @param files
+	 * @return the entries, in the order they were logged
+	 * @throws IOException
+	 */
+	public static List<Entry> read(List<Path> files) throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		Map<String, Deque<Entry>> pending = new HashMap<>();
+		List<Path> ordered = new ArrayList<>(files);
+		ordered.sort(Comparator.comparing(LogReplay::firstTime));
+		for (Path file : ordered) {
+			try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				String line;
+				while (null != (line = reader.readLine())) {
+					if (!line.contains(LOGGER)) {
+						continue;
+					}
+					JsonNode node;
+					try {
+						node = MAPPER.readTree(line);
+					} catch (JsonProcessingException e) {
+						/*
+						 * Not a JSON message (e.g. a stack trace)
+						 */
+						continue;
+					}
+					if (!node.path("class").asText().startsWith(LOGGER)) {
+						continue;
+					}
+					JsonNode message = node.path("message");
+					if (message.hasNonNull("x509Certificate") && message.hasNonNull("requestId")
+							&& !REDACTED.equals(message.path("x509Certificate").asText())) {
+						VssRequest request = new VssRequest();
+						request.validationPolicyId = message.path("validationPolicyId").asText();
+						request.x509Certificate = message.path("x509Certificate").asText();
+						Entry entry = new Entry(parseTime(node.path("time").asText()),
+								message.path("requestId").asText(), MAPPER.writeValueAsBytes(request));
+						entries.add(entry);
+						pending.computeIfAbsent(entry.requestId, r -> new ArrayDeque<>()).add(entry);
+					} else if (message.has("validationResult")) {
+						String requestId = message.path("requestId").asText(null);
+						if (null == requestId) {
+							requestId = X509Util.strS256HexString(message.path("x5t#S256").asText() + ":"
+									+ message.path("validationPolicyId").asText());
+						}
+						Deque<Entry> queue = pending.get(requestId);
+						Entry entry = (null == queue) ? null : queue.poll();
+						if (null != entry) {
+							entry.loggedResult = message.path("validationResult").path("result").asText();
+							entry.loggedReason = message.path("validationResult").path("invalidityReasonText")
+									.asText(null);
+						}
+					}
+				}
+			}
+		}
+		/*
+		 * Files may overlap (e.g. `vss.log`, and; the last rolled file), and; the
+		 * sort is stable
+		 */
+		entries.sort(Comparator.comparingLong(e -> e.timeMillis));
+		return entries;
+	}
+
+	private static long parseTime(String time) {
+		try {
+			return LocalDateTime.parse(time, LOG_TIME).toInstant(ZoneOffset.UTC).toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return 0;
+		}
+	}
+
+	/*
+	 * The time of the first line, for ordering the files
+	 */
+	private static long firstTime(Path file) {
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while (null != (line = reader.readLine())) {
+				try {
+					return parseTime(MAPPER.readTree(line).path("time").asText());
+				} catch (JsonProcessingException e) {
+					continue;
+				}
+			}
+		} catch (IOException e) {
+			LOG.error("Error reading " + file, e);
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Replay the entries, with their logged inter-arrival times divided by
+	 * `speedup`, and; no gap longer than `maxGapMillis`
+	 *
+	 * @param entries
+	 * @param speedup
+	 * @param maxGapMillis    0 for no limit
+	 * @param intervalSeconds between progress lines
+	 * @param out
+	 * @return the response time (from the scheduled send) histogram, in
+	 *         microseconds, and; the service time histogram
+	 */
+	public Histogram[] replay(List<Entry> entries, double speedup, long maxGapMillis, long intervalSeconds,
+			PrintStream out) {
+		Histogram totalResponse = new Histogram(3);
+		Histogram totalService = new Histogram(3);
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "log-replay-reporter");
+			t.setDaemon(true);
+			return t;
+		});
+		long start = System.nanoTime();
+		reporter.scheduleAtFixedRate(() -> {
+			Histogram response = responseTime.getIntervalHistogram();
+			Histogram service = serviceTime.getIntervalHistogram();
+			synchronized (totalResponse) {
+				totalResponse.add(response);
+				totalService.add(service);
+			}
+			out.println(String.format("%6.1fs sent=%d/%d completed=%d response(ms) %s", (System.nanoTime() - start) / 1e9,
+					sent.sum(), entries.size(), completed.sum(), LoadGenerator.percentiles(response)));
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+		int permits = inFlight.availablePermits();
+		long offsetNanos = 0;
+		Entry previous = null;
+		for (Entry entry : entries) {
+			if (null != previous) {
+				long gapMillis = Math.max(0, entry.timeMillis - previous.timeMillis);
+				if (maxGapMillis > 0) {
+					gapMillis = Math.min(gapMillis, maxGapMillis);
+				}
+				offsetNanos += (long) (TimeUnit.MILLISECONDS.toNanos(gapMillis) / speedup);
+			}
+			previous = entry;
+			long intended = start + offsetNanos;
+			long wait;
+			while ((wait = intended - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			inFlight.acquireUninterruptibly();
+			send(intended, entry);
+		}
+		inFlight.acquireUninterruptibly(permits);
+		inFlight.release(permits);
+		reporter.shutdownNow();
+		synchronized (totalResponse) {
+			totalResponse.add(responseTime.getIntervalHistogram());
+			totalService.add(serviceTime.getIntervalHistogram());
+		}
+		return new Histogram[] { totalResponse, totalService };
+	}
+
+	private void send(long intended, Entry entry) {
+		HttpRequest request = HttpRequest.newBuilder(uri).header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofByteArray(entry.json)).build();
+		long sentAt = System.nanoTime();
+		if (sentAt - intended > TimeUnit.MILLISECONDS.toNanos(1)) {
+			lateSends.increment();
+		}
+		sent.increment();
+		client.sendAsync(request, BodyHandlers.ofByteArray()).whenComplete((response, t) -> {
+			long now = System.nanoTime();
+			try {
+				responseTime.recordValue(TimeUnit.NANOSECONDS.toMicros(now - intended));
+				serviceTime.recordValue(TimeUnit.NANOSECONDS.toMicros(now - sentAt));
+				completed.increment();
+				outcomes.computeIfAbsent(compare(entry, response, t), o -> new LongAdder()).increment();
+			} finally {
+				inFlight.release();
+			}
+		});
+	}
+
+	/*
+	 * same, diverged (logged->replayed), not_logged, http_<status>, or; the
+	 * exception
+	 */
+	private String compare(Entry entry, HttpResponse<byte[]> response, Throwable t) {
+		if (null != t) {
+			return "error_" + (null == t.getCause() ? t : t.getCause()).getClass().getSimpleName();
+		}
+		if (response.statusCode() < 200 || response.statusCode() >= 300) {
+			return "http_" + response.statusCode();
+		}
+		if (null == entry.loggedResult) {
+			return "not_logged";
+		}
+		try {
+			JsonNode result = MAPPER.readTree(response.body()).path("validationResult");
+			String replayed = result.path("result").asText();
+			String replayedReason = result.path("invalidityReasonText").asText(null);
+			if (entry.loggedResult.equals(replayed) && Objects.equals(entry.loggedReason, replayedReason)) {
+				return "same";
+			}
+			if (divergences.size() < maxDivergences) {
+				divergences.add(new Divergence(entry.requestId, entry.loggedResult, entry.loggedReason, replayed,
+						replayedReason));
+			}
+			if (entry.loggedResult.equals(replayed)) {
+				return "diverged_reason_" + replayed;
+			}
+			return "diverged_" + entry.loggedResult + "->" + replayed;
+		} catch (IOException e) {
+			return "unparseable_response";
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String target = "https://localhost:8443";
+		double speedup = 1;
+		long maxGap = 0;
+		int limit = Integer.MAX_VALUE;
+		int maxInFlight = 10000;
+		long interval = 5;
+		int maxDivergences = 10;
+		String hgrm = null;
+		boolean http1 = false;
+		boolean insecure = false;
+		List<Path> files = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("--http1".equals(arg)) {
+				http1 = true;
+				continue;
+			}
+			if ("--insecure".equals(arg)) {
+				insecure = true;
+				continue;
+			}
+			if (!arg.startsWith("--")) {
+				files.add(Path.of(arg));
+				continue;
+			}
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + arg);
+			}
+			String value = args[++i];
+			switch (arg) {
+			case "--target" -> target = value;
+			case "--speedup" -> speedup = Double.parseDouble(value);
+			case "--max-gap" -> maxGap = TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+			case "--limit" -> limit = Integer.parseInt(value);
+			case "--max-in-flight" -> maxInFlight = Integer.parseInt(value);
+			case "--interval" -> interval = Long.parseLong(value);
+			case "--divergences" -> maxDivergences = Integer.parseInt(value);
+			case "--hgrm" -> hgrm = value;
+			default -> throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+		if (files.isEmpty()) {
+			throw new IllegalArgumentException("At least one log file is required");
+		}
+		if (speedup <= 0) {
+			throw new IllegalArgumentException("--speedup must be positive");
+		}
+		List<Entry> entries = read(files);
+		if (entries.size() > limit) {
+			entries = entries.subList(0, limit);
+		}
+		if (entries.isEmpty()) {
+			throw new IllegalArgumentException("No validation requests found in " + files);
+		}
+		PrintStream out = System.out;
+		long loggedMillis = entries.get(entries.size() - 1).timeMillis - entries.get(0).timeMillis;
+		long distinct = entries.stream().map(e -> e.requestId).distinct().count();
+		out.println(String.format("Replaying %d requests (%d distinct), logged over %.1fs, at %sx", entries.size(),
+				distinct, loggedMillis / 1000.0, speedup));
+		LogReplay replay = new LogReplay(LoadGenerator.httpClient(http1, insecure), URI.create(target), maxInFlight,
+				maxDivergences);
+		long start = System.nanoTime();
+		Histogram[] histograms = replay.replay(entries, speedup, maxGap, interval, out);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		out.println();
+		out.println(String.format("Sent: %d, completed: %d in %.1fs (%.1f/s)", replay.sent.sum(),
+				replay.completed.sum(), seconds, replay.completed.sum() / seconds));
+		out.println("Results: " + new TreeMap<>(LoadGenerator.sums(replay.outcomes)));
+		if (replay.lateSends.sum() > 0) {
+			out.println("Late sends (> 1ms behind schedule): " + replay.lateSends.sum());
+		}
+		out.println("Response time (ms): " + LoadGenerator.percentiles(histograms[0]));
+		out.println("Service time (ms): " + LoadGenerator.percentiles(histograms[1]));
+		for (Divergence divergence : replay.divergences) {
+			out.println("Divergence: " + MAPPER.writeValueAsString(divergence));
+		}
+		if (null != hgrm) {
+			try (PrintStream response = new PrintStream(Files.newOutputStream(Path.of(hgrm + "-response.hgrm")));
+					PrintStream service = new PrintStream(Files.newOutputStream(Path.of(hgrm + "-service.hgrm")))) {
+				histograms[0].outputPercentileDistribution(response, LoadGenerator.MICROS_PER_MILLI);
+				histograms[1].outputPercentileDistribution(service, LoadGenerator.MICROS_PER_MILLI);
+			} catch (IOException e) {
+				LOG.error("Error writing the histograms", e);
+			}
+		}
+	}
+
+}
@@ -2,10 +2,24 @@ package org.keysupport.api.config;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintStream;
+import java.security.Security;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.stream.Collectors;
 
+import org.bouncycastle.jcajce.provider.BouncyCastleFipsProvider;
 import org.keysupport.api.LoggingUtil;
-import org.keysupport.api.singletons.IntermediateCacheSingleton;
+import org.keysupport.api.pkix.ValidationBudget;
+import org.keysupport.api.singletons.AuditJournalSingleton;
+import org.keysupport.api.singletons.CacheSnapshotSingleton;
+import org.keysupport.api.singletons.CrlCacheSingleton;
+import org.keysupport.api.singletons.HTTPClientSingleton;
+import org.keysupport.api.singletons.LogPolicySingleton;
+import org.keysupport.api.singletons.MetricsSingleton;
+import org.keysupport.api.singletons.OcspCacheSingleton;
+import org.keysupport.api.singletons.SnapshotStoreSingleton;
+import org.keysupport.api.singletons.ValidationCacheSingleton;
+import org.keysupport.api.singletons.ValidationExecutorSingleton;
 import org.keysupport.api.singletons.ValidationPoliciesSingleton;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,6 +27,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.stereotype.Component;
 
+import jakarta.annotation.PreDestroy;
+
 @Component
 @Configuration
 public class ServiceConfiguration {
@@ -29,37 +45,146 @@ public class ServiceConfiguration {
 			@Value("${service.validation.pkix.revocation-enabled}") boolean revocationEnabled, 
 			@Value("${service.validation.pkix.revocation-ee-only}") boolean revocationEeOnly, 
 			@Value("${service.validation.pkix.ocsp-enabled}") boolean ocspEnabled, 
-			@Value("${service.validation.pkix.crl-enabled}") boolean crlEnabled) {
+			@Value("${service.validation.pkix.crl-enabled}") boolean crlEnabled, 
+			@Value("${service.validation.pkix.strict-revalidation:false}") boolean strictRevalidation, 
+			@Value("${service.validation.pkix.issuer-path-cache-size:1024}") int issuerPathCacheSize, 
+			@Value("${service.validation.cache.enabled:true}") boolean cacheEnabled, 
+			@Value("${service.validation.cache.max-weight:268435456}") long cacheMaxWeight, 
+			@Value("${service.validation.cache.success-ttl:3600}") long cacheSuccessTtl, 
+			@Value("${service.validation.cache.failure-ttl:60}") long cacheFailureTtl, 
+			@Value("${service.validation.crl-cache.enabled:true}") boolean crlCacheEnabled, 
+			@Value("${service.validation.crl-cache.max-crl-size:67108864}") int crlCacheMaxCrlSize, 
+			@Value("${service.validation.crl-cache.refresh-ahead:300}") long crlCacheRefreshAhead, 
+			@Value("${service.validation.crl-cache.idle-ttl:86400}") long crlCacheIdleTtl, 
+			@Value("${service.validation.crl-cache.max-entries:1024}") int crlCacheMaxEntries, 
+			@Value("${service.validation.ocsp-cache.enabled:true}") boolean ocspCacheEnabled, 
+			@Value("${service.validation.ocsp-cache.refresh-ahead:300}") long ocspCacheRefreshAhead, 
+			@Value("${service.validation.ocsp-cache.max-entries:65536}") int ocspCacheMaxEntries, 
+			@Value("${service.validation.batch.max-concurrency:8}") int batchMaxConcurrency, 
+			@Value("${service.validation.bulk.max-in-flight:64}") int bulkMaxInFlight, 
+			@Value("${service.validation.async.deadline:20}") long asyncDeadline, 
+			@Value("${service.validation.budget.total:15000}") long budgetTotal, 
+			@Value("${service.validation.budget.decode:250}") long budgetDecode, 
+			@Value("${service.validation.budget.path-build:12000}") long budgetPathBuild, 
+			@Value("${service.validation.budget.revocation:10000}") long budgetRevocation, 
+			@Value("${service.validation.budget.serialization:500}") long budgetSerialization, 
+			@Value("${service.refresh.interval:3600}") long refreshInterval, 
+			@Value("${service.http.connect-timeout:10}") long httpConnectTimeout, 
+			@Value("${service.http.request-timeout:30}") long httpRequestTimeout, 
+			@Value("${service.metrics.enabled:true}") boolean metricsEnabled, 
+			@Value("${service.logging.sample.success:1.0}") double logSampleSuccess, 
+			@Value("${service.logging.sample.fail:1.0}") double logSampleFail, 
+			@Value("${service.logging.sample.error:1.0}") double logSampleError, 
+			@Value("${service.logging.redact:}") String logRedact, 
+			@Value("${service.logging.stacktraces-per-minute:10}") int logStackTracesPerMinute, 
+			@Value("${service.audit.enabled:true}") boolean auditEnabled, 
+			@Value("${service.audit.directory:/opt/vss/ext/audit}") String auditDirectory, 
+			@Value("${service.audit.segment-size:67108864}") long auditSegmentSize, 
+			@Value("${service.audit.max-segments:16}") int auditMaxSegments, 
+			@Value("${service.snapshot.enabled:true}") boolean snapshotEnabled, 
+			@Value("${service.snapshot.file:/opt/vss/ext/snapshot/validation.snapshot}") String snapshotFile, 
+			@Value("${service.validation.cache-snapshot.enabled:true}") boolean cacheSnapshotEnabled, 
+			@Value("${service.validation.cache-snapshot.file:/opt/vss/ext/snapshot/caches.snapshot}") String cacheSnapshotFile, 
+			@Value("${service.validation.cache-snapshot.interval:300}") long cacheSnapshotInterval) {
 		/*
-		 * Update validation policies from defined policies URI
-		 *
-		 * Ensure `service.policies.uri` has been defined, and if not; terminate
+		 * Ensure `service.policies.uri` and `service.intermediates.uri` have been defined, and if not; terminate
 		 */
 		if (null == polUri) {				
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "service.policies.uri must not be null, shutting down!")));
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "service.policies.uri must not be null, shutting down!")));
+			System.exit(0);
+		}
+		if (null == intermediatesUri) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "service.intermediates.uri must not be null, shutting down!")));
 			System.exit(0);
 		}
-		LOG.info(LoggingUtil.pojoToJson(Map.of("service.policies.uri", polUri)));
+		/*
+		 * Configure what is logged (and; the stack trace rate limit) before anything else
+		 */
+		LogPolicySingleton.getInstance().configure(logSampleSuccess, logSampleFail, logSampleError,
+				Arrays.stream(logRedact.split(",")).map(String::trim).filter(f -> !f.isEmpty()).collect(Collectors.toSet()),
+				logStackTracesPerMinute);
+		/*
+		 * Set the PKIX options first, since they are used when the validation policies are compiled
+		 */
 		ValidationPoliciesSingleton policy = ValidationPoliciesSingleton.getInstance();
-		policy.updateValidationPolicies(polUri);
 		policy.setMaxPathLen(maxPathLen);
 		policy.setAiaChase(aiaChase);
 		policy.setRevocationEnabled(revocationEnabled);
 		policy.setRevocationEeOnly(revocationEeOnly);
 		policy.setOcspEnabled(ocspEnabled);
 		policy.setCrlEnabled(crlEnabled);
+		policy.setStrictRevalidation(strictRevalidation);
+		policy.setIssuerPathCacheSize(issuerPathCacheSize);
+		/*
+		 * Register providers, and; set the JVM wide revocation options before any validation occurs
+		 */
+		configureSecurity(revocationEnabled, crlEnabled, ocspEnabled, aiaChase);
+		/*
+		 * Bound every outbound fetch, before the first one is made
+		 */
+		HTTPClientSingleton.getInstance().configure(httpConnectTimeout, httpRequestTimeout);
+		/*
+		 * Configure the CRL and OCSP caches, before any policy (and revocation checker) is compiled
+		 */
+		CrlCacheSingleton.getInstance().configure(crlCacheEnabled && revocationEnabled && crlEnabled,
+				crlCacheMaxCrlSize, crlCacheRefreshAhead, crlCacheIdleTtl, crlCacheMaxEntries);
+		OcspCacheSingleton.getInstance().configure(ocspCacheEnabled && revocationEnabled && ocspEnabled,
+				ocspCacheRefreshAhead, ocspCacheMaxEntries);
 		/*
-		 * Update intermediate cache from policy defined inventory URI
+		 * Load the intermediate cache from the policy defined inventory URI, and; the
+		 * validation policies from the defined policies URI
 		 *
-		 * Ensure `service.intermediates.uri` has been defined, and if not; terminate
+		 * Each policy is compiled against the intermediate cache, and; both are
+		 * published together as a single snapshot
+		 *
+		 * If the snapshot saved by the last run can be loaded, it is published
+		 * instead, and; the fetch is made in the background, so startup does not wait
+		 * on (or fail with) either URI
 		 */
-		if (null == intermediatesUri) {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "service.intermediates.uri must not be null, shutting down!")));
-			System.exit(0);
+		LOG.info("{}", LoggingUtil.json(Map.of("service.intermediates.uri", intermediatesUri)));
+		LOG.info("{}", LoggingUtil.json(Map.of("service.policies.uri", polUri)));
+		SnapshotStoreSingleton.getInstance().configure(snapshotEnabled, snapshotFile);
+		boolean loadedSavedSnapshot = policy.loadSavedSnapshot();
+		if (!loadedSavedSnapshot) {
+			policy.updateValidationPolicies(polUri, intermediatesUri);
 		}
-		LOG.info(LoggingUtil.pojoToJson(Map.of("service.intermediates.uri", intermediatesUri)));
-		IntermediateCacheSingleton cache = IntermediateCacheSingleton.getInstance();
-		cache.updateIntermediates(intermediatesUri);
+		/*
+		 * Configure the validation result cache
+		 */
+		ValidationCacheSingleton validationCache = ValidationCacheSingleton.getInstance();
+		validationCache.configure(cacheEnabled, cacheMaxWeight, cacheSuccessTtl, cacheFailureTtl);
+		/*
+		 * Restore the validation, OCSP, and; CRL caches saved by the last run, before
+		 * the first request (or refresh of the policies)
+		 */
+		CacheSnapshotSingleton cacheSnapshot = CacheSnapshotSingleton.getInstance();
+		cacheSnapshot.configure(cacheSnapshotEnabled, cacheSnapshotFile, cacheSnapshotInterval);
+		cacheSnapshot.restore(loadedSavedSnapshot);
+		/*
+		 * Configure concurrent batch (v1), bulk (v2), and; async validation
+		 */
+		ValidationExecutorSingleton.getInstance().configure(batchMaxConcurrency, bulkMaxInFlight, asyncDeadline);
+		/*
+		 * Bound the time a single validation may take, overall, and; per stage
+		 */
+		ValidationBudget.configure(budgetTotal, budgetDecode, budgetPathBuild, budgetRevocation, budgetSerialization);
+		LOG.info("{}", LoggingUtil.json(Map.of("validation.budget.total", budgetTotal, "validation.budget.decode", budgetDecode,
+				"validation.budget.path-build", budgetPathBuild, "validation.budget.revocation", budgetRevocation,
+				"validation.budget.serialization", budgetSerialization)));
+		/*
+		 * Open the audit journal, before any validation is recorded, and; before its statistics are published
+		 */
+		AuditJournalSingleton.getInstance().configure(auditEnabled, auditDirectory, auditSegmentSize, auditMaxSegments);
+		/*
+		 * Time the validation stages, and; publish the cache statistics, once the caches are configured
+		 */
+		MetricsSingleton.getInstance().configure(metricsEnabled);
+		LOG.info("{}", LoggingUtil.json(Map.of("metrics.enabled", metricsEnabled)));
+		/*
+		 * Refresh the policies, and; intermediates, in the background; immediately if
+		 * the saved snapshot was loaded
+		 */
+		policy.scheduleRefresh(polUri, intermediatesUri, refreshInterval, loadedSavedSnapshot);
 		/*
 		 * Redirect System.out and System.err to log to the trace log if defined
 		 */
@@ -69,11 +194,59 @@ public class ServiceConfiguration {
 			try {
 				logStream = new PrintStream(traceLogFile);
 			} catch (FileNotFoundException e) {
-				LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Error accessing tracelog file: " + systemLogFile, "stacktrace", LoggingUtil.stackTraceToString(e))));
+				LOG.error("{}", LoggingUtil.json(Map.of("error", "Error accessing tracelog file: " + systemLogFile, "stacktrace", LoggingUtil.stackTrace(e))));
 			}
 	        System.setOut(logStream);
 	        System.setErr(logStream);
 		}
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Save the caches on a graceful shutdown, so the next run starts warm
+	 */
+	@PreDestroy
+	public void shutdown() {
+		CacheSnapshotSingleton.getInstance().shutdown();
+	}
+
+	/**
+	 * One-time, JVM wide, security configuration.
+	 *
+	 * These are global (synchronized) operations, and; the SUN CertPath provider
+	 * reads some of these properties only once, so they must be set at startup
+	 * rather than per request.
+	 *
+	 * @param revocationEnabled
+	 * @param crlEnabled
+	 * @param ocspEnabled
+	 * @param aiaChase
+	 */
+	public static void configureSecurity(boolean revocationEnabled, boolean crlEnabled, boolean ocspEnabled, boolean aiaChase) {
+		/*
+		 * This implementation will rely on BCFIPS for cryptographic compliance.
+		 */
+		if (null == Security.getProvider("BCFIPS")) {
+			Security.addProvider(new BouncyCastleFipsProvider());
+		}
+		/*
+		 * Allow CRL
+		 */
+		if (revocationEnabled && crlEnabled) {
+			System.setProperty("com.sun.security.enableCRLDP", "true");
+		}
+		/*
+		 * Allow OCSP
+		 */
+		if (revocationEnabled && ocspEnabled) {
+			Security.setProperty("ocsp.enable", "true");
+		}
+		/*
+		 * Allow AIA chase
+		 */
+		if (aiaChase) {
+			System.setProperty("com.sun.security.enableAIAcaIssuers", "true");
+		}
+		LOG.info("{}", LoggingUtil.json(Map.of("security.providers", Arrays.toString(Security.getProviders()))));
+	}
+
+}
@@ -0,0 +1,39 @@
+package org.keysupport.api.controller.vss;
+
+import java.util.List;
+
+import org.keysupport.api.pojo.vss.AuditRecord;
+import org.keysupport.api.singletons.AuditJournalSingleton;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+@RestController
+@Tag(name = "audit", description = "Obtain the Validation History of a Certificate")
+public class AuditController {
+
+	private final static int MAX_LIMIT = 1000;
+
+	/*
+	 * The validation outcomes of the certificate, newest first; not found if the
+	 * audit journal is disabled
+	 */
+	@GetMapping(path = "/vss/v2/audit/{x5tS256}", produces = MediaType.APPLICATION_JSON_VALUE)
+	@CrossOrigin(origins = "*")
+	ResponseEntity<List<AuditRecord>> history(@PathVariable String x5tS256,
+			@RequestParam(defaultValue = "100") int limit) {
+		AuditJournalSingleton journal = AuditJournalSingleton.getInstance();
+		if (!journal.isEnabled()) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<>(journal.history(x5tS256, Math.min(Math.max(limit, 1), MAX_LIMIT)), HttpStatus.OK);
+	}
+
+}
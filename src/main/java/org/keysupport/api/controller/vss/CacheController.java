@@ -0,0 +1,53 @@
+package org.keysupport.api.controller.vss;
+
+import java.util.Map;
+
+import org.keysupport.api.singletons.CrlCacheSingleton;
+import org.keysupport.api.singletons.HTTPClientSingleton;
+import org.keysupport.api.singletons.OcspCacheSingleton;
+import org.keysupport.api.singletons.ValidationCacheSingleton;
+import org.keysupport.api.singletons.ValidationPoliciesSingleton;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+@RestController
+@Tag(name = "cache", description = "Obtain Validation Cache Statistics")
+public class CacheController {
+
+	@GetMapping(path = "/vss/v2/cache/stats", produces = MediaType.APPLICATION_JSON_VALUE)
+	@CrossOrigin(origins = "*")
+	ResponseEntity<Map<String, Object>> stats() {
+		return new ResponseEntity<>(ValidationCacheSingleton.getInstance().getStats(), HttpStatus.OK);
+	}
+
+	@GetMapping(path = "/vss/v2/cache/issuer-paths/stats", produces = MediaType.APPLICATION_JSON_VALUE)
+	@CrossOrigin(origins = "*")
+	ResponseEntity<Map<String, Object>> issuerPathStats() {
+		return new ResponseEntity<>(ValidationPoliciesSingleton.getInstance().getIssuerPathCacheStats(), HttpStatus.OK);
+	}
+
+	@GetMapping(path = "/vss/v2/cache/crl/stats", produces = MediaType.APPLICATION_JSON_VALUE)
+	@CrossOrigin(origins = "*")
+	ResponseEntity<Map<String, Object>> crlStats() {
+		return new ResponseEntity<>(CrlCacheSingleton.getInstance().getStats(), HttpStatus.OK);
+	}
+
+	@GetMapping(path = "/vss/v2/cache/ocsp/stats", produces = MediaType.APPLICATION_JSON_VALUE)
+	@CrossOrigin(origins = "*")
+	ResponseEntity<Map<String, Object>> ocspStats() {
+		return new ResponseEntity<>(OcspCacheSingleton.getInstance().getStats(), HttpStatus.OK);
+	}
+
+	@GetMapping(path = "/vss/v2/cache/http/stats", produces = MediaType.APPLICATION_JSON_VALUE)
+	@CrossOrigin(origins = "*")
+	ResponseEntity<Map<String, Object>> httpStats() {
+		return new ResponseEntity<>(HTTPClientSingleton.getInstance().getStats(), HttpStatus.OK);
+	}
+
+}
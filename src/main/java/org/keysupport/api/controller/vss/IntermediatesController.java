@@ -42,18 +42,18 @@ public class IntermediatesController {
 		try {
 			intermediateCerts = (Collection<X509Certificate>) intermediateStore.getCertificates(new X509CertSelector());
 		} catch (CertStoreException e) {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Error obtaining intermediates from CertStore", "stacktrace", LoggingUtil.stackTraceToString(e))));
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Error obtaining intermediates from CertStore", "stacktrace", LoggingUtil.stackTrace(e))));
 		} catch (NullPointerException e) {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "There are no intermediates cached!", "stacktrace", LoggingUtil.stackTraceToString(e))));
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "There are no intermediates cached!", "stacktrace", LoggingUtil.stackTrace(e))));
 			return new ResponseEntity<>(intermediates, HttpStatus.NOT_FOUND);
 		}
 		for (X509Certificate cert: intermediateCerts) {
 			JsonX509Certificate bCert = new JsonX509Certificate();
 			try {
 				bCert.x509Certificate = Base64.getEncoder().encodeToString(cert.getEncoded());
-				LOG.debug(LoggingUtil.pojoToJson(Map.of("intermediate.certificate", cert.toString())));
+				LOG.debug("{}", LoggingUtil.json(Map.of("intermediate.certificate", cert.toString())));
 			} catch (CertificateEncodingException e) {
-				LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Error Base64 encoding certificate from CertPath", "stacktrace", LoggingUtil.stackTraceToString(e))));
+				LOG.error("{}", LoggingUtil.json(Map.of("error", "Error Base64 encoding certificate from CertPath", "stacktrace", LoggingUtil.stackTrace(e))));
 			}
 			intermediates.add(bCert);
 		}
@@ -0,0 +1,31 @@
+package org.keysupport.api.controller.vss;
+
+import org.keysupport.api.singletons.MetricsSingleton;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+@RestController
+@Tag(name = "metrics", description = "Obtain Validation Metrics")
+public class MetricsController {
+
+	/*
+	 * The Prometheus text exposition format
+	 */
+	private final static String TEXT_PLAIN_PROMETHEUS = "text/plain;version=0.0.4;charset=utf-8";
+
+	@GetMapping(path = "/vss/v2/metrics", produces = TEXT_PLAIN_PROMETHEUS)
+	@CrossOrigin(origins = "*")
+	ResponseEntity<String> metrics() {
+		String metrics = MetricsSingleton.getInstance().scrape();
+		if (null == metrics) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<>(metrics, HttpStatus.OK);
+	}
+
+}
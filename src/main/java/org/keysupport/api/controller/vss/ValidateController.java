@@ -1,24 +1,38 @@
 package org.keysupport.api.controller.vss;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Base64;
-import java.util.Calendar;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
-import org.keysupport.api.ApiError;
 import org.keysupport.api.LoggingUtil;
 import org.keysupport.api.config.ServiceValidationPolicies;
 import org.keysupport.api.controller.ServiceException;
 import org.keysupport.api.pkix.ValidatePKIX;
+import org.keysupport.api.pkix.ValidationBudget;
 import org.keysupport.api.pkix.X509Util;
+import org.keysupport.api.pojo.error.ApiError;
 import org.keysupport.api.pojo.vss.Fail;
 import org.keysupport.api.pojo.vss.JsonX509Certificate;
 import org.keysupport.api.pojo.vss.Success;
@@ -38,6 +52,12 @@ import org.keysupport.api.pojo.vss.v1.V1ValidationSuccessData;
 import org.keysupport.api.pojo.vss.v1.V1WantBack;
 import org.keysupport.api.pojo.vss.v1.V1WantBackTypeToken;
 import org.keysupport.api.pojo.vss.v1.V1X509CertificateList;
+import org.keysupport.api.singletons.AuditJournalSingleton;
+import org.keysupport.api.singletons.LogPolicySingleton;
+import org.keysupport.api.singletons.MetricsSingleton;
+import org.keysupport.api.singletons.ValidationCacheSingleton;
+import org.keysupport.api.singletons.ValidationExecutorSingleton;
+import org.keysupport.api.singletons.ValidationPoliciesSingleton;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
@@ -52,11 +72,16 @@ import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.context.request.WebRequest;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
 @RestController
 @Tag(name = "validate", description = "Validate a certificate based on the specified validation policy")
@@ -112,6 +137,17 @@ public class ValidateController {
 	@ApiResponse(responseCode = "400", content = @Content(schema = @Schema(implementation = ApiError.class)))
 	@CrossOrigin(origins = "*")
 	ResponseEntity<VssResponse> validate(@RequestBody VssRequest request, @RequestHeader Map<String, String> headers) {
+		/*
+		 * Bound the time spent on this request, including any revocation fetches
+		 */
+		try (ValidationBudget budget = ValidationBudget.start()) {
+			return validate(request, headers, budget);
+		}
+	}
+
+	@SuppressWarnings("try")
+	private ResponseEntity<VssResponse> validate(VssRequest request, Map<String, String> headers, ValidationBudget budget) {
+		long received = System.nanoTime();
 		ASN1ObjectIdentifier validationPolicyId = null;
 		X509Certificate clientCert = null;
 		CertificateFactory cf = null;
@@ -128,57 +164,75 @@ public class ValidateController {
 			throw new ServiceException("Request must include validationPolicyId and x509Certificate");
 		}
 		/*
-		 * Check the validationPolicyId
+		 * The snapshot version the policy is taken from; read before the policy, so a
+		 * result is never cached under a newer version than it was validated under
 		 */
-		if (request.validationPolicyId.length() >= POL_SIZE_LIMIT) {
-			throw new ServiceException("Size limit for validationPolicyId Object Identifier exceeded");
-		} else {
-			try {
-				validationPolicyId = new ASN1ObjectIdentifier(request.validationPolicyId);
-			} catch (IllegalArgumentException e) {
-				LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Error decoding Object Identifier", "validationPolicyId", request.validationPolicyId, "stacktrace", LoggingUtil.stackTraceToString(e))));
-				throw new ServiceException("validationPolicyId must be an Object Identifier");
+		final long snapshotVersion = ValidationPoliciesSingleton.getInstance().getSnapshotVersion();
+		ValidationPolicy valPol;
+		try (ValidationBudget.Scope decode = budget.enter(ValidationBudget.Stage.DECODE)) {
+			/*
+			 * Check the validationPolicyId
+			 */
+			if (request.validationPolicyId.length() >= POL_SIZE_LIMIT) {
+				throw new ServiceException("Size limit for validationPolicyId Object Identifier exceeded");
+			} else {
+				try {
+					validationPolicyId = new ASN1ObjectIdentifier(request.validationPolicyId);
+				} catch (IllegalArgumentException e) {
+					LOG.error("{}", LoggingUtil.json(Map.of("error", "Error decoding Object Identifier", "validationPolicyId", request.validationPolicyId, "stacktrace", LoggingUtil.stackTrace(e))));
+					throw new ServiceException("validationPolicyId must be an Object Identifier");
+				}
 			}
-		}
-		/*
-		 * Check to see if we have the policy, otherwise throw an error
-		 */
-		ValidationPolicy valPol = ServiceValidationPolicies.getPolicy(validationPolicyId.toString());
-		if (null == valPol) {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Invalid Policy Specified: " + validationPolicyId.toString())));
-			throw new ServiceException("Invalid Policy Specified");
-		}
-		/*
-		 * Check the x509Certificate
-		 */
-		String pemCert = request.x509Certificate;
-		try {
-			if (pemCert.length() >= PEM_SIZE_LIMIT) {
-				throw new ServiceException("Size limit for x509Certificate exceeded");
+			/*
+			 * Check to see if we have the policy, otherwise throw an error
+			 */
+			valPol = ServiceValidationPolicies.getPolicy(validationPolicyId.toString());
+			if (null == valPol) {
+				LOG.error("{}", LoggingUtil.json(Map.of("error", "Invalid Policy Specified: " + validationPolicyId.toString())));
+				throw new ServiceException("Invalid Policy Specified");
 			}
-			byte[] certBytes = null;
+			/*
+			 * Check the x509Certificate
+			 */
+			String pemCert = request.x509Certificate;
+			MetricsSingleton metrics = MetricsSingleton.getInstance();
 			try {
-				certBytes = Base64.getDecoder().decode(pemCert);
-			} catch (Throwable e) {
-				LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Error decoding certificate, returning SERVICEFAIL", "stacktrace", LoggingUtil.stackTraceToString(e))));
-				throw new ServiceException("Error decoding x509Certificate");
-			}
-			if (null != certBytes) {
-				cf = CertificateFactory.getInstance("X509");
-				bais = new ByteArrayInputStream(certBytes);
-				clientCert = (X509Certificate) cf.generateCertificate(bais);
-			} else {
-				LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Error decoding certificate base64 (null result), returning SERVICEFAIL")));
+				if (pemCert.length() >= PEM_SIZE_LIMIT) {
+					throw new ServiceException("Size limit for x509Certificate exceeded");
+				}
+				byte[] certBytes = null;
+				long start = metrics.start();
+				try {
+					certBytes = Base64.getDecoder().decode(pemCert);
+				} catch (Throwable e) {
+					LOG.error("{}", LoggingUtil.json(Map.of("error", "Error decoding certificate, returning SERVICEFAIL", "stacktrace", LoggingUtil.stackTrace(e))));
+					throw new ServiceException("Error decoding x509Certificate");
+				}
+				metrics.record(MetricsSingleton.Stage.BASE64_DECODE, start);
+				if (null != certBytes) {
+					start = metrics.start();
+					cf = CertificateFactory.getInstance("X509");
+					bais = new ByteArrayInputStream(certBytes);
+					clientCert = (X509Certificate) cf.generateCertificate(bais);
+					metrics.record(MetricsSingleton.Stage.CERTIFICATE_PARSE, start);
+				} else {
+					LOG.error("{}", LoggingUtil.json(Map.of("error", "Error decoding certificate base64 (null result), returning SERVICEFAIL")));
+					throw new ServiceException("Error decoding x509Certificate");
+				}
+			} catch (CertificateException e) {
+				LOG.error("{}", LoggingUtil.json(Map.of("error", "Error decoding certificate, returning SERVICEFAIL", "stacktrace", LoggingUtil.stackTrace(e))));
 				throw new ServiceException("Error decoding x509Certificate");
 			}
-		} catch (CertificateException e) {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Error decoding certificate, returning SERVICEFAIL", "stacktrace", LoggingUtil.stackTraceToString(e))));
-			throw new ServiceException("Error decoding x509Certificate");
+			/*
+			 * Derive x5t#S256
+			 */
+			long start = metrics.start();
+			x5tS256 = X509Util.x5tS256(clientCert);
+			metrics.record(MetricsSingleton.Stage.X5T_DIGEST, start);
+		}
+		if (budget.isExceeded()) {
+			return ResponseEntity.ok().body(deadlineExceeded(valPol.validationPolicyId, x5tS256, budget.getReason()));
 		}
-		/*
-		 * Derive x5t#S256
-		 */
-		x5tS256 = X509Util.x5tS256(clientCert);
 		/*
 		 * Derive requestId.
 		 *
@@ -199,24 +253,96 @@ public class ValidateController {
 		request.setAdditionalProperty("requestHeaders", headers);
 		request.requestId = requestId;
 		/*
-		 * Log the request in JSON
+		 * Return the cached result if we have one that has not reached its expiry
 		 */
-		LOG.info(LoggingUtil.pojoToJson(request));
+		ValidationCacheSingleton validationCache = ValidationCacheSingleton.getInstance();
+		response = validationCache.get(requestId);
+		if (null != response) {
+			logValidation(request, x5tS256, response, true, received);
+			return ResponseEntity.ok().body(response);
+		}
 		/*
 		 * Validate, log, and; return the result
+		 *
+		 * Concurrent requests for the same requestId, and; snapshot version, share a
+		 * single validation
 		 */
+		final X509Certificate cert = clientCert;
+		final String certX5tS256 = x5tS256;
+		final String reqId = requestId;
+		try {
+			response = validationCache.coalesce(requestId, snapshotVersion,
+					() -> validateAndCache(cert, certX5tS256, valPol, reqId, snapshotVersion),
+					() -> deadlineExceeded(valPol.validationPolicyId, certX5tS256, budget.getReason()));
+		} catch (RuntimeException e) {
+			logValidation(request, x5tS256, null, false, received);
+			throw e;
+		}
+		logValidation(request, x5tS256, response, false, received);
+		ValidationResult respResult = response.validationResult;
+		if (respResult instanceof Success || respResult instanceof Fail) {
+			return ResponseEntity.ok().body(response);
+		}
+		return new ResponseEntity<>(response, HttpStatus.OK);
+	}
+
+	/*
+	 * Log a summary of every validation, and; the request, and; response, in full
+	 * if the logging policy samples it
+	 */
+	private static void logValidation(VssRequest request, String x5tS256, VssResponse response, boolean cached,
+			long received) {
+		if (!LOG.isInfoEnabled()) {
+			return;
+		}
+		LogPolicySingleton logPolicy = LogPolicySingleton.getInstance();
+		ValidationResult result = (null == response) ? null : response.validationResult;
+		LogPolicySingleton.Outcome outcome = LogPolicySingleton.Outcome.of(result);
+		boolean sampled = logPolicy.isSampled(request.requestId, outcome);
+		if (sampled) {
+			LOG.info("{}", LoggingUtil.json(logPolicy.redact(request)));
+			if (null != response) {
+				LOG.info("{}", LoggingUtil.json(logPolicy.redact(response)));
+			}
+		}
+		Map<String, Object> summary = new LinkedHashMap<>();
+		summary.put("requestId", request.requestId);
+		summary.put("validationPolicyId", request.validationPolicyId);
+		summary.put("x5t#S256", x5tS256);
+		summary.put("result", outcome.toString());
+		if (result instanceof Fail) {
+			summary.put("invalidityReasonText", ((Fail) result).invalidityReasonText);
+		}
+		summary.put("cached", cached);
+		summary.put("logged", sampled);
+		summary.put("millis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - received));
+		LOG.info("{}", LoggingUtil.json(Map.of("validation.summary", summary)));
+	}
+
+	/*
+	 * Validate, and; cache the result
+	 */
+	private VssResponse validateAndCache(X509Certificate clientCert, String x5tS256, ValidationPolicy valPol,
+			String requestId, long snapshotVersion) {
 		Instant vNow = Instant.now();
 		long lNow = vNow.toEpochMilli();
 		Date dNow = new Date(lNow);
-		response = ValidatePKIX.validate(clientCert, x5tS256, valPol, dNow);
+		ValidationCacheSingleton validationCache = ValidationCacheSingleton.getInstance();
+		VssResponse response = ValidatePKIX.validate(clientCert, x5tS256, valPol, dNow);
 		ValidationResult respResult = response.validationResult;
+		ValidationBudget budget = ValidationBudget.current();
+		boolean deadlineExceeded = (null != budget && budget.isExceeded());
 		response.validationTime = X509Util.ISO8601DateString(dNow);
 		/*
-		 * nextUpdate is based on the validation policy.
+		 * nextUpdate is the time a successful result will be re-validated, bounded by
+		 * the expiry of the certificate, and; the earliest nextUpdate of the OCSP
+		 * responses, and; CRLs, the revocation checker relied on.
 		 */
-		Calendar calendar = Calendar.getInstance();
-		calendar.setTime(dNow);
-		response.nextUpdate = X509Util.ISO8601DateString(calendar.getTime());
+		long nextUpdate = Math.min(lNow + (validationCache.getSuccessTtlSeconds() * 1000L), clientCert.getNotAfter().getTime());
+		if (null != budget) {
+			nextUpdate = Math.min(nextUpdate, budget.getRevocationNextUpdate());
+		}
+		response.nextUpdate = X509Util.ISO8601DateString(new Date(nextUpdate));
 		String validationNow = X509Util.ISO8601DateString(dNow);
 		if (respResult != null) {
 			if (respResult instanceof Success) {
@@ -233,19 +359,230 @@ public class ValidateController {
 				response.nextUpdate = null;
 			}
 		}
-		if (respResult != null) {
-			if (respResult instanceof Success) {
-				LOG.info(LoggingUtil.pojoToJson(response));
-				return ResponseEntity.ok().body(response);
-			} else if (respResult instanceof Fail) {
-				LOG.info(LoggingUtil.pojoToJson(response));
-				return ResponseEntity.ok().body(response);
-			} else {
-				ResponseEntity.badRequest();
+		/*
+		 * Journal every validation outcome, including those cut short by the deadline
+		 */
+		AuditJournalSingleton.getInstance().record(requestId, response, lNow);
+		/*
+		 * Cache the result; failures are cached separately, since they may be the
+		 * result of a transient condition.
+		 *
+		 * A result cut short by the deadline is not a result, and; is not cached.
+		 */
+		if (deadlineExceeded) {
+			return response;
+		}
+		if (respResult instanceof Success) {
+			validationCache.put(requestId, response, nextUpdate, snapshotVersion);
+		} else if (respResult instanceof Fail) {
+			validationCache.put(requestId, response, lNow + (validationCache.getFailureTtlSeconds() * 1000L),
+					snapshotVersion);
+		}
+		return response;
+	}
+
+	/*
+	 * The response for a request that exceeded its deadline before a result was
+	 * available; this is not an affirmative result
+	 */
+	private static VssResponse deadlineExceeded(String validationPolicyId, String x5tS256, String reason) {
+		VssResponse response = new VssResponse();
+		response.validationPolicyId = validationPolicyId;
+		response.x5tS256 = x5tS256;
+		Fail fail = new Fail();
+		fail.isAffirmativelyInvalid = false;
+		fail.invalidityReasonText = reason;
+		response.validationResult = fail;
+		return response;
+	}
+
+	/**
+	 * Async validation.
+	 *
+	 * The same as `/vss/v2/validate`, but the request thread is released while
+	 * the certificate is validated on a virtual thread. If the result is not
+	 * available within `async.deadline`, a FAIL with `isAffirmativelyInvalid`
+	 * false is returned; the validation continues, and; its result is cached for
+	 * a subsequent request.
+	 */
+	@PostMapping(path = "/vss/v2/validate/async", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	@io.swagger.v3.oas.annotations.parameters.RequestBody(description = "Certificate Validation Request", required = true, content = @Content(schema = @Schema(implementation = VssRequest.class), mediaType = MediaType.APPLICATION_JSON_VALUE))
+	@ApiResponse(responseCode = "200", content = @Content(schema = @Schema(implementation = VssResponse.class)))
+	@ApiResponse(responseCode = "400", content = @Content(schema = @Schema(implementation = ApiError.class)))
+	@CrossOrigin(origins = "*")
+	CompletableFuture<ResponseEntity<VssResponse>> validateAsync(@RequestBody VssRequest request, @RequestHeader Map<String, String> headers) {
+		return ValidationExecutorSingleton.getInstance().submit(() -> validate(request, headers)).exceptionally(e -> {
+			Throwable cause = (e instanceof CompletionException && null != e.getCause()) ? e.getCause() : e;
+			if (cause instanceof TimeoutException) {
+				LOG.warn("{}", LoggingUtil.json(Map.of("error", "Validation deadline exceeded, returning FAIL", "validationPolicyId",
+						String.valueOf(request.validationPolicyId))));
+				return ResponseEntity.ok().body(deadlineExceeded(request.validationPolicyId, null, "Validation deadline exceeded"));
 			}
+			throw (cause instanceof RuntimeException) ? (RuntimeException) cause : new CompletionException(cause);
+		});
+	}
+
+	/*
+	 * Newline delimited JSON
+	 */
+	private final static String APPLICATION_NDJSON = "application/x-ndjson";
+
+	/*
+	 * Largest bulk request line accepted; a VssRequest with a certificate at the
+	 * PEM_SIZE_LIMIT, plus room for the policy and requestId
+	 */
+	private final static int BULK_LINE_LIMIT = 16384;
+
+	private final static ObjectMapper BULK_MAPPER = new ObjectMapper();
+
+	/**
+	 * Bulk validation.
+	 *
+	 * The request is a stream of newline delimited VssRequest objects, and; the
+	 * response is a stream of newline delimited VssResponse objects, written as
+	 * each validation completes (so not necessarily in request order). A request
+	 * that can not be validated is answered with an ApiError including its
+	 * `requestId` (if provided), and; its `line` number.
+	 *
+	 * At most `bulk.max-in-flight` validations run at once; reading the request
+	 * stream pauses until one completes, so memory use does not depend on the size
+	 * of the stream.
+	 *
+	 * The response is written on the request thread (rather than as an async
+	 * StreamingResponseBody), so a long running stream is not subject to the async
+	 * request timeout.
+	 */
+	@PostMapping(path = "/vss/v2/validate/bulk", consumes = APPLICATION_NDJSON, produces = APPLICATION_NDJSON)
+	@io.swagger.v3.oas.annotations.parameters.RequestBody(description = "Newline delimited Certificate Validation Requests", required = true, content = @Content(schema = @Schema(implementation = VssRequest.class), mediaType = APPLICATION_NDJSON))
+	@ApiResponse(responseCode = "200", content = @Content(schema = @Schema(implementation = VssResponse.class), mediaType = APPLICATION_NDJSON))
+	@CrossOrigin(origins = "*")
+	void validateBulk(HttpServletRequest httpRequest, HttpServletResponse httpResponse, @RequestHeader Map<String, String> headers) throws IOException {
+		ValidationExecutorSingleton executor = ValidationExecutorSingleton.getInstance();
+		int maxInFlight = executor.getMaxBulkInFlight();
+		Semaphore inFlight = new Semaphore(maxInFlight);
+		AtomicReference<IOException> writeError = new AtomicReference<>();
+		httpResponse.setStatus(HttpStatus.OK.value());
+		httpResponse.setContentType(APPLICATION_NDJSON);
+		OutputStream out = httpResponse.getOutputStream();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(httpRequest.getInputStream(), StandardCharsets.UTF_8));
+		StringBuilder line = new StringBuilder();
+		long lineNumber = 0;
+		long count = 0;
+		try {
+			int length;
+			while (null == writeError.get() && (length = readLine(reader, line, BULK_LINE_LIMIT)) >= 0) {
+				lineNumber++;
+				final String requestJson = (length > BULK_LINE_LIMIT) ? null : line.toString();
+				if (null != requestJson && requestJson.isBlank()) {
+					continue;
+				}
+				count++;
+				final long requestLine = lineNumber;
+				inFlight.acquireUninterruptibly();
+				try {
+					executor.execute(() -> {
+						try {
+							writeBulkResult(out, validateBulkLine(requestJson, requestLine, headers), writeError);
+						} finally {
+							inFlight.release();
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					/*
+					 * The task will never run (e.g., during shutdown), so its permit is released
+					 * here, and; the line is answered with an error
+					 */
+					inFlight.release();
+					LOG.error("{}", LoggingUtil.json(Map.of("error", "Bulk validation rejected by the executor", "line",
+							requestLine, "stacktrace", LoggingUtil.stackTrace(e))));
+					writeBulkResult(out, bulkError(null, requestLine, "Service unavailable"), writeError);
+				}
+			}
+		} finally {
+			/*
+			 * Wait for the validations in flight
+			 */
+			inFlight.acquireUninterruptibly(maxInFlight);
+		}
+		if (null != writeError.get()) {
+			LOG.warn("{}", LoggingUtil.json(Map.of("error", "Bulk response stream closed", "bulk.requests", count)));
+			throw writeError.get();
+		}
+		LOG.info("{}", LoggingUtil.json(Map.of("bulk.requests", count)));
+		out.flush();
+	}
+
+	/*
+	 * Write a single bulk result line; the first write error is kept in
+	 * `writeError`, and; ends the bulk request
+	 */
+	private static void writeBulkResult(OutputStream out, Object result, AtomicReference<IOException> writeError) {
+		MetricsSingleton metrics = MetricsSingleton.getInstance();
+		try {
+			long start = metrics.start();
+			byte[] json = BULK_MAPPER.writeValueAsBytes(result);
+			metrics.record(MetricsSingleton.Stage.JSON_SERIALIZATION, start);
+			synchronized (out) {
+				out.write(json);
+				out.write('\n');
+				out.flush();
+			}
+		} catch (IOException e) {
+			writeError.compareAndSet(null, e);
 		}
-		LOG.info(LoggingUtil.pojoToJson(response));
-		return new ResponseEntity<>(response, HttpStatus.OK);
+	}
+
+	/*
+	 * Validate a single bulk request line, returning a VssResponse or ApiError
+	 */
+	private Object validateBulkLine(String requestJson, long lineNumber, Map<String, String> headers) {
+		if (null == requestJson) {
+			return bulkError(null, lineNumber, "Size limit for request exceeded");
+		}
+		VssRequest request;
+		try {
+			request = BULK_MAPPER.readValue(requestJson, VssRequest.class);
+		} catch (JsonProcessingException e) {
+			return bulkError(null, lineNumber, "Unable to parse VssRequest");
+		}
+		String clientRequestId = request.requestId;
+		try {
+			return validate(request, headers).getBody();
+		} catch (ServiceException e) {
+			return bulkError(clientRequestId, lineNumber, e.getMessage());
+		} catch (RuntimeException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Unexpected exception validating bulk request", "stacktrace", LoggingUtil.stackTrace(e))));
+			return bulkError(clientRequestId, lineNumber, "Internal Validation Error");
+		}
+	}
+
+	private static ApiError bulkError(String requestId, long lineNumber, String error) {
+		ApiError apiError = new ApiError();
+		apiError.requestId = requestId;
+		apiError.error = error;
+		apiError.setAdditionalProperty("line", lineNumber);
+		return apiError;
+	}
+
+	/*
+	 * Read a line into `line`, keeping at most `limit` characters.
+	 *
+	 * Returns the length of the line (which may exceed `limit`), or -1 at the end
+	 * of the stream.
+	 */
+	private static int readLine(BufferedReader reader, StringBuilder line, int limit) throws IOException {
+		line.setLength(0);
+		int length = 0;
+		int c;
+		while ((c = reader.read()) >= 0) {
+			if (c == '\n') {
+				return length;
+			}
+			if (c != '\r' && length++ < limit) {
+				line.append((char) c);
+			}
+		}
+		return (length == 0) ? -1 : length;
 	}
 
 	/*
@@ -305,7 +642,7 @@ public class ValidateController {
 		/*
 		 * Log the request
 		 */
-		V1LOG.info(LoggingUtil.pojoToJson(request));
+		V1LOG.info("{}", LoggingUtil.json(request));
 		/*
 		 * Process v1 request
 		 */
@@ -319,7 +656,7 @@ public class ValidateController {
 			txResult.transactionResultToken = "SERVICEFAIL";
 			txResult.transactionResultText = "Request must include validationPolicy, wantBackList, and x509CertificateList";
 			response.transactionResult = txResult;
-			V1LOG.warn(LoggingUtil.pojoToJson(Map.of("error", "Request is not a valid v1 request, returning SERVICEFAIL")));
+			V1LOG.warn("{}", LoggingUtil.json(Map.of("error", "Request is not a valid v1 request, returning SERVICEFAIL")));
 			return new ResponseEntity<>(response, HttpStatus.OK);
 		}
 		boolean certPathWantBack = false;
@@ -340,26 +677,56 @@ public class ValidateController {
 		List<JsonX509Certificate> batchCerts = request.x509CertificateList;
 		V1ValidationResult validationResult = new V1ValidationResult();
 		List<V1ResultByCertificate> resultsByCertificateList = new ArrayList<>();
+		/*
+		 * Validate each distinct certificate concurrently, using the V2 endpoint
+		 */
+		Map<String, Integer> distinctCerts = new LinkedHashMap<>();
+		for (JsonX509Certificate toValidate: batchCerts) {
+			distinctCerts.putIfAbsent(toValidate.x509Certificate, distinctCerts.size());
+		}
+		List<Supplier<VssResponse>> tasks = new ArrayList<>(distinctCerts.size());
+		for (String x509Certificate: distinctCerts.keySet()) {
+			tasks.add(() -> {
+				VssRequest v2Request = new VssRequest();
+				v2Request.validationPolicyId = request.validationPolicy;
+				v2Request.x509Certificate = x509Certificate;
+				return validate(v2Request, headers).getBody();
+			});
+		}
+		List<CompletableFuture<VssResponse>> futures = ValidationExecutorSingleton.getInstance().submitBatch(tasks);
+		/*
+		 * Map the results, in request order, to the V1 response.
+		 *
+		 * A ServiceException only fails its own certificate; the transaction fails if no
+		 * certificate could be validated.
+		 */
+		String serviceFailText = null;
+		boolean anyValidated = false;
 		for (JsonX509Certificate toValidate: batchCerts) {
-			/*
-			 * Validate the certificate in the V1 request using the V2 endpoint and map the results.
-			 */
-			VssRequest v2Request = new VssRequest();
-			v2Request.validationPolicyId = request.validationPolicy;
-			v2Request.x509Certificate = toValidate.x509Certificate;
 			VssResponse v2Response = null;
 			try {
-				v2Response = validate(v2Request, headers).getBody();
-			} catch(ServiceException e) {
-				txResult.transactionResultToken = "SERVICEFAIL";
-				txResult.transactionResultText = e.getMessage();
-				response.transactionResult = txResult;
-				V1LOG.warn(LoggingUtil.pojoToJson(Map.of("error", "Exception thrown via V2 endpoint, returning SERVICEFAIL", "stacktrace", LoggingUtil.stackTraceToString(e))));
-				return new ResponseEntity<>(response, HttpStatus.OK);
+				v2Response = futures.get(distinctCerts.get(toValidate.x509Certificate)).join();
+			} catch (CompletionException e) {
+				String failText;
+				if (e.getCause() instanceof ServiceException) {
+					failText = e.getCause().getMessage();
+					V1LOG.warn("{}", LoggingUtil.json(Map.of("error", "Exception thrown via V2 endpoint, returning FAIL for certificate", "stacktrace", LoggingUtil.stackTrace(e.getCause()))));
+				} else {
+					failText = "Internal Validation Error";
+					V1LOG.error("{}", LoggingUtil.json(Map.of("error", "Unexpected exception validating batch certificate", "stacktrace", LoggingUtil.stackTrace(e))));
+				}
+				if (null == serviceFailText) {
+					serviceFailText = failText;
+				}
+				V1ResultByCertificate result = new V1ResultByCertificate();
+				V1ResultByCertificateData resultData = new V1ResultByCertificateData();
+				resultData.validationResultToken = ValidationResult.FAIL_VALUE;
+				resultData.validationFailureData = v1FailureData(false, failText);
+				result.resultByCertificate = resultData;
+				resultsByCertificateList.add(result);
+				continue;
 			}
-			txResult.transactionResultToken = "SUCCESS";
-			txResult.transactionResultText = "Validation Operation Completed Successfully";
-			response.transactionResult = txResult;
+			anyValidated = true;
 			V1ResultByCertificate result = new V1ResultByCertificate();
 			V1ResultByCertificateData resultData = new V1ResultByCertificateData();
 			/*
@@ -398,32 +765,81 @@ public class ValidateController {
 			} else {
 				resultData.validationResultToken = ValidationResult.FAIL_VALUE;
 				Fail fail = (Fail)res;
-				V1ValidationFailureData failDetail = new V1ValidationFailureData();
-				failDetail.isAffirmativelyInvalid = fail.isAffirmativelyInvalid;
-				V1InvalidityReason reason = new V1InvalidityReason();
-				reason.invalidityReasonToken = ValidationResult.FAIL_VALUE;
-				reason.invalidityReasonText = fail.invalidityReasonText;
-				List<V1InvalidityReason> reasonList = new ArrayList<>();
-				reasonList.add(reason);
-				failDetail.invalidityReasonList = reasonList;
-				resultData.validationFailureData = failDetail;
+				resultData.validationFailureData = v1FailureData(fail.isAffirmativelyInvalid, fail.invalidityReasonText);
 			}
 			result.resultByCertificate = resultData;
 			resultsByCertificateList.add(result);
 		}
+		if (!anyValidated && null != serviceFailText) {
+			txResult.transactionResultToken = "SERVICEFAIL";
+			txResult.transactionResultText = serviceFailText;
+			response.transactionResult = txResult;
+			V1LOG.warn("{}", LoggingUtil.json(Map.of("error", "No certificate in the batch could be validated, returning SERVICEFAIL")));
+			return new ResponseEntity<>(response, HttpStatus.OK);
+		}
+		if (anyValidated) {
+			txResult.transactionResultToken = "SUCCESS";
+			txResult.transactionResultText = "Validation Operation Completed Successfully";
+			response.transactionResult = txResult;
+		}
 		validationResult.resultsByCertificateList = resultsByCertificateList;
 		response.validationResult = validationResult;
 		/*
 		 * Log the response
 		 */
-		V1LOG.info(LoggingUtil.pojoToJson(response));
+		V1LOG.info("{}", LoggingUtil.json(response));
 		return new ResponseEntity<>(response, HttpStatus.OK);
 	}
 
+	/*
+	 * The V1 failure detail of a certificate, with a single invalidity reason
+	 */
+	static V1ValidationFailureData v1FailureData(boolean isAffirmativelyInvalid, String invalidityReasonText) {
+		V1ValidationFailureData failDetail = new V1ValidationFailureData();
+		failDetail.isAffirmativelyInvalid = isAffirmativelyInvalid;
+		V1InvalidityReason reason = new V1InvalidityReason();
+		reason.invalidityReasonToken = ValidationResult.FAIL_VALUE;
+		reason.invalidityReasonText = invalidityReasonText;
+		List<V1InvalidityReason> reasonList = new ArrayList<>();
+		reasonList.add(reason);
+		failDetail.invalidityReasonList = reasonList;
+		return failDetail;
+	}
+
+	/**
+	 * Async v1 validation.
+	 *
+	 * The same as `/vss/rest`, but the request thread is released while the
+	 * certificates are validated on virtual threads. If the result is not
+	 * available within `async.deadline`, a SERVICEFAIL is returned.
+	 */
+	@PostMapping(path = "/vss/rest/async", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	@io.swagger.v3.oas.annotations.parameters.RequestBody(description = "Certificate Validation Request", required = true, content = @Content(schema = @Schema(implementation = V1VSSRequest.class), mediaType = MediaType.APPLICATION_JSON_VALUE))
+	@ApiResponse(responseCode = "200", content = @Content(schema = @Schema(implementation = V1VSSResponse.class)))
+	@CrossOrigin(origins = "*")
+	CompletableFuture<ResponseEntity<V1VSSResponse>> validateV1Async(@RequestBody V1VSSRequest request, @RequestHeader Map<String, String> headers) {
+		return ValidationExecutorSingleton.getInstance().submit(() -> validateV1(request, headers)).exceptionally(e -> {
+			Throwable cause = (e instanceof CompletionException && null != e.getCause()) ? e.getCause() : e;
+			V1VSSResponse response = new V1VSSResponse();
+			V1TransactionResult txResult = new V1TransactionResult();
+			txResult.transactionResultToken = "SERVICEFAIL";
+			if (cause instanceof TimeoutException) {
+				txResult.transactionResultText = "Validation deadline exceeded";
+				V1LOG.warn("{}", LoggingUtil.json(Map.of("error", "Validation deadline exceeded, returning SERVICEFAIL")));
+			} else {
+				txResult.transactionResultText = "Internal Validation Error";
+				V1LOG.error("{}", LoggingUtil.json(Map.of("error", "Unexpected exception validating batch, returning SERVICEFAIL", "stacktrace", LoggingUtil.stackTrace(cause))));
+			}
+			response.transactionResult = txResult;
+			return new ResponseEntity<>(response, HttpStatus.OK);
+		});
+	}
+
 	@ExceptionHandler({ Exception.class })
 	public ResponseEntity<Object> handleAll(Exception e, WebRequest request) {
-		ApiError apiError = new ApiError(HttpStatus.BAD_REQUEST, e.getLocalizedMessage());
-		return new ResponseEntity<>(apiError, new HttpHeaders(), apiError.getStatus());
+		ApiError apiError = new ApiError();
+		apiError.error = e.getLocalizedMessage();
+		return new ResponseEntity<>(apiError, new HttpHeaders(), HttpStatus.BAD_REQUEST);
 	}
 
 }
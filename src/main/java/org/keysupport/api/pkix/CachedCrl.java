@@ -0,0 +1,556 @@
+package org.keysupport.api.pkix;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.cert.CRLException;
+import java.security.cert.CRLReason;
+import java.security.cert.CertificateRevokedException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Set;
+import org.bouncycastle.asn1.x500.RDN;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLDistPoint;
+import org.bouncycastle.asn1.x509.DistributionPoint;
+import org.bouncycastle.asn1.x509.DistributionPointName;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.IssuingDistributionPoint;
+
+/**
+ * An immutable, compact, form of a verified X509CRL.
+ *
+ * Only what is needed to answer a revocation lookup is kept. The revoked
+ * serial numbers are packed into a single sorted byte array (with an offset
+ * index), and; the reason codes and revocation dates are kept in primitive
+ * arrays, so a multi-MB CRL is a handful of objects rather than one (or more)
+ * per entry.
+ *
+ * Serial numbers are ordered by encoded length, then unsigned byte value, and;
+ * looked up with a binary search.
+ */
+public final class CachedCrl {
+
+	private final static String IDP_OID = "2.5.29.28";
+
+	private final static String CRLDP_OID = "2.5.29.31";
+
+	private final static String CRL_NUMBER_OID = "2.5.29.20";
+
+	private final static CRLReason[] REASONS = CRLReason.values();
+
+	/*
+	 * Bounds a length read by readFrom
+	 */
+	private final static int MAX_READ_LENGTH = 256 * 1024 * 1024;
+
+	private final String uri;
+
+	private final X500Principal issuer;
+
+	private final PublicKey issuerKey;
+
+	private final long thisUpdate;
+
+	private final long nextUpdate;
+
+	private final BigInteger crlNumber;
+
+	private final boolean onlyUserCerts;
+
+	private final boolean onlyCaCerts;
+
+	/*
+	 * The full names of the IssuingDistributionPoint distributionPoint, or null if
+	 * the CRL is not scoped to a distribution point
+	 */
+	private final GeneralNames idpNames;
+
+	private final byte[] serials;
+
+	private final int[] offsets;
+
+	private final byte[] reasons;
+
+	private final long[] revocationDates;
+
+	private final int encodedLength;
+
+	private final long fetchedAt;
+
+	private CachedCrl(String uri, X509CRL crl, PublicKey issuerKey, boolean onlyUserCerts, boolean onlyCaCerts,
+			GeneralNames idpNames, byte[] serials, int[] offsets, byte[] reasons, long[] revocationDates,
+			int encodedLength) {
+		this.uri = uri;
+		this.issuer = crl.getIssuerX500Principal();
+		this.issuerKey = issuerKey;
+		this.thisUpdate = crl.getThisUpdate().getTime();
+		this.nextUpdate = (null == crl.getNextUpdate()) ? Long.MAX_VALUE : crl.getNextUpdate().getTime();
+		this.crlNumber = crlNumber(crl);
+		this.onlyUserCerts = onlyUserCerts;
+		this.onlyCaCerts = onlyCaCerts;
+		this.idpNames = idpNames;
+		this.serials = serials;
+		this.offsets = offsets;
+		this.reasons = reasons;
+		this.revocationDates = revocationDates;
+		this.encodedLength = encodedLength;
+		this.fetchedAt = System.currentTimeMillis();
+	}
+
+	private CachedCrl(String uri, X500Principal issuer, PublicKey issuerKey, long thisUpdate, long nextUpdate,
+			BigInteger crlNumber, boolean onlyUserCerts, boolean onlyCaCerts, GeneralNames idpNames, byte[] serials,
+			int[] offsets, byte[] reasons, long[] revocationDates, int encodedLength, long fetchedAt) {
+		this.uri = uri;
+		this.issuer = issuer;
+		this.issuerKey = issuerKey;
+		this.thisUpdate = thisUpdate;
+		this.nextUpdate = nextUpdate;
+		this.crlNumber = crlNumber;
+		this.onlyUserCerts = onlyUserCerts;
+		this.onlyCaCerts = onlyCaCerts;
+		this.idpNames = idpNames;
+		this.serials = serials;
+		this.offsets = offsets;
+		this.reasons = reasons;
+		this.revocationDates = revocationDates;
+		this.encodedLength = encodedLength;
+		this.fetchedAt = fetchedAt;
+	}
+
+	/**
+	 * Verify, and; convert an X509CRL.
+	 *
+	 * Indirect CRLs, delta CRLs, CRLs partitioned by reason, and; CRLs with other
+	 * unsupported critical extensions are rejected. The CRL cache records the
+	 * distribution point, and; the {@link CachingRevocationChecker} checks
+	 * certificates under it with the JDK revocation checker instead.
+	 *
+	 * The CRL signature is verified here, once, with the first of `issuerKeys`
+	 * that verifies it.
+	 *
+	 * The names of the IssuingDistributionPoint distributionPoint (if any) are
+	 * kept, so {@link #covers(X509Certificate)} can match them against the
+	 * cRLDistributionPoints of each certificate.
+	 *
+	 * @param uri           the distribution point the CRL was fetched from
+	 * @param crl           the CRL
+	 * @param issuerKeys    the possible CRL issuer keys
+	 * @param encodedLength size (bytes) of the encoded CRL
+	 * @return CachedCrl
+	 * @throws CRLException if the CRL can not be verified, or; represented
+	 */
+	public static CachedCrl fromX509Crl(String uri, X509CRL crl, List<PublicKey> issuerKeys, int encodedLength)
+			throws CRLException {
+		PublicKey issuerKey = null;
+		for (PublicKey key : issuerKeys) {
+			try {
+				crl.verify(key, ValidatePKIX.JCE_PROVIDER);
+				issuerKey = key;
+				break;
+			} catch (GeneralSecurityException e) {
+				continue;
+			}
+		}
+		if (null == issuerKey) {
+			throw new CRLException("CRL signature could not be verified with any issuer key");
+		}
+		boolean onlyUserCerts = false;
+		boolean onlyCaCerts = false;
+		GeneralNames idpNames = null;
+		Set<String> critical = (null == crl.getCriticalExtensionOIDs()) ? Collections.emptySet()
+				: new HashSet<>(crl.getCriticalExtensionOIDs());
+		byte[] idpValue = crl.getExtensionValue(IDP_OID);
+		if (null != idpValue) {
+			IssuingDistributionPoint idp;
+			try {
+				idp = IssuingDistributionPoint.getInstance(ASN1OctetString.getInstance(idpValue).getOctets());
+			} catch (IllegalArgumentException e) {
+				throw new CRLException("Unable to parse IssuingDistributionPoint", e);
+			}
+			if (idp.isIndirectCRL() || null != idp.getOnlySomeReasons() || idp.onlyContainsAttributeCerts()) {
+				throw new CRLException("Unsupported IssuingDistributionPoint scope");
+			}
+			onlyUserCerts = idp.onlyContainsUserCerts();
+			onlyCaCerts = idp.onlyContainsCACerts();
+			if (null != idp.getDistributionPoint()) {
+				try {
+					idpNames = fullNames(idp.getDistributionPoint(), crl.getIssuerX500Principal());
+				} catch (IllegalArgumentException e) {
+					throw new CRLException("Unable to parse IssuingDistributionPoint distributionPoint", e);
+				}
+			}
+			critical.remove(IDP_OID);
+		}
+		if (!critical.isEmpty()) {
+			throw new CRLException("Unsupported critical CRL extension(s): " + critical);
+		}
+		Set<? extends X509CRLEntry> entries = crl.getRevokedCertificates();
+		int count = (null == entries) ? 0 : entries.size();
+		byte[][] encodedSerials = new byte[count][];
+		byte[] entryReasons = new byte[count];
+		long[] entryDates = new long[count];
+		int total = 0;
+		int i = 0;
+		if (null != entries) {
+			for (X509CRLEntry entry : entries) {
+				if (entry.hasUnsupportedCriticalExtension()) {
+					throw new CRLException("Unsupported critical CRL entry extension");
+				}
+				encodedSerials[i] = entry.getSerialNumber().toByteArray();
+				CRLReason reason = entry.getRevocationReason();
+				entryReasons[i] = (byte) ((null == reason) ? CRLReason.UNSPECIFIED.ordinal() : reason.ordinal());
+				entryDates[i] = entry.getRevocationDate().getTime();
+				total += encodedSerials[i].length;
+				i++;
+			}
+		}
+		/*
+		 * Sort the entries by serial, then pack them
+		 */
+		Integer[] order = new Integer[count];
+		for (int j = 0; j < count; j++) {
+			order[j] = j;
+		}
+		Arrays.sort(order, (a, b) -> compare(encodedSerials[a], encodedSerials[b]));
+		byte[] packed = new byte[total];
+		int[] offsets = new int[count + 1];
+		byte[] reasons = new byte[count];
+		long[] dates = new long[count];
+		int pos = 0;
+		for (int j = 0; j < count; j++) {
+			byte[] serial = encodedSerials[order[j]];
+			offsets[j] = pos;
+			System.arraycopy(serial, 0, packed, pos, serial.length);
+			pos += serial.length;
+			reasons[j] = entryReasons[order[j]];
+			dates[j] = entryDates[order[j]];
+		}
+		offsets[count] = pos;
+		return new CachedCrl(uri, crl, issuerKey, onlyUserCerts, onlyCaCerts, idpNames, packed, offsets, reasons,
+				dates, encodedLength);
+	}
+
+	/*
+	 * The full names of a distribution point name; a name relative to the CRL
+	 * issuer is appended to the issuer name (RFC 5280, section 4.2.1.13)
+	 */
+	private static GeneralNames fullNames(DistributionPointName name, X500Principal crlIssuer) {
+		if (name.getType() == DistributionPointName.FULL_NAME) {
+			return GeneralNames.getInstance(name.getName());
+		}
+		RDN[] issuerRdns = X500Name.getInstance(crlIssuer.getEncoded()).getRDNs();
+		RDN[] rdns = Arrays.copyOf(issuerRdns, issuerRdns.length + 1);
+		rdns[issuerRdns.length] = RDN.getInstance(ASN1Set.getInstance(name.getName()));
+		return new GeneralNames(new GeneralName(new X500Name(rdns)));
+	}
+
+	private static BigInteger crlNumber(X509CRL crl) {
+		byte[] value = crl.getExtensionValue(CRL_NUMBER_OID);
+		if (null == value) {
+			return null;
+		}
+		try {
+			return ASN1Integer.getInstance(ASN1OctetString.getInstance(value).getOctets()).getValue();
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * Order by length, then unsigned byte value
+	 */
+	private static int compare(byte[] a, byte[] b) {
+		if (a.length != b.length) {
+			return Integer.compare(a.length, b.length);
+		}
+		return Arrays.compareUnsigned(a, b);
+	}
+
+	private int compareAt(int index, byte[] serial) {
+		int from = offsets[index];
+		int to = offsets[index + 1];
+		if ((to - from) != serial.length) {
+			return Integer.compare(to - from, serial.length);
+		}
+		return Arrays.compareUnsigned(serials, from, to, serial, 0, serial.length);
+	}
+
+	/**
+	 * @param serialNumber
+	 * @return the index of the revoked serial number, or -1 if not revoked
+	 */
+	public int indexOf(BigInteger serialNumber) {
+		byte[] serial = serialNumber.toByteArray();
+		int low = 0;
+		int high = reasons.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int c = compareAt(mid, serial);
+			if (c < 0) {
+				low = mid + 1;
+			} else if (c > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param date the validation date
+	 * @return true if the CRL may be relied upon at `date`
+	 */
+	public boolean isCurrent(Date date) {
+		long time = date.getTime();
+		return thisUpdate <= time && time < nextUpdate;
+	}
+
+	/**
+	 * A CRL scoped to a distribution point covers the certificate only if one of
+	 * the names of that distribution point matches one of the names of a
+	 * distribution point of the certificate, or; of its cRLIssuer if the
+	 * distribution point has no name (RFC 5280, section 6.3.3 (b)(2)(i)). A
+	 * certificate without cRLDistributionPoints is matched by its issuer name.
+	 *
+	 * @param cert the certificate being checked
+	 * @return true if this CRL is authoritative for the certificate
+	 */
+	public boolean covers(X509Certificate cert) {
+		if (!issuer.equals(cert.getIssuerX500Principal())) {
+			return false;
+		}
+		boolean isCa = cert.getBasicConstraints() != -1;
+		if ((onlyUserCerts && isCa) || (onlyCaCerts && !isCa)) {
+			return false;
+		}
+		return null == idpNames || matchesDistributionPoint(cert);
+	}
+
+	private boolean matchesDistributionPoint(X509Certificate cert) {
+		byte[] encodedExtension = cert.getExtensionValue(CRLDP_OID);
+		if (null == encodedExtension) {
+			return matches(new GeneralNames(new GeneralName(X500Name.getInstance(issuer.getEncoded()))));
+		}
+		try {
+			CRLDistPoint crlDp = CRLDistPoint.getInstance(ASN1OctetString.getInstance(encodedExtension).getOctets());
+			for (DistributionPoint dp : crlDp.getDistributionPoints()) {
+				if (null != dp.getDistributionPoint()) {
+					if (matches(fullNames(dp.getDistributionPoint(), issuer))) {
+						return true;
+					}
+				} else if (null != dp.getCRLIssuer() && matches(dp.getCRLIssuer())) {
+					return true;
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		return false;
+	}
+
+	private boolean matches(GeneralNames names) {
+		for (GeneralName name : names.getNames()) {
+			for (GeneralName idpName : idpNames.getNames()) {
+				if (idpName.equals(name)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param index as returned by {@link #indexOf(BigInteger)}
+	 * @return CertificateRevokedException for the revoked entry
+	 */
+	public CertificateRevokedException revokedException(int index) {
+		return new CertificateRevokedException(new Date(revocationDates[index]), REASONS[reasons[index]], issuer,
+				Map.of());
+	}
+
+	public String getUri() {
+		return uri;
+	}
+
+	public X500Principal getIssuer() {
+		return issuer;
+	}
+
+	public PublicKey getIssuerKey() {
+		return issuerKey;
+	}
+
+	public Date getThisUpdate() {
+		return new Date(thisUpdate);
+	}
+
+	/**
+	 * @return nextUpdate, or null if the CRL has none
+	 */
+	public Date getNextUpdate() {
+		return (nextUpdate == Long.MAX_VALUE) ? null : new Date(nextUpdate);
+	}
+
+	public BigInteger getCrlNumber() {
+		return crlNumber;
+	}
+
+	public int size() {
+		return reasons.length;
+	}
+
+	public int getEncodedLength() {
+		return encodedLength;
+	}
+
+	public long getFetchedAt() {
+		return fetchedAt;
+	}
+
+	/**
+	 * Write the (already verified) index, for {@link #readFrom(DataInputStream)}
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeUTF(uri);
+		writeBytes(out, issuer.getEncoded());
+		out.writeUTF(issuerKey.getAlgorithm());
+		writeBytes(out, issuerKey.getEncoded());
+		out.writeLong(thisUpdate);
+		out.writeLong(nextUpdate);
+		writeBytes(out, (null == crlNumber) ? null : crlNumber.toByteArray());
+		out.writeBoolean(onlyUserCerts);
+		out.writeBoolean(onlyCaCerts);
+		writeBytes(out, (null == idpNames) ? null : idpNames.getEncoded());
+		writeBytes(out, serials);
+		out.writeInt(offsets.length);
+		for (int offset : offsets) {
+			out.writeInt(offset);
+		}
+		writeBytes(out, reasons);
+		out.writeInt(revocationDates.length);
+		for (long revocationDate : revocationDates) {
+			out.writeLong(revocationDate);
+		}
+		out.writeInt(encodedLength);
+		out.writeLong(fetchedAt);
+	}
+
+	/**
+	 * Read an index written by {@link #writeTo(DataOutputStream)}; the CRL
+	 * signature is not verified again.
+	 *
+	 * @param in
+	 * @return CachedCrl
+	 * @throws IOException if the index can not be read, or; is inconsistent
+	 */
+	public static CachedCrl readFrom(DataInputStream in) throws IOException {
+		String uri = in.readUTF();
+		X500Principal issuer;
+		PublicKey issuerKey;
+		try {
+			issuer = new X500Principal(readBytes(in));
+			String algorithm = in.readUTF();
+			issuerKey = KeyFactory.getInstance(algorithm).generatePublic(new X509EncodedKeySpec(readBytes(in)));
+		} catch (IllegalArgumentException | GeneralSecurityException e) {
+			throw new IOException("Invalid CRL issuer", e);
+		}
+		long thisUpdate = in.readLong();
+		long nextUpdate = in.readLong();
+		byte[] crlNumber = readBytes(in);
+		boolean onlyUserCerts = in.readBoolean();
+		boolean onlyCaCerts = in.readBoolean();
+		byte[] encodedIdpNames = readBytes(in);
+		GeneralNames idpNames;
+		try {
+			idpNames = (null == encodedIdpNames) ? null : GeneralNames.getInstance(encodedIdpNames);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid IssuingDistributionPoint names", e);
+		}
+		byte[] serials = readBytes(in);
+		int[] offsets = new int[readLength(in)];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = in.readInt();
+		}
+		byte[] reasons = readBytes(in);
+		long[] revocationDates = new long[readLength(in)];
+		for (int i = 0; i < revocationDates.length; i++) {
+			revocationDates[i] = in.readLong();
+		}
+		if (null == serials || null == reasons || offsets.length != reasons.length + 1
+				|| revocationDates.length != reasons.length || offsets[0] != 0
+				|| offsets[reasons.length] != serials.length) {
+			throw new IOException("Inconsistent CRL index");
+		}
+		/*
+		 * Every serial is at least one byte, and; every reason is a CRLReason
+		 */
+		for (int i = 0; i < reasons.length; i++) {
+			if (offsets[i] >= offsets[i + 1] || reasons[i] < 0 || reasons[i] >= REASONS.length) {
+				throw new IOException("Inconsistent CRL index entry " + i);
+			}
+		}
+		return new CachedCrl(uri, issuer, issuerKey, thisUpdate, nextUpdate,
+				(null == crlNumber) ? null : new BigInteger(crlNumber), onlyUserCerts, onlyCaCerts, idpNames, serials,
+				offsets, reasons, revocationDates, in.readInt(), in.readLong());
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt((null == bytes) ? -1 : bytes.length);
+		if (null != bytes) {
+			out.write(bytes);
+		}
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (-1 == length) {
+			return null;
+		}
+		byte[] bytes = new byte[checkLength(length)];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	private static int readLength(DataInputStream in) throws IOException {
+		return checkLength(in.readInt());
+	}
+
+	private static int checkLength(int length) throws IOException {
+		if (length < 0 || length > MAX_READ_LENGTH) {
+			throw new IOException("Invalid length " + length);
+		}
+		return length;
+	}
+
+	/**
+	 * @return approximate retained size (bytes) of the index
+	 */
+	public long getIndexSize() {
+		return serials.length + (offsets.length * 4L) + reasons.length + (revocationDates.length * 8L);
+	}
+
+}
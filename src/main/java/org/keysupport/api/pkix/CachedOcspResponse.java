@@ -0,0 +1,361 @@
+package org.keysupport.api.pkix;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.PublicKey;
+import java.security.cert.CRLReason;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateRevokedException;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.CertException;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.bouncycastle.operator.DigestCalculatorProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+/**
+ * An immutable, verified, OCSP response for a single certificate.
+ *
+ * Only the certificate status, and; the validity interval of the response, are
+ * kept. The response may be reused, for the same CertID, until its
+ * `nextUpdate`.
+ *
+ * Responses are accepted from the certificate issuer, or; a delegated responder
+ * certificate (issued by the issuer, asserting id-kp-OCSPSigning) included in
+ * the response. Nonces are not used, since the response is shared across
+ * requests.
+ */
+public final class CachedOcspResponse {
+
+	/*
+	 * Clock skew allowed for `thisUpdate`, the same default the JDK uses
+	 */
+	private final static long MAX_CLOCK_SKEW = TimeUnit.SECONDS.toMillis(900);
+
+	private final static CRLReason[] REASONS = CRLReason.values();
+
+	public enum Status {
+		GOOD, REVOKED, UNKNOWN
+	}
+
+	private final String certId;
+
+	private final String uri;
+
+	private final X500Principal issuer;
+
+	private final Status status;
+
+	private final long revocationTime;
+
+	private final int reason;
+
+	private final long thisUpdate;
+
+	private final long nextUpdate;
+
+	private final long fetchedAt;
+
+	private CachedOcspResponse(String certId, String uri, X500Principal issuer, Status status, long revocationTime,
+			int reason, long thisUpdate, long nextUpdate) {
+		this(certId, uri, issuer, status, revocationTime, reason, thisUpdate, nextUpdate, System.currentTimeMillis());
+	}
+
+	private CachedOcspResponse(String certId, String uri, X500Principal issuer, Status status, long revocationTime,
+			int reason, long thisUpdate, long nextUpdate, long fetchedAt) {
+		this.certId = certId;
+		this.uri = uri;
+		this.issuer = issuer;
+		this.status = status;
+		this.revocationTime = revocationTime;
+		this.reason = reason;
+		this.thisUpdate = thisUpdate;
+		this.nextUpdate = nextUpdate;
+		this.fetchedAt = fetchedAt;
+	}
+
+	/**
+	 * @param issuer       the certificate issuer
+	 * @param serialNumber the certificate serial number
+	 * @return the (SHA-1) CertID of the certificate
+	 * @throws OCSPException
+	 */
+	public static CertificateID certificateId(X509Certificate issuer, BigInteger serialNumber)
+			throws OCSPException {
+		try {
+			DigestCalculatorProvider dcp = new JcaDigestCalculatorProviderBuilder()
+					.setProvider(ValidatePKIX.JCE_PROVIDER).build();
+			return new CertificateID(dcp.get(CertificateID.HASH_SHA1), new JcaX509CertificateHolder(issuer),
+					serialNumber);
+		} catch (OperatorCreationException | CertificateEncodingException e) {
+			throw new OCSPException("Unable to create CertID", e);
+		}
+	}
+
+	/**
+	 * @param certId
+	 * @return the cache key for a CertID: issuer name hash, issuer key hash, and;
+	 *         serial number
+	 */
+	public static String cacheKey(CertificateID certId) {
+		return X509Util.byteArrayToHexString(certId.getIssuerNameHash()) + "|"
+				+ X509Util.byteArrayToHexString(certId.getIssuerKeyHash()) + "|" + certId.getSerialNumber().toString(16);
+	}
+
+	/**
+	 * @param certId
+	 * @return a DER encoded OCSPRequest for the CertID
+	 * @throws OCSPException
+	 */
+	public static byte[] request(CertificateID certId) throws OCSPException {
+		try {
+			return new OCSPReqBuilder().addRequest(certId).build().getEncoded();
+		} catch (IOException e) {
+			throw new OCSPException("Unable to encode OCSP request", e);
+		}
+	}
+
+	/**
+	 * Verify, and; convert an OCSP response.
+	 *
+	 * @param uri      the responder the response was obtained from
+	 * @param encoded  the DER encoded OCSPResponse
+	 * @param certId   the CertID that was requested
+	 * @param issuer   the certificate issuer
+	 * @param date     the time the response must be valid at
+	 * @return CachedOcspResponse
+	 * @throws OCSPException if the response can not be verified, or; does not
+	 *                       answer for the CertID
+	 */
+	public static CachedOcspResponse fromResponse(String uri, byte[] encoded, CertificateID certId,
+			X509Certificate issuer, Date date) throws OCSPException {
+		OCSPResp resp;
+		try {
+			resp = new OCSPResp(encoded);
+		} catch (IOException e) {
+			throw new OCSPException("Unable to parse OCSP response", e);
+		}
+		if (resp.getStatus() != OCSPResp.SUCCESSFUL) {
+			throw new OCSPException("OCSP response status: " + resp.getStatus());
+		}
+		if (!(resp.getResponseObject() instanceof BasicOCSPResp)) {
+			throw new OCSPException("Unsupported OCSP response type");
+		}
+		BasicOCSPResp basic = (BasicOCSPResp) resp.getResponseObject();
+		verifySignature(basic, issuer, date);
+		SingleResp single = null;
+		for (SingleResp candidate : basic.getResponses()) {
+			if (candidate.getCertID().equals(certId)) {
+				single = candidate;
+				break;
+			}
+		}
+		if (null == single) {
+			throw new OCSPException("OCSP response does not include the requested CertID");
+		}
+		long thisUpdate = single.getThisUpdate().getTime();
+		long nextUpdate = (null == single.getNextUpdate()) ? Long.MIN_VALUE : single.getNextUpdate().getTime();
+		if (thisUpdate > date.getTime() + MAX_CLOCK_SKEW) {
+			throw new OCSPException("OCSP response thisUpdate is in the future");
+		}
+		if (nextUpdate != Long.MIN_VALUE && nextUpdate <= date.getTime()) {
+			throw new OCSPException("OCSP response has expired");
+		}
+		CertificateStatus certStatus = single.getCertStatus();
+		Status status;
+		long revocationTime = 0;
+		int reason = CRLReason.UNSPECIFIED.ordinal();
+		if (certStatus == CertificateStatus.GOOD) {
+			status = Status.GOOD;
+		} else if (certStatus instanceof RevokedStatus) {
+			RevokedStatus revoked = (RevokedStatus) certStatus;
+			status = Status.REVOKED;
+			revocationTime = revoked.getRevocationTime().getTime();
+			if (revoked.hasRevocationReason() && revoked.getRevocationReason() < REASONS.length) {
+				reason = revoked.getRevocationReason();
+			}
+		} else {
+			status = Status.UNKNOWN;
+		}
+		return new CachedOcspResponse(cacheKey(certId), uri, issuer.getSubjectX500Principal(), status, revocationTime,
+				reason, thisUpdate, nextUpdate);
+	}
+
+	/*
+	 * The response must be signed by the issuer, or; a delegated responder
+	 */
+	private static void verifySignature(BasicOCSPResp basic, X509Certificate issuer, Date date)
+			throws OCSPException {
+		try {
+			if (basic.isSignatureValid(verifier(issuer.getPublicKey()))) {
+				return;
+			}
+		} catch (OCSPException e) {
+			/*
+			 * Not signed by the issuer, try a delegated responder
+			 */
+		}
+		ContentVerifierProvider issuerVerifier = verifier(issuer.getPublicKey());
+		X500Name issuerName = X500Name.getInstance(issuer.getSubjectX500Principal().getEncoded());
+		for (X509CertificateHolder responder : basic.getCerts()) {
+			try {
+				if (!responder.getIssuer().equals(issuerName)
+						|| !responder.isValidOn(date) || !responder.isSignatureValid(issuerVerifier)) {
+					continue;
+				}
+				ExtendedKeyUsage eku = ExtendedKeyUsage.fromExtensions(responder.getExtensions());
+				if (null == eku || !eku.hasKeyPurposeId(KeyPurposeId.id_kp_OCSPSigning)) {
+					continue;
+				}
+				if (basic.isSignatureValid(verifier(responder))) {
+					return;
+				}
+			} catch (OCSPException | CertException e) {
+				continue;
+			}
+		}
+		throw new OCSPException("OCSP response signature could not be verified");
+	}
+
+	private static ContentVerifierProvider verifier(PublicKey key) throws OCSPException {
+		try {
+			return new JcaContentVerifierProviderBuilder().setProvider(ValidatePKIX.JCE_PROVIDER).build(key);
+		} catch (OperatorCreationException e) {
+			throw new OCSPException("Unable to create verifier", e);
+		}
+	}
+
+	private static ContentVerifierProvider verifier(X509CertificateHolder cert) throws OCSPException {
+		try {
+			return new JcaContentVerifierProviderBuilder().setProvider(ValidatePKIX.JCE_PROVIDER).build(cert);
+		} catch (OperatorCreationException | CertificateException e) {
+			throw new OCSPException("Unable to create verifier", e);
+		}
+	}
+
+	/**
+	 * @param date the validation date
+	 * @return true if the response may be relied upon at `date`
+	 */
+	public boolean isCurrent(Date date) {
+		long time = date.getTime();
+		return thisUpdate - MAX_CLOCK_SKEW <= time && time < nextUpdate;
+	}
+
+	/**
+	 * @return true if the response has a `nextUpdate`, and; may be reused
+	 */
+	public boolean isCacheable() {
+		return nextUpdate != Long.MIN_VALUE;
+	}
+
+	/**
+	 * @return CertificateRevokedException for a revoked certificate
+	 */
+	public CertificateRevokedException revokedException() {
+		return new CertificateRevokedException(new Date(revocationTime), REASONS[reason], issuer, Map.of());
+	}
+
+	/**
+	 * Write the (already verified) response, for
+	 * {@link #readFrom(DataInputStream)}
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeUTF(certId);
+		out.writeUTF(uri);
+		byte[] encodedIssuer = issuer.getEncoded();
+		out.writeInt(encodedIssuer.length);
+		out.write(encodedIssuer);
+		out.writeByte(status.ordinal());
+		out.writeLong(revocationTime);
+		out.writeInt(reason);
+		out.writeLong(thisUpdate);
+		out.writeLong(nextUpdate);
+		out.writeLong(fetchedAt);
+	}
+
+	/**
+	 * Read a response written by {@link #writeTo(DataOutputStream)}; the response
+	 * signature is not verified again.
+	 *
+	 * @param in
+	 * @return CachedOcspResponse
+	 * @throws IOException if the response can not be read
+	 */
+	public static CachedOcspResponse readFrom(DataInputStream in) throws IOException {
+		String certId = in.readUTF();
+		String uri = in.readUTF();
+		int length = in.readInt();
+		if (length < 0 || length > 65536) {
+			throw new IOException("Invalid issuer length " + length);
+		}
+		byte[] encodedIssuer = new byte[length];
+		in.readFully(encodedIssuer);
+		int status = in.readByte();
+		long revocationTime = in.readLong();
+		int reason = in.readInt();
+		if (status < 0 || status >= Status.values().length || reason < 0 || reason >= REASONS.length) {
+			throw new IOException("Invalid OCSP status");
+		}
+		try {
+			return new CachedOcspResponse(certId, uri, new X500Principal(encodedIssuer), Status.values()[status],
+					revocationTime, reason, in.readLong(), in.readLong(), in.readLong());
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid OCSP issuer", e);
+		}
+	}
+
+	public String getCertId() {
+		return certId;
+	}
+
+	public String getUri() {
+		return uri;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public Date getThisUpdate() {
+		return new Date(thisUpdate);
+	}
+
+	/**
+	 * @return nextUpdate, or null if the response has none
+	 */
+	public Date getNextUpdate() {
+		return (nextUpdate == Long.MIN_VALUE) ? null : new Date(nextUpdate);
+	}
+
+	public long getFetchedAt() {
+		return fetchedAt;
+	}
+
+}
@@ -0,0 +1,362 @@
+package org.keysupport.api.pkix;
+
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.CertPath;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.CertificateRevokedException;
+import java.security.cert.PKIXParameters;
+import java.security.cert.PKIXRevocationChecker;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.keysupport.api.LoggingUtil;
+import org.keysupport.api.singletons.CrlCacheSingleton;
+import org.keysupport.api.singletons.MetricsSingleton;
+import org.keysupport.api.singletons.OcspCacheSingleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A revocation checker backed by the {@link OcspCacheSingleton}, and; the
+ * {@link CrlCacheSingleton}.
+ *
+ * This takes the place of the JDK revocation checker, which does not share
+ * OCSP responses (or CRLs) across validations. Since it is a
+ * PKIXRevocationChecker, the SUN provider does not add its own.
+ *
+ * As with the JDK checker, OCSP is checked first (unless PREFER_CRLS is set),
+ * and; the other mechanism is used if the first can not determine the status
+ * (unless NO_FALLBACK is set). ONLY_END_ENTITY and SOFT_FAIL are also honored.
+ *
+ * CRLs the {@link CrlCacheSingleton} can not cache (indirect, delta, or;
+ * partitioned by reason) are checked with the JDK revocation checker instead,
+ * by validating the path to the certificate again, with only that certificate
+ * checked for revocation. The JDK checker fetches those CRLs itself, bounded by
+ * `com.sun.security.crl.timeout` rather than the {@link ValidationBudget}.
+ *
+ * The issuer of each certificate is the previous certificate in the path, or;
+ * a trust anchor for the first.
+ *
+ * The `nextUpdate` of each response, and; CRL, relied upon is recorded in the
+ * {@link ValidationBudget} of the request, so the result is not cached beyond
+ * it. A response without a `nextUpdate` may only be relied upon now.
+ */
+public final class CachingRevocationChecker extends PKIXRevocationChecker {
+
+	private final static Logger LOG = LoggerFactory.getLogger(CachingRevocationChecker.class);
+
+	private final Set<TrustAnchor> trustAnchors;
+
+	private final List<CertStore> certStores;
+
+	private final Date date;
+
+	private final boolean ocspEnabled;
+
+	private final boolean crlEnabled;
+
+	private X509Certificate prevCert;
+
+	/*
+	 * The certificates checked so far, trust anchor first
+	 */
+	private List<X509Certificate> checked = new ArrayList<>();
+
+	private List<CertPathValidatorException> softFailExceptions = new ArrayList<>();
+
+	/**
+	 * @param trustAnchors the trust anchors of the validation policy
+	 * @param certStores   the intermediate stores of the validation policy, used
+	 *                     by the JDK revocation checker
+	 * @param date         the validation date
+	 * @param ocspEnabled  check OCSP responses
+	 * @param crlEnabled   check CRLs
+	 */
+	public CachingRevocationChecker(Set<TrustAnchor> trustAnchors, List<CertStore> certStores, Date date,
+			boolean ocspEnabled, boolean crlEnabled) {
+		this.trustAnchors = trustAnchors;
+		this.certStores = certStores;
+		this.date = (null == date) ? new Date() : date;
+		this.ocspEnabled = ocspEnabled;
+		this.crlEnabled = crlEnabled;
+	}
+
+	@Override
+	public void init(boolean forward) throws CertPathValidatorException {
+		if (forward) {
+			throw new CertPathValidatorException("forward checking not supported");
+		}
+		prevCert = null;
+		checked = new ArrayList<>();
+		softFailExceptions = new ArrayList<>();
+	}
+
+	@Override
+	public boolean isForwardCheckingSupported() {
+		return false;
+	}
+
+	@Override
+	public Set<String> getSupportedExtensions() {
+		return null;
+	}
+
+	@Override
+	public List<CertPathValidatorException> getSoftFailExceptions() {
+		return Collections.unmodifiableList(softFailExceptions);
+	}
+
+	@Override
+	@SuppressWarnings("try")
+	public void check(Certificate cert, Collection<String> unresolvedCritExts) throws CertPathValidatorException {
+		X509Certificate xcert = (X509Certificate) cert;
+		List<X509Certificate> issuers = (null != prevCert) ? List.of(prevCert)
+				: anchorCerts(xcert.getIssuerX500Principal());
+		prevCert = xcert;
+		checked.add(xcert);
+		if (getOptions().contains(Option.ONLY_END_ENTITY) && xcert.getBasicConstraints() != -1) {
+			return;
+		}
+		/*
+		 * Fetches are bounded by the revocation budget of the request, if there is one
+		 */
+		ValidationBudget budget = ValidationBudget.current();
+		try (ValidationBudget.Scope revocation = (null == budget) ? null : budget.enter(ValidationBudget.Stage.REVOCATION)) {
+			check(xcert, issuers, budget);
+		}
+	}
+
+	private void check(X509Certificate xcert, List<X509Certificate> issuers, ValidationBudget budget)
+			throws CertPathValidatorException {
+		if (null != budget && budget.isExceeded()) {
+			throw new CertPathValidatorException(budget.getReason(), null, null, -1,
+					CertPathValidatorException.BasicReason.UNDETERMINED_REVOCATION_STATUS);
+		}
+		boolean preferCrls = getOptions().contains(Option.PREFER_CRLS);
+		boolean fallback = !getOptions().contains(Option.NO_FALLBACK);
+		boolean determined;
+		if (preferCrls) {
+			determined = crlEnabled && timedCheckCrl(xcert, issuers);
+			if (!determined && fallback) {
+				determined = ocspEnabled && timedCheckOcsp(xcert, issuers);
+			}
+		} else {
+			determined = ocspEnabled && timedCheckOcsp(xcert, issuers);
+			if (!determined && fallback) {
+				determined = crlEnabled && timedCheckCrl(xcert, issuers);
+			}
+		}
+		/*
+		 * The JDK checker fetches CRLs itself, so it is not started once the budget
+		 * has run out
+		 */
+		if (!determined && crlEnabled && hasUnsupportedCrl(xcert) && (null == budget || !budget.isExceeded())) {
+			determined = timedCheckJdk(xcert);
+		}
+		if (determined) {
+			return;
+		}
+		CertPathValidatorException e = new CertPathValidatorException("Could not determine revocation status", null,
+				null, -1, CertPathValidatorException.BasicReason.UNDETERMINED_REVOCATION_STATUS);
+		if (getOptions().contains(Option.SOFT_FAIL)) {
+			softFailExceptions.add(e);
+			return;
+		}
+		throw e;
+	}
+
+	/*
+	 * Time each mechanism; a mechanism that throws (revoked) has determined the
+	 * status
+	 */
+	private boolean timedCheckOcsp(X509Certificate xcert, List<X509Certificate> issuers)
+			throws CertPathValidatorException {
+		MetricsSingleton metrics = MetricsSingleton.getInstance();
+		long start = metrics.start();
+		boolean determined = true;
+		try {
+			determined = checkOcsp(xcert, issuers);
+			return determined;
+		} finally {
+			metrics.recordRevocation("ocsp", determined, start);
+		}
+	}
+
+	private boolean timedCheckCrl(X509Certificate xcert, List<X509Certificate> issuers)
+			throws CertPathValidatorException {
+		MetricsSingleton metrics = MetricsSingleton.getInstance();
+		long start = metrics.start();
+		boolean determined = true;
+		try {
+			determined = checkCrl(xcert, issuers);
+			return determined;
+		} finally {
+			metrics.recordRevocation("crl", determined, start);
+		}
+	}
+
+	private boolean timedCheckJdk(X509Certificate xcert) throws CertPathValidatorException {
+		MetricsSingleton metrics = MetricsSingleton.getInstance();
+		long start = metrics.start();
+		boolean determined = true;
+		try {
+			determined = checkJdk(xcert);
+			return determined;
+		} finally {
+			metrics.recordRevocation("jdk", determined, start);
+		}
+	}
+
+	/*
+	 * @return true if a GOOD response was obtained
+	 */
+	private boolean checkOcsp(X509Certificate xcert, List<X509Certificate> issuers)
+			throws CertPathValidatorException {
+		OcspCacheSingleton ocspCache = OcspCacheSingleton.getInstance();
+		for (X509Certificate issuer : issuers) {
+			CachedOcspResponse response = ocspCache.get(xcert, issuer, date);
+			if (null == response) {
+				continue;
+			}
+			switch (response.getStatus()) {
+			case GOOD:
+				reliedOn((null == response.getNextUpdate()) ? System.currentTimeMillis()
+						: response.getNextUpdate().getTime());
+				return true;
+			case REVOKED:
+				throw revoked(response.revokedException());
+			default:
+				continue;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * @return true if the certificate is not on a current CRL from its issuer
+	 */
+	private boolean checkCrl(X509Certificate xcert, List<X509Certificate> issuers)
+			throws CertPathValidatorException {
+		List<PublicKey> issuerKeys = new ArrayList<>(issuers.size());
+		for (X509Certificate issuer : issuers) {
+			issuerKeys.add(issuer.getPublicKey());
+		}
+		CrlCacheSingleton crlCache = CrlCacheSingleton.getInstance();
+		for (String uri : X509Util.getCrlDistributionPointUris(xcert)) {
+			CachedCrl crl = crlCache.get(uri, issuerKeys, date);
+			if (null != crl && crl.covers(xcert)) {
+				int index = crl.indexOf(xcert.getSerialNumber());
+				if (index >= 0) {
+					throw revoked(crl.revokedException(index));
+				}
+				if (null != crl.getNextUpdate()) {
+					reliedOn(crl.getNextUpdate().getTime());
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void reliedOn(long nextUpdate) {
+		ValidationBudget budget = ValidationBudget.current();
+		if (null != budget) {
+			budget.reliedOn(nextUpdate);
+		}
+	}
+
+	/*
+	 * @return true if a distribution point of the certificate has a CRL the cache
+	 * could not represent
+	 */
+	private static boolean hasUnsupportedCrl(X509Certificate xcert) {
+		CrlCacheSingleton crlCache = CrlCacheSingleton.getInstance();
+		for (String uri : X509Util.getCrlDistributionPointUris(xcert)) {
+			if (crlCache.isUnsupported(uri)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Check the CRL(s) of the certificate with the JDK revocation checker, which
+	 * handles indirect CRLs (building a path to the CRL issuer if needed).
+	 *
+	 * The JDK checker can only be initialized by a CertPathValidator, so the path
+	 * checked so far is validated again, with only its last certificate checked.
+	 *
+	 * @return true if the certificate is not revoked
+	 */
+	private boolean checkJdk(X509Certificate xcert) throws CertPathValidatorException {
+		List<X509Certificate> path = new ArrayList<>(checked);
+		Collections.reverse(path);
+		try {
+			CertPath cp = CertificateFactory.getInstance("X.509").generateCertPath(path);
+			CertPathValidator cpv = CertPathValidator.getInstance(ValidatePKIX.CERTPATH_ALGORITHM,
+					CompiledValidationPolicy.getCertPathProvider());
+			PKIXRevocationChecker rc = (PKIXRevocationChecker) cpv.getRevocationChecker();
+			rc.setOptions(EnumSet.of(Option.ONLY_END_ENTITY, Option.PREFER_CRLS, Option.NO_FALLBACK));
+			PKIXParameters params = new PKIXParameters(trustAnchors);
+			params.setSigProvider(ValidatePKIX.JCE_PROVIDER);
+			params.setDate(date);
+			params.setCertStores(certStores);
+			params.addCertPathChecker(rc);
+			cpv.validate(cp, params);
+			return true;
+		} catch (CertPathValidatorException e) {
+			if (e.getReason() == CertPathValidatorException.BasicReason.REVOKED) {
+				throw new CertPathValidatorException(e.getMessage(), e.getCause(), null, -1,
+						CertPathValidatorException.BasicReason.REVOKED);
+			}
+			return false;
+		} catch (GeneralSecurityException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Error checking revocation with the JDK checker",
+					"stacktrace", LoggingUtil.stackTrace(e))));
+			return false;
+		}
+	}
+
+	private static CertPathValidatorException revoked(CertificateRevokedException cre) {
+		return new CertPathValidatorException(cre.getMessage(), cre, null, -1,
+				CertPathValidatorException.BasicReason.REVOKED);
+	}
+
+	/*
+	 * Trust anchors that may have issued the first certificate in the path
+	 */
+	private List<X509Certificate> anchorCerts(X500Principal issuer) {
+		List<X509Certificate> certs = new ArrayList<>();
+		for (TrustAnchor anchor : trustAnchors) {
+			if (null != anchor.getTrustedCert()
+					&& anchor.getTrustedCert().getSubjectX500Principal().equals(issuer)) {
+				certs.add(anchor.getTrustedCert());
+			}
+		}
+		return certs;
+	}
+
+	@Override
+	public CachingRevocationChecker clone() {
+		CachingRevocationChecker clone = (CachingRevocationChecker) super.clone();
+		clone.checked = new ArrayList<>(checked);
+		clone.softFailExceptions = new ArrayList<>(softFailExceptions);
+		return clone;
+	}
+
+}
@@ -0,0 +1,203 @@
+package org.keysupport.api.pkix;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.security.cert.CertPathBuilder;
+import java.security.cert.PKIXBuilderParameters;
+import java.security.cert.PKIXRevocationChecker;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CertSelector;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.keysupport.api.pojo.vss.ValidationPolicy;
+import org.keysupport.api.singletons.CrlCacheSingleton;
+import org.keysupport.api.singletons.OcspCacheSingleton;
+
+/**
+ * An immutable, pre-built form of a {@link ValidationPolicy}.
+ *
+ * Everything that does not depend on the certificate being validated (trust
+ * anchors, initial policy set, policy flags, intermediate store, and revocation
+ * options) is resolved once, when the policies are loaded.
+ *
+ * Each request obtains its own {@link PKIXBuilderParameters} by cloning the
+ * template, and; setting only the target and validation date.
+ *
+ * When OCSP, or; CRLs, are a revocation source, the JDK revocation checker is
+ * replaced with a {@link CachingRevocationChecker}, backed by the
+ * {@link OcspCacheSingleton}, and; the {@link CrlCacheSingleton}, whether or
+ * not those caches are enabled.
+ */
+public final class CompiledValidationPolicy {
+
+	/*
+	 * Resolve the CertPath provider once, rather than by name on every request
+	 */
+	private final static Provider CERTPATH_PROVIDER = Security.getProvider(ValidatePKIX.CERTPATH_PROVIDER);
+
+	private final ValidationPolicy validationPolicy;
+
+	private final Set<TrustAnchor> trustAnchors;
+
+	private final Set<String> initialPolicies;
+
+	private final IndexedCertStore intermediateStore;
+
+	private final PKIXBuilderParameters template;
+
+	private final IssuerPathCache issuerPathCache;
+
+	private final boolean crlEnabled;
+
+	private final boolean ocspEnabled;
+
+	private final boolean revocationEeOnly;
+
+	private CompiledValidationPolicy(ValidationPolicy validationPolicy, Set<TrustAnchor> trustAnchors,
+			IndexedCertStore intermediateStore, PKIXBuilderParameters template, int issuerPathCacheSize,
+			boolean crlEnabled, boolean ocspEnabled, boolean revocationEeOnly) {
+		this.validationPolicy = validationPolicy;
+		this.trustAnchors = trustAnchors;
+		this.initialPolicies = template.getInitialPolicies();
+		this.intermediateStore = intermediateStore;
+		this.template = template;
+		this.issuerPathCache = new IssuerPathCache(issuerPathCacheSize);
+		this.crlEnabled = crlEnabled;
+		this.ocspEnabled = ocspEnabled;
+		this.revocationEeOnly = revocationEeOnly;
+	}
+
+	/**
+	 * Build the parameter template for a validation policy.
+	 *
+	 * @param validationPolicy  the policy as defined in the policies JSON
+	 * @param trustAnchors      trust anchors decoded from the policy
+	 * @param intermediateStore the intermediate cache, may be null
+	 * @param maxPathLen        maximum path length
+	 * @param revocationEnabled add a revocation checker
+	 * @param revocationEeOnly  only check revocation of the end entity
+	 * @param crlEnabled        CRLs are a revocation source
+	 * @param ocspEnabled       OCSP is a revocation source
+	 * @param issuerPathCacheSize maximum number of cached issuer paths, 0 to disable
+	 * @return CompiledValidationPolicy
+	 * @throws InvalidAlgorithmParameterException if the trust anchor set is empty
+	 * @throws NoSuchAlgorithmException           if the CertPath provider is
+	 *                                            unavailable
+	 */
+	public static CompiledValidationPolicy compile(ValidationPolicy validationPolicy, Set<TrustAnchor> trustAnchors,
+			IndexedCertStore intermediateStore, int maxPathLen, boolean revocationEnabled, boolean revocationEeOnly,
+			boolean crlEnabled, boolean ocspEnabled, int issuerPathCacheSize) throws InvalidAlgorithmParameterException, NoSuchAlgorithmException {
+		Set<TrustAnchor> anchors = Collections.unmodifiableSet(new HashSet<>(trustAnchors));
+		PKIXBuilderParameters params = new PKIXBuilderParameters(anchors, new X509CertSelector());
+		params.setSigProvider(ValidatePKIX.JCE_PROVIDER);
+		params.setInitialPolicies(Collections.unmodifiableSet(new HashSet<>(validationPolicy.userPolicySet)));
+		params.setPolicyMappingInhibited(validationPolicy.inhibitPolicyMapping);
+		params.setExplicitPolicyRequired(validationPolicy.requireExplicitPolicy);
+		params.setAnyPolicyInhibited(validationPolicy.inhibitAnyPolicy);
+		params.setMaxPathLength(maxPathLen);
+		/**
+		 * <pre>
+		 *
+		 * Add Intermediate Store from our IntermediateCacheSingleton
+		 *
+		 * - https://docs.oracle.com/en/java/javase/11/docs/api/java.base/java/security/cert/CertStore.html
+		 *
+		 * </pre>
+		 */
+		if (null != intermediateStore) {
+			params.addCertStore(intermediateStore);
+		}
+		/*
+		 * The revocation checker is cloned along with the parameters, so each request
+		 * has its own instance.
+		 */
+		if (revocationEnabled) {
+			PKIXRevocationChecker rc = (PKIXRevocationChecker) newCertPathBuilder().getRevocationChecker();
+			if (revocationEeOnly) {
+				rc.setOptions(EnumSet.of(PKIXRevocationChecker.Option.ONLY_END_ENTITY));
+			}
+			params.addCertPathChecker(rc);
+		} else {
+			/*
+			 * PKIXParameters enables the default revocation mechanism unless told otherwise
+			 */
+			params.setRevocationEnabled(false);
+		}
+		return new CompiledValidationPolicy(validationPolicy, anchors, intermediateStore, params, issuerPathCacheSize,
+				revocationEnabled && crlEnabled, revocationEnabled && ocspEnabled, revocationEeOnly);
+	}
+
+	/**
+	 * @return a new CertPathBuilder from the pre-resolved provider
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static CertPathBuilder newCertPathBuilder() throws NoSuchAlgorithmException {
+		return CertPathBuilder.getInstance(ValidatePKIX.CERTPATH_ALGORITHM, CERTPATH_PROVIDER);
+	}
+
+	/**
+	 * @return the CertPath provider resolved at class load
+	 */
+	public static Provider getCertPathProvider() {
+		return CERTPATH_PROVIDER;
+	}
+
+	/**
+	 * Obtain a private copy of the parameter template for a single validation.
+	 *
+	 * @param target the certificate selector for the target certificate
+	 * @param date   the validation date
+	 * @return PKIXBuilderParameters
+	 */
+	public PKIXBuilderParameters newBuilderParameters(X509CertSelector target, Date date) {
+		PKIXBuilderParameters params = (PKIXBuilderParameters) template.clone();
+		params.setTargetCertConstraints(target);
+		params.setDate(date);
+		if (ocspEnabled || crlEnabled) {
+			/*
+			 * Every revocation check goes through the caching checker, so each OCSP, and;
+			 * CRL, fetch is bounded by the ValidationBudget of the request. A source whose
+			 * cache is disabled is fetched for this validation only.
+			 */
+			params.setCertPathCheckers(List.of(newRevocationChecker(date, ocspEnabled, crlEnabled)));
+		}
+		return params;
+	}
+
+	private CachingRevocationChecker newRevocationChecker(Date date, boolean ocsp, boolean crl) {
+		CachingRevocationChecker crc = new CachingRevocationChecker(trustAnchors, template.getCertStores(), date,
+				ocsp, crl);
+		if (revocationEeOnly) {
+			crc.setOptions(EnumSet.of(PKIXRevocationChecker.Option.ONLY_END_ENTITY));
+		}
+		return crc;
+	}
+
+	public ValidationPolicy getValidationPolicy() {
+		return validationPolicy;
+	}
+
+	public Set<TrustAnchor> getTrustAnchors() {
+		return trustAnchors;
+	}
+
+	public Set<String> getInitialPolicies() {
+		return initialPolicies;
+	}
+
+	public IndexedCertStore getIntermediateStore() {
+		return intermediateStore;
+	}
+
+	public IssuerPathCache getIssuerPathCache() {
+		return issuerPathCache;
+	}
+
+}
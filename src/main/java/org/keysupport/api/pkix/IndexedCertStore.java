@@ -0,0 +1,254 @@
+package org.keysupport.api.pkix;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.cert.CRL;
+import java.security.cert.CRLSelector;
+import java.security.cert.CertSelector;
+import java.security.cert.CertStore;
+import java.security.cert.CertStoreParameters;
+import java.security.cert.CertStoreSpi;
+import java.security.cert.Certificate;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.X509CertSelector;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.keysupport.api.LoggingUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An immutable, in memory, CertStore for the intermediate cache.
+ *
+ * The SUN `Collection` CertStore answers every `getCertificates(selector)` by
+ * calling `X509CertSelector.match()` on each certificate. This store indexes
+ * the certificates by subject X500Principal, subject key identifier, and;
+ * SHA-256 digest (x5t#S256), so only the indexed candidates are matched.
+ *
+ * The parameters extend {@link CollectionCertStoreParameters}, so the SUN
+ * CertPathBuilder continues to treat this as a local store, and; searches it
+ * before any remote (AIA) store.
+ */
+public final class IndexedCertStore extends CertStore {
+
+	private final static Logger LOG = LoggerFactory.getLogger(IndexedCertStore.class);
+
+	public final static String TYPE = "Indexed";
+
+	private final static String SKI_OID = "2.5.29.14";
+
+	private final static String AKI_OID = "2.5.29.35";
+
+	private final IndexedCertStoreSpi spi;
+
+	private IndexedCertStore(IndexedCertStoreSpi spi, IndexedCertStoreParameters params) {
+		super(spi, null, TYPE, params);
+		this.spi = spi;
+	}
+
+	/**
+	 * @param certs the intermediate certificates
+	 * @return IndexedCertStore
+	 * @throws InvalidAlgorithmParameterException
+	 */
+	public static IndexedCertStore getInstance(Collection<X509Certificate> certs)
+			throws InvalidAlgorithmParameterException {
+		IndexedCertStoreParameters params = new IndexedCertStoreParameters(certs);
+		return new IndexedCertStore(new IndexedCertStoreSpi(params), params);
+	}
+
+	/**
+	 * Find the possible issuers of a certificate.
+	 *
+	 * The authority key identifier is used first, and; the issuer name if there is
+	 * no AKI (or, no certificate with a matching SKI).
+	 *
+	 * @param cert
+	 * @return the possible issuers, possibly empty
+	 */
+	public List<X509Certificate> getIssuers(X509Certificate cert) {
+		return spi.getIssuers(cert);
+	}
+
+	/**
+	 * @param cert
+	 * @return true if the certificate is in this store
+	 */
+	public boolean contains(X509Certificate cert) {
+		return spi.bySha256.containsKey(X509Util.x5tS256(cert));
+	}
+
+	/**
+	 * @return the number of certificates in this store
+	 */
+	public int size() {
+		return spi.certs.size();
+	}
+
+	/**
+	 * @param other
+	 * @return true if both stores hold the same certificates
+	 */
+	public boolean hasSameCertificates(IndexedCertStore other) {
+		return spi.bySha256.keySet().equals(other.spi.bySha256.keySet());
+	}
+
+	/**
+	 * Marks this store as a local (Collection) store to the SUN PKIX provider
+	 */
+	public static final class IndexedCertStoreParameters extends CollectionCertStoreParameters {
+
+		private IndexedCertStoreParameters(Collection<X509Certificate> certs) {
+			super(Collections.unmodifiableList(new ArrayList<>(certs)));
+		}
+
+		@Override
+		public Object clone() {
+			return this;
+		}
+
+	}
+
+	private static final class IndexedCertStoreSpi extends CertStoreSpi {
+
+		private final List<X509Certificate> certs;
+
+		private final Map<X500Principal, List<X509Certificate>> bySubject;
+
+		private final Map<String, List<X509Certificate>> bySki;
+
+		private final Map<String, X509Certificate> bySha256;
+
+		private IndexedCertStoreSpi(CertStoreParameters params) throws InvalidAlgorithmParameterException {
+			super(params);
+			Map<X500Principal, List<X509Certificate>> subjects = new HashMap<>();
+			Map<String, List<X509Certificate>> skis = new HashMap<>();
+			Map<String, X509Certificate> digests = new LinkedHashMap<>();
+			for (Object o : ((CollectionCertStoreParameters) params).getCollection()) {
+				X509Certificate cert = (X509Certificate) o;
+				String x5tS256 = X509Util.x5tS256(cert);
+				if (null != digests.putIfAbsent(x5tS256, cert)) {
+					continue;
+				}
+				subjects.computeIfAbsent(cert.getSubjectX500Principal(), k -> new ArrayList<>(1)).add(cert);
+				String ski = subjectKeyIdentifier(cert);
+				if (null != ski) {
+					skis.computeIfAbsent(ski, k -> new ArrayList<>(1)).add(cert);
+				}
+			}
+			this.certs = List.copyOf(digests.values());
+			this.bySubject = Map.copyOf(subjects);
+			this.bySki = Map.copyOf(skis);
+			this.bySha256 = Map.copyOf(digests);
+		}
+
+		@Override
+		public Collection<? extends Certificate> engineGetCertificates(CertSelector selector) {
+			if (null == selector) {
+				return certs;
+			}
+			Collection<X509Certificate> candidates = certs;
+			if (selector instanceof X509CertSelector) {
+				X509CertSelector xcs = (X509CertSelector) selector;
+				if (null != xcs.getCertificate()) {
+					X509Certificate cert = bySha256.get(X509Util.x5tS256(xcs.getCertificate()));
+					candidates = (null == cert) ? List.of() : List.of(cert);
+				} else if (null != xcs.getSubjectKeyIdentifier()) {
+					String ski = keyIdentifier(xcs.getSubjectKeyIdentifier());
+					candidates = (null == ski) ? certs : bySki.getOrDefault(ski, List.of());
+				} else if (null != xcs.getSubject()) {
+					candidates = bySubject.getOrDefault(xcs.getSubject(), List.of());
+				}
+			}
+			List<X509Certificate> matches = new ArrayList<>();
+			for (X509Certificate cert : candidates) {
+				if (selector.match(cert)) {
+					matches.add(cert);
+				}
+			}
+			return matches;
+		}
+
+		/*
+		 * This store does not hold CRLs
+		 */
+		@Override
+		public Collection<? extends CRL> engineGetCRLs(CRLSelector selector) {
+			return List.of();
+		}
+
+		private List<X509Certificate> getIssuers(X509Certificate cert) {
+			X500Principal issuer = cert.getIssuerX500Principal();
+			String aki = authorityKeyIdentifier(cert);
+			if (null != aki) {
+				List<X509Certificate> issuers = new ArrayList<>();
+				for (X509Certificate candidate : bySki.getOrDefault(aki, List.of())) {
+					if (candidate.getSubjectX500Principal().equals(issuer)) {
+						issuers.add(candidate);
+					}
+				}
+				if (!issuers.isEmpty()) {
+					return issuers;
+				}
+			}
+			return bySubject.getOrDefault(issuer, List.of());
+		}
+
+	}
+
+	/*
+	 * The SubjectKeyIdentifier extension value is an OCTET STRING containing the
+	 * DER encoded KeyIdentifier (OCTET STRING)
+	 */
+	static String subjectKeyIdentifier(X509Certificate cert) {
+		byte[] ext = cert.getExtensionValue(SKI_OID);
+		if (null == ext) {
+			return null;
+		}
+		return keyIdentifier(ASN1OctetString.getInstance(ext).getOctets());
+	}
+
+	static String authorityKeyIdentifier(X509Certificate cert) {
+		byte[] ext = cert.getExtensionValue(AKI_OID);
+		if (null == ext) {
+			return null;
+		}
+		try {
+			AuthorityKeyIdentifier aki = AuthorityKeyIdentifier
+					.getInstance(ASN1OctetString.getInstance(ext).getOctets());
+			if (null == aki.getKeyIdentifier()) {
+				return null;
+			}
+			return X509Util.byteArrayToHexString(aki.getKeyIdentifier());
+		} catch (IllegalArgumentException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Error parsing AuthorityKeyIdentifier", "stacktrace",
+					LoggingUtil.stackTrace(e))));
+			return null;
+		}
+	}
+
+	/*
+	 * Convert a DER encoded KeyIdentifier (OCTET STRING) to the hex String of its
+	 * contents
+	 */
+	static String keyIdentifier(byte[] derKeyIdentifier) {
+		try {
+			return X509Util.byteArrayToHexString(ASN1OctetString.getInstance(derKeyIdentifier).getOctets());
+		} catch (IllegalArgumentException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Error parsing KeyIdentifier", "stacktrace",
+					LoggingUtil.stackTrace(e))));
+			return null;
+		}
+	}
+
+}
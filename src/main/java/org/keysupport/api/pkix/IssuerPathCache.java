@@ -0,0 +1,225 @@
+package org.keysupport.api.pkix;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertPath;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXBuilderParameters;
+import java.security.cert.PKIXCertPathBuilderResult;
+import java.security.cert.PKIXCertPathValidatorResult;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.keysupport.api.LoggingUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * A cache of validated CA sub-paths, per {@link CompiledValidationPolicy}, keyed
+ * by the issuer identity (issuer DN, and; AKI) of the certificate being
+ * validated.
+ *
+ * Once the CertPathBuilder has found a valid path for a certificate, the CA
+ * portion of the path (and the trust anchor) is cached. Subsequent certificates
+ * from the same issuer skip path discovery, and; the leaf, plus the cached CA
+ * path, is validated by the CertPathValidator. The CA certificates are the same
+ * instances each time, so the SUN provider's per certificate signature
+ * verification result is reused, and; the leaf link is the only new signature
+ * verified.
+ *
+ * Only path discovery is saved. The SUN CertPathValidator can not resume from
+ * an intermediate state, so the CA path is validated again on each use (policy
+ * processing, name constraints, and; revocation of the CA certificates, if
+ * enabled), although CA signatures are not verified again.
+ *
+ * The cache never returns a failure. Any failure of a cached path removes the
+ * entry, and; the caller builds the path as usual, so only the CertPathBuilder
+ * decides that a certificate is invalid. A failure of the certificate itself
+ * (index 0) may be specific to the cached path: the issuer key is not part of
+ * the cache key when the certificate has no AKI, two CAs may share a DN, a CA
+ * may have been rekeyed, and; policy, or; name constraints processing depends
+ * on the path.
+ *
+ * Entries expire when the first CA certificate in the path expires. The cache
+ * belongs to the compiled policy, so it is discarded whenever the policies or
+ * intermediates are refreshed.
+ */
+public final class IssuerPathCache {
+
+	private final static Logger LOG = LoggerFactory.getLogger(IssuerPathCache.class);
+
+	private final Cache<String, IssuerPath> cache;
+
+	/**
+	 * A validated CA path, ordered from the issuer toward the trust anchor.
+	 */
+	private static final class IssuerPath {
+
+		private final List<X509Certificate> caPath;
+
+		private final TrustAnchor trustAnchor;
+
+		private final long expiresAt;
+
+		private IssuerPath(List<X509Certificate> caPath, TrustAnchor trustAnchor) {
+			this.caPath = caPath;
+			this.trustAnchor = trustAnchor;
+			long notAfter = Long.MAX_VALUE;
+			for (X509Certificate ca : caPath) {
+				notAfter = Math.min(notAfter, ca.getNotAfter().getTime());
+			}
+			if (null != trustAnchor.getTrustedCert()) {
+				notAfter = Math.min(notAfter, trustAnchor.getTrustedCert().getNotAfter().getTime());
+			}
+			this.expiresAt = notAfter;
+		}
+
+	}
+
+	private static final class IssuerPathExpiry implements Expiry<String, IssuerPath> {
+
+		private long remaining(IssuerPath value) {
+			return Math.max(0, Duration.ofMillis(value.expiresAt - System.currentTimeMillis()).toNanos());
+		}
+
+		@Override
+		public long expireAfterCreate(String key, IssuerPath value, long currentTime) {
+			return remaining(value);
+		}
+
+		@Override
+		public long expireAfterUpdate(String key, IssuerPath value, long currentTime, long currentDuration) {
+			return remaining(value);
+		}
+
+		@Override
+		public long expireAfterRead(String key, IssuerPath value, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+
+	}
+
+	/**
+	 * @param maxSize maximum number of issuer paths; 0 disables the cache
+	 */
+	IssuerPathCache(int maxSize) {
+		if (maxSize > 0) {
+			/*
+			 * Entries are small, so maintenance runs on the calling thread rather than
+			 * waking a ForkJoinPool thread on each read
+			 */
+			cache = Caffeine.newBuilder()
+					.executor(Runnable::run)
+					.maximumSize(maxSize)
+					.expireAfter(new IssuerPathExpiry())
+					.recordStats()
+					.build();
+		} else {
+			cache = null;
+		}
+	}
+
+	/*
+	 * Issuer identity of the certificate being validated
+	 */
+	private static String issuerKey(X509Certificate cert) {
+		String aki = IndexedCertStore.authorityKeyIdentifier(cert);
+		return cert.getIssuerX500Principal().getName() + "|" + ((null == aki) ? "" : aki);
+	}
+
+	/**
+	 * Validate the certificate using a cached issuer path.
+	 *
+	 * A failure (which may be specific to the cached path) is not returned; the
+	 * entry is removed, and; null is returned, so the caller builds the path as
+	 * usual.
+	 *
+	 * @param cert   the certificate being validated
+	 * @param params the builder parameters for this validation
+	 * @return a result equivalent to the CertPathBuilder result, or null if there
+	 *         is no usable cached path
+	 */
+	public PKIXCertPathBuilderResult validate(X509Certificate cert, PKIXBuilderParameters params) {
+		if (null == cache) {
+			return null;
+		}
+		String key = issuerKey(cert);
+		IssuerPath issuerPath = cache.getIfPresent(key);
+		Date date = (null == params.getDate()) ? new Date() : params.getDate();
+		if (null == issuerPath || issuerPath.expiresAt <= date.getTime()) {
+			return null;
+		}
+		List<X509Certificate> path = new ArrayList<>(issuerPath.caPath.size() + 1);
+		path.add(cert);
+		path.addAll(issuerPath.caPath);
+		try {
+			CertPath cp = CertificateFactory.getInstance("X.509").generateCertPath(path);
+			PKIXBuilderParameters cpParams = (PKIXBuilderParameters) params.clone();
+			cpParams.setTrustAnchors(Set.of(issuerPath.trustAnchor));
+			CertPathValidator cpv = CertPathValidator.getInstance(ValidatePKIX.CERTPATH_ALGORITHM,
+					CompiledValidationPolicy.getCertPathProvider());
+			PKIXCertPathValidatorResult pvr = (PKIXCertPathValidatorResult) cpv.validate(cp, cpParams);
+			return new PKIXCertPathBuilderResult(cp, pvr.getTrustAnchor(), pvr.getPolicyTree(), pvr.getPublicKey());
+		} catch (CertPathValidatorException e) {
+			cache.invalidate(key);
+			return null;
+		} catch (CertificateException | NoSuchAlgorithmException | InvalidAlgorithmParameterException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Error validating cached issuer path", "stacktrace",
+					LoggingUtil.stackTrace(e))));
+			return null;
+		}
+	}
+
+	/**
+	 * Cache the CA portion of a path found by the CertPathBuilder.
+	 *
+	 * @param cert   the certificate that was validated
+	 * @param result the builder result
+	 */
+	public void put(X509Certificate cert, PKIXCertPathBuilderResult result) {
+		if (null == cache) {
+			return;
+		}
+		@SuppressWarnings("unchecked")
+		List<X509Certificate> path = (List<X509Certificate>) result.getCertPath().getCertificates();
+		if (path.isEmpty() || !path.get(0).equals(cert)) {
+			return;
+		}
+		List<X509Certificate> caPath = List.copyOf(path.subList(1, path.size()));
+		cache.put(issuerKey(cert), new IssuerPath(caPath, result.getTrustAnchor()));
+	}
+
+	/**
+	 * @return a JSON friendly view of the cache statistics
+	 */
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("enabled", null != cache);
+		if (null == cache) {
+			return stats;
+		}
+		CacheStats cs = cache.stats();
+		stats.put("estimatedSize", cache.estimatedSize());
+		stats.put("hitCount", cs.hitCount());
+		stats.put("missCount", cs.missCount());
+		stats.put("hitRate", cs.hitRate());
+		stats.put("evictionCount", cs.evictionCount());
+		return stats;
+	}
+
+}
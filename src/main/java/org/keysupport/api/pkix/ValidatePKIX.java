@@ -3,39 +3,28 @@ package org.keysupport.api.pkix;
 import java.io.IOException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-import java.security.Security;
 import java.security.cert.CertPath;
 import java.security.cert.CertPathBuilder;
 import java.security.cert.CertPathBuilderException;
 import java.security.cert.CertPathValidator;
 import java.security.cert.CertPathValidatorException;
-import java.security.cert.CertStore;
-import java.security.cert.CertStoreException;
-import java.security.cert.CertStoreParameters;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.CertificateRevokedException;
-import java.security.cert.CollectionCertStoreParameters;
 import java.security.cert.PKIXBuilderParameters;
 import java.security.cert.PKIXCertPathBuilderResult;
 import java.security.cert.PKIXCertPathValidatorResult;
-import java.security.cert.PKIXRevocationChecker;
-import java.security.cert.TrustAnchor;
+import java.security.cert.PolicyNode;
 import java.security.cert.X509CertSelector;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Base64;
-import java.util.Collection;
 import java.util.Date;
-import java.util.EnumSet;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
-import org.bouncycastle.jcajce.provider.BouncyCastleFipsProvider;
 import org.keysupport.api.LoggingUtil;
 import org.keysupport.api.RestServiceEventLogger;
 import org.keysupport.api.controller.ServiceException;
@@ -45,7 +34,7 @@ import org.keysupport.api.pojo.vss.PKIXPolicyNode;
 import org.keysupport.api.pojo.vss.Success;
 import org.keysupport.api.pojo.vss.ValidationPolicy;
 import org.keysupport.api.pojo.vss.VssResponse;
-import org.keysupport.api.singletons.IntermediateCacheSingleton;
+import org.keysupport.api.singletons.MetricsSingleton;
 import org.keysupport.api.singletons.ValidationPoliciesSingleton;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -87,39 +76,38 @@ public class ValidatePKIX {
 	 *
 	 * </pre>
 	 */
-	private final static String CERTPATH_PROVIDER = "SUN";
+	final static String CERTPATH_PROVIDER = "SUN";
 
-	private final static String CERTPATH_ALGORITHM = "PKIX";
+	final static String CERTPATH_ALGORITHM = "PKIX";
 
 	/*
 	 * This implementation will rely on BCFIPS for cryptographic compliance.
 	 */
-	private final static String JCE_PROVIDER = "BCFIPS";
+	final static String JCE_PROVIDER = "BCFIPS";
 
 	public static VssResponse validate(X509Certificate cert, String x5tS256, ValidationPolicy valPol, Date now) {
-		ValidationPoliciesSingleton policies = ValidationPoliciesSingleton.getInstance();
-		/*
-		 * Allow CRL
-		 */
-		if (policies.getRevocationEnabled() && policies.getCrlEnabled()) {
-			System.setProperty("com.sun.security.enableCRLDP", "true");
-		}
 		/*
-		 * Allow OCSP
+		 * Count, and; time, the validation by policy and result
 		 */
-		if (policies.getRevocationEnabled() && policies.getOcspEnabled()) {
-			Security.setProperty("ocsp.enable", "true");
-		}
-		/*
-		 * Allow AIA chase
-		 */
-		if (policies.getAiaChase()) {
-			System.setProperty("com.sun.security.enableAIAcaIssuers", "true");
+		MetricsSingleton metrics = MetricsSingleton.getInstance();
+		long start = metrics.start();
+		VssResponse response = null;
+		try {
+			response = validatePath(cert, x5tS256, valPol, now, metrics);
+			return response;
+		} finally {
+			metrics.recordValidation(valPol.validationPolicyId, (null == response) ? null : response.validationResult, start);
 		}
+	}
+
+	@SuppressWarnings("try")
+	private static VssResponse validatePath(X509Certificate cert, String x5tS256, ValidationPolicy valPol, Date now,
+			MetricsSingleton metrics) {
+		ValidationPoliciesSingleton policies = ValidationPoliciesSingleton.getInstance();
 		/*
-		 * This implementation will rely on BCFIPS for cryptographic compliance.
+		 * Provider registration, and; revocation/AIA behaviour are configured once at
+		 * startup by ServiceConfiguration.configureSecurity()
 		 */
-		Security.addProvider(new BouncyCastleFipsProvider());
 		/*
 		 * Process the request
 		 */
@@ -167,8 +155,8 @@ public class ValidatePKIX {
 		try {
 			response.x509SubjectAltName = X509Util.getSubjectAlternativeNames(cert);
 		} catch (IOException e) {
-			LOG.error(LoggingUtil.pojoToJson(
-					Map.of("error", "Error parsing Certificate SAN", "stacktrace", LoggingUtil.stackTraceToString(e))));
+			LOG.error("{}", LoggingUtil.json(
+					Map.of("error", "Error parsing Certificate SAN", "stacktrace", LoggingUtil.stackTrace(e))));
 		}
 		/*
 		 * Add x5t#S256, because we are checking temporal validity next.
@@ -193,138 +181,142 @@ public class ValidatePKIX {
 			response.validationResult = fail;
 			return response;
 		}
-		X509CertSelector selector = new X509CertSelector();
-		selector.setCertificate(cert);
-		/*
-		 * Initialize the TrustAnchor via the ValidationPolicy.
-		 */
-		List<Certificate> cert_list = new ArrayList<>();
-		HashSet<TrustAnchor> taList = policies.getTrustAnchors(valPol.validationPolicyId);
-		CertStoreParameters cparam = new CollectionCertStoreParameters(cert_list);
-		CertStore cstore = null;
-		try {
-			cstore = CertStore.getInstance("Collection", cparam, CERTPATH_PROVIDER);
-		} catch (InvalidAlgorithmParameterException | NoSuchAlgorithmException | NoSuchProviderException e) {
-			LOG.error(LoggingUtil.pojoToJson(
-					Map.of("error", "Internal Validation Error", "stacktrace", LoggingUtil.stackTraceToString(e))));
-			throw new ServiceException("Internal Validation Error");
-		}
-		PKIXBuilderParameters params = null;
-		try {
-			params = new PKIXBuilderParameters(taList, selector);
-		} catch (InvalidAlgorithmParameterException e) {
-			LOG.error(LoggingUtil.pojoToJson(
-					Map.of("error", "Internal Validation Error", "stacktrace", LoggingUtil.stackTraceToString(e))));
-			throw new ServiceException("Internal Validation Error");
-		}
-		params.setSigProvider(JCE_PROVIDER);
-		params.setDate(now);
-		params.setInitialPolicies(new HashSet<>(valPol.userPolicySet));
-		params.setPolicyMappingInhibited(valPol.inhibitPolicyMapping);
-		params.setExplicitPolicyRequired(valPol.requireExplicitPolicy);
-		params.setAnyPolicyInhibited(valPol.inhibitAnyPolicy);
-		params.setMaxPathLength(policies.getMaxPathLen());
-		params.addCertStore(cstore);
-		/**
-		 * <pre>
-		 *
-		 * Add Intermediate Store from our IntermediateCacheSingleton
-		 *
-		 * - https://docs.oracle.com/en/java/javase/11/docs/api/java.base/java/security/cert/CertStore.html
-		 *
-		 * </pre>
-		 */
-		IntermediateCacheSingleton intermediateCacheSingleton = IntermediateCacheSingleton.getInstance();
-		CertStore intermediateStore = intermediateCacheSingleton.getIntermediates();
-		params.addCertStore(intermediateStore);
 		/*
-		 * Build the certificate path
+		 * Obtain the pre-built parameters for the ValidationPolicy.
 		 */
-		CertPathBuilder cpb = null;
-		try {
-			cpb = CertPathBuilder.getInstance(CERTPATH_ALGORITHM, CERTPATH_PROVIDER);
-		} catch (NoSuchAlgorithmException | NoSuchProviderException e) {
-			LOG.error(LoggingUtil.pojoToJson(
-					Map.of("error", "Internal Validation Error", "stacktrace", LoggingUtil.stackTraceToString(e))));
+		CompiledValidationPolicy compiledPolicy = policies.getCompiledPolicy(valPol.validationPolicyId);
+		if (null == compiledPolicy) {
+			LOG.error("{}", LoggingUtil.json(
+					Map.of("error", "Internal Validation Error, no compiled policy for " + valPol.validationPolicyId)));
 			throw new ServiceException("Internal Validation Error");
 		}
+		X509CertSelector selector = new X509CertSelector();
+		selector.setCertificate(cert);
+		PKIXBuilderParameters params = compiledPolicy.newBuilderParameters(selector, now);
+		IndexedCertStore intermediateStore = compiledPolicy.getIntermediateStore();
 		/*
-		 * We will add revocation options during path construction here
+		 * Path building (including revocation checking) is bounded by the request
+		 * budget, if there is one
 		 */
-		if (policies.getRevocationEnabled()) {
-			PKIXRevocationChecker rc = (PKIXRevocationChecker) cpb.getRevocationChecker();
-			if (policies.getRevocationEeOnly()) {
-				rc.setOptions(EnumSet.of(PKIXRevocationChecker.Option.ONLY_END_ENTITY));
-			}
-			params.addCertPathChecker(rc);
-		}
+		ValidationBudget budget = ValidationBudget.current();
+		IssuerPathCache issuerPathCache = compiledPolicy.getIssuerPathCache();
 		PKIXCertPathBuilderResult result = null;
-		try {
-			result = (PKIXCertPathBuilderResult) cpb.build(params);
-		} catch (InvalidAlgorithmParameterException e) {
-			LOG.error(LoggingUtil.pojoToJson(
-					Map.of("error", "Error with CertPathBuilder", "stacktrace", LoggingUtil.stackTraceToString(e))));
-		} catch (CertPathBuilderException e) {
+		boolean cachedIssuerPath;
+		try (ValidationBudget.Scope pathBuild = (null == budget) ? null : budget.enter(ValidationBudget.Stage.PATH_BUILD)) {
 			/*
-			 * Construct and return validation response.
-			 *
-			 * Otherwise, we need to instrument more data from e.getCause() and make a
-			 * decision.
+			 * Validate using a cached issuer path, if there is one.
 			 */
-			RestServiceEventLogger.logEvent(response, e);
-			Fail fail = new Fail();
-			response.validationResult = fail;
-			/*
-			 * Resolve the real reason for the failure
-			 *
-			 * We may want to customize the `invalidityReasonText`
-			 *
-			 * To be safe, we will flag `isAffirmativelyInvalid` as `true` for any
-			 * CertPathBuilderException that has an explicit
-			 * CertPathBuilderException.getCause().
-			 *
-			 * Otherwise, we should assume the possibility that our cache is out of date.
-			 */
-			Throwable t = e.getCause();
-			if (null != t) {
-				fail.isAffirmativelyInvalid = true;
-				if (t.getCause() instanceof CertificateRevokedException) {
-					fail.invalidityReasonText = t.getMessage();
-				} else {
-					fail.invalidityReasonText = e.getLocalizedMessage();
+			long start = metrics.start();
+			result = issuerPathCache.validate(cert, params);
+			cachedIssuerPath = (null != result);
+			if (!cachedIssuerPath) {
+				/*
+				 * Build the certificate path
+				 */
+				CertPathBuilder cpb = null;
+				try {
+					cpb = CompiledValidationPolicy.newCertPathBuilder();
+				} catch (NoSuchAlgorithmException e) {
+					LOG.error("{}", LoggingUtil.json(
+							Map.of("error", "Internal Validation Error", "stacktrace", LoggingUtil.stackTrace(e))));
+					throw new ServiceException("Internal Validation Error");
 				}
-			} else {
-				fail.isAffirmativelyInvalid = false;
-				fail.invalidityReasonText = e.getLocalizedMessage();
+				try {
+					result = (PKIXCertPathBuilderResult) cpb.build(params);
+				} catch (InvalidAlgorithmParameterException e) {
+					LOG.error("{}", LoggingUtil.json(
+							Map.of("error", "Error with CertPathBuilder", "stacktrace", LoggingUtil.stackTrace(e))));
+					throw new ServiceException("Internal Validation Error");
+				} catch (CertPathBuilderException e) {
+					if (null != budget && budget.isExceeded()) {
+						return deadlineExceeded(response, budget);
+					}
+					/*
+					 * Construct and return validation response.
+					 *
+					 * Otherwise, we need to instrument more data from e.getCause() and make a
+					 * decision.
+					 */
+					RestServiceEventLogger.logEvent(response, e);
+					Fail fail = new Fail();
+					response.validationResult = fail;
+					/*
+					 * Resolve the real reason for the failure
+					 *
+					 * We may want to customize the `invalidityReasonText`
+					 *
+					 * To be safe, we will flag `isAffirmativelyInvalid` as `true` for any
+					 * CertPathBuilderException that has an explicit
+					 * CertPathBuilderException.getCause().
+					 *
+					 * Otherwise, we should assume the possibility that our cache is out of date.
+					 */
+					Throwable t = e.getCause();
+					if (null != t) {
+						fail.isAffirmativelyInvalid = true;
+						if (t.getCause() instanceof CertificateRevokedException) {
+							fail.invalidityReasonText = t.getMessage();
+						} else {
+							fail.invalidityReasonText = e.getLocalizedMessage();
+						}
+					} else {
+						fail.isAffirmativelyInvalid = false;
+						fail.invalidityReasonText = e.getLocalizedMessage();
+					}
+					return response;
+				}
+				/*
+				 * Cache the CA portion of the path for the next certificate from this issuer
+				 */
+				issuerPathCache.put(cert, result);
 			}
-			return response;
+			metrics.record(MetricsSingleton.Stage.PATH_BUILD, start);
+		}
+		if (null != budget && budget.isExceeded()) {
+			return deadlineExceeded(response, budget);
 		}
+		/*
+		 * A successful build (or cached issuer path validation) has already validated
+		 * the path (signatures, policy processing, and; revocation), so the result
+		 * supplies the path and policy tree directly.
+		 */
 		CertPath cp = result.getCertPath();
+		PolicyNode policyNode = result.getPolicyTree();
 		/*
-		 * Validate the certificate path, return result if invalid
+		 * Optionally, re-validate the built path for audit purposes.
+		 *
+		 * This doubles the signature verification, and; any revocation checking.
 		 */
-		CertPathValidator cpv = null;
-		try {
-			cpv = CertPathValidator.getInstance(CERTPATH_ALGORITHM);
-		} catch (NoSuchAlgorithmException e) {
-			LOG.error(LoggingUtil.pojoToJson(
-					Map.of("error", "Internal Validation Error", "stacktrace", LoggingUtil.stackTraceToString(e))));
-			throw new ServiceException("Internal Validation Error");
-		}
-		PKIXCertPathValidatorResult pvr = null;
-		try {
-			pvr = (PKIXCertPathValidatorResult) cpv.validate(cp, params);
-		} catch (CertPathValidatorException e) {
-			RestServiceEventLogger.logEvent(response, e);
-			Fail fail = new Fail();
-			fail.isAffirmativelyInvalid = true;
-			fail.invalidityReasonText = e.getLocalizedMessage();
-			response.validationResult = fail;
-			return response;
-		} catch (InvalidAlgorithmParameterException e) {
-			LOG.error(LoggingUtil.pojoToJson(
-					Map.of("error", "Internal Validation Error", "stacktrace", LoggingUtil.stackTraceToString(e))));
-			throw new ServiceException("Internal Validation Error");
+		if (policies.getStrictRevalidation() && !cachedIssuerPath) {
+			CertPathValidator cpv = null;
+			try {
+				cpv = CertPathValidator.getInstance(CERTPATH_ALGORITHM, CompiledValidationPolicy.getCertPathProvider());
+			} catch (NoSuchAlgorithmException e) {
+				LOG.error("{}", LoggingUtil.json(
+						Map.of("error", "Internal Validation Error", "stacktrace", LoggingUtil.stackTrace(e))));
+				throw new ServiceException("Internal Validation Error");
+			}
+			PKIXCertPathValidatorResult pvr = null;
+			long start = metrics.start();
+			try {
+				pvr = (PKIXCertPathValidatorResult) cpv.validate(cp, params);
+			} catch (CertPathValidatorException e) {
+				if (null != budget && budget.isExceeded()) {
+					return deadlineExceeded(response, budget);
+				}
+				RestServiceEventLogger.logEvent(response, e);
+				Fail fail = new Fail();
+				fail.isAffirmativelyInvalid = true;
+				fail.invalidityReasonText = e.getLocalizedMessage();
+				response.validationResult = fail;
+				return response;
+			} catch (InvalidAlgorithmParameterException e) {
+				LOG.error("{}", LoggingUtil.json(
+						Map.of("error", "Internal Validation Error", "stacktrace", LoggingUtil.stackTrace(e))));
+				throw new ServiceException("Internal Validation Error");
+			}
+			metrics.record(MetricsSingleton.Stage.PATH_VALIDATION, start);
+			policyNode = pvr.getPolicyTree();
 		}
 		@SuppressWarnings("unchecked")
 		List<X509Certificate> validPath = (List<X509Certificate>) cp.getCertificates();
@@ -340,25 +332,15 @@ public class ValidatePKIX {
 		if (policies.getAiaChase()) {
 			for (X509Certificate intermediate : validPath) {
 				if (intermediate.getBasicConstraints() != -1) {
-					X509CertSelector pathSelect = new X509CertSelector();
-					pathSelect.setCertificate(intermediate);
-					Collection<? extends Certificate> cachedPathCerts = null;
-					try {
-						cachedPathCerts = intermediateStore.getCertificates(pathSelect);
-					} catch (CertStoreException e) {
-						LOG.error(LoggingUtil
-								.pojoToJson(Map.of("error", "Internal Intermediate Certificate Discovery Error",
-										"stacktrace", LoggingUtil.stackTraceToString(e))));
-					}
-					if (cachedPathCerts.isEmpty()) {
+					if (null != intermediateStore && !intermediateStore.contains(intermediate)) {
 						try {
-							LOG.warn(LoggingUtil.pojoToJson(Map.of("warning",
+							LOG.warn("{}", LoggingUtil.json(Map.of("warning",
 									"Discovered Intermediate! (not present in cache, consider adding)",
 									"x509Certificate", Base64.getEncoder().encodeToString(intermediate.getEncoded()))));
 						} catch (CertificateEncodingException e) {
-							LOG.error(LoggingUtil
-									.pojoToJson(Map.of("error", "Error Base64 encoding certificate from CertPath",
-											"stacktrace", LoggingUtil.stackTraceToString(e))));
+							LOG.error("{}", LoggingUtil
+									.json(Map.of("error", "Error Base64 encoding certificate from CertPath",
+											"stacktrace", LoggingUtil.stackTrace(e))));
 						}
 					}
 				}
@@ -372,29 +354,51 @@ public class ValidatePKIX {
 		 * result.
 		 */
 		Success success = new Success();
-		/*
-		 * Add certPath
-		 */
-		List<JsonX509Certificate> x509CertificatePath = new ArrayList<>();
-		for (Certificate currentCert : validPath) {
-			JsonX509Certificate bCert = new JsonX509Certificate();
-			try {
-				bCert.x509Certificate = Base64.getEncoder().encodeToString(currentCert.getEncoded());
-				LOG.debug(LoggingUtil.pojoToJson(Map.of("pkix.path.cert", currentCert.toString())));
-			} catch (CertificateEncodingException e) {
-				LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Error Base64 encoding certificate from CertPath",
-						"stacktrace", LoggingUtil.stackTraceToString(e))));
+		try (ValidationBudget.Scope serialization = (null == budget) ? null : budget.enter(ValidationBudget.Stage.SERIALIZATION)) {
+			/*
+			 * Add certPath
+			 */
+			long start = metrics.start();
+			List<JsonX509Certificate> x509CertificatePath = new ArrayList<>();
+			for (Certificate currentCert : validPath) {
+				JsonX509Certificate bCert = new JsonX509Certificate();
+				try {
+					bCert.x509Certificate = Base64.getEncoder().encodeToString(currentCert.getEncoded());
+					LOG.debug("{}", LoggingUtil.json(Map.of("pkix.path.cert", currentCert.toString())));
+				} catch (CertificateEncodingException e) {
+					LOG.error("{}", LoggingUtil.json(Map.of("error", "Error Base64 encoding certificate from CertPath",
+							"stacktrace", LoggingUtil.stackTrace(e))));
+				}
+				x509CertificatePath.add(bCert);
 			}
-			x509CertificatePath.add(bCert);
+			success.x509CertificatePath = x509CertificatePath;
+			metrics.record(MetricsSingleton.Stage.PATH_ENCODE, start);
+			/*
+			 * Add policyTree
+			 */
+			start = metrics.start();
+			PKIXPolicyNode policyTree = X509Util.policyNodeToJSON(policyNode);
+			success.policyTree = policyTree;
+			metrics.record(MetricsSingleton.Stage.POLICY_TREE, start);
+		}
+		if (null != budget && budget.isExceeded()) {
+			return deadlineExceeded(response, budget);
 		}
-		success.x509CertificatePath = x509CertificatePath;
-		/*
-		 * Add policyTree
-		 */
-		PKIXPolicyNode policyTree = X509Util.policyNodeToJSON(pvr.getPolicyTree());
-		success.policyTree = policyTree;
 		response.validationResult = success;
 		return response;
 	}
 
+	/*
+	 * The budget was exhausted before the status of the certificate could be
+	 * determined; this is not an affirmative result
+	 */
+	private static VssResponse deadlineExceeded(VssResponse response, ValidationBudget budget) {
+		Fail fail = new Fail();
+		fail.isAffirmativelyInvalid = false;
+		fail.invalidityReasonText = budget.getReason();
+		response.validationResult = fail;
+		LOG.warn("{}", LoggingUtil.json(Map.of("error", budget.getReason(), "x5tS256", String.valueOf(response.x5tS256))));
+		return response;
+	}
+
 }
@@ -0,0 +1,216 @@
+package org.keysupport.api.pkix;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The time budget of a single validation request.
+ *
+ * A request has an overall deadline, and; each stage (decode, path build,
+ * revocation, and; serialization) has its own budget. Time spent in a stage is
+ * cumulative, so a path build that checks the revocation status of several
+ * certificates shares one revocation budget.
+ *
+ * The budget of the validation in progress is bound to the current thread,
+ * so the HTTPClientSingleton (and; the revocation checker) can bound their
+ * fetches without it being passed through the SUN CertPathBuilder. Threads
+ * without a budget (background refreshes, and; benchmarks) are not limited.
+ *
+ * For the same reason, the revocation checker records the earliest `nextUpdate`
+ * of the OCSP responses, and; CRLs, the validation relied on, so the result is
+ * not cached beyond it.
+ */
+public final class ValidationBudget implements AutoCloseable {
+
+	public enum Stage {
+		DECODE("decode"), PATH_BUILD("path build"), REVOCATION("revocation"), SERIALIZATION("serialization");
+
+		private final String description;
+
+		Stage(String description) {
+			this.description = description;
+		}
+
+		@Override
+		public String toString() {
+			return description;
+		}
+	}
+
+	private final static ThreadLocal<ValidationBudget> CURRENT = new ThreadLocal<>();
+
+	/*
+	 * Budgets in millis, 0 for no limit
+	 */
+	private static volatile long totalMillis = 0;
+
+	private static volatile Map<Stage, Long> stageMillis = new EnumMap<>(Stage.class);
+
+	private final ValidationBudget previous;
+
+	private final long deadline;
+
+	private final EnumMap<Stage, Long> spent = new EnumMap<>(Stage.class);
+
+	private Stage stage = null;
+
+	private long stageStart;
+
+	private long stageDeadline = Long.MAX_VALUE;
+
+	private Stage exceededStage = null;
+
+	private long revocationNextUpdate = Long.MAX_VALUE;
+
+	private ValidationBudget(ValidationBudget previous) {
+		this.previous = previous;
+		long now = System.currentTimeMillis();
+		this.deadline = (totalMillis > 0) ? now + totalMillis : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Configure the budgets; called once at startup.
+	 *
+	 * @param total         overall deadline (millis), 0 for no limit
+	 * @param decode        decode budget (millis), 0 for no limit
+	 * @param pathBuild     path build budget (millis), 0 for no limit
+	 * @param revocation    revocation budget (millis), 0 for no limit
+	 * @param serialization serialization budget (millis), 0 for no limit
+	 */
+	public static void configure(long total, long decode, long pathBuild, long revocation, long serialization) {
+		Map<Stage, Long> budgets = new EnumMap<>(Stage.class);
+		budgets.put(Stage.DECODE, decode);
+		budgets.put(Stage.PATH_BUILD, pathBuild);
+		budgets.put(Stage.REVOCATION, revocation);
+		budgets.put(Stage.SERIALIZATION, serialization);
+		stageMillis = budgets;
+		totalMillis = total;
+	}
+
+	/**
+	 * Start the budget of a validation on the current thread; close it when the
+	 * validation completes.
+	 *
+	 * @return ValidationBudget
+	 */
+	public static ValidationBudget start() {
+		ValidationBudget budget = new ValidationBudget(CURRENT.get());
+		CURRENT.set(budget);
+		return budget;
+	}
+
+	/**
+	 * @return the budget of the validation on the current thread, or null
+	 */
+	public static ValidationBudget current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Enter a stage, until the returned scope is closed.
+	 *
+	 * Stages may be nested (revocation within path build); the earliest deadline
+	 * applies.
+	 *
+	 * @param next
+	 * @return an AutoCloseable that leaves the stage
+	 */
+	public Scope enter(Stage next) {
+		Scope scope = new Scope(stage, stageStart, stageDeadline);
+		long now = System.currentTimeMillis();
+		long budget = stageMillis.getOrDefault(next, 0L);
+		long nextDeadline = (budget > 0) ? now + Math.max(0, budget - spent.getOrDefault(next, 0L)) : Long.MAX_VALUE;
+		stage = next;
+		stageStart = now;
+		stageDeadline = Math.min(stageDeadline, nextDeadline);
+		return scope;
+	}
+
+	/**
+	 * @return millis remaining in the current stage, and; overall
+	 */
+	public long remainingMillis() {
+		return Math.min(deadline, stageDeadline) - System.currentTimeMillis();
+	}
+
+	/**
+	 * @return true if the deadline (or the budget of the current stage) has been
+	 *         reached; once reached, this remains true
+	 */
+	public boolean isExceeded() {
+		if (null == exceededStage && remainingMillis() <= 0) {
+			exceededStage = (null == stage) ? Stage.DECODE : stage;
+		}
+		return null != exceededStage;
+	}
+
+	/**
+	 * @return the stage that was in progress when the budget was exceeded, or null
+	 */
+	public Stage getExceededStage() {
+		return exceededStage;
+	}
+
+	/**
+	 * @return a reason suitable for `invalidityReasonText`
+	 */
+	public String getReason() {
+		return "Validation deadline exceeded during " + ((null == exceededStage) ? stage : exceededStage);
+	}
+
+	/**
+	 * Record the `nextUpdate` of revocation information (an OCSP response, or; a
+	 * CRL) the validation relied on.
+	 *
+	 * @param nextUpdate epoch millis
+	 */
+	public void reliedOn(long nextUpdate) {
+		revocationNextUpdate = Math.min(revocationNextUpdate, nextUpdate);
+	}
+
+	/**
+	 * @return the earliest `nextUpdate` recorded by {@link #reliedOn(long)}, or
+	 *         Long.MAX_VALUE if none was recorded
+	 */
+	public long getRevocationNextUpdate() {
+		return revocationNextUpdate;
+	}
+
+	@Override
+	public void close() {
+		if (null == previous) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(previous);
+		}
+	}
+
+	/**
+	 * Leaves a stage, restoring the enclosing one
+	 */
+	public final class Scope implements AutoCloseable {
+
+		private final Stage enclosing;
+
+		private final long enclosingStart;
+
+		private final long enclosingDeadline;
+
+		private Scope(Stage enclosing, long enclosingStart, long enclosingDeadline) {
+			this.enclosing = enclosing;
+			this.enclosingStart = enclosingStart;
+			this.enclosingDeadline = enclosingDeadline;
+		}
+
+		@Override
+		public void close() {
+			isExceeded();
+			spent.merge(stage, System.currentTimeMillis() - stageStart, Long::sum);
+			stage = enclosing;
+			stageStart = enclosingStart;
+			stageDeadline = enclosingDeadline;
+		}
+
+	}
+
+}
@@ -0,0 +1,125 @@
+package org.keysupport.api.pkix;
+
+import java.security.cert.TrustAnchor;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.keysupport.api.pojo.vss.ValidationPolicies;
+import org.keysupport.api.singletons.FetchResult;
+
+/**
+ * An immutable view of everything a validation depends on: the validation
+ * policies, the trust anchors of each policy, the compiled policies, and; the
+ * intermediate cache they were compiled against.
+ *
+ * A new snapshot is built in full before it is published, so a validation that
+ * obtained a snapshot (or a compiled policy from one) continues to use a
+ * consistent set of policies, and; intermediates, while a refresh is in
+ * progress.
+ */
+public final class ValidationSnapshot {
+
+	private final long version;
+
+	private final long loadedAt;
+
+	private final String policiesJson;
+
+	private final ValidationPolicies validationPolicies;
+
+	private final Map<String, Set<TrustAnchor>> trustAnchors;
+
+	private final Map<String, CompiledValidationPolicy> compiledPolicies;
+
+	private final IndexedCertStore intermediates;
+
+	private final FetchResult.Validators policiesValidators;
+
+	private final FetchResult.Validators intermediatesValidators;
+
+	/**
+	 * @param version                 incremented each time a snapshot is published
+	 * @param policiesJson            the policies JSON the snapshot was built from
+	 * @param validationPolicies      the parsed policies
+	 * @param trustAnchors            trust anchors, by `validationPolicyId`
+	 * @param compiledPolicies        compiled policies, by `validationPolicyId`
+	 * @param intermediates           the intermediate cache
+	 * @param policiesValidators      validators of the policies JSON, or null
+	 * @param intermediatesValidators validators of the intermediates CMS, or null
+	 */
+	public ValidationSnapshot(long version, String policiesJson, ValidationPolicies validationPolicies,
+			Map<String, Set<TrustAnchor>> trustAnchors, Map<String, CompiledValidationPolicy> compiledPolicies,
+			IndexedCertStore intermediates, FetchResult.Validators policiesValidators,
+			FetchResult.Validators intermediatesValidators) {
+		this.version = version;
+		this.loadedAt = System.currentTimeMillis();
+		this.policiesJson = policiesJson;
+		this.validationPolicies = validationPolicies;
+		Map<String, Set<TrustAnchor>> anchors = new LinkedHashMap<>();
+		trustAnchors.forEach((id, taSet) -> anchors.put(id, Collections.unmodifiableSet(taSet)));
+		this.trustAnchors = Collections.unmodifiableMap(anchors);
+		this.compiledPolicies = Collections.unmodifiableMap(new LinkedHashMap<>(compiledPolicies));
+		this.intermediates = intermediates;
+		this.policiesValidators = policiesValidators;
+		this.intermediatesValidators = intermediatesValidators;
+	}
+
+	/**
+	 * @param policiesJson  the current policies JSON
+	 * @param intermediates the current intermediate cache
+	 * @return true if this snapshot was built from the same policies, and;
+	 *         intermediates
+	 */
+	public boolean isSameSource(String policiesJson, IndexedCertStore intermediates) {
+		if (!this.policiesJson.equals(policiesJson)) {
+			return false;
+		}
+		if (null == this.intermediates || null == intermediates) {
+			return this.intermediates == intermediates;
+		}
+		return this.intermediates.hasSameCertificates(intermediates);
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public long getLoadedAt() {
+		return loadedAt;
+	}
+
+	public String getPoliciesJson() {
+		return policiesJson;
+	}
+
+	public ValidationPolicies getValidationPolicies() {
+		return validationPolicies;
+	}
+
+	public Set<TrustAnchor> getTrustAnchors(String validationPolicyId) {
+		return trustAnchors.get(validationPolicyId);
+	}
+
+	public CompiledValidationPolicy getCompiledPolicy(String validationPolicyId) {
+		return compiledPolicies.get(validationPolicyId);
+	}
+
+	public Map<String, CompiledValidationPolicy> getCompiledPolicies() {
+		return compiledPolicies;
+	}
+
+	public IndexedCertStore getIntermediates() {
+		return intermediates;
+	}
+
+	public FetchResult.Validators getPoliciesValidators() {
+		return policiesValidators;
+	}
+
+	public FetchResult.Validators getIntermediatesValidators() {
+		return intermediatesValidators;
+	}
+
+}
@@ -25,11 +25,18 @@ import java.util.TimeZone;
 import java.util.UUID;
 
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.ASN1Primitive;
 import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.ASN1TaggedObject;
 import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.CRLDistPoint;
+import org.bouncycastle.asn1.x509.DistributionPoint;
+import org.bouncycastle.asn1.x509.DistributionPointName;
 import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
 import org.bouncycastle.util.io.pem.PemObject;
 import org.bouncycastle.util.io.pem.PemWriter;
 import org.keysupport.api.LoggingUtil;
@@ -199,6 +206,76 @@ public class X509Util {
 		return x509SubjectAltName;
 	}
 
+	/**
+	 * Return the HTTP URIs from the cRLDistributionPoints extension
+	 *
+	 * Only fullName URIs are returned; distribution points with a CRL issuer
+	 * (indirect CRLs), or reasons, are ignored.
+	 *
+	 * @param cert
+	 * @return List<String>, possibly empty
+	 */
+	public static List<String> getCrlDistributionPointUris(X509Certificate cert) {
+		List<String> uris = new ArrayList<>();
+		byte[] encodedExtension = cert.getExtensionValue("2.5.29.31");
+		if (null == encodedExtension) {
+			return uris;
+		}
+		try {
+			CRLDistPoint crlDp = CRLDistPoint.getInstance(ASN1OctetString.getInstance(encodedExtension).getOctets());
+			for (DistributionPoint dp : crlDp.getDistributionPoints()) {
+				if (null != dp.getCRLIssuer() || null != dp.getReasons() || null == dp.getDistributionPoint()
+						|| dp.getDistributionPoint().getType() != DistributionPointName.FULL_NAME) {
+					continue;
+				}
+				for (GeneralName name : GeneralNames.getInstance(dp.getDistributionPoint().getName()).getNames()) {
+					if (name.getTagNo() == GeneralName.uniformResourceIdentifier) {
+						String uri = name.getName().toString();
+						if (uri.toLowerCase(Locale.US).startsWith("http://")
+								|| uri.toLowerCase(Locale.US).startsWith("https://")) {
+							uris.add(uri);
+						}
+					}
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Error parsing cRLDistributionPoints", "stacktrace", LoggingUtil.stackTrace(e))));
+		}
+		return uris;
+	}
+
+	/**
+	 * Return the HTTP OCSP responder URIs from the authorityInfoAccess extension
+	 *
+	 * @param cert
+	 * @return List<String>, possibly empty
+	 */
+	public static List<String> getOcspUris(X509Certificate cert) {
+		List<String> uris = new ArrayList<>();
+		byte[] encodedExtension = cert.getExtensionValue("1.3.6.1.5.5.7.1.1");
+		if (null == encodedExtension) {
+			return uris;
+		}
+		try {
+			AuthorityInformationAccess aia = AuthorityInformationAccess
+					.getInstance(ASN1OctetString.getInstance(encodedExtension).getOctets());
+			for (AccessDescription ad : aia.getAccessDescriptions()) {
+				GeneralName name = ad.getAccessLocation();
+				if (ad.getAccessMethod().equals(AccessDescription.id_ad_ocsp)
+						&& name.getTagNo() == GeneralName.uniformResourceIdentifier) {
+					String uri = name.getName().toString();
+					if (uri.toLowerCase(Locale.US).startsWith("http://")
+							|| uri.toLowerCase(Locale.US).startsWith("https://")) {
+						uris.add(uri);
+					}
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Error parsing authorityInfoAccess", "stacktrace", LoggingUtil.stackTrace(e))));
+		}
+		return uris;
+	}
+
 	/**
 	 * Return Hex String of SHA-256 digest of the input string
 	 *
@@ -213,7 +290,7 @@ public class X509Util {
 			md.update(str.getBytes(StandardCharsets.UTF_8));
 			digest = md.digest();
 		} catch (NoSuchAlgorithmException e) {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Invalid Algorithm", "stacktrace", LoggingUtil.stackTraceToString(e))));
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Invalid Algorithm", "stacktrace", LoggingUtil.stackTrace(e))));
 		}
 		String strS256 = byteArrayToHexString(digest);
 		return strS256;
@@ -233,13 +310,13 @@ public class X509Util {
 			md.update(cert.getEncoded());
 			digest = md.digest();
 		} catch (NoSuchAlgorithmException | CertificateEncodingException e) {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Error decoding certificate", "stacktrace", LoggingUtil.stackTraceToString(e))));
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Error decoding certificate", "stacktrace", LoggingUtil.stackTrace(e))));
 		}
 		String x5tS256 = null;
 		try {
 			x5tS256 = Base64.getUrlEncoder().encodeToString(digest).replace("=", "");
 		} catch (Throwable e) {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Error base64 encoding digest result", "stacktrace", LoggingUtil.stackTraceToString(e))));
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Error base64 encoding digest result", "stacktrace", LoggingUtil.stackTrace(e))));
 		}
 		return x5tS256;
 	}
@@ -268,7 +345,7 @@ public class X509Util {
 		try {
 			d = dFormat.parse(dateString);
 		} catch (ParseException e) {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Unable to parse date", "stacktrace", LoggingUtil.stackTraceToString(e))));
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Unable to parse date", "stacktrace", LoggingUtil.stackTrace(e))));
 		}
 		return d;
 	}
@@ -301,7 +378,7 @@ public class X509Util {
 		try {
 			d = format.parse(headerDateValue);
 		} catch (ParseException e) {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Unable to parse date", "stacktrace", LoggingUtil.stackTraceToString(e))));
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Unable to parse date", "stacktrace", LoggingUtil.stackTrace(e))));
 		}
 		return d;
 	}
@@ -363,7 +440,7 @@ public class X509Util {
 			writer.flush();
 			writer.close();
 		} catch (IOException e) {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Unable to encode PEM", "stacktrace", LoggingUtil.stackTraceToString(e))));
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Unable to encode PEM", "stacktrace", LoggingUtil.stackTrace(e))));
 		}
 		sb.append(sw.getBuffer());
 		return sb.toString();
@@ -384,7 +461,7 @@ public class X509Util {
 			md.update(cert.getEncoded());
 			digest = md.digest();
 		} catch (NoSuchAlgorithmException | CertificateEncodingException e) {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Error decoding certificate", "stacktrace", LoggingUtil.stackTraceToString(e))));
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Error decoding certificate", "stacktrace", LoggingUtil.stackTrace(e))));
 		}
 
 		return X509Util.byteArrayToHexString(digest);
@@ -0,0 +1,64 @@
+package org.keysupport.api.pojo.vss;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/*
+ * A validation outcome, as recorded in the audit journal
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({ "validationTime", "requestId", "validationPolicyId", "x5t#S256", "result",
+		"isAffirmativelyInvalid", "reason", "pathDigest" })
+public class AuditRecord {
+
+	/**
+	 * Field validationTime
+	 */
+	@JsonProperty("validationTime")
+	public String validationTime;
+
+	/**
+	 * Field requestId
+	 */
+	@JsonProperty("requestId")
+	public String requestId;
+
+	/**
+	 * Field validationPolicyId
+	 */
+	@JsonProperty("validationPolicyId")
+	public String validationPolicyId;
+
+	/**
+	 * Field x5tS256
+	 */
+	@JsonProperty("x5t#S256")
+	public String x5tS256;
+
+	/**
+	 * Field result; `SUCCESS`, or; `FAIL`
+	 */
+	@JsonProperty("result")
+	public String result;
+
+	/**
+	 * Field isAffirmativelyInvalid
+	 */
+	@JsonProperty("isAffirmativelyInvalid")
+	public Boolean isAffirmativelyInvalid;
+
+	/**
+	 * Field reason; the reason code of a failure
+	 */
+	@JsonProperty("reason")
+	public String reason;
+
+	/**
+	 * Field pathDigest; the SHA-256 digest (hex) of the certificate path of a
+	 * success
+	 */
+	@JsonProperty("pathDigest")
+	public String pathDigest;
+
+}
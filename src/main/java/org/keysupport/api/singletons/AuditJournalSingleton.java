@@ -0,0 +1,692 @@
+package org.keysupport.api.singletons;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.keysupport.api.LoggingUtil;
+import org.keysupport.api.pkix.X509Util;
+import org.keysupport.api.pojo.vss.AuditRecord;
+import org.keysupport.api.pojo.vss.Fail;
+import org.keysupport.api.pojo.vss.JsonX509Certificate;
+import org.keysupport.api.pojo.vss.Success;
+import org.keysupport.api.pojo.vss.ValidationResult;
+import org.keysupport.api.pojo.vss.VssResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class uses a singleton pattern to keep an append-only journal of
+ * validation outcomes, so the validation history of a certificate can be
+ * queried without searching the logs.
+ *
+ * The journal is a directory of segments. A segment is a data file
+ * (`audit-<n>.dat`) of binary records, appended until it reaches the segment
+ * size, and; an index file (`audit-<n>.idx`), written when the segment is
+ * sealed. The index holds the (x5t#S256 prefix, offset) of each record, sorted,
+ * and; is memory-mapped, so a query is a binary search of each segment. The
+ * active segment is indexed in memory. Beyond `maxSegments`, the oldest segment
+ * is deleted.
+ *
+ * A record is:
+ *
+ * <pre>
+ * int     length of the body
+ * int     CRC32 of the body
+ * long    validation time (epoch millis)
+ * byte[]  requestId (32)
+ * byte[]  x5t#S256 (32)
+ * byte[]  SHA-256 digest of the certificate path (32, zero unless SUCCESS)
+ * byte    result (0 SUCCESS, 1 FAIL)
+ * byte    isAffirmativelyInvalid (0, or; 1)
+ * byte    reason code (the ordinal of {@link Reason})
+ * short   length of the validationPolicyId, and; its UTF-8 bytes
+ * </pre>
+ *
+ * A segment without an index (the active segment when the service stopped) is
+ * scanned, truncated after its last whole record, and; sealed at startup.
+ */
+public class AuditJournalSingleton {
+
+	private final static Logger LOG = LoggerFactory.getLogger(AuditJournalSingleton.class);
+
+	/**
+	 * The reason for a result; records store the ordinal, so reasons may only be
+	 * added at the end
+	 */
+	public enum Reason {
+		NONE("none"), EXPIRED("expired"), NOT_YET_VALID("not_yet_valid"), REVOKED("revoked"), NO_PATH("no_path"),
+		DEADLINE("deadline"), OTHER("other");
+
+		private final String tag;
+
+		Reason(String tag) {
+			this.tag = tag;
+		}
+
+		/*
+		 * From the invalidityReasonText set by ValidatePKIX
+		 */
+		private static Reason of(ValidationResult result) {
+			if (!(result instanceof Fail)) {
+				return NONE;
+			}
+			String text = ((Fail) result).invalidityReasonText;
+			if (null == text) {
+				return OTHER;
+			} else if (text.startsWith("NotAfter")) {
+				return EXPIRED;
+			} else if (text.startsWith("NotBefore")) {
+				return NOT_YET_VALID;
+			} else if (text.contains("revoked")) {
+				return REVOKED;
+			} else if (text.contains("deadline exceeded")) {
+				return DEADLINE;
+			} else if (text.contains("certification path")) {
+				return NO_PATH;
+			}
+			return OTHER;
+		}
+
+		@Override
+		public String toString() {
+			return tag;
+		}
+	}
+
+	private final static Pattern SEGMENT_NAME = Pattern.compile("audit-(\\d{20})\\.dat");
+
+	private final static String INDEX_SUFFIX = ".idx";
+
+	private final static int DIGEST_LENGTH = 32;
+
+	private final static int HEADER_LENGTH = 8;
+
+	/*
+	 * The body, excluding the validationPolicyId bytes
+	 */
+	private final static int FIXED_BODY_LENGTH = 8 + (3 * DIGEST_LENGTH) + 3 + 2;
+
+	private final static int MAX_BODY_LENGTH = FIXED_BODY_LENGTH + 1024;
+
+	/*
+	 * long x5t#S256 prefix, int offset
+	 */
+	private final static int INDEX_ENTRY_LENGTH = 12;
+
+	private final static byte SUCCESS = 0;
+
+	private final static byte FAIL = 1;
+
+	private volatile boolean enabled = false;
+
+	private long segmentSize;
+
+	private int maxSegments;
+
+	private Path directory;
+
+	/*
+	 * Sealed segments, oldest first
+	 */
+	private final Deque<Segment> sealed = new ArrayDeque<>();
+
+	private Segment active;
+
+	private long recorded;
+
+	private long errors;
+
+	private AuditJournalSingleton() {
+	}
+
+	private static class SingletonHelper {
+		private static final AuditJournalSingleton INSTANCE = new AuditJournalSingleton();
+	}
+
+	public static AuditJournalSingleton getInstance() {
+		return SingletonHelper.INSTANCE;
+	}
+
+	/**
+	 * Open (or; create) the journal; called at startup. Calling it again closes
+	 * the journal, and; opens it again, as a restart would. If the journal can not
+	 * be opened, it is disabled.
+	 *
+	 * @param enabled
+	 * @param directory
+	 * @param segmentSize bytes; a segment is sealed when the next record would
+	 *                    exceed this
+	 * @param maxSegments including the active segment
+	 */
+	public synchronized void configure(boolean enabled, String directory, long segmentSize, int maxSegments) {
+		this.segmentSize = Math.min(Math.max(segmentSize, 1024 * 1024), Integer.MAX_VALUE);
+		this.maxSegments = Math.max(maxSegments, 2);
+		/*
+		 * open() adds to the segments, so any already open are closed first
+		 */
+		this.enabled = false;
+		close();
+		if (enabled) {
+			try {
+				this.directory = Path.of(directory);
+				open();
+			} catch (IOException e) {
+				LOG.error("{}", LoggingUtil.json(Map.of("error", "Unable to open the audit journal, disabling it", "directory",
+						directory, "stacktrace", LoggingUtil.stackTrace(e))));
+				close();
+				enabled = false;
+			}
+		}
+		this.enabled = enabled;
+		LOG.info("{}", LoggingUtil.json(Map.of("audit.enabled", enabled, "audit.directory", directory,
+				"audit.segment-size", this.segmentSize, "audit.max-segments", this.maxSegments)));
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/*
+	 * Open the existing segments, sealing any without an index, and; start a new
+	 * active segment
+	 */
+	private void open() throws IOException {
+		Files.createDirectories(directory);
+		List<Long> sequences = new ArrayList<>();
+		try (Stream<Path> files = Files.list(directory)) {
+			files.forEach(file -> {
+				Matcher m = SEGMENT_NAME.matcher(file.getFileName().toString());
+				if (m.matches()) {
+					sequences.add(Long.parseLong(m.group(1)));
+				}
+			});
+		}
+		sequences.sort(null);
+		long next = 0;
+		for (long sequence : sequences) {
+			Segment segment = new Segment(directory, sequence);
+			if (Files.exists(segment.index)) {
+				segment.mapIndex();
+			} else {
+				segment.recover();
+				if (0 == segment.count) {
+					segment.close();
+					Files.delete(segment.data);
+					continue;
+				}
+				segment.seal();
+			}
+			sealed.addLast(segment);
+			next = sequence + 1;
+		}
+		active = new Segment(directory, next);
+		retain();
+	}
+
+	private void close() {
+		for (Segment segment : sealed) {
+			segment.close();
+		}
+		sealed.clear();
+		if (null != active) {
+			active.close();
+			active = null;
+		}
+	}
+
+	/*
+	 * Delete the oldest sealed segments beyond maxSegments
+	 */
+	private void retain() {
+		while (sealed.size() + 1 > maxSegments) {
+			Segment oldest = sealed.removeFirst();
+			oldest.close();
+			try {
+				Files.deleteIfExists(oldest.index);
+				Files.deleteIfExists(oldest.data);
+			} catch (IOException e) {
+				LOG.error("{}", LoggingUtil.json(Map.of("error", "Unable to delete audit segment", "segment",
+						oldest.data.toString(), "stacktrace", LoggingUtil.stackTrace(e))));
+			}
+		}
+	}
+
+	/**
+	 * Append the outcome of a validation
+	 *
+	 * @param requestId          the hex requestId
+	 * @param response           the validation response
+	 * @param validationTimeMillis
+	 */
+	public void record(String requestId, VssResponse response, long validationTimeMillis) {
+		if (!enabled || null == response || null == response.validationResult) {
+			return;
+		}
+		ByteBuffer record = encode(requestId, response, validationTimeMillis);
+		synchronized (this) {
+			if (!enabled) {
+				return;
+			}
+			try {
+				if (active.size + record.remaining() > segmentSize && active.count > 0) {
+					rotate();
+				}
+				active.append(record);
+				recorded++;
+			} catch (IOException e) {
+				errors++;
+				LOG.error("{}", LoggingUtil.json(Map.of("error", "Unable to append to the audit journal", "segment",
+						active.data.toString(), "stacktrace", LoggingUtil.stackTrace(e))));
+			}
+		}
+	}
+
+	/*
+	 * Seal the active segment, and; start the next
+	 */
+	private void rotate() throws IOException {
+		active.seal();
+		sealed.addLast(active);
+		active = new Segment(directory, active.sequence + 1);
+		retain();
+	}
+
+	private static ByteBuffer encode(String requestId, VssResponse response, long validationTimeMillis) {
+		ValidationResult result = response.validationResult;
+		byte[] policy = String.valueOf(response.validationPolicyId).getBytes(StandardCharsets.UTF_8);
+		if (policy.length > MAX_BODY_LENGTH - FIXED_BODY_LENGTH) {
+			policy = Arrays.copyOf(policy, MAX_BODY_LENGTH - FIXED_BODY_LENGTH);
+		}
+		ByteBuffer body = ByteBuffer.allocate(FIXED_BODY_LENGTH + policy.length);
+		body.putLong(validationTimeMillis);
+		body.put(digestBytes(hexDecode(requestId)));
+		body.put(digestBytes(base64UrlDecode(response.x5tS256)));
+		body.put(digestBytes(pathDigest(result)));
+		body.put((result instanceof Success) ? SUCCESS : FAIL);
+		body.put((byte) ((result instanceof Fail && Boolean.TRUE.equals(((Fail) result).isAffirmativelyInvalid)) ? 1 : 0));
+		body.put((byte) Reason.of(result).ordinal());
+		body.putShort((short) policy.length);
+		body.put(policy);
+		body.flip();
+		CRC32 crc = new CRC32();
+		crc.update(body.duplicate());
+		ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + body.remaining());
+		record.putInt(body.remaining());
+		record.putInt((int) crc.getValue());
+		record.put(body);
+		record.flip();
+		return record;
+	}
+
+	/*
+	 * SHA-256 of the DER encoded certificates of the path, in order
+	 */
+	private static byte[] pathDigest(ValidationResult result) {
+		if (!(result instanceof Success) || null == ((Success) result).x509CertificatePath) {
+			return null;
+		}
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			for (JsonX509Certificate cert : ((Success) result).x509CertificatePath) {
+				md.update(Base64.getDecoder().decode(cert.x509Certificate));
+			}
+			return md.digest();
+		} catch (NoSuchAlgorithmException | IllegalArgumentException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Unable to digest certificate path", "stacktrace",
+					LoggingUtil.stackTrace(e))));
+			return null;
+		}
+	}
+
+	/*
+	 * Exactly DIGEST_LENGTH bytes; zero if absent
+	 */
+	private static byte[] digestBytes(byte[] digest) {
+		return (null == digest) ? new byte[DIGEST_LENGTH] : Arrays.copyOf(digest, DIGEST_LENGTH);
+	}
+
+	private static byte[] hexDecode(String hex) {
+		try {
+			return (null == hex) ? null : HexFormat.of().parseHex(hex);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static byte[] base64UrlDecode(String x5tS256) {
+		try {
+			return (null == x5tS256) ? null : Base64.getUrlDecoder().decode(x5tS256);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * The validation history of a certificate, newest first
+	 *
+	 * @param x5tS256 the base64url SHA-256 digest of the certificate
+	 * @param limit   the maximum number of records
+	 * @return the records, or; an empty list
+	 */
+	public List<AuditRecord> history(String x5tS256, int limit) {
+		List<AuditRecord> history = new ArrayList<>();
+		byte[] x5t = base64UrlDecode(x5tS256);
+		if (!enabled || null == x5t || DIGEST_LENGTH != x5t.length) {
+			return history;
+		}
+		long key = ByteBuffer.wrap(x5t).getLong();
+		/*
+		 * Entries of the active index below `count` do not change once written
+		 */
+		List<Segment> segments;
+		Segment current;
+		long[] keys;
+		int[] offsets;
+		int count;
+		synchronized (this) {
+			if (null == active) {
+				return history;
+			}
+			segments = new ArrayList<>(sealed);
+			current = active;
+			keys = active.keys;
+			offsets = active.offsets;
+			count = active.count;
+		}
+		for (int i = count - 1; i >= 0 && history.size() < limit; i--) {
+			if (key == keys[i]) {
+				read(current, offsets[i], x5t, history);
+			}
+		}
+		for (int s = segments.size() - 1; s >= 0 && history.size() < limit; s--) {
+			Segment segment = segments.get(s);
+			int[] found = segment.find(key);
+			for (int i = found.length - 1; i >= 0 && history.size() < limit; i--) {
+				read(segment, found[i], x5t, history);
+			}
+		}
+		return history;
+	}
+
+	/*
+	 * Read the record at offset, and; add it to history if it is for x5t
+	 */
+	private void read(Segment segment, int offset, byte[] x5t, List<AuditRecord> history) {
+		try {
+			ByteBuffer body = segment.read(offset);
+			if (null == body) {
+				return;
+			}
+			long validationTime = body.getLong();
+			byte[] requestId = new byte[DIGEST_LENGTH];
+			body.get(requestId);
+			byte[] recordX5t = new byte[DIGEST_LENGTH];
+			body.get(recordX5t);
+			if (!Arrays.equals(x5t, recordX5t)) {
+				return;
+			}
+			byte[] pathDigest = new byte[DIGEST_LENGTH];
+			body.get(pathDigest);
+			byte result = body.get();
+			boolean affirmativelyInvalid = (1 == body.get());
+			int reason = body.get();
+			byte[] policy = new byte[body.getShort()];
+			body.get(policy);
+			AuditRecord record = new AuditRecord();
+			record.validationTime = X509Util.ISO8601DateString(new Date(validationTime));
+			record.requestId = X509Util.byteArrayToHexString(requestId);
+			record.validationPolicyId = new String(policy, StandardCharsets.UTF_8);
+			record.x5tS256 = Base64.getUrlEncoder().withoutPadding().encodeToString(recordX5t);
+			if (SUCCESS == result) {
+				record.result = "SUCCESS";
+				record.pathDigest = X509Util.byteArrayToHexString(pathDigest);
+			} else {
+				record.result = "FAIL";
+				record.isAffirmativelyInvalid = affirmativelyInvalid;
+				record.reason = (reason >= 0 && reason < Reason.values().length) ? Reason.values()[reason].toString()
+						: Reason.OTHER.toString();
+			}
+			history.add(record);
+		} catch (IOException e) {
+			/*
+			 * e.g. the segment was deleted by retention during the query
+			 */
+			LOG.warn("{}", LoggingUtil.json(Map.of("warning", "Unable to read audit record: " + e.getMessage(), "segment",
+					segment.data.toString())));
+		}
+	}
+
+	/**
+	 * @return the journal statistics
+	 */
+	public synchronized Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("enabled", enabled);
+		stats.put("segments", (null == active) ? 0 : sealed.size() + 1);
+		long bytes = (null == active) ? 0 : active.size;
+		for (Segment segment : sealed) {
+			bytes += segment.size;
+		}
+		stats.put("bytes", bytes);
+		stats.put("activeRecords", (null == active) ? 0 : active.count);
+		stats.put("recordCount", recorded);
+		stats.put("errorCount", errors);
+		return stats;
+	}
+
+	/**
+	 * A data file, and; its index
+	 */
+	private static final class Segment {
+
+		private final long sequence;
+
+		private final Path data;
+
+		private final Path index;
+
+		private final FileChannel channel;
+
+		private long size;
+
+		/*
+		 * The index while active; sealed segments use the mapped index
+		 */
+		private long[] keys = new long[1024];
+
+		private int[] offsets = new int[1024];
+
+		private int count;
+
+		private MappedByteBuffer mappedIndex;
+
+		private Segment(Path directory, long sequence) throws IOException {
+			this.sequence = sequence;
+			String name = String.format("audit-%020d", sequence);
+			this.data = directory.resolve(name + ".dat");
+			this.index = directory.resolve(name + INDEX_SUFFIX);
+			this.channel = FileChannel.open(data, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			this.size = channel.size();
+		}
+
+		private void append(ByteBuffer record) throws IOException {
+			int offset = (int) size;
+			long key = record.getLong(HEADER_LENGTH + 8 + DIGEST_LENGTH);
+			int length = record.remaining();
+			long position = size;
+			while (record.hasRemaining()) {
+				position += channel.write(record, position);
+			}
+			size += length;
+			add(key, offset);
+		}
+
+		private void add(long key, int offset) {
+			if (count == keys.length) {
+				/*
+				 * New arrays, so a query may keep reading the old
+				 */
+				keys = Arrays.copyOf(keys, count * 2);
+				offsets = Arrays.copyOf(offsets, count * 2);
+			}
+			keys[count] = key;
+			offsets[count] = offset;
+			count++;
+		}
+
+		/*
+		 * Index the whole records, and; truncate anything after them
+		 */
+		private void recover() throws IOException {
+			long position = 0;
+			ByteBuffer body;
+			while (null != (body = read(position))) {
+				add(body.getLong(8 + DIGEST_LENGTH), (int) position);
+				position += HEADER_LENGTH + body.capacity();
+			}
+			if (position < size) {
+				LOG.warn("{}", LoggingUtil.json(Map.of("warning", "Truncating a partial audit record", "segment",
+						data.toString(), "offset", position, "size", size)));
+				channel.truncate(position);
+				size = position;
+			}
+		}
+
+		/*
+		 * Write the sorted index, and; map it
+		 */
+		private void seal() throws IOException {
+			Integer[] order = new Integer[count];
+			for (int i = 0; i < count; i++) {
+				order[i] = i;
+			}
+			/*
+			 * Stable, so the offsets of a key stay in append order
+			 */
+			Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+			ByteBuffer entries = ByteBuffer.allocate(count * INDEX_ENTRY_LENGTH);
+			for (int i : order) {
+				entries.putLong(keys[i]);
+				entries.putInt(offsets[i]);
+			}
+			entries.flip();
+			Path partial = index.resolveSibling(index.getFileName() + ".tmp");
+			try (FileChannel out = FileChannel.open(partial, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				while (entries.hasRemaining()) {
+					out.write(entries);
+				}
+				out.force(true);
+			}
+			channel.force(true);
+			Files.move(partial, index, StandardCopyOption.ATOMIC_MOVE);
+			mapIndex();
+		}
+
+		private void mapIndex() throws IOException {
+			try (FileChannel in = FileChannel.open(index, StandardOpenOption.READ)) {
+				mappedIndex = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+			}
+			keys = null;
+			offsets = null;
+		}
+
+		/*
+		 * The offsets of the records with this key, in append order
+		 */
+		private int[] find(long key) {
+			MappedByteBuffer entries = mappedIndex;
+			int n = entries.capacity() / INDEX_ENTRY_LENGTH;
+			int lo = 0;
+			int hi = n;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (Long.compare(entries.getLong(mid * INDEX_ENTRY_LENGTH), key) < 0) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			int end = lo;
+			while (end < n && key == entries.getLong(end * INDEX_ENTRY_LENGTH)) {
+				end++;
+			}
+			int[] found = new int[end - lo];
+			for (int i = lo; i < end; i++) {
+				found[i - lo] = entries.getInt((i * INDEX_ENTRY_LENGTH) + 8);
+			}
+			return found;
+		}
+
+		/*
+		 * The body of the record at position, or null if there is no whole, valid,
+		 * record there
+		 */
+		private ByteBuffer read(long position) throws IOException {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			if (!readFully(header, position)) {
+				return null;
+			}
+			int length = header.getInt(0);
+			if (length < FIXED_BODY_LENGTH || length > MAX_BODY_LENGTH) {
+				return null;
+			}
+			ByteBuffer body = ByteBuffer.allocate(length);
+			if (!readFully(body, position + HEADER_LENGTH)) {
+				return null;
+			}
+			CRC32 crc = new CRC32();
+			crc.update(body.array());
+			if ((int) crc.getValue() != header.getInt(4)) {
+				return null;
+			}
+			return body;
+		}
+
+		private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+			while (buffer.hasRemaining()) {
+				int read = channel.read(buffer, position + buffer.position());
+				if (read < 0) {
+					return false;
+				}
+			}
+			buffer.flip();
+			return true;
+		}
+
+		private void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOG.error("{}", LoggingUtil.json(Map.of("error", "Unable to close audit segment", "segment",
+						data.toString(), "stacktrace", LoggingUtil.stackTrace(e))));
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,221 @@
+package org.keysupport.api.singletons;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.keysupport.api.LoggingUtil;
+import org.keysupport.api.pkix.ValidationSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class uses a singleton pattern to save the validation, OCSP, and; CRL
+ * caches to disk, periodically, and; at shutdown, so a restarted instance
+ * begins with them warm rather than fetching from every responder again.
+ *
+ * The file records the version of the {@link ValidationSnapshot} the cached
+ * validations were made under. Validations are only restored if the snapshot
+ * in use at startup is the same one (loaded by the
+ * {@link SnapshotStoreSingleton}, with the same version); otherwise they are
+ * discarded. OCSP responses, and; CRLs, do not depend on the validation
+ * policies, so they are restored if they are still current. Nothing is verified
+ * again on restore; the file is as trusted as the snapshot file.
+ *
+ * <pre>
+ * int     MAGIC
+ * int     FORMAT
+ * long    saved at (epoch millis)
+ * long    snapshot version (-1 if none)
+ * ...     validation cache entries
+ * ...     OCSP cache entries
+ * ...     CRL cache entries
+ * long    CRC32
+ * </pre>
+ */
+public class CacheSnapshotSingleton {
+
+	private final static Logger LOG = LoggerFactory.getLogger(CacheSnapshotSingleton.class);
+
+	/*
+	 * "VSSC"
+	 */
+	private final static int MAGIC = 0x56535343;
+
+	private final static int FORMAT = 2;
+
+	private volatile boolean enabled = false;
+
+	private volatile Path file;
+
+	private ScheduledExecutorService scheduler = null;
+
+	private CacheSnapshotSingleton() {
+	}
+
+	private static class SingletonHelper {
+		private static final CacheSnapshotSingleton INSTANCE = new CacheSnapshotSingleton();
+	}
+
+	public static CacheSnapshotSingleton getInstance() {
+		return SingletonHelper.INSTANCE;
+	}
+
+	/**
+	 * Configure the cache snapshot; called once at startup, after the caches have
+	 * been configured.
+	 *
+	 * @param enabled
+	 * @param file
+	 * @param intervalSeconds seconds between saves, 0 to save only at shutdown
+	 */
+	public synchronized void configure(boolean enabled, String file, long intervalSeconds) {
+		this.file = Path.of(file);
+		this.enabled = enabled;
+		if (enabled && intervalSeconds > 0 && null == scheduler) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "cache-snapshot");
+				t.setDaemon(true);
+				return t;
+			});
+			/*
+			 * An exception would cancel subsequent runs, so they are logged here
+			 */
+			scheduler.scheduleWithFixedDelay(() -> {
+				try {
+					save();
+				} catch (RuntimeException e) {
+					LOG.error("{}", LoggingUtil.json(Map.of("error", "Failed to save cache snapshot", "stacktrace",
+							LoggingUtil.stackTrace(e))));
+				}
+			}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+		}
+		LOG.info("{}", LoggingUtil.json(Map.of("cache-snapshot.enabled", enabled, "cache-snapshot.file", file,
+				"cache-snapshot.interval", intervalSeconds)));
+	}
+
+	/**
+	 * Restore the caches from the file; called once at startup, before requests
+	 * are served.
+	 *
+	 * @param snapshotLoaded true if the validation snapshot was loaded from the
+	 *                       snapshot file, so its version continues that of the
+	 *                       previous run
+	 */
+	public synchronized void restore(boolean snapshotLoaded) {
+		if (!enabled || !Files.isRegularFile(file)) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		try {
+			byte[] bytes = Files.readAllBytes(file);
+			/*
+			 * Check the whole file before restoring any of it
+			 */
+			if (bytes.length < 32) {
+				throw new IOException("Truncated cache snapshot");
+			}
+			CRC32 crc = new CRC32();
+			crc.update(bytes, 0, bytes.length - 8);
+			if (crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong()) {
+				throw new IOException("CRC mismatch");
+			}
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+			if (MAGIC != in.readInt() || FORMAT != in.readInt()) {
+				LOG.warn("{}", LoggingUtil.json(Map.of("warning", "Ignoring cache snapshot of an unknown format",
+						"cache-snapshot.file", file.toString())));
+				return;
+			}
+			long savedAt = in.readLong();
+			long version = in.readLong();
+			ValidationSnapshot current = ValidationPoliciesSingleton.getInstance().getSnapshot();
+			boolean sameSnapshot = snapshotLoaded && null != current && current.getVersion() == version;
+			int validations = ValidationCacheSingleton.getInstance().restore(in, sameSnapshot);
+			int ocspResponses = OcspCacheSingleton.getInstance().restore(in);
+			int crls = CrlCacheSingleton.getInstance().restore(in);
+			LOG.info("{}", LoggingUtil.json(Map.of("cache-snapshot.restored", file.toString(), "cache-snapshot.savedAt",
+					savedAt, "cache-snapshot.version", version, "cache-snapshot.sameSnapshot", sameSnapshot,
+					"cache-snapshot.validations", validations, "cache-snapshot.ocsp", ocspResponses,
+					"cache-snapshot.crls", crls, "cache-snapshot.millis", System.currentTimeMillis() - start)));
+		} catch (IOException | RuntimeException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Unable to restore cache snapshot, ignoring it",
+					"cache-snapshot.file", file.toString(), "stacktrace", LoggingUtil.stackTrace(e))));
+			ValidationCacheSingleton.getInstance().invalidateAll();
+			OcspCacheSingleton.getInstance().invalidateAll();
+			CrlCacheSingleton.getInstance().invalidateAll();
+		}
+	}
+
+	/**
+	 * Save the caches, replacing the previous file; a failure is logged, and; the
+	 * previous file is kept.
+	 */
+	public synchronized void save() {
+		if (!enabled) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		Path partial = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			if (null != file.getParent()) {
+				Files.createDirectories(file.getParent());
+			}
+			ValidationSnapshot current = ValidationPoliciesSingleton.getInstance().getSnapshot();
+			CRC32 crc = new CRC32();
+			try (DataOutputStream out = new DataOutputStream(
+					new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(partial)), crc))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT);
+				out.writeLong(System.currentTimeMillis());
+				out.writeLong((null == current) ? -1 : current.getVersion());
+				ValidationCacheSingleton.getInstance().save(out);
+				OcspCacheSingleton.getInstance().save(out);
+				CrlCacheSingleton.getInstance().save(out);
+				/*
+				 * The CRC of everything before it
+				 */
+				out.writeLong(crc.getValue());
+			}
+			Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			LOG.info("{}", LoggingUtil.json(Map.of("cache-snapshot.saved", file.toString(), "cache-snapshot.bytes",
+					Files.size(file), "cache-snapshot.millis", System.currentTimeMillis() - start)));
+		} catch (IOException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Unable to save cache snapshot", "cache-snapshot.file",
+					file.toString(), "stacktrace", LoggingUtil.stackTrace(e))));
+			try {
+				Files.deleteIfExists(partial);
+			} catch (IOException ignored) {
+				/*
+				 * The partial file is replaced by the next save
+				 */
+			}
+		}
+	}
+
+	/**
+	 * Stop the periodic saves, and; save the caches a final time; called at
+	 * shutdown.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			if (null != scheduler) {
+				scheduler.shutdownNow();
+				scheduler = null;
+			}
+		}
+		save();
+	}
+
+}
@@ -0,0 +1,462 @@
+package org.keysupport.api.singletons;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.security.PublicKey;
+import java.security.cert.CRLException;
+import java.security.cert.X509CRL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.keysupport.api.LoggingUtil;
+import org.keysupport.api.pkix.CachedCrl;
+import org.keysupport.api.pkix.ValidationBudget;
+import org.keysupport.api.pkix.X509Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class uses a singleton pattern to cache CRLs by distribution point URI.
+ *
+ * CRLs are fetched through the HTTPClientSingleton, verified once, and; kept
+ * as a {@link CachedCrl}. Each CRL is refreshed on a background thread ahead
+ * of its `nextUpdate`, so request threads only fetch a CRL the first time it
+ * is needed. Concurrent misses for the same CRL share one fetch, each caller
+ * waiting no longer than its {@link ValidationBudget} allows. CRLs that have not been used for `idle-ttl` are dropped rather
+ * than refreshed.
+ *
+ * A CRL that can not be represented as a {@link CachedCrl} (indirect, delta,
+ * or; partitioned by reason) is not fetched again for a minute, and; is left
+ * to the JDK revocation checker (see {@link #isUnsupported(String)}).
+ */
+public class CrlCacheSingleton {
+
+	private final Logger LOG = LoggerFactory.getLogger(CrlCacheSingleton.class);
+
+	/*
+	 * Minimum delay (millis) between fetches of the same CRL
+	 */
+	private final static long MIN_REFRESH_INTERVAL = TimeUnit.SECONDS.toMillis(60);
+
+	private boolean enabled = false;
+
+	private int maxCrlSize;
+
+	private long refreshAheadMillis;
+
+	private long idleTtlMillis;
+
+	private int maxEntries;
+
+	private final ConcurrentHashMap<String, CrlEntry> crls = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<String, ScheduledFuture<?>> refreshes = new ConcurrentHashMap<>();
+
+	/*
+	 * Fetches in progress, by URI, shared by the callers that miss on the same CRL
+	 */
+	private final ConcurrentHashMap<String, CompletableFuture<CachedCrl>> inFlight = new ConcurrentHashMap<>();
+
+	/*
+	 * Distribution points whose CRL could not be cached, and; when
+	 */
+	private final ConcurrentHashMap<String, Long> unsupported = new ConcurrentHashMap<>();
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder coalesced = new LongAdder();
+
+	private final LongAdder fetches = new LongAdder();
+
+	private final LongAdder fetchFailures = new LongAdder();
+
+	private final LongAdder notModified = new LongAdder();
+
+	private ScheduledExecutorService scheduler = null;
+
+	/**
+	 * A cached CRL, the validators it was served with, and; when it was last used
+	 */
+	private static final class CrlEntry {
+
+		private final CachedCrl crl;
+
+		private final FetchResult.Validators validators;
+
+		private volatile long lastAccess;
+
+		private CrlEntry(CachedCrl crl, FetchResult.Validators validators) {
+			this.crl = crl;
+			this.validators = validators;
+			this.lastAccess = System.currentTimeMillis();
+		}
+
+	}
+
+	private CrlCacheSingleton() {
+	}
+
+	private static class SingletonHelper {
+		private static final CrlCacheSingleton INSTANCE = new CrlCacheSingleton();
+	}
+
+	public static CrlCacheSingleton getInstance() {
+		return SingletonHelper.INSTANCE;
+	}
+
+	/**
+	 * Configure the cache; called once at startup.
+	 *
+	 * @param enabled             enable or disable the cache
+	 * @param maxCrlSize          largest CRL (bytes) that will be downloaded
+	 * @param refreshAheadSeconds refresh each CRL this long before `nextUpdate`
+	 * @param idleTtlSeconds      drop CRLs that have not been used for this long
+	 * @param maxEntries          maximum number of cached CRLs
+	 */
+	public synchronized void configure(boolean enabled, int maxCrlSize, long refreshAheadSeconds, long idleTtlSeconds,
+			int maxEntries) {
+		this.enabled = enabled;
+		this.maxCrlSize = maxCrlSize;
+		this.refreshAheadMillis = TimeUnit.SECONDS.toMillis(refreshAheadSeconds);
+		this.idleTtlMillis = TimeUnit.SECONDS.toMillis(idleTtlSeconds);
+		this.maxEntries = maxEntries;
+		if (enabled && null == scheduler) {
+			scheduler = Executors.newScheduledThreadPool(2, r -> {
+				Thread t = new Thread(r, "crl-cache-refresh");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		LOG.info("{}", LoggingUtil.json(Map.of("crl.cache.enabled", enabled, "crl.cache.max-crl-size", maxCrlSize,
+				"crl.cache.refresh-ahead", refreshAheadSeconds, "crl.cache.idle-ttl", idleTtlSeconds,
+				"crl.cache.max-entries", maxEntries)));
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param uri
+	 * @param date the validation date
+	 * @return the cached CRL if it is current at `date`, otherwise null
+	 */
+	public CachedCrl getCurrent(String uri, Date date) {
+		CrlEntry entry = crls.get(uri);
+		if (null == entry || !entry.crl.isCurrent(date)) {
+			return null;
+		}
+		entry.lastAccess = System.currentTimeMillis();
+		return entry.crl;
+	}
+
+	/**
+	 * Obtain a current CRL, signed by one of `issuerKeys`, fetching it if needed.
+	 *
+	 * When the cache is disabled, the CRL is fetched for this caller only, and; not
+	 * kept.
+	 *
+	 * @param uri
+	 * @param issuerKeys the possible CRL issuer keys
+	 * @param date       the validation date
+	 * @return CachedCrl, or null if a current CRL could not be obtained
+	 */
+	public CachedCrl get(String uri, List<PublicKey> issuerKeys, Date date) {
+		CachedCrl crl;
+		if (!enabled) {
+			crl = isUnsupported(uri) ? null : fetch(uri, issuerKeys, null);
+			return current(crl, issuerKeys, date);
+		}
+		crl = getCurrent(uri, date);
+		if (null != crl && issuerKeys.contains(crl.getIssuerKey())) {
+			hits.increment();
+			return crl;
+		}
+		misses.increment();
+		if (isUnsupported(uri)) {
+			return null;
+		}
+		CompletableFuture<CachedCrl> future = new CompletableFuture<>();
+		CompletableFuture<CachedCrl> existing = inFlight.putIfAbsent(uri, future);
+		if (null == existing) {
+			crl = fetchShared(uri, issuerKeys, future);
+		} else {
+			coalesced.increment();
+			crl = await(existing);
+		}
+		return current(crl, issuerKeys, date);
+	}
+
+	private static CachedCrl current(CachedCrl crl, List<PublicKey> issuerKeys, Date date) {
+		if (null != crl && crl.isCurrent(date) && issuerKeys.contains(crl.getIssuerKey())) {
+			return crl;
+		}
+		return null;
+	}
+
+	/*
+	 * Fetch a CRL on behalf of every caller waiting on `future`
+	 */
+	private CachedCrl fetchShared(String uri, List<PublicKey> issuerKeys, CompletableFuture<CachedCrl> future) {
+		try {
+			CachedCrl crl = fetch(uri, issuerKeys, null);
+			future.complete(crl);
+			return crl;
+		} catch (RuntimeException | Error e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(uri, future);
+		}
+	}
+
+	/*
+	 * Wait for a fetch started by another caller, no longer than the budget of
+	 * the current validation (if any)
+	 *
+	 * @return the fetched CRL, or null if it could not be fetched in time
+	 */
+	private static CachedCrl await(CompletableFuture<CachedCrl> future) {
+		ValidationBudget budget = ValidationBudget.current();
+		try {
+			if (null == budget) {
+				return future.get();
+			}
+			return future.get(Math.max(0, budget.remainingMillis()), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException | ExecutionException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * @param uri
+	 * @return true if the CRL at `uri` was recently fetched, and; could not be
+	 *         cached
+	 */
+	public boolean isUnsupported(String uri) {
+		Long rejectedAt = unsupported.get(uri);
+		return null != rejectedAt && rejectedAt > System.currentTimeMillis() - MIN_REFRESH_INTERVAL;
+	}
+
+	/*
+	 * Fetch, verify, and; cache a CRL (if the cache is enabled)
+	 *
+	 * When `previous` (the entry being refreshed) is given, the fetch is
+	 * conditional, and; `previous` is returned if the CRL has not been modified
+	 */
+	private CachedCrl fetch(String uri, List<PublicKey> issuerKeys, CrlEntry previous) {
+		fetches.increment();
+		long start = System.currentTimeMillis();
+		FetchResult<X509CRL> fetched = null;
+		try {
+			fetched = HTTPClientSingleton.getInstance().getCrlIfModified(URI.create(uri), maxCrlSize,
+					(null == previous) ? null : previous.validators);
+		} catch (IllegalArgumentException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Invalid CRL URI", "uri", uri, "stacktrace",
+					LoggingUtil.stackTrace(e))));
+		}
+		if (null == fetched) {
+			fetchFailures.increment();
+			return null;
+		}
+		if (fetched.isNotModified()) {
+			notModified.increment();
+			return previous.crl;
+		}
+		X509CRL x509Crl = fetched.getValue();
+		CachedCrl crl = null;
+		try {
+			crl = CachedCrl.fromX509Crl(uri, x509Crl, issuerKeys, x509Crl.getEncoded().length);
+		} catch (CRLException e) {
+			fetchFailures.increment();
+			unsupported.put(uri, System.currentTimeMillis());
+			LOG.warn("{}", LoggingUtil.json(Map.of("warning", "CRL not cached: " + e.getMessage(), "uri", uri)));
+			return null;
+		}
+		unsupported.remove(uri);
+		if (!enabled) {
+			return crl;
+		}
+		/*
+		 * Keep the newer of the cached and fetched CRL
+		 */
+		CrlEntry existing = crls.get(uri);
+		if (null != existing && existing.crl.getThisUpdate().after(crl.getThisUpdate())
+				&& existing.crl.getIssuerKey().equals(crl.getIssuerKey())) {
+			return existing.crl;
+		}
+		if (null == existing && crls.size() >= maxEntries) {
+			LOG.warn("{}", LoggingUtil.json(Map.of("warning", "CRL cache full, not caching", "uri", uri)));
+			return crl;
+		}
+		crls.put(uri, new CrlEntry(crl, fetched.getValidators()));
+		scheduleRefresh(uri, crl);
+		LOG.info("{}", LoggingUtil.json(Map.of("crl.uri", uri, "crl.issuer", crl.getIssuer().toString(),
+				"crl.entries", crl.size(), "crl.thisUpdate", X509Util.ISO8601DateString(crl.getThisUpdate()),
+				"crl.nextUpdate",
+				(null == crl.getNextUpdate()) ? "none" : X509Util.ISO8601DateString(crl.getNextUpdate()),
+				"crl.fetchMillis", System.currentTimeMillis() - start)));
+		return crl;
+	}
+
+	private void scheduleRefresh(String uri, CachedCrl crl) {
+		long now = System.currentTimeMillis();
+		long refreshAt;
+		if (null == crl.getNextUpdate()) {
+			refreshAt = now + refreshAheadMillis;
+		} else {
+			refreshAt = crl.getNextUpdate().getTime() - refreshAheadMillis;
+		}
+		scheduleRefresh(uri, Math.max(MIN_REFRESH_INTERVAL, refreshAt - now));
+	}
+
+	/*
+	 * Only one refresh is scheduled per CRL
+	 */
+	private void scheduleRefresh(String uri, long delayMillis) {
+		ScheduledFuture<?> refresh = scheduler.schedule(() -> refresh(uri), delayMillis, TimeUnit.MILLISECONDS);
+		ScheduledFuture<?> previous = refreshes.put(uri, refresh);
+		if (null != previous) {
+			previous.cancel(false);
+		}
+	}
+
+	/*
+	 * Refresh a CRL, or; drop it if it is no longer being used
+	 */
+	private void refresh(String uri) {
+		CrlEntry entry = crls.get(uri);
+		if (null == entry) {
+			return;
+		}
+		if (entry.lastAccess < System.currentTimeMillis() - idleTtlMillis) {
+			crls.remove(uri, entry);
+			refreshes.remove(uri);
+			LOG.info("{}", LoggingUtil.json(Map.of("crl.uri", uri, "crl.dropped", "idle")));
+			return;
+		}
+		CachedCrl crl = fetch(uri, List.of(entry.crl.getIssuerKey()), entry);
+		if (null == crl || crl == entry.crl) {
+			/*
+			 * Retry, the current entry remains usable until its nextUpdate
+			 */
+			scheduleRefresh(uri, MIN_REFRESH_INTERVAL);
+		}
+	}
+
+	/**
+	 * Write the cached CRLs, their validators, and; when they were last used, for
+	 * {@link #restore(DataInputStream)}
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void save(DataOutputStream out) throws IOException {
+		List<Map.Entry<String, CrlEntry>> entries = new ArrayList<>(crls.entrySet());
+		out.writeInt(entries.size());
+		for (Map.Entry<String, CrlEntry> entry : entries) {
+			CrlEntry crlEntry = entry.getValue();
+			out.writeUTF(entry.getKey());
+			crlEntry.crl.writeTo(out);
+			SnapshotStoreSingleton.writeString(out, (null == crlEntry.validators) ? null : crlEntry.validators.getEtag());
+			SnapshotStoreSingleton.writeString(out,
+					(null == crlEntry.validators) ? null : crlEntry.validators.getLastModified());
+			out.writeLong(crlEntry.lastAccess);
+		}
+	}
+
+	/**
+	 * Cache the CRLs written by {@link #save(DataOutputStream)} that are still
+	 * current, and; schedule their refresh.
+	 *
+	 * @param in
+	 * @return the number of CRLs restored
+	 * @throws IOException
+	 */
+	public int restore(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		Date now = new Date();
+		int restored = 0;
+		for (int i = 0; i < count; i++) {
+			String uri = in.readUTF();
+			CachedCrl crl = CachedCrl.readFrom(in);
+			String etag = SnapshotStoreSingleton.readString(in);
+			String lastModified = SnapshotStoreSingleton.readString(in);
+			long lastAccess = in.readLong();
+			if (!enabled || !crl.isCurrent(now) || crls.size() >= maxEntries) {
+				continue;
+			}
+			CrlEntry entry = new CrlEntry(crl,
+					(null == etag && null == lastModified) ? null : new FetchResult.Validators(etag, lastModified));
+			entry.lastAccess = lastAccess;
+			if (null == crls.putIfAbsent(uri, entry)) {
+				scheduleRefresh(uri, crl);
+				restored++;
+			}
+		}
+		return restored;
+	}
+
+	public void invalidateAll() {
+		refreshes.values().forEach(refresh -> refresh.cancel(false));
+		refreshes.clear();
+		crls.clear();
+		unsupported.clear();
+	}
+
+	/**
+	 * @return a JSON friendly view of the cache statistics
+	 */
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("enabled", enabled);
+		stats.put("hitCount", hits.sum());
+		stats.put("missCount", misses.sum());
+		stats.put("coalescedCount", coalesced.sum());
+		stats.put("fetchCount", fetches.sum());
+		stats.put("fetchFailureCount", fetchFailures.sum());
+		stats.put("notModifiedCount", notModified.sum());
+		long indexSize = 0;
+		List<Map<String, Object>> entries = new ArrayList<>();
+		for (CrlEntry entry : crls.values()) {
+			CachedCrl crl = entry.crl;
+			indexSize += crl.getIndexSize();
+			Map<String, Object> crlStats = new LinkedHashMap<>();
+			crlStats.put("uri", crl.getUri());
+			crlStats.put("issuer", crl.getIssuer().toString());
+			crlStats.put("entries", crl.size());
+			crlStats.put("encodedSize", crl.getEncodedLength());
+			crlStats.put("indexSize", crl.getIndexSize());
+			crlStats.put("thisUpdate", X509Util.ISO8601DateString(crl.getThisUpdate()));
+			if (null != crl.getNextUpdate()) {
+				crlStats.put("nextUpdate", X509Util.ISO8601DateString(crl.getNextUpdate()));
+			}
+			crlStats.put("lastAccess", X509Util.ISO8601DateString(new Date(entry.lastAccess)));
+			entries.add(crlStats);
+		}
+		stats.put("size", entries.size());
+		stats.put("indexSize", indexSize);
+		stats.put("crls", entries);
+		return stats;
+	}
+
+}
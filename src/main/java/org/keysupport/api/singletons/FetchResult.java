@@ -0,0 +1,108 @@
+package org.keysupport.api.singletons;
+
+import java.util.function.Function;
+
+/**
+ * The result of a (possibly conditional) fetch by the HTTPClientSingleton.
+ *
+ * A result is either a new representation with the validators (`ETag`, and;
+ * `Last-Modified`) it was served with, or; `not modified`, in which case the
+ * caller keeps the representation it already has.
+ *
+ * @param <T> the type of the representation
+ */
+public final class FetchResult<T> {
+
+	/**
+	 * The validators of a representation, kept by the caller (without the
+	 * representation itself) for the next conditional fetch.
+	 */
+	public static final class Validators {
+
+		private final String etag;
+
+		private final String lastModified;
+
+		Validators(String etag, String lastModified) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * @return the `ETag`, or null
+		 */
+		public String getEtag() {
+			return etag;
+		}
+
+		/**
+		 * @return the `Last-Modified` date, or null
+		 */
+		public String getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return true if a conditional request can be made with these validators
+		 */
+		public boolean isPresent() {
+			return null != etag || null != lastModified;
+		}
+
+	}
+
+	private final T value;
+
+	private final Validators validators;
+
+	private final boolean notModified;
+
+	private FetchResult(T value, Validators validators, boolean notModified) {
+		this.value = value;
+		this.validators = validators;
+		this.notModified = notModified;
+	}
+
+	static <T> FetchResult<T> of(T value, Validators validators) {
+		return new FetchResult<>(value, validators, false);
+	}
+
+	static <T> FetchResult<T> notModified(Validators validators) {
+		return new FetchResult<>(null, validators, true);
+	}
+
+	/**
+	 * Convert the representation, keeping the validators.
+	 *
+	 * @param <R>
+	 * @param converter returns null if the representation can not be converted
+	 * @return FetchResult, or null if the conversion failed
+	 */
+	public <R> FetchResult<R> map(Function<T, R> converter) {
+		if (notModified) {
+			return notModified(validators);
+		}
+		R converted = converter.apply(value);
+		return (null == converted) ? null : of(converted, validators);
+	}
+
+	/**
+	 * @return the representation, or null if not modified
+	 */
+	public T getValue() {
+		return value;
+	}
+
+	public Validators getValidators() {
+		return validators;
+	}
+
+	/**
+	 * @return true if the server responded 304, and; the caller should keep the
+	 *         representation it has
+	 */
+	public boolean isNotModified() {
+		return notModified;
+	}
+
+}
@@ -1,19 +1,37 @@
 package org.keysupport.api.singletons;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.cert.CRLException;
 import java.security.cert.CertPath;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.keysupport.api.LoggingUtil;
+import org.keysupport.api.pkix.ValidationBudget;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
@@ -21,6 +39,14 @@ import org.springframework.http.HttpStatus;
 
 /**
  * This class uses a singleton pattern to manage our HTTP client needs.
+ *
+ * Response entities are streamed, and; the exchange is abandoned as soon as an
+ * entity exceeds the size limit of the caller. Every exchange is bounded by
+ * the configured connect, and; request, timeouts. Callers that keep a
+ * representation (CRLs, the intermediates CMS, and; the policies JSON) may
+ * fetch it conditionally, using the validators it was served with.
+ *
+ * Fetch counts, latency, and; bytes received are kept per host.
  */
 public class HTTPClientSingleton {
 
@@ -32,17 +58,134 @@ public class HTTPClientSingleton {
 
 	private final String mimeCms = "application/pkcs7-mime";
 
+	private final String mimeCrl = "application/pkix-crl";
+
+	private final String mimeOcspRequest = "application/ocsp-request";
+
+	private final String mimeOcspResponse = "application/ocsp-response";
+
 	private final String mimeTextPlainUtf8 = "text/plain; charset=utf-8";
 
 	private final int MAX_ENTITY_SIZE = 1000000;
 
+	/*
+	 * Only this many hosts are tracked individually, the rest are combined
+	 */
+	private final static int MAX_TRACKED_HOSTS = 1024;
+
+	private final static String OTHER_HOSTS = "other";
+
 	private HttpClient client = null;
 
+	private Duration requestTimeout = Duration.ofSeconds(30);
+
+	private final ConcurrentHashMap<String, HostStats> hostStats = new ConcurrentHashMap<>();
+
+	/**
+	 * Fetch statistics for a single host
+	 */
+	private static final class HostStats {
+
+		private final LongAdder requests = new LongAdder();
+
+		private final LongAdder notModified = new LongAdder();
+
+		private final LongAdder failures = new LongAdder();
+
+		private final LongAdder bytes = new LongAdder();
+
+		private final LongAdder totalMillis = new LongAdder();
+
+		private final LongAccumulator maxMillis = new LongAccumulator(Math::max, 0);
+
+	}
+
+	/**
+	 * Thrown when an entity exceeds the size limit of the caller
+	 */
+	private static final class EntityTooLargeException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		private EntityTooLargeException(String message) {
+			super(message);
+		}
+
+	}
+
+	/**
+	 * Accumulates a response entity, and; cancels the exchange once it exceeds
+	 * `maxEntitySize`, rather than reading the whole entity first.
+	 */
+	private static final class LimitedBodySubscriber implements HttpResponse.BodySubscriber<byte[]> {
+
+		private final int maxEntitySize;
+
+		private final ByteArrayOutputStream body;
+
+		private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+		private Flow.Subscription subscription;
+
+		private LimitedBodySubscriber(int maxEntitySize, long contentLength) {
+			this.maxEntitySize = maxEntitySize;
+			this.body = new ByteArrayOutputStream(
+					(contentLength > 0 && contentLength < maxEntitySize) ? (int) contentLength : 8192);
+			if (contentLength >= maxEntitySize) {
+				result.completeExceptionally(
+						new EntityTooLargeException("Content-Length " + contentLength + " exceeds " + maxEntitySize + " bytes"));
+			}
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			if (result.isDone()) {
+				subscription.cancel();
+			} else {
+				subscription.request(Long.MAX_VALUE);
+			}
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> items) {
+			if (result.isDone()) {
+				return;
+			}
+			for (ByteBuffer item : items) {
+				if ((long) body.size() + item.remaining() >= maxEntitySize) {
+					subscription.cancel();
+					result.completeExceptionally(new EntityTooLargeException("Entity exceeds " + maxEntitySize + " bytes"));
+					return;
+				}
+				byte[] bytes = new byte[item.remaining()];
+				item.get(bytes);
+				body.writeBytes(bytes);
+			}
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			result.completeExceptionally(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			result.complete(body.toByteArray());
+		}
+
+		@Override
+		public CompletionStage<byte[]> getBody() {
+			return result;
+		}
+
+	}
+
 	private HTTPClientSingleton() {
 		/*
 		 * Create HTTP Client
 		 */
-		client = HttpClient.newHttpClient();
+		client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
 	}
 
 	private class SingletonHelper {
@@ -53,79 +196,304 @@ public class HTTPClientSingleton {
 		return SingletonHelper.INSTANCE;
 	}
 
+	/**
+	 * Configure the client; called once at startup, before any fetch.
+	 *
+	 * @param connectTimeoutSeconds maximum time to establish a connection
+	 * @param requestTimeoutSeconds maximum time for an entire exchange, including
+	 *                              the response entity
+	 */
+	public synchronized void configure(long connectTimeoutSeconds, long requestTimeoutSeconds) {
+		client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(connectTimeoutSeconds)).build();
+		requestTimeout = Duration.ofSeconds(requestTimeoutSeconds);
+		LOG.info("{}", LoggingUtil.json(Map.of("http.connect-timeout", connectTimeoutSeconds, "http.request-timeout",
+				requestTimeoutSeconds)));
+	}
+
 	public HttpClient getClient() {
 		return client;
 	}
 
 	public byte[] getData(URI uri, String mimeType) {
-			HttpRequest request = HttpRequest.newBuilder().uri(uri).setHeader("User-Agent", USER_AGENT)
-					.setHeader(accept, mimeType).build();
-			HttpResponse<byte[]> response = null;
-			try {
-				response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
-			} catch (IOException e) {
-				LOG.error(LoggingUtil.pojoToJson(Map.of("error", e.getCause().getMessage(), "uri", uri.toASCIIString(), "stacktrace", LoggingUtil.stackTraceToString(e))));
-				return null;
-			} catch (InterruptedException e) {
-				LOG.error(LoggingUtil.pojoToJson(Map.of("error", e.getCause().getMessage(), "uri", uri.toASCIIString(), "stacktrace", LoggingUtil.stackTraceToString(e))));
-				return null;
-			} catch (IllegalArgumentException  e) {
-				LOG.error(LoggingUtil.pojoToJson(Map.of("error", e.getCause().getMessage(), "uri", uri.toASCIIString(), "stacktrace", LoggingUtil.stackTraceToString(e))));
-				return null;
-			} catch (SecurityException e) {
-				LOG.error(LoggingUtil.pojoToJson(Map.of("error", e.getCause().getMessage(), "uri", uri.toASCIIString(), "stacktrace", LoggingUtil.stackTraceToString(e))));
+		return getData(uri, mimeType, MAX_ENTITY_SIZE);
+	}
+
+	/**
+	 * @param uri
+	 * @param mimeType      the Accept header value
+	 * @param maxEntitySize the largest entity (bytes) accepted
+	 * @return the response entity, or null
+	 */
+	public byte[] getData(URI uri, String mimeType, int maxEntitySize) {
+		FetchResult<byte[]> result = getDataIfModified(uri, mimeType, maxEntitySize, null);
+		return (null == result) ? null : result.getValue();
+	}
+
+	/**
+	 * A conditional GET; `If-None-Match`, and; `If-Modified-Since`, are sent from
+	 * the validators of the representation the caller already has.
+	 *
+	 * @param uri
+	 * @param mimeType      the Accept header value
+	 * @param maxEntitySize the largest entity (bytes) accepted
+	 * @param previous      validators of the current representation, or null
+	 * @return FetchResult, or null
+	 */
+	public FetchResult<byte[]> getDataIfModified(URI uri, String mimeType, int maxEntitySize,
+			FetchResult.Validators previous) {
+		HttpRequest.Builder builder = HttpRequest.newBuilder().uri(uri).timeout(requestTimeout)
+				.setHeader("User-Agent", USER_AGENT).setHeader(accept, mimeType);
+		if (null != previous) {
+			if (null != previous.getEtag()) {
+				builder.setHeader(HttpHeaders.IF_NONE_MATCH, previous.getEtag());
+			}
+			if (null != previous.getLastModified()) {
+				builder.setHeader(HttpHeaders.IF_MODIFIED_SINCE, previous.getLastModified());
+			}
+		}
+		return send(builder.build(), uri, maxEntitySize, previous);
+	}
+
+	/**
+	 * @param uri
+	 * @param contentType   the Content-Type of `data`
+	 * @param mimeType      the Accept header value
+	 * @param data          the request entity
+	 * @param maxEntitySize the largest entity (bytes) accepted
+	 * @return the response entity, or null
+	 */
+	public byte[] postData(URI uri, String contentType, String mimeType, byte[] data, int maxEntitySize) {
+		HttpRequest request = HttpRequest.newBuilder().uri(uri).timeout(requestTimeout)
+				.setHeader("User-Agent", USER_AGENT).setHeader(HttpHeaders.CONTENT_TYPE, contentType)
+				.setHeader(accept, mimeType).POST(HttpRequest.BodyPublishers.ofByteArray(data)).build();
+		FetchResult<byte[]> result = send(request, uri, maxEntitySize, null);
+		return (null == result) ? null : result.getValue();
+	}
+
+	private FetchResult<byte[]> send(HttpRequest request, URI uri, int maxEntitySize,
+			FetchResult.Validators previous) {
+		HostStats stats = hostStats(uri);
+		stats.requests.increment();
+		long start = System.nanoTime();
+		/*
+		 * A fetch made for a validation request is also bounded by its budget
+		 */
+		long timeoutMillis = requestTimeout.toMillis();
+		ValidationBudget budget = ValidationBudget.current();
+		if (null != budget) {
+			timeoutMillis = Math.min(timeoutMillis, budget.remainingMillis());
+			if (timeoutMillis <= 0) {
+				stats.failures.increment();
+				LOG.warn("{}", LoggingUtil.json(Map.of("error", budget.getReason() + ", not fetching", "uri", uri.toASCIIString())));
 				return null;
 			}
-			Map<String, List<String>> headers = response.headers().map();
-			LOG.info(LoggingUtil.pojoToJson(headers));
+		}
+		HttpResponse<byte[]> response = null;
+		CompletableFuture<HttpResponse<byte[]>> exchange = null;
+		try {
 			/*
-			 * Cache the response, and return to the client, so long as we received a 200
-			 *
+			 * Only a 200 entity is read, anything else is discarded
 			 */
-			if (response.statusCode() == HttpStatus.OK.value()) {
-				byte[] responseBody = response.body();
-				if (null == responseBody) {
-					LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Received null entity from " + uri.toASCIIString())));
-					return null;
-				} else if (responseBody.length >= MAX_ENTITY_SIZE) {
-					LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Entity from " + uri.toASCIIString() + " exceeds " + MAX_ENTITY_SIZE + "bytes")));
-					return null;
-				} else {
-					return responseBody;
-				}
-			} else {
-				LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Received HTTP " + response.statusCode() + " status from " + uri.toASCIIString())));
+			exchange = client.sendAsync(request, info -> (info.statusCode() == HttpStatus.OK.value())
+					? new LimitedBodySubscriber(maxEntitySize, info.headers().firstValueAsLong(HttpHeaders.CONTENT_LENGTH).orElse(-1))
+					: HttpResponse.BodySubscribers.replacing(null));
+			/*
+			 * The request timeout only covers the response headers, so the entity is bounded here
+			 */
+			response = exchange.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			exchange.cancel(true);
+			return failed(stats, start, "Timed out after " + timeoutMillis + "ms fetching " + uri.toASCIIString(), uri, e);
+		} catch (ExecutionException e) {
+			Throwable cause = (null == e.getCause()) ? e : e.getCause();
+			return failed(stats, start, String.valueOf(cause.getMessage()), uri, cause);
+		} catch (InterruptedException e) {
+			exchange.cancel(true);
+			Thread.currentThread().interrupt();
+			return failed(stats, start, "Interrupted fetching " + uri.toASCIIString(), uri, e);
+		} catch (IllegalArgumentException | SecurityException e) {
+			return failed(stats, start, String.valueOf(e.getMessage()), uri, e);
+		}
+		record(stats, start);
+		Map<String, List<String>> headers = response.headers().map();
+		LOG.info("{}", LoggingUtil.json(headers));
+		/*
+		 * Return the entity to the client, so long as we received a 200, or; tell the
+		 * client to keep what it has on a 304
+		 */
+		if (response.statusCode() == HttpStatus.NOT_MODIFIED.value() && null != previous) {
+			stats.notModified.increment();
+			return FetchResult.notModified(previous);
+		} else if (response.statusCode() == HttpStatus.OK.value()) {
+			byte[] responseBody = response.body();
+			if (null == responseBody) {
+				stats.failures.increment();
+				LOG.error("{}", LoggingUtil.json(Map.of("error", "Received null entity from " + uri.toASCIIString())));
 				return null;
 			}
+			stats.bytes.add(responseBody.length);
+			FetchResult.Validators validators = new FetchResult.Validators(
+					response.headers().firstValue(HttpHeaders.ETAG).orElse(null),
+					response.headers().firstValue(HttpHeaders.LAST_MODIFIED).orElse(null));
+			return FetchResult.of(responseBody, validators);
+		} else {
+			stats.failures.increment();
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Received HTTP " + response.statusCode() + " status from " + uri.toASCIIString())));
+			return null;
+		}
+	}
+
+	private FetchResult<byte[]> failed(HostStats stats, long start, String error, URI uri, Throwable e) {
+		record(stats, start);
+		stats.failures.increment();
+		if (e instanceof EntityTooLargeException) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Entity from " + uri.toASCIIString() + ": " + e.getMessage())));
+		} else {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", error, "uri", uri.toASCIIString(), "stacktrace", LoggingUtil.stackTrace(e))));
+		}
+		return null;
+	}
+
+	private void record(HostStats stats, long start) {
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		stats.totalMillis.add(millis);
+		stats.maxMillis.accumulate(millis);
+	}
+
+	private HostStats hostStats(URI uri) {
+		String host = (null == uri.getHost()) ? OTHER_HOSTS : uri.getHost().toLowerCase(Locale.ROOT);
+		HostStats stats = hostStats.get(host);
+		if (null != stats) {
+			return stats;
+		}
+		if (hostStats.size() >= MAX_TRACKED_HOSTS) {
+			host = OTHER_HOSTS;
+		}
+		return hostStats.computeIfAbsent(host, h -> new HostStats());
+	}
+
+	/**
+	 * @return a JSON friendly view of the fetch statistics, by host
+	 */
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new TreeMap<>();
+		hostStats.forEach((host, hs) -> {
+			Map<String, Object> hostView = new LinkedHashMap<>();
+			long requests = hs.requests.sum();
+			hostView.put("requestCount", requests);
+			hostView.put("notModifiedCount", hs.notModified.sum());
+			hostView.put("failureCount", hs.failures.sum());
+			hostView.put("bytesReceived", hs.bytes.sum());
+			hostView.put("meanMillis", (requests == 0) ? 0.0 : (double) hs.totalMillis.sum() / requests);
+			hostView.put("maxMillis", hs.maxMillis.get());
+			stats.put(host, hostView);
+		});
+		return stats;
 	}
 
 	public CertPath getCms(URI uri) {
-		byte[] cmsBytes = getData(uri, mimeCms);
-		if (null == cmsBytes) {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "CMS not received", "uri", uri.toASCIIString())));
+		FetchResult<CertPath> result = getCmsIfModified(uri, null);
+		return (null == result) ? null : result.getValue();
+	}
+
+	/**
+	 * @param uri
+	 * @param previous validators of the current CMS, or null
+	 * @return FetchResult, or null
+	 */
+	public FetchResult<CertPath> getCmsIfModified(URI uri, FetchResult.Validators previous) {
+		FetchResult<byte[]> result = getDataIfModified(uri, mimeCms, MAX_ENTITY_SIZE, previous);
+		if (null == result) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "CMS not received", "uri", uri.toASCIIString())));
 			return null;
 		}
+		return result.map(cmsBytes -> toCertPath(uri, cmsBytes));
+	}
+
+	private CertPath toCertPath(URI uri, byte[] cmsBytes) {
 		CertPath cp = null;
 		CertificateFactory cf = null;
 		try {
 			cf = CertificateFactory.getInstance("X.509");
 		} catch (CertificateException e) {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Failed to create CertificateFactory", "uri", uri.toASCIIString(), "stacktrace", LoggingUtil.stackTraceToString(e))));
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Failed to create CertificateFactory", "uri", uri.toASCIIString(), "stacktrace", LoggingUtil.stackTrace(e))));
 		}
 		try {
 			cp = cf.generateCertPath(new ByteArrayInputStream(cmsBytes), "PKCS7");
 		} catch (CertificateException e) {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Failed to parse CMS object", "uri", uri.toASCIIString(), "stacktrace", LoggingUtil.stackTraceToString(e))));
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Failed to parse CMS object", "uri", uri.toASCIIString(), "stacktrace", LoggingUtil.stackTrace(e))));
 		}
 		return cp;
 	}
 
+	/**
+	 * CRLs may be much larger than our other entities, so the size limit is
+	 * provided by the caller.
+	 *
+	 * @param uri
+	 * @param maxEntitySize
+	 * @return X509CRL, or null
+	 */
+	public X509CRL getCrl(URI uri, int maxEntitySize) {
+		FetchResult<X509CRL> result = getCrlIfModified(uri, maxEntitySize, null);
+		return (null == result) ? null : result.getValue();
+	}
+
+	/**
+	 * @param uri
+	 * @param maxEntitySize
+	 * @param previous      validators of the current CRL, or null
+	 * @return FetchResult, or null
+	 */
+	public FetchResult<X509CRL> getCrlIfModified(URI uri, int maxEntitySize, FetchResult.Validators previous) {
+		FetchResult<byte[]> result = getDataIfModified(uri, mimeCrl, maxEntitySize, previous);
+		if (null == result) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "CRL not received", "uri", uri.toASCIIString())));
+			return null;
+		}
+		return result.map(crlBytes -> toCrl(uri, crlBytes));
+	}
+
+	private X509CRL toCrl(URI uri, byte[] crlBytes) {
+		X509CRL crl = null;
+		try {
+			CertificateFactory cf = CertificateFactory.getInstance("X.509");
+			crl = (X509CRL) cf.generateCRL(new ByteArrayInputStream(crlBytes));
+		} catch (CertificateException | CRLException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Failed to parse CRL", "uri", uri.toASCIIString(), "stacktrace", LoggingUtil.stackTrace(e))));
+		}
+		return crl;
+	}
+
+	/**
+	 * @param uri         the OCSP responder
+	 * @param ocspRequest a DER encoded OCSPRequest
+	 * @return the DER encoded OCSPResponse, or null
+	 */
+	public byte[] getOcspResponse(URI uri, byte[] ocspRequest) {
+		byte[] ocspResponse = postData(uri, mimeOcspRequest, mimeOcspResponse, ocspRequest, MAX_ENTITY_SIZE);
+		if (null == ocspResponse) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "OCSP response not received", "uri", uri.toASCIIString())));
+		}
+		return ocspResponse;
+	}
+
 	public String getText(URI uri) {
-		byte[] textBytes = getData(uri, mimeTextPlainUtf8);
-		if (null != textBytes) {
-			return new String(textBytes, StandardCharsets.UTF_8);
+		FetchResult<String> result = getTextIfModified(uri, null);
+		return (null == result) ? null : result.getValue();
+	}
+
+	/**
+	 * @param uri
+	 * @param previous validators of the current text, or null
+	 * @return FetchResult, or null
+	 */
+	public FetchResult<String> getTextIfModified(URI uri, FetchResult.Validators previous) {
+		FetchResult<byte[]> result = getDataIfModified(uri, mimeTextPlainUtf8, MAX_ENTITY_SIZE, previous);
+		if (null != result) {
+			return result.map(textBytes -> new String(textBytes, StandardCharsets.UTF_8));
 		} else {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Unexpected null response", "uri", uri.toASCIIString())));
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Unexpected null response", "uri", uri.toASCIIString())));
 			return null;
 		}
 	}
@@ -2,21 +2,18 @@ package org.keysupport.api.singletons;
 
 import java.net.URI;
 import java.security.InvalidAlgorithmParameterException;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
 import java.security.cert.CertPath;
-import java.security.cert.CertStore;
-import java.security.cert.CertStoreParameters;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateNotYetValidException;
-import java.security.cert.CollectionCertStoreParameters;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 import org.keysupport.api.LoggingUtil;
+import org.keysupport.api.pkix.IndexedCertStore;
+import org.keysupport.api.pkix.ValidationSnapshot;
 import org.keysupport.api.pkix.X509Util;
 import org.keysupport.api.pojo.vss.ExcludedIntermediate;
 import org.slf4j.Logger;
@@ -25,18 +22,17 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
- * This class uses a singleton pattern to store the configured intermediate
+ * This class uses a singleton pattern to load the configured intermediate
  * cache.
+ *
+ * The intermediate cache in use is part of the current
+ * {@link ValidationSnapshot}, so it is replaced along with the validation
+ * policies that were compiled against it.
  */
 public class IntermediateCacheSingleton {
 
 	private final Logger LOG = LoggerFactory.getLogger(IntermediateCacheSingleton.class);
 
-	/*
-	 * Our intermediate CertStore
-	 */
-	private CertStore intermediateStore = null;
-
 	ObjectMapper mapper = null;
 
 	private IntermediateCacheSingleton() {
@@ -64,50 +60,71 @@ public class IntermediateCacheSingleton {
 		return false;
 	}
 
-	public void updateIntermediates(String intermediatesUri) {
-		List<X509Certificate> filteredCerts = new ArrayList<>();
+	/**
+	 * Fetch, filter, and; index the intermediates, without publishing them.
+	 *
+	 * @param intermediatesUri
+	 * @param previous         validators of the current CMS, or null
+	 * @return FetchResult, or null if the CMS could not be obtained
+	 */
+	public FetchResult<IndexedCertStore> loadIntermediates(String intermediatesUri, FetchResult.Validators previous) {
 		HTTPClientSingleton client = HTTPClientSingleton.getInstance();
 		URI uri = URI.create(intermediatesUri);
-		CertPath cp = client.getCms(uri);
-		if (null != cp) {
-			List<? extends Certificate> cmsCerts = cp.getCertificates();
-			List<X509Certificate> certs = new ArrayList<X509Certificate>();
-			for (Certificate cmsCert : cmsCerts) {
-				certs.add((X509Certificate) cmsCert);
-			}
-			LOG.info(LoggingUtil.pojoToJson(Map.of("cms.numcerts", certs.size())));
-			/*
-			 * Filter the Intermediates we received using exclusion methods
-			 */
-			for (X509Certificate cert : certs) {
-				if (!excludeByTemporal(cert)) {
-					if (!filteredCerts.contains(cert)) {
-						filteredCerts.add(cert);
-					} else {
-						LOG.warn(LoggingUtil.pojoToJson(Map.of("error", "Excluding Duplicate Cert: " + cert.getSubjectX500Principal().toString())));
-					}
+		FetchResult<CertPath> cms = client.getCmsIfModified(uri, previous);
+		if (null == cms) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Skipping invalid CMS from: " + uri.toASCIIString())));
+			return null;
+		}
+		if (cms.isNotModified()) {
+			LOG.info("{}", LoggingUtil.json(Map.of("cms.uri", uri.toASCIIString(), "cms.notModified", true)));
+		}
+		return cms.map(this::indexIntermediates);
+	}
+
+	private IndexedCertStore indexIntermediates(CertPath cp) {
+		List<? extends Certificate> cmsCerts = cp.getCertificates();
+		List<X509Certificate> certs = new ArrayList<X509Certificate>();
+		for (Certificate cmsCert : cmsCerts) {
+			certs.add((X509Certificate) cmsCert);
+		}
+		LOG.info("{}", LoggingUtil.json(Map.of("cms.numcerts", certs.size())));
+		return indexIntermediates(certs);
+	}
+
+	/**
+	 * Filter, and; index, intermediates obtained without a fetch (such as the
+	 * snapshot file), without publishing them.
+	 *
+	 * @param certs
+	 * @return the intermediate cache, or null if it could not be created
+	 */
+	public IndexedCertStore indexIntermediates(List<X509Certificate> certs) {
+		List<X509Certificate> filteredCerts = new ArrayList<>();
+		/*
+		 * Filter the Intermediates we received using exclusion methods
+		 */
+		for (X509Certificate cert : certs) {
+			if (!excludeByTemporal(cert)) {
+				if (!filteredCerts.contains(cert)) {
+					filteredCerts.add(cert);
 				} else {
-					LOG.warn(LoggingUtil.pojoToJson(Map.of("error", "Excluding Cert: " + cert.getSubjectX500Principal().toString())));
+					LOG.warn("{}", LoggingUtil.json(Map.of("error", "Excluding Duplicate Cert: " + cert.getSubjectX500Principal().toString())));
 				}
+			} else {
+				LOG.warn("{}", LoggingUtil.json(Map.of("error", "Excluding Cert: " + cert.getSubjectX500Principal().toString())));
 			}
-		} else {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Skipping invalid CMS from: " + uri.toASCIIString())));
 		}
 		/*
-		 * Place certificates into a Collection CertStore, per `validationPolicyId`
+		 * Place certificates into an indexed CertStore, used by every `validationPolicyId`
 		 */
-		CertStoreParameters cparam = new CollectionCertStoreParameters(filteredCerts);
-		CertStore intermediates = null;
+		IndexedCertStore intermediates = null;
 		try {
-			intermediates = CertStore.getInstance("Collection", cparam, "SUN");
+			intermediates = IndexedCertStore.getInstance(filteredCerts);
+			LOG.info("{}", LoggingUtil.json(Map.of("intermediates.numcerts", intermediates.size())));
 		} catch (InvalidAlgorithmParameterException e) {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Failed to create CertStore from CMS object", "stacktrace", LoggingUtil.stackTraceToString(e))));
-		} catch (NoSuchAlgorithmException e) {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Failed to create CertStore from CMS object", "stacktrace", LoggingUtil.stackTraceToString(e))));
-		} catch (NoSuchProviderException e) {
-			LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Failed to create CertStore from CMS object", "stacktrace", LoggingUtil.stackTraceToString(e))));
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Failed to create CertStore from CMS object", "stacktrace", LoggingUtil.stackTrace(e))));
 		}
-		intermediateStore = intermediates;
+		return intermediates;
 	}
 
 	private void logExcluded(X509Certificate cert, String reason) {
@@ -117,7 +134,7 @@ public class IntermediateCacheSingleton {
 		exclude.x509IssuerName = cert.getIssuerX500Principal().toString();
 		exclude.x509SubjectName = cert.getSubjectX500Principal().toString();
 		exclude.x5tS256 = x5tS256;
-		LOG.warn(LoggingUtil.pojoToJson(exclude));
+		LOG.warn("{}", LoggingUtil.json(exclude));
 	}
 
 	private class SingletonHelper {
@@ -128,8 +145,12 @@ public class IntermediateCacheSingleton {
 		return SingletonHelper.INSTANCE;
 	}
 
-	public CertStore getIntermediates() {
-		return intermediateStore;
+	/**
+	 * @return the intermediate cache of the current {@link ValidationSnapshot}
+	 */
+	public IndexedCertStore getIntermediates() {
+		ValidationSnapshot snapshot = ValidationPoliciesSingleton.getInstance().getSnapshot();
+		return (null == snapshot) ? null : snapshot.getIntermediates();
 	}
 
 }
@@ -0,0 +1,232 @@
+package org.keysupport.api.singletons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.keysupport.api.LoggingUtil;
+import org.keysupport.api.pojo.vss.Fail;
+import org.keysupport.api.pojo.vss.Success;
+import org.keysupport.api.pojo.vss.ValidationResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * This class uses a singleton pattern to decide what is logged for each
+ * validation.
+ *
+ * A compact summary of every validation is logged. The full request, and;
+ * response, are logged for a sample of the validations, with a separate rate
+ * for each outcome. The sample is deterministic by `requestId`, so a
+ * certificate (and; policy) is either always, or; never, logged in full, on
+ * every instance.
+ *
+ * The configured fields (e.g. `x509Certificate`, `x509CertificatePath`) of the
+ * requests, and; responses, logged in full are replaced with `[redacted]`.
+ *
+ * Stack traces are rate limited per exception type, so a failing dependency
+ * does not render (and; log) a stack trace for every request.
+ */
+public class LogPolicySingleton {
+
+	private final static Logger LOG = LoggerFactory.getLogger(LogPolicySingleton.class);
+
+	/**
+	 * The outcome of a validation, for sampling
+	 */
+	public enum Outcome {
+		SUCCESS("success"), FAIL("fail"), ERROR("error");
+
+		private final String tag;
+
+		Outcome(String tag) {
+			this.tag = tag;
+		}
+
+		/**
+		 * @param result the result, or null if the validation threw
+		 * @return the outcome
+		 */
+		public static Outcome of(ValidationResult result) {
+			if (result instanceof Success) {
+				return SUCCESS;
+			} else if (result instanceof Fail) {
+				return FAIL;
+			}
+			return ERROR;
+		}
+
+		@Override
+		public String toString() {
+			return tag;
+		}
+	}
+
+	private final static String REDACTED = "[redacted]";
+
+	private final static long WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+	/*
+	 * 2^52, the range of the 13 hex digits of `requestId` used for sampling
+	 */
+	private final static double SAMPLE_RANGE = 0x10000000000000L;
+
+	private final static ObjectMapper MAPPER = new ObjectMapper();
+
+	private volatile double successRate = 1.0;
+
+	private volatile double failRate = 1.0;
+
+	private volatile double errorRate = 1.0;
+
+	private volatile Set<String> redacted = Set.of();
+
+	private volatile int stackTracesPerMinute = 10;
+
+	private final Map<Class<?>, StackTraceLimit> stackTraceLimits = new ConcurrentHashMap<>();
+
+	private LogPolicySingleton() {
+	}
+
+	private static class SingletonHelper {
+		private static final LogPolicySingleton INSTANCE = new LogPolicySingleton();
+	}
+
+	public static LogPolicySingleton getInstance() {
+		return SingletonHelper.INSTANCE;
+	}
+
+	/**
+	 * Configure the logging policy; called once at startup. Until then, everything
+	 * is logged, and; at most 10 stack traces per minute, per exception type.
+	 *
+	 * @param successRate          fraction (0.0 to 1.0) of successful validations
+	 *                             logged in full
+	 * @param failRate             fraction of failed validations logged in full
+	 * @param errorRate            fraction of validations that threw, logged in
+	 *                             full
+	 * @param redacted             field names replaced in the logged requests,
+	 *                             and; responses
+	 * @param stackTracesPerMinute per exception type; 0 logs no stack traces
+	 */
+	public synchronized void configure(double successRate, double failRate, double errorRate, Set<String> redacted,
+			int stackTracesPerMinute) {
+		this.successRate = successRate;
+		this.failRate = failRate;
+		this.errorRate = errorRate;
+		this.redacted = Set.copyOf(redacted);
+		this.stackTracesPerMinute = Math.max(0, stackTracesPerMinute);
+		LOG.info("{}", LoggingUtil.json(Map.of("logging.sample.success", successRate, "logging.sample.fail", failRate,
+				"logging.sample.error", errorRate, "logging.redact", new TreeSet<>(redacted),
+				"logging.stacktraces-per-minute", stackTracesPerMinute)));
+	}
+
+	/**
+	 * @param requestId the hex `requestId` of the validation
+	 * @param outcome
+	 * @return true if the request, and; response, should be logged in full
+	 */
+	public boolean isSampled(String requestId, Outcome outcome) {
+		double rate = switch (outcome) {
+		case SUCCESS -> successRate;
+		case FAIL -> failRate;
+		case ERROR -> errorRate;
+		};
+		if (rate >= 1.0) {
+			return true;
+		}
+		if (rate <= 0.0 || null == requestId) {
+			return false;
+		}
+		return sample(requestId) < rate;
+	}
+
+	/*
+	 * `requestId` is a SHA-256 digest (in hex), so its leading digits are uniformly
+	 * distributed; as a fraction in [0, 1)
+	 */
+	private static double sample(String requestId) {
+		try {
+			return Long.parseLong(requestId.substring(0, 13), 16) / SAMPLE_RANGE;
+		} catch (IndexOutOfBoundsException | NumberFormatException e) {
+			return (requestId.hashCode() & Integer.MAX_VALUE) / (double) (1L << 31);
+		}
+	}
+
+	/**
+	 * @param obj a request, or; response, to log
+	 * @return the object, or; its JSON tree with the redacted fields replaced
+	 */
+	public Object redact(Object obj) {
+		Set<String> fields = redacted;
+		if (fields.isEmpty() || null == obj) {
+			return obj;
+		}
+		JsonNode tree = MAPPER.valueToTree(obj);
+		redact(tree, fields);
+		return tree;
+	}
+
+	private static void redact(JsonNode node, Set<String> fields) {
+		if (node instanceof ObjectNode object) {
+			List<String> names = new ArrayList<>();
+			object.fieldNames().forEachRemaining(names::add);
+			for (String name : names) {
+				if (fields.contains(name)) {
+					object.put(name, REDACTED);
+				} else {
+					redact(object.get(name), fields);
+				}
+			}
+		} else if (node.isArray()) {
+			node.forEach(child -> redact(child, fields));
+		}
+	}
+
+	/**
+	 * @param t
+	 * @return the stack trace of t, or; a one line description of t if too many
+	 *         stack traces of its type have been logged in the last minute
+	 */
+	public String stackTrace(Throwable t) {
+		int limit = stackTracesPerMinute;
+		StackTraceLimit stackTraceLimit = stackTraceLimits.computeIfAbsent(t.getClass(), c -> new StackTraceLimit());
+		if (stackTraceLimit.tryAcquire(System.currentTimeMillis(), limit)) {
+			return LoggingUtil.stackTraceToString(t);
+		}
+		return t.getClass().getName() + ": " + t.getMessage() + " (stack trace suppressed, more than " + limit
+				+ " per minute)";
+	}
+
+	/*
+	 * A fixed window count of the stack traces of one exception type
+	 */
+	private static final class StackTraceLimit {
+
+		private long windowStart;
+
+		private int count;
+
+		private synchronized boolean tryAcquire(long now, int limit) {
+			if (now - windowStart >= WINDOW_MILLIS) {
+				windowStart = now;
+				count = 0;
+			}
+			if (count < limit) {
+				count++;
+				return true;
+			}
+			return false;
+		}
+
+	}
+
+}
@@ -0,0 +1,278 @@
+package org.keysupport.api.singletons;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.keysupport.api.AsyncLogAppender;
+import org.keysupport.api.pojo.vss.Fail;
+import org.keysupport.api.pojo.vss.Success;
+import org.keysupport.api.pojo.vss.ValidationResult;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+
+/**
+ * This class uses a singleton pattern to time the stages of a validation.
+ *
+ * Each stage has a timer with a (fixed boundary) latency histogram, and; each
+ * validation is counted by policy, and; result. The statistics the caches, the
+ * HTTP client, and; the log queues, already keep are published as gauges, so
+ * everything can be scraped from one endpoint in the Prometheus text format.
+ *
+ * Timing is done with {@link #start()}, and; one of the `record` methods. When
+ * metrics are disabled, `start()` does not read the clock, and; `record` returns
+ * immediately.
+ */
+public class MetricsSingleton {
+
+	/**
+	 * The timed stages of a validation
+	 */
+	public enum Stage {
+		BASE64_DECODE("base64_decode"), CERTIFICATE_PARSE("certificate_parse"), X5T_DIGEST("x5t_digest"),
+		PATH_BUILD("path_build"), PATH_VALIDATION("path_validation"), PATH_ENCODE("path_encode"),
+		POLICY_TREE("policy_tree"), JSON_SERIALIZATION("json_serialization");
+
+		private final String tag;
+
+		Stage(String tag) {
+			this.tag = tag;
+		}
+
+		@Override
+		public String toString() {
+			return tag;
+		}
+	}
+
+	/*
+	 * Returned by start() when metrics are disabled
+	 */
+	private final static long DISABLED = Long.MIN_VALUE;
+
+	private final static Duration MIN_EXPECTED = Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(10));
+
+	private final static Duration MAX_EXPECTED = Duration.ofSeconds(60);
+
+	private final PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+	private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+
+	private final Map<String, Timer> revocationTimers = new ConcurrentHashMap<>();
+
+	private final Map<String, Timer> validationTimers = new ConcurrentHashMap<>();
+
+	private final List<NestedStats> nestedStats = new ArrayList<>();
+
+	private volatile boolean enabled = false;
+
+	private MetricsSingleton() {
+	}
+
+	private static class SingletonHelper {
+		private static final MetricsSingleton INSTANCE = new MetricsSingleton();
+	}
+
+	public static MetricsSingleton getInstance() {
+		return SingletonHelper.INSTANCE;
+	}
+
+	/**
+	 * Configure metrics; called once at startup, after the caches have been
+	 * configured.
+	 *
+	 * @param enabled
+	 */
+	public synchronized void configure(boolean enabled) {
+		if (enabled && stageTimers.isEmpty()) {
+			for (Stage stage : Stage.values()) {
+				stageTimers.put(stage, histogram(Timer.builder("vss.validation.stage").tag("stage", stage.toString())));
+			}
+			registerStats("vss.cache.validation", ValidationCacheSingleton.getInstance()::getStats);
+			registerStats("vss.cache.crl", CrlCacheSingleton.getInstance()::getStats);
+			registerStats("vss.cache.ocsp", OcspCacheSingleton.getInstance()::getStats);
+			registerStats("vss.audit", AuditJournalSingleton.getInstance()::getStats);
+			nestedStats.add(new NestedStats("vss.cache.issuer.path", "policy",
+					ValidationPoliciesSingleton.getInstance()::getIssuerPathCacheStats));
+			nestedStats.add(new NestedStats("vss.http", "host", HTTPClientSingleton.getInstance()::getStats));
+			nestedStats.add(new NestedStats("vss.log", "appender", AsyncLogAppender::getStats));
+		}
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return a start time for one of the `record` methods
+	 */
+	public long start() {
+		return enabled ? System.nanoTime() : DISABLED;
+	}
+
+	/**
+	 * @param stage
+	 * @param start from {@link #start()}
+	 */
+	public void record(Stage stage, long start) {
+		if (DISABLED == start) {
+			return;
+		}
+		stageTimers.get(stage).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param method     `ocsp`, or; `crl`
+	 * @param determined true if the method determined the status
+	 * @param start      from {@link #start()}
+	 */
+	public void recordRevocation(String method, boolean determined, long start) {
+		if (DISABLED == start) {
+			return;
+		}
+		String outcome = determined ? "determined" : "undetermined";
+		revocationTimers.computeIfAbsent(method + ":" + outcome,
+				k -> histogram(Timer.builder("vss.revocation").tag("method", method).tag("outcome", outcome)))
+				.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Record a complete validation, by policy, and; result.
+	 *
+	 * @param validationPolicyId
+	 * @param result             the result, or null if the validation threw
+	 * @param start              from {@link #start()}
+	 */
+	public void recordValidation(String validationPolicyId, ValidationResult result, long start) {
+		if (DISABLED == start) {
+			return;
+		}
+		String resultTag = resultTag(result);
+		validationTimers.computeIfAbsent(validationPolicyId + ":" + resultTag,
+				k -> histogram(Timer.builder("vss.validation").tag("policy", validationPolicyId).tag("result", resultTag)))
+				.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return the metrics in the Prometheus text format, or null if disabled
+	 */
+	public String scrape() {
+		if (!enabled) {
+			return null;
+		}
+		synchronized (nestedStats) {
+			nestedStats.forEach(NestedStats::refresh);
+		}
+		return registry.scrape();
+	}
+
+	private Timer histogram(Timer.Builder builder) {
+		return builder.publishPercentileHistogram().minimumExpectedValue(MIN_EXPECTED)
+				.maximumExpectedValue(MAX_EXPECTED).register(registry);
+	}
+
+	private static String resultTag(ValidationResult result) {
+		if (result instanceof Success) {
+			return "success";
+		} else if (result instanceof Fail) {
+			return Boolean.TRUE.equals(((Fail) result).isAffirmativelyInvalid) ? "affirmatively_invalid" : "fail";
+		}
+		return "error";
+	}
+
+	/*
+	 * Register a gauge for each numeric (or boolean) statistic; the keys of the
+	 * statistics are fixed once the source has been configured.
+	 *
+	 * The supplier is usually a method reference, held only by the gauge, so it
+	 * is held strongly; otherwise it is collected, and; the gauge reports NaN.
+	 */
+	private void registerStats(String prefix, Supplier<Map<String, Object>> stats) {
+		for (Map.Entry<String, Object> stat : stats.get().entrySet()) {
+			if (Double.isNaN(toDouble(stat.getValue()))) {
+				continue;
+			}
+			String key = stat.getKey();
+			Gauge.builder(metricName(prefix, key), stats, s -> toDouble(s.get().get(key))).strongReference(true)
+					.register(registry);
+		}
+	}
+
+	/*
+	 * camelCase statistic names, as dotted metric names
+	 */
+	private static String metricName(String prefix, String key) {
+		StringBuilder name = new StringBuilder(prefix).append('.');
+		for (char c : key.toCharArray()) {
+			if (Character.isUpperCase(c)) {
+				name.append('.').append(Character.toLowerCase(c));
+			} else {
+				name.append(c);
+			}
+		}
+		return name.toString();
+	}
+
+	private static double toDouble(Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		} else if (value instanceof Boolean) {
+			return ((Boolean) value) ? 1.0 : 0.0;
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Statistics kept per policy (or host), where the rows are only known when the
+	 * metrics are scraped
+	 */
+	private final class NestedStats {
+
+		private final String prefix;
+
+		private final String tag;
+
+		private final Supplier<Map<String, Object>> stats;
+
+		private final Map<String, MultiGauge> gauges = new ConcurrentHashMap<>();
+
+		private NestedStats(String prefix, String tag, Supplier<Map<String, Object>> stats) {
+			this.prefix = prefix;
+			this.tag = tag;
+			this.stats = stats;
+		}
+
+		private void refresh() {
+			Map<String, List<MultiGauge.Row<?>>> rows = new ConcurrentHashMap<>();
+			for (Map.Entry<String, Object> row : stats.get().entrySet()) {
+				if (!(row.getValue() instanceof Map)) {
+					continue;
+				}
+				Tags tags = Tags.of(tag, row.getKey());
+				for (Map.Entry<?, ?> stat : ((Map<?, ?>) row.getValue()).entrySet()) {
+					double value = toDouble(stat.getValue());
+					if (!Double.isNaN(value)) {
+						rows.computeIfAbsent(stat.getKey().toString(), k -> new ArrayList<>())
+								.add(MultiGauge.Row.of(tags, value));
+					}
+				}
+			}
+			rows.forEach((key, keyRows) -> gauges
+					.computeIfAbsent(key, k -> MultiGauge.builder(metricName(prefix, k)).register(registry))
+					.register(keyRows, true));
+		}
+
+	}
+
+}
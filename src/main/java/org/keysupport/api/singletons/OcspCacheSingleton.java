@@ -0,0 +1,434 @@
+package org.keysupport.api.singletons;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.keysupport.api.LoggingUtil;
+import org.keysupport.api.pkix.CachedOcspResponse;
+import org.keysupport.api.pkix.ValidationBudget;
+import org.keysupport.api.pkix.X509Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class uses a singleton pattern to cache OCSP responses by CertID
+ * (issuer name hash, issuer key hash, and; serial number).
+ *
+ * A verified response is reused until its `nextUpdate`. Responses that have
+ * been served from the cache since they were fetched are refreshed on a
+ * background thread, `refresh-ahead` seconds before `nextUpdate`; others are
+ * dropped at that point. Responses without a `nextUpdate` are used once, and;
+ * not cached.
+ *
+ * Concurrent misses for the same CertID share one fetch, each caller waiting no
+ * longer than its {@link ValidationBudget} allows.
+ */
+public class OcspCacheSingleton {
+
+	private final Logger LOG = LoggerFactory.getLogger(OcspCacheSingleton.class);
+
+	/*
+	 * Minimum delay (millis) between fetches for the same CertID
+	 */
+	private final static long MIN_REFRESH_INTERVAL = TimeUnit.SECONDS.toMillis(60);
+
+	private boolean enabled = false;
+
+	private long refreshAheadMillis;
+
+	private int maxEntries;
+
+	private final ConcurrentHashMap<String, OcspEntry> responses = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<String, ScheduledFuture<?>> refreshes = new ConcurrentHashMap<>();
+
+	/*
+	 * Fetches in progress, by CertID, shared by the callers that miss on the same
+	 * response
+	 */
+	private final ConcurrentHashMap<String, CompletableFuture<CachedOcspResponse>> inFlight = new ConcurrentHashMap<>();
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder coalesced = new LongAdder();
+
+	private final LongAdder fetches = new LongAdder();
+
+	private final LongAdder fetchFailures = new LongAdder();
+
+	private final LongAdder refreshCount = new LongAdder();
+
+	private ScheduledExecutorService scheduler = null;
+
+	/**
+	 * A cached response, what is needed to refresh it, and; when it was last used
+	 */
+	private static final class OcspEntry {
+
+		private final CachedOcspResponse response;
+
+		private final CertificateID certId;
+
+		private final X509Certificate issuer;
+
+		private final List<String> uris;
+
+		private volatile long lastAccess;
+
+		private OcspEntry(CachedOcspResponse response, CertificateID certId, X509Certificate issuer,
+				List<String> uris) {
+			this.response = response;
+			this.certId = certId;
+			this.issuer = issuer;
+			this.uris = uris;
+			this.lastAccess = 0;
+		}
+
+	}
+
+	private OcspCacheSingleton() {
+	}
+
+	private static class SingletonHelper {
+		private static final OcspCacheSingleton INSTANCE = new OcspCacheSingleton();
+	}
+
+	public static OcspCacheSingleton getInstance() {
+		return SingletonHelper.INSTANCE;
+	}
+
+	/**
+	 * Configure the cache; called once at startup.
+	 *
+	 * @param enabled             enable or disable the cache
+	 * @param refreshAheadSeconds refresh used responses this long before
+	 *                            `nextUpdate`
+	 * @param maxEntries          maximum number of cached responses
+	 */
+	public synchronized void configure(boolean enabled, long refreshAheadSeconds, int maxEntries) {
+		this.enabled = enabled;
+		this.refreshAheadMillis = TimeUnit.SECONDS.toMillis(refreshAheadSeconds);
+		this.maxEntries = maxEntries;
+		if (enabled && null == scheduler) {
+			scheduler = Executors.newScheduledThreadPool(2, r -> {
+				Thread t = new Thread(r, "ocsp-cache-refresh");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		LOG.info("{}", LoggingUtil.json(Map.of("ocsp.cache.enabled", enabled, "ocsp.cache.refresh-ahead",
+				refreshAheadSeconds, "ocsp.cache.max-entries", maxEntries)));
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Obtain a current OCSP response for a certificate, fetching it if needed.
+	 *
+	 * When the cache is disabled, the response is fetched for this caller only,
+	 * and; not kept.
+	 *
+	 * @param cert   the certificate
+	 * @param issuer the certificate issuer
+	 * @param date   the validation date
+	 * @return CachedOcspResponse, or null if a current response could not be
+	 *         obtained
+	 */
+	public CachedOcspResponse get(X509Certificate cert, X509Certificate issuer, Date date) {
+		List<String> uris = X509Util.getOcspUris(cert);
+		if (uris.isEmpty()) {
+			return null;
+		}
+		CertificateID certId;
+		try {
+			certId = CachedOcspResponse.certificateId(issuer, cert.getSerialNumber());
+		} catch (OCSPException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Unable to create OCSP CertID", "stacktrace",
+					LoggingUtil.stackTrace(e))));
+			return null;
+		}
+		String key = CachedOcspResponse.cacheKey(certId);
+		if (!enabled) {
+			return current(fetch(key, certId, issuer, uris), date);
+		}
+		OcspEntry entry = responses.get(key);
+		if (null != entry && entry.response.isCurrent(date)) {
+			entry.lastAccess = System.currentTimeMillis();
+			hits.increment();
+			return entry.response;
+		}
+		misses.increment();
+		CachedOcspResponse response;
+		CompletableFuture<CachedOcspResponse> future = new CompletableFuture<>();
+		CompletableFuture<CachedOcspResponse> existing = inFlight.putIfAbsent(key, future);
+		if (null == existing) {
+			response = fetchShared(key, certId, issuer, uris, future);
+		} else {
+			coalesced.increment();
+			response = await(existing);
+		}
+		return current(response, date);
+	}
+
+	/*
+	 * A response without a `nextUpdate` is only good for the validation that
+	 * fetched it
+	 */
+	private static CachedOcspResponse current(CachedOcspResponse response, Date date) {
+		if (null != response && (response.isCurrent(date) || !response.isCacheable())) {
+			return response;
+		}
+		return null;
+	}
+
+	/*
+	 * Fetch a response on behalf of every caller waiting on `future`
+	 */
+	private CachedOcspResponse fetchShared(String key, CertificateID certId, X509Certificate issuer,
+			List<String> uris, CompletableFuture<CachedOcspResponse> future) {
+		try {
+			CachedOcspResponse response = fetch(key, certId, issuer, uris);
+			future.complete(response);
+			return response;
+		} catch (RuntimeException | Error e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, future);
+		}
+	}
+
+	/*
+	 * Wait for a fetch started by another caller, no longer than the budget of
+	 * the current validation (if any)
+	 *
+	 * @return the fetched response, or null if it could not be fetched in time
+	 */
+	private static CachedOcspResponse await(CompletableFuture<CachedOcspResponse> future) {
+		ValidationBudget budget = ValidationBudget.current();
+		try {
+			if (null == budget) {
+				return future.get();
+			}
+			return future.get(Math.max(0, budget.remainingMillis()), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException | ExecutionException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/*
+	 * Query each responder, in order, until a verified response is obtained
+	 */
+	private CachedOcspResponse fetch(String key, CertificateID certId, X509Certificate issuer, List<String> uris) {
+		byte[] request;
+		try {
+			request = CachedOcspResponse.request(certId);
+		} catch (OCSPException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Unable to create OCSP request", "stacktrace",
+					LoggingUtil.stackTrace(e))));
+			return null;
+		}
+		for (String uri : uris) {
+			fetches.increment();
+			long start = System.currentTimeMillis();
+			byte[] encoded = null;
+			try {
+				encoded = HTTPClientSingleton.getInstance().getOcspResponse(URI.create(uri), request);
+			} catch (IllegalArgumentException e) {
+				LOG.error("{}", LoggingUtil.json(Map.of("error", "Invalid OCSP URI", "uri", uri, "stacktrace",
+						LoggingUtil.stackTrace(e))));
+			}
+			if (null == encoded) {
+				fetchFailures.increment();
+				continue;
+			}
+			CachedOcspResponse response;
+			try {
+				response = CachedOcspResponse.fromResponse(uri, encoded, certId, issuer, new Date());
+			} catch (OCSPException e) {
+				fetchFailures.increment();
+				LOG.warn("{}", LoggingUtil.json(Map.of("warning", "OCSP response rejected: " + e.getMessage(), "uri", uri)));
+				continue;
+			}
+			LOG.info("{}", LoggingUtil.json(Map.of("ocsp.uri", uri, "ocsp.certId", key, "ocsp.status",
+					response.getStatus().name(), "ocsp.thisUpdate", X509Util.ISO8601DateString(response.getThisUpdate()),
+					"ocsp.nextUpdate",
+					(null == response.getNextUpdate()) ? "none" : X509Util.ISO8601DateString(response.getNextUpdate()),
+					"ocsp.fetchMillis", System.currentTimeMillis() - start)));
+			if (enabled && response.isCacheable() && (responses.containsKey(key) || responses.size() < maxEntries)) {
+				responses.put(key, new OcspEntry(response, certId, issuer, uris));
+				scheduleRefresh(key, response);
+			}
+			return response;
+		}
+		return null;
+	}
+
+	private void scheduleRefresh(String key, CachedOcspResponse response) {
+		long delay = response.getNextUpdate().getTime() - refreshAheadMillis - System.currentTimeMillis();
+		scheduleRefresh(key, Math.max(MIN_REFRESH_INTERVAL, delay));
+	}
+
+	/*
+	 * Only one refresh is scheduled per CertID
+	 */
+	private void scheduleRefresh(String key, long delayMillis) {
+		ScheduledFuture<?> refresh = scheduler.schedule(() -> refresh(key), delayMillis, TimeUnit.MILLISECONDS);
+		ScheduledFuture<?> previous = refreshes.put(key, refresh);
+		if (null != previous) {
+			previous.cancel(false);
+		}
+	}
+
+	/*
+	 * Refresh a response that has been used since it was fetched, otherwise drop
+	 * it
+	 */
+	private void refresh(String key) {
+		OcspEntry entry = responses.get(key);
+		if (null == entry) {
+			refreshes.remove(key);
+			return;
+		}
+		if (entry.lastAccess < entry.response.getFetchedAt()) {
+			responses.remove(key, entry);
+			refreshes.remove(key);
+			return;
+		}
+		refreshCount.increment();
+		CachedOcspResponse response = fetch(key, entry.certId, entry.issuer, entry.uris);
+		if (null == response) {
+			/*
+			 * Retry, the current entry remains usable until its nextUpdate
+			 */
+			if (entry.response.isCurrent(new Date(System.currentTimeMillis() + MIN_REFRESH_INTERVAL))) {
+				scheduleRefresh(key, MIN_REFRESH_INTERVAL);
+			} else {
+				responses.remove(key, entry);
+				refreshes.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Write the cached responses, and; what is needed to refresh them, for
+	 * {@link #restore(DataInputStream)}
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void save(DataOutputStream out) throws IOException {
+		List<OcspEntry> entries = new ArrayList<>(responses.values());
+		out.writeInt(entries.size());
+		for (OcspEntry entry : entries) {
+			entry.response.writeTo(out);
+			try {
+				SnapshotStoreSingleton.writeBytes(out, entry.issuer.getEncoded());
+			} catch (CertificateEncodingException e) {
+				throw new IOException("Unable to encode OCSP issuer", e);
+			}
+			SnapshotStoreSingleton.writeBytes(out, entry.certId.getSerialNumber().toByteArray());
+			out.writeInt(entry.uris.size());
+			for (String uri : entry.uris) {
+				out.writeUTF(uri);
+			}
+		}
+	}
+
+	/**
+	 * Cache the responses written by {@link #save(DataOutputStream)} that are
+	 * still current, and; schedule their refresh.
+	 *
+	 * @param in
+	 * @return the number of responses restored
+	 * @throws IOException
+	 */
+	public int restore(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		Date now = new Date();
+		int restored = 0;
+		try {
+			CertificateFactory cf = CertificateFactory.getInstance("X.509");
+			for (int i = 0; i < count; i++) {
+				CachedOcspResponse response = CachedOcspResponse.readFrom(in);
+				X509Certificate issuer = (X509Certificate) cf
+						.generateCertificate(new ByteArrayInputStream(SnapshotStoreSingleton.readBytes(in)));
+				BigInteger serialNumber = new BigInteger(SnapshotStoreSingleton.readBytes(in));
+				int uriCount = in.readInt();
+				List<String> uris = new ArrayList<>();
+				for (int u = 0; u < uriCount; u++) {
+					uris.add(in.readUTF());
+				}
+				if (!enabled || !response.isCacheable() || !response.isCurrent(now) || responses.size() >= maxEntries) {
+					continue;
+				}
+				CertificateID certId = CachedOcspResponse.certificateId(issuer, serialNumber);
+				String key = CachedOcspResponse.cacheKey(certId);
+				if (key.equals(response.getCertId())
+						&& null == responses.putIfAbsent(key, new OcspEntry(response, certId, issuer, List.copyOf(uris)))) {
+					scheduleRefresh(key, response);
+					restored++;
+				}
+			}
+		} catch (CertificateException | OCSPException | RuntimeException e) {
+			throw new IOException("Invalid OCSP cache entry", e);
+		}
+		return restored;
+	}
+
+	public void invalidateAll() {
+		refreshes.values().forEach(refresh -> refresh.cancel(false));
+		refreshes.clear();
+		responses.clear();
+	}
+
+	/**
+	 * @return a JSON friendly view of the cache statistics
+	 */
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("enabled", enabled);
+		stats.put("size", responses.size());
+		stats.put("hitCount", hits.sum());
+		stats.put("missCount", misses.sum());
+		stats.put("coalescedCount", coalesced.sum());
+		long requests = hits.sum() + misses.sum();
+		stats.put("hitRate", (requests == 0) ? 1.0 : (double) hits.sum() / requests);
+		stats.put("fetchCount", fetches.sum());
+		stats.put("fetchFailureCount", fetchFailures.sum());
+		stats.put("refreshCount", refreshCount.sum());
+		return stats;
+	}
+
+}
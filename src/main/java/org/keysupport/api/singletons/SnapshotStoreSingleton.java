@@ -0,0 +1,264 @@
+package org.keysupport.api.singletons;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.CertStoreException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.keysupport.api.LoggingUtil;
+import org.keysupport.api.pkix.ValidationSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class uses a singleton pattern to keep the last published
+ * {@link ValidationSnapshot} on disk, so the service can start from it without
+ * fetching (and; parsing the CMS of) the policies, and; intermediates.
+ *
+ * The file holds the policies JSON, the intermediates as DER encoded
+ * certificates, the validators of each, and; the snapshot version, followed by
+ * a CRC32 of the preceding bytes. It is replaced with an atomic move, so a
+ * reader sees either the previous file, or; the new one.
+ *
+ * <pre>
+ * int     MAGIC
+ * int     FORMAT
+ * long    snapshot version
+ * long    saved at (epoch millis)
+ * bytes   policies JSON (UTF-8)
+ * string  policies ETag, and; Last-Modified
+ * string  intermediates ETag, and; Last-Modified
+ * int     number of intermediates, and; the DER bytes of each
+ * long    CRC32
+ * </pre>
+ *
+ * `bytes` are an int length (-1 for null) followed by the bytes, and; a
+ * `string` is `bytes` of UTF-8.
+ */
+public class SnapshotStoreSingleton {
+
+	private final static Logger LOG = LoggerFactory.getLogger(SnapshotStoreSingleton.class);
+
+	/*
+	 * "VSSS"
+	 */
+	private final static int MAGIC = 0x56535353;
+
+	private final static int FORMAT = 1;
+
+	/*
+	 * Bounds a length read from a damaged file
+	 */
+	private final static int MAX_LENGTH = 64 * 1024 * 1024;
+
+	/**
+	 * The contents of a snapshot file
+	 *
+	 * @param version                 the version of the saved snapshot
+	 * @param savedAt                 epoch millis
+	 * @param policiesJson
+	 * @param intermediates           the intermediates, as saved (no exclusions
+	 *                                have been applied since)
+	 * @param policiesValidators      or null
+	 * @param intermediatesValidators or null
+	 */
+	public record Persisted(long version, long savedAt, String policiesJson, List<X509Certificate> intermediates,
+			FetchResult.Validators policiesValidators, FetchResult.Validators intermediatesValidators) {
+	}
+
+	private volatile boolean enabled = false;
+
+	private volatile Path file;
+
+	private SnapshotStoreSingleton() {
+	}
+
+	private static class SingletonHelper {
+		private static final SnapshotStoreSingleton INSTANCE = new SnapshotStoreSingleton();
+	}
+
+	public static SnapshotStoreSingleton getInstance() {
+		return SingletonHelper.INSTANCE;
+	}
+
+	/**
+	 * Configure the snapshot file; called once at startup, before the policies are
+	 * loaded.
+	 *
+	 * @param enabled
+	 * @param file
+	 */
+	public synchronized void configure(boolean enabled, String file) {
+		this.file = Path.of(file);
+		this.enabled = enabled;
+		LOG.info("{}", LoggingUtil.json(Map.of("snapshot.enabled", enabled, "snapshot.file", file)));
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Save the snapshot, replacing the previous file; a failure is logged, and; the
+	 * previous file is kept.
+	 *
+	 * @param snapshot
+	 */
+	public synchronized void save(ValidationSnapshot snapshot) {
+		if (!enabled || null == snapshot) {
+			return;
+		}
+		Path partial = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			List<X509Certificate> intermediates = new ArrayList<>();
+			if (null != snapshot.getIntermediates()) {
+				for (Certificate cert : snapshot.getIntermediates().getCertificates(null)) {
+					intermediates.add((X509Certificate) cert);
+				}
+			}
+			if (null != file.getParent()) {
+				Files.createDirectories(file.getParent());
+			}
+			CRC32 crc = new CRC32();
+			try (DataOutputStream out = new DataOutputStream(
+					new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(partial)), crc))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT);
+				out.writeLong(snapshot.getVersion());
+				out.writeLong(System.currentTimeMillis());
+				writeBytes(out, snapshot.getPoliciesJson().getBytes(StandardCharsets.UTF_8));
+				writeValidators(out, snapshot.getPoliciesValidators());
+				writeValidators(out, snapshot.getIntermediatesValidators());
+				out.writeInt(intermediates.size());
+				for (X509Certificate cert : intermediates) {
+					writeBytes(out, cert.getEncoded());
+				}
+				/*
+				 * The CRC of everything before it
+				 */
+				out.writeLong(crc.getValue());
+			}
+			Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			LOG.info("{}", LoggingUtil.json(Map.of("snapshot.saved", file.toString(), "snapshot.version",
+					snapshot.getVersion(), "snapshot.intermediates", intermediates.size())));
+		} catch (IOException | CertStoreException | CertificateException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Unable to save snapshot", "snapshot.file", file.toString(),
+					"stacktrace", LoggingUtil.stackTrace(e))));
+			try {
+				Files.deleteIfExists(partial);
+			} catch (IOException ignored) {
+				/*
+				 * The partial file is replaced by the next save
+				 */
+			}
+		}
+	}
+
+	/**
+	 * @return the saved snapshot, or null if there is none, or; it can not be read
+	 */
+	public synchronized Persisted load() {
+		if (!enabled || !Files.isRegularFile(file)) {
+			return null;
+		}
+		CRC32 crc = new CRC32();
+		try (DataInputStream in = new DataInputStream(
+				new CheckedInputStream(new BufferedInputStream(Files.newInputStream(file)), crc))) {
+			if (MAGIC != in.readInt() || FORMAT != in.readInt()) {
+				LOG.warn("{}", LoggingUtil.json(Map.of("warning", "Ignoring snapshot of an unknown format", "snapshot.file",
+						file.toString())));
+				return null;
+			}
+			long version = in.readLong();
+			long savedAt = in.readLong();
+			String policiesJson = new String(readBytes(in), StandardCharsets.UTF_8);
+			FetchResult.Validators policiesValidators = readValidators(in);
+			FetchResult.Validators intermediatesValidators = readValidators(in);
+			int count = in.readInt();
+			if (count < 0 || count > MAX_LENGTH) {
+				throw new IOException("Invalid intermediate count " + count);
+			}
+			CertificateFactory cf = CertificateFactory.getInstance("X.509");
+			List<X509Certificate> intermediates = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				intermediates.add((X509Certificate) cf.generateCertificate(new ByteArrayInputStream(readBytes(in))));
+			}
+			long expected = crc.getValue();
+			if (expected != in.readLong()) {
+				throw new IOException("CRC mismatch");
+			}
+			return new Persisted(version, savedAt, policiesJson, intermediates, policiesValidators,
+					intermediatesValidators);
+		} catch (IOException | CertificateException | RuntimeException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Unable to load snapshot, ignoring it", "snapshot.file",
+					file.toString(), "stacktrace", LoggingUtil.stackTrace(e))));
+			return null;
+		}
+	}
+
+	/*
+	 * Also used by the caches, to write their entries to the cache snapshot
+	 */
+	static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		if (null == bytes) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (-1 == length) {
+			return null;
+		}
+		if (length < 0 || length > MAX_LENGTH) {
+			throw new IOException("Invalid length " + length);
+		}
+		byte[] bytes = in.readNBytes(length);
+		if (bytes.length != length) {
+			throw new EOFException("Truncated snapshot");
+		}
+		return bytes;
+	}
+
+	static void writeString(DataOutputStream out, String str) throws IOException {
+		writeBytes(out, (null == str) ? null : str.getBytes(StandardCharsets.UTF_8));
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = readBytes(in);
+		return (null == bytes) ? null : new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeValidators(DataOutputStream out, FetchResult.Validators validators) throws IOException {
+		writeString(out, (null == validators) ? null : validators.getEtag());
+		writeString(out, (null == validators) ? null : validators.getLastModified());
+	}
+
+	private static FetchResult.Validators readValidators(DataInputStream in) throws IOException {
+		String etag = readString(in);
+		String lastModified = readString(in);
+		return (null == etag && null == lastModified) ? null : new FetchResult.Validators(etag, lastModified);
+	}
+
+}
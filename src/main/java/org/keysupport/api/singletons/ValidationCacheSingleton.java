@@ -0,0 +1,401 @@
+package org.keysupport.api.singletons;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.keysupport.api.LoggingUtil;
+import org.keysupport.api.pkix.ValidationBudget;
+import org.keysupport.api.pkix.ValidationSnapshot;
+import org.keysupport.api.pojo.vss.JsonX509Certificate;
+import org.keysupport.api.pojo.vss.Success;
+import org.keysupport.api.pojo.vss.VssResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * This class uses a singleton pattern to cache validation results by
+ * `requestId`.
+ *
+ * The `requestId` is derived from the certificate digest and the validation
+ * policy, so a cached result is only ever returned for the exact same
+ * certificate and policy.
+ *
+ * Concurrent requests for the same `requestId` are also coalesced; one caller
+ * validates, and; the others wait for (and share) its result, each no longer
+ * than its own {@link ValidationBudget} allows.
+ *
+ * Each result is tagged with the version of the {@link ValidationSnapshot} it
+ * was validated under. A result of any other version is not cached, served,
+ * or; shared, so a validation still in flight when a new snapshot is published
+ * can not leave its result behind.
+ */
+public class ValidationCacheSingleton {
+
+	private final Logger LOG = LoggerFactory.getLogger(ValidationCacheSingleton.class);
+
+	/*
+	 * Rough fixed cost (bytes) of a cached response, excluding the certificate path
+	 */
+	private final static int BASE_ENTRY_WEIGHT = 2048;
+
+	private final static ObjectMapper MAPPER = new ObjectMapper();
+
+	private boolean enabled = false;
+
+	private long successTtlSeconds;
+
+	private long failureTtlSeconds;
+
+	private Cache<String, CachedValidation> cache = null;
+
+	/*
+	 * Validations in progress, by snapshot version, and; `requestId`
+	 */
+	private final ConcurrentHashMap<String, CompletableFuture<VssResponse>> inFlight = new ConcurrentHashMap<>();
+
+	private final LongAdder coalescedWaiters = new LongAdder();
+
+	private final LongAdder waiting = new LongAdder();
+
+	private ValidationCacheSingleton() {
+	}
+
+	/**
+	 * A cached response, the snapshot version it was validated under, and; the
+	 * time (epoch millis) it must no longer be served.
+	 */
+	private static final class CachedValidation {
+
+		private final VssResponse response;
+
+		private final long snapshotVersion;
+
+		private final long expiresAt;
+
+		private final int weight;
+
+		private CachedValidation(VssResponse response, long snapshotVersion, long expiresAt) {
+			this.response = response;
+			this.snapshotVersion = snapshotVersion;
+			this.expiresAt = expiresAt;
+			this.weight = weigh(response);
+		}
+
+		private static int weigh(VssResponse response) {
+			int weight = BASE_ENTRY_WEIGHT;
+			if (response.validationResult instanceof Success) {
+				List<JsonX509Certificate> path = ((Success) response.validationResult).x509CertificatePath;
+				if (null != path) {
+					for (JsonX509Certificate cert : path) {
+						if (null != cert.x509Certificate) {
+							weight += cert.x509Certificate.length();
+						}
+					}
+				}
+			}
+			return weight;
+		}
+
+	}
+
+	/**
+	 * Expire each entry at the time recorded when it was cached
+	 */
+	private static final class CachedValidationExpiry implements Expiry<String, CachedValidation> {
+
+		private long remaining(CachedValidation value) {
+			return Math.max(0, Duration.ofMillis(value.expiresAt - System.currentTimeMillis()).toNanos());
+		}
+
+		@Override
+		public long expireAfterCreate(String key, CachedValidation value, long currentTime) {
+			return remaining(value);
+		}
+
+		@Override
+		public long expireAfterUpdate(String key, CachedValidation value, long currentTime, long currentDuration) {
+			return remaining(value);
+		}
+
+		@Override
+		public long expireAfterRead(String key, CachedValidation value, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+
+	}
+
+	/**
+	 * Configure the cache; called once at startup.
+	 *
+	 * @param enabled           enable or disable the cache
+	 * @param maxWeightBytes    approximate upper bound (bytes) of cached responses
+	 * @param successTtlSeconds lifetime of a successful validation
+	 * @param failureTtlSeconds lifetime of a failed validation
+	 */
+	public void configure(boolean enabled, long maxWeightBytes, long successTtlSeconds, long failureTtlSeconds) {
+		this.enabled = enabled;
+		this.successTtlSeconds = successTtlSeconds;
+		this.failureTtlSeconds = failureTtlSeconds;
+		if (enabled) {
+			cache = Caffeine.newBuilder()
+					.maximumWeight(maxWeightBytes)
+					.weigher((String key, CachedValidation value) -> value.weight)
+					.expireAfter(new CachedValidationExpiry())
+					.recordStats()
+					.build();
+		} else {
+			cache = null;
+		}
+		LOG.info("{}", LoggingUtil.json(Map.of("validation.cache.enabled", enabled, "validation.cache.max-weight",
+				maxWeightBytes, "validation.cache.success-ttl", successTtlSeconds, "validation.cache.failure-ttl",
+				failureTtlSeconds)));
+	}
+
+	private static class SingletonHelper {
+		private static final ValidationCacheSingleton INSTANCE = new ValidationCacheSingleton();
+	}
+
+	public static ValidationCacheSingleton getInstance() {
+		return SingletonHelper.INSTANCE;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public long getSuccessTtlSeconds() {
+		return successTtlSeconds;
+	}
+
+	public long getFailureTtlSeconds() {
+		return failureTtlSeconds;
+	}
+
+	/**
+	 * @param requestId
+	 * @return the cached VssResponse, or null if not cached (or expired, or;
+	 *         validated under a snapshot that has since been replaced)
+	 */
+	public VssResponse get(String requestId) {
+		if (null == cache) {
+			return null;
+		}
+		CachedValidation cached = cache.getIfPresent(requestId);
+		if (null == cached) {
+			return null;
+		}
+		if (cached.snapshotVersion != currentSnapshotVersion()) {
+			cache.asMap().remove(requestId, cached);
+			return null;
+		}
+		return cached.response;
+	}
+
+	private static long currentSnapshotVersion() {
+		return ValidationPoliciesSingleton.getInstance().getSnapshotVersion();
+	}
+
+	/**
+	 * Cache a completed response until `expiresAt`.
+	 *
+	 * The response must not be modified once cached, since it is shared by every
+	 * subsequent caller.
+	 *
+	 * A response validated under a snapshot that is no longer current is not
+	 * cached.
+	 *
+	 * @param requestId
+	 * @param response
+	 * @param expiresAt       epoch millis
+	 * @param snapshotVersion the version of the snapshot the response was
+	 *                        validated under
+	 */
+	public void put(String requestId, VssResponse response, long expiresAt, long snapshotVersion) {
+		if (null == cache || expiresAt <= System.currentTimeMillis() || snapshotVersion != currentSnapshotVersion()) {
+			return;
+		}
+		cache.put(requestId, new CachedValidation(response, snapshotVersion, expiresAt));
+	}
+
+	/**
+	 * Run `validation` for the `requestId`, unless another caller is already doing
+	 * so under the same snapshot version, in which case wait for, and; return,
+	 * its result.
+	 *
+	 * The response is shared by every caller, so `validation` must complete (and
+	 * cache) the response before returning it.
+	 *
+	 * A caller that waits is bounded by the budget of its own validation (if
+	 * any); the wait is charged to its path build stage, and; `deadlineExceeded`
+	 * is returned if the result is not available in time.
+	 *
+	 * @param requestId
+	 * @param snapshotVersion  the version of the snapshot the caller validates
+	 *                         under
+	 * @param validation       validates, caches, and; returns the response
+	 * @param deadlineExceeded the response for a caller whose budget is exceeded
+	 *                         while waiting
+	 * @return VssResponse
+	 */
+	public VssResponse coalesce(String requestId, long snapshotVersion, Supplier<VssResponse> validation,
+			Supplier<VssResponse> deadlineExceeded) {
+		String key = snapshotVersion + ":" + requestId;
+		CompletableFuture<VssResponse> future = new CompletableFuture<>();
+		CompletableFuture<VssResponse> existing = inFlight.putIfAbsent(key, future);
+		if (null != existing) {
+			coalescedWaiters.increment();
+			waiting.increment();
+			try {
+				return await(existing, deadlineExceeded);
+			} finally {
+				waiting.decrement();
+			}
+		}
+		try {
+			/*
+			 * A previous flight may have cached the result after our cache check
+			 */
+			VssResponse response = null;
+			if (null != cache) {
+				CachedValidation cached = cache.policy().getIfPresentQuietly(requestId);
+				if (null != cached && cached.snapshotVersion == snapshotVersion) {
+					response = cached.response;
+				}
+			}
+			if (null == response) {
+				response = validation.get();
+			}
+			future.complete(response);
+			return response;
+		} catch (RuntimeException | Error e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, future);
+		}
+	}
+
+	/*
+	 * Wait for the caller validating the same requestId
+	 */
+	@SuppressWarnings("try")
+	private static VssResponse await(CompletableFuture<VssResponse> existing, Supplier<VssResponse> deadlineExceeded) {
+		ValidationBudget budget = ValidationBudget.current();
+		try {
+			if (null == budget) {
+				return existing.get();
+			}
+			try (ValidationBudget.Scope pathBuild = budget.enter(ValidationBudget.Stage.PATH_BUILD)) {
+				try {
+					return existing.get(Math.max(0, budget.remainingMillis()), TimeUnit.MILLISECONDS);
+				} catch (TimeoutException e) {
+					budget.isExceeded();
+					return deadlineExceeded.get();
+				}
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new CompletionException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CompletionException(e);
+		}
+	}
+
+	/**
+	 * Write the cached responses, and; when they expire, for
+	 * {@link #restore(DataInputStream, boolean)}
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void save(DataOutputStream out) throws IOException {
+		List<Map.Entry<String, CachedValidation>> entries = (null == cache) ? List.of()
+				: new ArrayList<>(cache.asMap().entrySet());
+		out.writeInt(entries.size());
+		for (Map.Entry<String, CachedValidation> entry : entries) {
+			out.writeUTF(entry.getKey());
+			out.writeLong(entry.getValue().expiresAt);
+			SnapshotStoreSingleton.writeBytes(out, MAPPER.writeValueAsBytes(entry.getValue().response));
+		}
+	}
+
+	/**
+	 * Cache the responses written by {@link #save(DataOutputStream)} that have not
+	 * expired.
+	 *
+	 * @param in
+	 * @param keep false to read, and; discard, the responses (such as when they
+	 *             were validated under a different snapshot)
+	 * @return the number of responses restored
+	 * @throws IOException
+	 */
+	public int restore(DataInputStream in, boolean keep) throws IOException {
+		int count = in.readInt();
+		int restored = 0;
+		for (int i = 0; i < count; i++) {
+			String requestId = in.readUTF();
+			long expiresAt = in.readLong();
+			byte[] json = SnapshotStoreSingleton.readBytes(in);
+			if (!keep || null == cache || expiresAt <= System.currentTimeMillis()) {
+				continue;
+			}
+			put(requestId, MAPPER.readValue(json, VssResponse.class), expiresAt, currentSnapshotVersion());
+			restored++;
+		}
+		return restored;
+	}
+
+	public void invalidateAll() {
+		if (null != cache) {
+			cache.invalidateAll();
+		}
+	}
+
+	/**
+	 * @return a JSON friendly view of the cache statistics
+	 */
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("enabled", enabled);
+		stats.put("inFlight", inFlight.size());
+		stats.put("coalescedWaiting", waiting.sum());
+		stats.put("coalescedWaiterCount", coalescedWaiters.sum());
+		if (null == cache) {
+			return stats;
+		}
+		CacheStats cs = cache.stats();
+		stats.put("estimatedSize", cache.estimatedSize());
+		stats.put("weightedSize", cache.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L));
+		stats.put("maximumWeight", cache.policy().eviction().map(e -> e.getMaximum()).orElse(0L));
+		stats.put("hitCount", cs.hitCount());
+		stats.put("missCount", cs.missCount());
+		stats.put("hitRate", cs.hitRate());
+		stats.put("evictionCount", cs.evictionCount());
+		stats.put("evictionWeight", cs.evictionWeight());
+		return stats;
+	}
+
+}
@@ -0,0 +1,137 @@
+package org.keysupport.api.singletons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.keysupport.api.LoggingUtil;
+import org.keysupport.api.controller.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class uses a singleton pattern to run batch validations concurrently.
+ *
+ * Each validation runs on its own virtual thread, since most of the time is
+ * spent waiting on OCSP responders, CRL distribution points, and; AIA fetches.
+ * The number of validations a single batch (or bulk stream) may run at once is
+ * capped, so one large request can not monopolize the remote services.
+ *
+ * Async requests also run here, rather than on a request thread, and; are
+ * bounded by a deadline.
+ */
+public class ValidationExecutorSingleton {
+
+	private final Logger LOG = LoggerFactory.getLogger(ValidationExecutorSingleton.class);
+
+	private final ExecutorService executor = Executors
+			.newThreadPerTaskExecutor(Thread.ofVirtual().name("validation-", 0).factory());
+
+	private int maxBatchConcurrency = 8;
+
+	private int maxBulkInFlight = 64;
+
+	private long deadlineMillis = TimeUnit.SECONDS.toMillis(20);
+
+	private ValidationExecutorSingleton() {
+	}
+
+	private static class SingletonHelper {
+		private static final ValidationExecutorSingleton INSTANCE = new ValidationExecutorSingleton();
+	}
+
+	public static ValidationExecutorSingleton getInstance() {
+		return SingletonHelper.INSTANCE;
+	}
+
+	/**
+	 * Configure the executor; called once at startup.
+	 *
+	 * @param maxBatchConcurrency maximum concurrent validations per batch
+	 * @param maxBulkInFlight     maximum concurrent validations per bulk stream
+	 * @param deadlineSeconds     time an async request may wait for its result
+	 */
+	public void configure(int maxBatchConcurrency, int maxBulkInFlight, long deadlineSeconds) {
+		this.maxBatchConcurrency = Math.max(1, maxBatchConcurrency);
+		this.maxBulkInFlight = Math.max(1, maxBulkInFlight);
+		this.deadlineMillis = TimeUnit.SECONDS.toMillis(Math.max(1, deadlineSeconds));
+		LOG.info("{}", LoggingUtil.json(Map.of("validation.batch.max-concurrency", this.maxBatchConcurrency,
+				"validation.bulk.max-in-flight", this.maxBulkInFlight, "validation.async.deadline",
+				TimeUnit.MILLISECONDS.toSeconds(this.deadlineMillis))));
+	}
+
+	public int getMaxBatchConcurrency() {
+		return maxBatchConcurrency;
+	}
+
+	public int getMaxBulkInFlight() {
+		return maxBulkInFlight;
+	}
+
+	public long getDeadlineMillis() {
+		return deadlineMillis;
+	}
+
+	/**
+	 * Run a single task; the caller is responsible for bounding the number of
+	 * tasks in flight.
+	 *
+	 * @param task
+	 */
+	public void execute(Runnable task) {
+		executor.execute(task);
+	}
+
+	/**
+	 * Run a task for an async request.
+	 *
+	 * The future completes exceptionally, with a TimeoutException, if the task has
+	 * not completed within the deadline. The task itself is not interrupted, so a
+	 * validation that completes late is still cached.
+	 *
+	 * @param <T>
+	 * @param task
+	 * @return CompletableFuture<T>
+	 */
+	public <T> CompletableFuture<T> submit(Supplier<T> task) {
+		return CompletableFuture.supplyAsync(task, executor).orTimeout(deadlineMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Run a batch of tasks, at most `max-concurrency` at a time.
+	 *
+	 * The futures are returned in the same order as the tasks; a task that throws
+	 * completes its own future exceptionally, and; does not affect the others.
+	 *
+	 * @param <T>
+	 * @param tasks
+	 * @return List<CompletableFuture<T>>
+	 */
+	public <T> List<CompletableFuture<T>> submitBatch(List<Supplier<T>> tasks) {
+		Semaphore permits = new Semaphore(maxBatchConcurrency);
+		List<CompletableFuture<T>> futures = new ArrayList<>(tasks.size());
+		for (Supplier<T> task : tasks) {
+			futures.add(CompletableFuture.supplyAsync(() -> {
+				try {
+					permits.acquire();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new ServiceException("Internal Validation Error");
+				}
+				try {
+					return task.get();
+				} finally {
+					permits.release();
+				}
+			}, executor));
+		}
+		return futures;
+	}
+
+}
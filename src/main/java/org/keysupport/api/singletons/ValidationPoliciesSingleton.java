@@ -2,18 +2,29 @@ package org.keysupport.api.singletons;
 
 import java.io.ByteArrayInputStream;
 import java.net.URI;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.TrustAnchor;
 import java.security.cert.X509Certificate;
 import java.util.Base64;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.keysupport.api.LoggingUtil;
 import org.keysupport.api.controller.ServiceException;
+import org.keysupport.api.pkix.CompiledValidationPolicy;
+import org.keysupport.api.pkix.IndexedCertStore;
+import org.keysupport.api.pkix.ValidationSnapshot;
 import org.keysupport.api.pojo.vss.JsonTrustAnchor;
 import org.keysupport.api.pojo.vss.ValidationPolicies;
 import org.keysupport.api.pojo.vss.ValidationPolicy;
@@ -27,12 +38,28 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 /**
  * This class uses a singleton pattern to store the configured Validation
  * Policies with Trust Anchors.
+ *
+ * The policies, trust anchors, compiled policies, and; intermediate cache are
+ * published together as an immutable {@link ValidationSnapshot}. A refresh
+ * builds a complete new snapshot on the refresh thread, and; replaces the
+ * current one with a single reference swap, so request threads never wait on
+ * (or observe part of) a refresh. If either source can not be obtained, the
+ * previous policies (or intermediates) are kept; as is the whole previous
+ * snapshot if any policy of the new one can not be compiled.
+ *
+ * Each snapshot published from a fetch is saved by the
+ * {@link SnapshotStoreSingleton}, so the next start can publish it before (or
+ * without) fetching.
  */
 public class ValidationPoliciesSingleton {
 
 	private final Logger LOG = LoggerFactory.getLogger(ValidationPoliciesSingleton.class);
 
-	private ValidationPolicies validationPolicies = null;
+	private final static ObjectMapper MAPPER = new ObjectMapper();
+
+	private final AtomicReference<ValidationSnapshot> snapshot = new AtomicReference<>();
+
+	private ScheduledExecutorService scheduler = null;
 
 	private int maxPathLen;
 	
@@ -46,79 +73,303 @@ public class ValidationPoliciesSingleton {
 	
 	private boolean crlEnabled;
 
-	/**
-	 * A map of TrustAnchor collections that correspond to each validation policy.
-	 */
-	private ConcurrentHashMap<String, HashSet<TrustAnchor>> trustAnchotMap = null;
+	private boolean strictRevalidation;
+
+	private int issuerPathCacheSize;
 
 	private ValidationPoliciesSingleton() {
-		trustAnchotMap = new ConcurrentHashMap<String, HashSet<TrustAnchor>>();
 	}
 
-	public void updateValidationPolicies(String polUri) {
-		HTTPClientSingleton client = HTTPClientSingleton.getInstance();
-		URI uri = URI.create(polUri);
-		String validationPoliciesJson = client.getText(uri);
-		if (null != validationPoliciesJson) {
-			ObjectMapper mapper = new ObjectMapper();
-			try {
-				validationPolicies = mapper.readValue(validationPoliciesJson, ValidationPolicies.class);
-			} catch (JsonMappingException e) {
-				LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Error converting JSON to POJO", "stacktrace", LoggingUtil.stackTraceToString(e))));
-			} catch (JsonProcessingException e) {
-				LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Error converting JSON to POJO", "stacktrace", LoggingUtil.stackTraceToString(e))));
+	/**
+	 * Load the validation policies, and; intermediates, then publish them as a new
+	 * snapshot if either has changed.
+	 *
+	 * Failure to obtain the initial policies, with no snapshot loaded from the
+	 * snapshot file, is fatal.
+	 *
+	 * @param polUri
+	 * @param intermediatesUri
+	 */
+	public synchronized void updateValidationPolicies(String polUri, String intermediatesUri) {
+		ValidationSnapshot current = snapshot.get();
+		/*
+		 * Build the intermediate cache first, since each policy is compiled against it
+		 */
+		FetchResult<IndexedCertStore> intermediatesFetch = IntermediateCacheSingleton.getInstance()
+				.loadIntermediates(intermediatesUri, (null == current) ? null : current.getIntermediatesValidators());
+		IndexedCertStore intermediates;
+		FetchResult.Validators intermediatesValidators;
+		if (null != intermediatesFetch && !intermediatesFetch.isNotModified()) {
+			intermediates = intermediatesFetch.getValue();
+			intermediatesValidators = intermediatesFetch.getValidators();
+		} else if (null != current) {
+			if (null == intermediatesFetch) {
+				LOG.warn("{}", LoggingUtil.json(Map.of("error", "Failed to refresh intermediates, keeping snapshot version " + current.getVersion())));
 			}
-			LOG.info(LoggingUtil.pojoToJson(validationPolicies));
+			intermediates = current.getIntermediates();
+			intermediatesValidators = current.getIntermediatesValidators();
+		} else {
+			intermediates = emptyIntermediates();
+			intermediatesValidators = null;
+		}
+		URI uri = URI.create(polUri);
+		FetchResult<String> policiesFetch = HTTPClientSingleton.getInstance().getTextIfModified(uri,
+				(null == current) ? null : current.getPoliciesValidators());
+		String validationPoliciesJson = null;
+		ValidationPolicies validationPolicies = null;
+		FetchResult.Validators policiesValidators = null;
+		if (null != policiesFetch && !policiesFetch.isNotModified()) {
+			validationPoliciesJson = policiesFetch.getValue();
+			validationPolicies = parsePolicies(validationPoliciesJson);
+			policiesValidators = policiesFetch.getValidators();
+		}
+		if (null == validationPolicies) {
 			/*
-			 * Iterate through each ValidationPolicy, and initialize the
-			 * HashSet<TrustAnchor>
+			 * Check to see if this failure is an update, or; an initial fetch of the
+			 * mandatory policies.
 			 */
-			List<ValidationPolicy> policies = validationPolicies.validationPolicies;
-			for (ValidationPolicy policy : policies) {
-				HashSet<TrustAnchor> taList = new HashSet<TrustAnchor>();
-				List<JsonTrustAnchor> anchors = policy.trustAnchors;
-				for (JsonTrustAnchor currentTa : anchors) {
-					X509Certificate ta = null;
+			if (null != current) {
+				if (null == policiesFetch || !policiesFetch.isNotModified()) {
+					LOG.warn("{}", LoggingUtil.json(Map.of("error", "Failed to refresh ValidationPolicies JSON, keeping snapshot version " + current.getVersion())));
+				}
+				validationPoliciesJson = current.getPoliciesJson();
+				validationPolicies = current.getValidationPolicies();
+				policiesValidators = current.getPoliciesValidators();
+			} else {
+				LOG.error("{}", LoggingUtil.json(Map.of("error", "FATAL: Failed to obtain initial ValidationPolicies JSON from \"" + uri.toASCIIString()
+				+ "\", shutting down!")));
+				System.exit(0);
+				return;
+			}
+		}
+		/*
+		 * Nothing has changed, keep the current snapshot (and its warm issuer path caches)
+		 */
+		if (null != current && current.isSameSource(validationPoliciesJson, intermediates)) {
+			LOG.info("{}", LoggingUtil.json(Map.of("snapshot.version", current.getVersion(), "snapshot.changed", false)));
+			return;
+		}
+		LOG.info("{}", LoggingUtil.json(validationPolicies));
+		long version = (null == current) ? 1 : current.getVersion() + 1;
+		ValidationSnapshot next;
+		try {
+			next = buildSnapshot(version, validationPoliciesJson, validationPolicies, intermediates,
+					policiesValidators, intermediatesValidators);
+		} catch (ServiceException e) {
+			if (null == current) {
+				throw e;
+			}
+			LOG.warn("{}", LoggingUtil.json(Map.of("error", "Failed to build a new snapshot, keeping snapshot version " + current.getVersion())));
+			return;
+		}
+		snapshot.set(next);
+		LOG.info("{}", LoggingUtil.json(Map.of("snapshot.version", next.getVersion(), "snapshot.changed", true,
+				"snapshot.policies", next.getCompiledPolicies().size(), "snapshot.intermediates", (null == intermediates) ? 0 : intermediates.size())));
+		/*
+		 * Results cached under the previous policies (or intermediates) may no longer hold
+		 */
+		if (null != current) {
+			ValidationCacheSingleton.getInstance().invalidateAll();
+		}
+		SnapshotStoreSingleton.getInstance().save(next);
+	}
+
+	/**
+	 * Publish the snapshot saved by the last run, so validation can begin without
+	 * fetching the policies, and; intermediates; they should then be refreshed in
+	 * the background.
+	 *
+	 * The saved intermediates are filtered again, since some may have expired
+	 * since they were saved.
+	 *
+	 * @return true if a saved snapshot was published
+	 */
+	public synchronized boolean loadSavedSnapshot() {
+		SnapshotStoreSingleton.Persisted persisted = SnapshotStoreSingleton.getInstance().load();
+		if (null == persisted || null != snapshot.get()) {
+			return false;
+		}
+		ValidationPolicies validationPolicies = parsePolicies(persisted.policiesJson());
+		IndexedCertStore intermediates = IntermediateCacheSingleton.getInstance()
+				.indexIntermediates(persisted.intermediates());
+		if (null == validationPolicies || null == intermediates) {
+			return false;
+		}
+		ValidationSnapshot next;
+		try {
+			next = buildSnapshot(persisted.version(), persisted.policiesJson(), validationPolicies, intermediates,
+					persisted.policiesValidators(), persisted.intermediatesValidators());
+		} catch (ServiceException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Failed to build the saved snapshot, ignoring it")));
+			return false;
+		}
+		snapshot.set(next);
+		LOG.info("{}", LoggingUtil.json(Map.of("snapshot.version", next.getVersion(), "snapshot.changed", true,
+				"snapshot.source", "file", "snapshot.savedAt", persisted.savedAt(), "snapshot.policies",
+				next.getCompiledPolicies().size(), "snapshot.intermediates", intermediates.size())));
+		return true;
+	}
+
+	/**
+	 * Publish validation policies, and; intermediates, that were obtained without
+	 * a fetch (such as a benchmark fixture).
+	 *
+	 * @param validationPoliciesJson
+	 * @param intermediates          the intermediate cache, may be empty
+	 * @return true if the policies were parsed, compiled, and; published
+	 */
+	public synchronized boolean loadValidationPolicies(String validationPoliciesJson, IndexedCertStore intermediates) {
+		ValidationPolicies validationPolicies = parsePolicies(validationPoliciesJson);
+		if (null == validationPolicies) {
+			return false;
+		}
+		ValidationSnapshot current = snapshot.get();
+		long version = (null == current) ? 1 : current.getVersion() + 1;
+		ValidationSnapshot next;
+		try {
+			next = buildSnapshot(version, validationPoliciesJson, validationPolicies, intermediates, null, null);
+		} catch (ServiceException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Failed to build a new snapshot, keeping the current one")));
+			return false;
+		}
+		snapshot.set(next);
+		LOG.info("{}", LoggingUtil.json(Map.of("snapshot.version", next.getVersion(), "snapshot.changed", true,
+				"snapshot.policies", next.getCompiledPolicies().size(), "snapshot.intermediates", (null == intermediates) ? 0 : intermediates.size())));
+		if (null != current) {
+			ValidationCacheSingleton.getInstance().invalidateAll();
+		}
+		return true;
+	}
+
+	/**
+	 * Periodically refresh the validation policies, and; intermediates, on a
+	 * background thread.
+	 *
+	 * @param polUri
+	 * @param intermediatesUri
+	 * @param intervalSeconds  seconds between refreshes, 0 to disable
+	 * @param refreshNow       refresh once immediately (such as after loading a
+	 *                         saved snapshot), regardless of the interval
+	 */
+	public synchronized void scheduleRefresh(String polUri, String intermediatesUri, long intervalSeconds,
+			boolean refreshNow) {
+		LOG.info("{}", LoggingUtil.json(Map.of("service.refresh.interval", intervalSeconds)));
+		if ((intervalSeconds <= 0 && !refreshNow) || null != scheduler) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "policy-refresh");
+			t.setDaemon(true);
+			return t;
+		});
+		/*
+		 * An exception would cancel subsequent runs, so they are logged here
+		 */
+		Runnable refresh = () -> {
+			try {
+				updateValidationPolicies(polUri, intermediatesUri);
+			} catch (RuntimeException e) {
+				LOG.error("{}", LoggingUtil.json(Map.of("error", "Failed to refresh ValidationPolicies", "stacktrace", LoggingUtil.stackTrace(e))));
+			}
+		};
+		if (refreshNow) {
+			scheduler.execute(refresh);
+		}
+		if (intervalSeconds > 0) {
+			scheduler.scheduleWithFixedDelay(refresh, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	private ValidationPolicies parsePolicies(String validationPoliciesJson) {
+		if (null == validationPoliciesJson) {
+			return null;
+		}
+		try {
+			ValidationPolicies validationPolicies = MAPPER.readValue(validationPoliciesJson, ValidationPolicies.class);
+			if (null == validationPolicies || null == validationPolicies.validationPolicies) {
+				LOG.error("{}", LoggingUtil.json(Map.of("error", "ValidationPolicies JSON contains no validationPolicies")));
+				return null;
+			}
+			return validationPolicies;
+		} catch (JsonMappingException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Error converting JSON to POJO", "stacktrace", LoggingUtil.stackTrace(e))));
+		} catch (JsonProcessingException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Error converting JSON to POJO", "stacktrace", LoggingUtil.stackTrace(e))));
+		}
+		return null;
+	}
+
+	/*
+	 * Decode the trust anchors, and; compile each policy against the intermediates.
+	 *
+	 * A policy that can not be compiled fails the whole snapshot, rather than
+	 * publishing its trust anchors without the compiled policy.
+	 */
+	private ValidationSnapshot buildSnapshot(long version, String validationPoliciesJson,
+			ValidationPolicies validationPolicies, IndexedCertStore intermediates,
+			FetchResult.Validators policiesValidators, FetchResult.Validators intermediatesValidators) {
+		Map<String, Set<TrustAnchor>> trustAnchors = new LinkedHashMap<>();
+		Map<String, CompiledValidationPolicy> compiledPolicies = new LinkedHashMap<>();
+		/*
+		 * Iterate through each ValidationPolicy, and initialize the
+		 * HashSet<TrustAnchor>
+		 */
+		List<ValidationPolicy> policies = validationPolicies.validationPolicies;
+		for (ValidationPolicy policy : policies) {
+			HashSet<TrustAnchor> taList = new HashSet<TrustAnchor>();
+			List<JsonTrustAnchor> anchors = policy.trustAnchors;
+			for (JsonTrustAnchor currentTa : anchors) {
+				X509Certificate ta = null;
+				try {
+					byte[] certBytes = null;
+					CertificateFactory cf = null;
+					ByteArrayInputStream bais = null;
 					try {
-						byte[] certBytes = null;
-						CertificateFactory cf = null;
-						ByteArrayInputStream bais = null;
-						try {
-							certBytes = Base64.getDecoder().decode(currentTa.x509Certificate);
-						} catch (Throwable e) {
-							LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Internal Validation Error", "stacktrace", LoggingUtil.stackTraceToString(e))));
-							throw new ServiceException("Internal Validation Error");
-						}
-						if (null != certBytes) {
-							cf = CertificateFactory.getInstance("X509");
-							bais = new ByteArrayInputStream(certBytes);
-							ta = (X509Certificate) cf.generateCertificate(bais);
-						} else {
-							LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Internal Validation Error, null certBytes")));
-							throw new ServiceException("Internal Validation Error");
-						}
-					} catch (CertificateException e) {
-						LOG.error(LoggingUtil.pojoToJson(Map.of("error", "Internal Validation Error", "stacktrace", LoggingUtil.stackTraceToString(e))));
+						certBytes = Base64.getDecoder().decode(currentTa.x509Certificate);
+					} catch (Throwable e) {
+						LOG.error("{}", LoggingUtil.json(Map.of("error", "Internal Validation Error", "stacktrace", LoggingUtil.stackTrace(e))));
+						throw new ServiceException("Internal Validation Error");
+					}
+					if (null != certBytes) {
+						cf = CertificateFactory.getInstance("X509");
+						bais = new ByteArrayInputStream(certBytes);
+						ta = (X509Certificate) cf.generateCertificate(bais);
+					} else {
+						LOG.error("{}", LoggingUtil.json(Map.of("error", "Internal Validation Error, null certBytes")));
 						throw new ServiceException("Internal Validation Error");
 					}
-					TrustAnchor anchor = new TrustAnchor(ta, null);
-					taList.add(anchor);
+				} catch (CertificateException e) {
+					LOG.error("{}", LoggingUtil.json(Map.of("error", "Internal Validation Error", "stacktrace", LoggingUtil.stackTrace(e))));
+					throw new ServiceException("Internal Validation Error");
 				}
-				trustAnchotMap.put(policy.validationPolicyId, taList);
+				TrustAnchor anchor = new TrustAnchor(ta, null);
+				taList.add(anchor);
 			}
-		} else {
+			trustAnchors.put(policy.validationPolicyId, taList);
 			/*
-			 * Check to see if this failure is an update, or; an initial fetch of the
-			 * mandatory policies.
+			 * Pre-build the PKIX parameters for this policy, using the new
+			 * intermediate cache.
 			 */
-			if (null != validationPolicies) {
-				LOG.warn(LoggingUtil.pojoToJson(Map.of("error", "Failed to refresh ValidationPolicies JSON")));
-			} else {
-				LOG.error(LoggingUtil.pojoToJson(Map.of("error", "FATAL: Failed to obtain initial ValidationPolicies JSON from \"" + uri.toASCIIString()
-				+ "\", shutting down!")));
-				System.exit(0);
+			try {
+				compiledPolicies.put(policy.validationPolicyId, CompiledValidationPolicy.compile(policy, taList,
+						intermediates, maxPathLen, revocationEnabled, revocationEeOnly, crlEnabled, ocspEnabled,
+						issuerPathCacheSize));
+			} catch (InvalidAlgorithmParameterException | NoSuchAlgorithmException e) {
+				LOG.error("{}", LoggingUtil.json(Map.of("error", "Error compiling validation policy " + policy.validationPolicyId, "stacktrace", LoggingUtil.stackTrace(e))));
+				throw new ServiceException("Error compiling validation policy " + policy.validationPolicyId);
 			}
 		}
+		return new ValidationSnapshot(version, validationPoliciesJson, validationPolicies, trustAnchors,
+				compiledPolicies, intermediates, policiesValidators, intermediatesValidators);
+	}
+
+	private IndexedCertStore emptyIntermediates() {
+		try {
+			return IndexedCertStore.getInstance(List.of());
+		} catch (InvalidAlgorithmParameterException e) {
+			LOG.error("{}", LoggingUtil.json(Map.of("error", "Failed to create empty CertStore", "stacktrace", LoggingUtil.stackTrace(e))));
+			return null;
+		}
 	}
 
 	private static class SingletonHelper {
@@ -129,12 +380,49 @@ public class ValidationPoliciesSingleton {
 		return SingletonHelper.INSTANCE;
 	}
 
+	/**
+	 * A caller that needs more than one value from the snapshot should obtain the
+	 * snapshot once, and; use it throughout.
+	 *
+	 * @return the current snapshot, or null before the initial load
+	 */
+	public ValidationSnapshot getSnapshot() {
+		return snapshot.get();
+	}
+
+	/**
+	 * @return the version of the current snapshot, or -1 before the initial load
+	 */
+	public long getSnapshotVersion() {
+		ValidationSnapshot current = snapshot.get();
+		return (null == current) ? -1 : current.getVersion();
+	}
+
 	public ValidationPolicies getValidationPolicies() {
-		return validationPolicies;
+		ValidationSnapshot current = snapshot.get();
+		return (null == current) ? null : current.getValidationPolicies();
+	}
+
+	public Set<TrustAnchor> getTrustAnchors(String validationPolicyId) {
+		ValidationSnapshot current = snapshot.get();
+		return (null == current) ? null : current.getTrustAnchors(validationPolicyId);
+	}
+
+	/**
+	 * @return issuer path cache statistics, by `validationPolicyId`
+	 */
+	public Map<String, Object> getIssuerPathCacheStats() {
+		Map<String, Object> stats = new TreeMap<>();
+		ValidationSnapshot current = snapshot.get();
+		if (null != current) {
+			current.getCompiledPolicies().forEach((id, compiled) -> stats.put(id, compiled.getIssuerPathCache().getStats()));
+		}
+		return stats;
 	}
 
-	public HashSet<TrustAnchor> getTrustAnchors(String validationPolicyId) {
-		return trustAnchotMap.get(validationPolicyId);
+	public CompiledValidationPolicy getCompiledPolicy(String validationPolicyId) {
+		ValidationSnapshot current = snapshot.get();
+		return (null == current) ? null : current.getCompiledPolicy(validationPolicyId);
 	}
 
 	public int getMaxPathLen() {
@@ -185,4 +473,20 @@ public class ValidationPoliciesSingleton {
 		this.crlEnabled = crlEnabled;
 	}
 
+	public boolean getStrictRevalidation() {
+		return strictRevalidation;
+	}
+
+	public void setStrictRevalidation(boolean strictRevalidation) {
+		this.strictRevalidation = strictRevalidation;
+	}
+
+	public int getIssuerPathCacheSize() {
+		return issuerPathCacheSize;
+	}
+
+	public void setIssuerPathCacheSize(int issuerPathCacheSize) {
+		this.issuerPathCacheSize = issuerPathCacheSize;
+	}
+
 }
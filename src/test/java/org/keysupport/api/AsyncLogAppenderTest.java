@@ -0,0 +1,173 @@
+package org.keysupport.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.util.LogbackMDCAdapter;
+import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.OutputStreamAppender;
+
+/**
+ * The {@link AsyncLogAppender} queue policy, and; batched flushing, with the
+ * writer thread held on a latch, so the queue contents are deterministic.
+ */
+class AsyncLogAppenderTest {
+
+	private LoggerContext context;
+
+	private final CountDownLatch writing = new CountDownLatch(1);
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@BeforeEach
+	void context() {
+		context = new LoggerContext();
+		context.setMDCAdapter(new LogbackMDCAdapter());
+	}
+
+	private ILoggingEvent event(Level level, int n) {
+		return new LoggingEvent(AsyncLogAppenderTest.class.getName(), context.getLogger("test"), level, "event {}",
+				null, new Object[] { n });
+	}
+
+	/*
+	 * Signals `writing`, then waits for `release`, before its first write
+	 */
+	private void awaitRelease() {
+		if (writing.getCount() > 0) {
+			writing.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private AsyncLogAppender async(String name, int queueSize, int discardingThreshold, boolean neverBlock) {
+		AsyncLogAppender async = new AsyncLogAppender();
+		async.setContext(context);
+		async.setName(name);
+		async.setQueueSize(queueSize);
+		async.setDiscardingThreshold(discardingThreshold);
+		async.setNeverBlock(neverBlock);
+		return async;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static long stat(String name, String stat) {
+		return ((Number) ((Map<String, Object>) AsyncLogAppender.getStats().get(name)).get(stat)).longValue();
+	}
+
+	/*
+	 * With 4 slots, and; the writer holding the first event: INFO is dropped once
+	 * fewer than 2 slots remain, and; WARN once none remain
+	 */
+	@Test
+	void eventsAreDroppedByLevelThenWhenFull() throws Exception {
+		List<ILoggingEvent> written = new CopyOnWriteArrayList<>();
+		AppenderBase<ILoggingEvent> held = new AppenderBase<>() {
+			@Override
+			protected void append(ILoggingEvent event) {
+				awaitRelease();
+				written.add(event);
+			}
+		};
+		held.setContext(context);
+		held.start();
+		AsyncLogAppender async = async("HELD", 4, 2, true);
+		async.addAppender(held);
+		async.start();
+		async.doAppend(event(Level.INFO, 0));
+		assertTrue(writing.await(5, TimeUnit.SECONDS));
+		for (int n = 1; n <= 5; n++) {
+			async.doAppend(event(Level.INFO, n));
+		}
+		async.doAppend(event(Level.WARN, 6));
+		async.doAppend(event(Level.WARN, 7));
+		assertEquals(4, stat("HELD", "queueSize"));
+		assertEquals(4, stat("HELD", "queued"));
+		assertEquals(3, stat("HELD", "dropped"));
+		release.countDown();
+		async.stop();
+		assertFalse(AsyncLogAppender.getStats().containsKey("HELD"));
+		List<Object> expected = List.of(0, 1, 2, 3, 6);
+		assertEquals(expected, written.stream().map(e -> e.getArgumentArray()[0]).toList());
+	}
+
+	/*
+	 * The burst queued behind the first event is written, and; flushed, at once,
+	 * rather than flushed after each event
+	 */
+	@Test
+	void burstIsFlushedOnce() throws Exception {
+		AtomicInteger flushes = new AtomicInteger();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream() {
+			@Override
+			public synchronized void write(byte[] b, int off, int len) {
+				awaitRelease();
+				super.write(b, off, len);
+			}
+
+			@Override
+			public void flush() throws IOException {
+				flushes.incrementAndGet();
+			}
+		};
+		PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+		encoder.setContext(context);
+		encoder.setPattern("%msg%n");
+		encoder.start();
+		OutputStreamAppender<ILoggingEvent> stream = new OutputStreamAppender<>();
+		stream.setContext(context);
+		stream.setName("STREAM");
+		stream.setEncoder(encoder);
+		stream.setOutputStream(bytes);
+		stream.start();
+		AsyncLogAppender async = async("BATCH", 256, 0, false);
+		async.addAppender(stream);
+		async.start();
+		async.doAppend(event(Level.INFO, 0));
+		assertTrue(writing.await(5, TimeUnit.SECONDS));
+		for (int n = 1; n < 100; n++) {
+			async.doAppend(event(Level.INFO, n));
+		}
+		release.countDown();
+		/*
+		 * Written by the running writer, rather than drained by stop
+		 */
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!bytes.toString(StandardCharsets.UTF_8).endsWith("event 99\n")) {
+			assertTrue(System.currentTimeMillis() < deadline, "burst not written");
+			Thread.sleep(5);
+		}
+		async.stop();
+		String[] lines = bytes.toString(StandardCharsets.UTF_8).split("\n");
+		assertEquals(100, lines.length);
+		assertEquals("event 99", lines[99]);
+		/*
+		 * Once after the burst, and; once when stopped
+		 */
+		assertTrue(flushes.get() <= 2, "flushed " + flushes.get() + " times");
+	}
+
+}
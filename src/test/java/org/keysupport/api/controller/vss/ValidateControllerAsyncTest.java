@@ -0,0 +1,105 @@
+package org.keysupport.api.controller.vss;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ServerSocket;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.keysupport.api.config.ServiceConfiguration;
+import org.keysupport.api.pkix.IndexedCertStore;
+import org.keysupport.api.pojo.vss.Fail;
+import org.keysupport.api.pojo.vss.VssRequest;
+import org.keysupport.api.pojo.vss.VssResponse;
+import org.keysupport.api.singletons.HTTPClientSingleton;
+import org.keysupport.api.singletons.OcspCacheSingleton;
+import org.keysupport.api.singletons.ValidationCacheSingleton;
+import org.keysupport.api.singletons.ValidationExecutorSingleton;
+import org.keysupport.api.singletons.ValidationPoliciesSingleton;
+import org.keysupport.api.testpki.TestPKI;
+import org.keysupport.api.testpki.TestPKIServer;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * `/vss/v2/validate/async` with an OCSP responder slower than `async.deadline`.
+ */
+class ValidateControllerAsyncTest {
+
+	private final static long LATENCY = 3000;
+
+	private static TestPKI pki;
+
+	private static TestPKIServer server;
+
+	private final ValidateController controller = new ValidateController();
+
+	@BeforeAll
+	static void serve() throws Exception {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		TestPKI.Options options = new TestPKI.Options();
+		options.baseUri = "http://127.0.0.1:" + port;
+		options.bridge = false;
+		options.affiliateRoots = 1;
+		options.issuingCasPerRoot = 1;
+		options.endEntitiesPerCa = 1;
+		options.revokedFraction = 0;
+		options.expiredFraction = 0;
+		options.unknownIssuerEndEntities = 0;
+		pki = TestPKI.generate(options);
+		server = new TestPKIServer(pki, port, LATENCY, 0);
+		server.start();
+		ServiceConfiguration.configureSecurity(false, false, false, false);
+		HTTPClientSingleton.getInstance().configure(5, 10);
+		ValidationCacheSingleton.getInstance().configure(false, 0, 0, 0);
+		OcspCacheSingleton.getInstance().configure(false, 300, 1024);
+		ValidationExecutorSingleton.getInstance().configure(8, 64, 1);
+		ValidationPoliciesSingleton policies = ValidationPoliciesSingleton.getInstance();
+		policies.setMaxPathLen(5);
+		policies.setRevocationEnabled(true);
+		policies.setRevocationEeOnly(true);
+		policies.setOcspEnabled(true);
+		assertTrue(policies.loadValidationPolicies(pki.policiesJson(),
+				IndexedCertStore.getInstance(pki.getIntermediates())));
+	}
+
+	@AfterAll
+	static void stop() {
+		server.close();
+		ValidationPoliciesSingleton policies = ValidationPoliciesSingleton.getInstance();
+		policies.setMaxPathLen(0);
+		policies.setRevocationEnabled(false);
+		policies.setRevocationEeOnly(false);
+		policies.setOcspEnabled(false);
+		ValidationExecutorSingleton.getInstance().configure(8, 64, 20);
+	}
+
+	@Test
+	void deadlineIsNotAnAffirmativeResult() throws Exception {
+		VssRequest request = new VssRequest();
+		request.validationPolicyId = TestPKI.VALIDATION_POLICY_ID;
+		request.x509Certificate = Base64.getEncoder()
+				.encodeToString(pki.getEndEntities().get(0).getCertificate().getEncoded());
+		long start = System.currentTimeMillis();
+		ResponseEntity<VssResponse> entity = controller.validateAsync(request, Map.of()).get(LATENCY,
+				TimeUnit.MILLISECONDS);
+		assertTrue(System.currentTimeMillis() - start < LATENCY);
+		assertEquals(HttpStatus.OK, entity.getStatusCode());
+		VssResponse response = entity.getBody();
+		assertEquals(TestPKI.VALIDATION_POLICY_ID, response.validationPolicyId);
+		assertTrue(response.validationResult instanceof Fail, String.valueOf(response.validationResult));
+		Fail fail = (Fail) response.validationResult;
+		assertFalse(fail.isAffirmativelyInvalid);
+		assertEquals("Validation deadline exceeded", fail.invalidityReasonText);
+	}
+
+}
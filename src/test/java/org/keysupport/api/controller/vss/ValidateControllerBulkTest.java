@@ -0,0 +1,211 @@
+package org.keysupport.api.controller.vss;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keysupport.api.config.ServiceConfiguration;
+import org.keysupport.api.pkix.IndexedCertStore;
+import org.keysupport.api.pkix.X509Util;
+import org.keysupport.api.pojo.vss.VssRequest;
+import org.keysupport.api.singletons.CrlCacheSingleton;
+import org.keysupport.api.singletons.HTTPClientSingleton;
+import org.keysupport.api.singletons.OcspCacheSingleton;
+import org.keysupport.api.singletons.ValidationCacheSingleton;
+import org.keysupport.api.singletons.ValidationExecutorSingleton;
+import org.keysupport.api.singletons.ValidationPoliciesSingleton;
+import org.keysupport.api.testpki.TestPKI;
+import org.keysupport.api.testpki.TestPKIServer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The NDJSON stream of `/vss/v2/validate/bulk`: the results, and; errors, of
+ * each line, and; the bound on validations in flight. Every OCSP response is
+ * delayed, so each validation takes at least `LATENCY`.
+ */
+class ValidateControllerBulkTest {
+
+	private final static long LATENCY = 200;
+
+	private final static ObjectMapper MAPPER = new ObjectMapper();
+
+	private static TestPKI pki;
+
+	private static TestPKIServer server;
+
+	private static List<X509Certificate> endEntities = new ArrayList<>();
+
+	private final ValidateController controller = new ValidateController();
+
+	@BeforeAll
+	static void serve() throws Exception {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		TestPKI.Options options = new TestPKI.Options();
+		options.baseUri = "http://127.0.0.1:" + port;
+		options.bridge = false;
+		options.affiliateRoots = 1;
+		options.issuingCasPerRoot = 1;
+		options.endEntitiesPerCa = 6;
+		options.revokedFraction = 0;
+		options.expiredFraction = 0;
+		options.unknownIssuerEndEntities = 0;
+		pki = TestPKI.generate(options);
+		server = new TestPKIServer(pki, port, LATENCY, 0);
+		server.start();
+		for (TestPKI.EndEntity ee : pki.getEndEntities()) {
+			endEntities.add(ee.getCertificate());
+		}
+		ServiceConfiguration.configureSecurity(false, false, false, false);
+		HTTPClientSingleton.getInstance().configure(5, 10);
+		ValidationCacheSingleton.getInstance().configure(false, 0, 0, 0);
+		CrlCacheSingleton.getInstance().configure(true, 16 * 1024 * 1024, 300, 86400, 1024);
+		ValidationPoliciesSingleton policies = ValidationPoliciesSingleton.getInstance();
+		policies.setMaxPathLen(5);
+		policies.setRevocationEnabled(true);
+		policies.setRevocationEeOnly(true);
+		policies.setOcspEnabled(true);
+		policies.setCrlEnabled(true);
+		assertTrue(policies.loadValidationPolicies(pki.policiesJson(),
+				IndexedCertStore.getInstance(pki.getIntermediates())));
+	}
+
+	@AfterAll
+	static void stop() {
+		server.close();
+		ValidationPoliciesSingleton policies = ValidationPoliciesSingleton.getInstance();
+		policies.setMaxPathLen(0);
+		policies.setRevocationEnabled(false);
+		policies.setRevocationEeOnly(false);
+		policies.setOcspEnabled(false);
+		policies.setCrlEnabled(false);
+		ValidationExecutorSingleton.getInstance().configure(8, 64, 20);
+	}
+
+	/*
+	 * No OCSP response is carried over from a previous test
+	 */
+	@BeforeEach
+	void configure() {
+		OcspCacheSingleton.getInstance().configure(true, 300, 1024);
+		OcspCacheSingleton.getInstance().invalidateAll();
+	}
+
+	private static String requestLine(X509Certificate cert, String validationPolicyId, String requestId)
+			throws Exception {
+		VssRequest request = new VssRequest();
+		request.validationPolicyId = validationPolicyId;
+		request.x509Certificate = Base64.getEncoder().encodeToString(cert.getEncoded());
+		request.requestId = requestId;
+		return MAPPER.writeValueAsString(request);
+	}
+
+	private static String requestLine(X509Certificate cert) throws Exception {
+		return requestLine(cert, TestPKI.VALIDATION_POLICY_ID, null);
+	}
+
+	/*
+	 * Post the stream, with at most `maxInFlight` validations at once
+	 */
+	private List<JsonNode> bulk(String body, int maxInFlight) throws Exception {
+		ValidationExecutorSingleton.getInstance().configure(8, maxInFlight, 20);
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", "/vss/v2/validate/bulk");
+		request.setContent(body.getBytes(StandardCharsets.UTF_8));
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		controller.validateBulk(request, response, Map.of());
+		assertEquals(200, response.getStatus());
+		List<JsonNode> results = new ArrayList<>();
+		for (String line : response.getContentAsString(StandardCharsets.UTF_8).split("\n")) {
+			results.add(MAPPER.readTree(line));
+		}
+		return results;
+	}
+
+	private static String x5t(int n) {
+		return X509Util.x5tS256(endEntities.get(n));
+	}
+
+	private static String result(JsonNode response) {
+		return response.path("validationResult").path("result").asText();
+	}
+
+	@Test
+	void oneInFlightAnswersInRequestOrder() throws Exception {
+		StringBuilder body = new StringBuilder();
+		for (X509Certificate cert : endEntities) {
+			body.append(requestLine(cert)).append('\n');
+		}
+		List<JsonNode> results = bulk(body.toString(), 1);
+		assertEquals(endEntities.size(), results.size());
+		for (int n = 0; n < results.size(); n++) {
+			assertEquals(x5t(n), results.get(n).path("x5t#S256").asText());
+			assertEquals("SUCCESS", result(results.get(n)));
+		}
+	}
+
+	@Test
+	void errorsCarryTheirLineAndRequestId() throws Exception {
+		String body = requestLine(endEntities.get(0)) + "\r\n"
+				+ "{not json\n"
+				+ "\n"
+				+ requestLine(endEntities.get(1), "1.2.3.4", "client-4") + "\n"
+				+ "{\"requestId\": \"" + "x".repeat(20000) + "\"}\n"
+				+ requestLine(endEntities.get(2));
+		List<JsonNode> results = bulk(body, 4);
+		/*
+		 * The blank line is skipped, but; counted
+		 */
+		assertEquals(5, results.size());
+		Map<String, JsonNode> successes = new HashMap<>();
+		Map<Long, JsonNode> errors = new HashMap<>();
+		for (JsonNode result : results) {
+			if (result.has("error")) {
+				errors.put(result.path("line").asLong(), result);
+			} else {
+				successes.put(result.path("x5t#S256").asText(), result);
+			}
+		}
+		assertEquals("SUCCESS", result(successes.get(x5t(0))));
+		assertEquals("SUCCESS", result(successes.get(x5t(2))));
+		assertEquals(3, errors.size());
+		assertEquals("Unable to parse VssRequest", errors.get(2L).path("error").asText());
+		assertEquals("Invalid Policy Specified", errors.get(4L).path("error").asText());
+		assertEquals("client-4", errors.get(4L).path("requestId").asText());
+		assertEquals("Size limit for request exceeded", errors.get(5L).path("error").asText());
+	}
+
+	@Test
+	void validationsInFlightAreBounded() throws Exception {
+		StringBuilder body = new StringBuilder();
+		for (X509Certificate cert : endEntities) {
+			body.append(requestLine(cert)).append('\n');
+		}
+		long start = System.currentTimeMillis();
+		List<JsonNode> results = bulk(body.toString(), 2);
+		long elapsed = System.currentTimeMillis() - start;
+		assertEquals(endEntities.size(), results.size());
+		/*
+		 * Six validations, two at a time
+		 */
+		assertTrue(elapsed >= 3 * LATENCY, "took " + elapsed + "ms");
+	}
+
+}
@@ -0,0 +1,164 @@
+package org.keysupport.api.controller.vss;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.keysupport.api.config.ServiceConfiguration;
+import org.keysupport.api.pkix.IndexedCertStore;
+import org.keysupport.api.pkix.X509Util;
+import org.keysupport.api.pojo.vss.JsonX509Certificate;
+import org.keysupport.api.pojo.vss.ValidationResult;
+import org.keysupport.api.pojo.vss.v1.V1InvalidityReason;
+import org.keysupport.api.pojo.vss.v1.V1ResultByCertificateData;
+import org.keysupport.api.pojo.vss.v1.V1VSSRequest;
+import org.keysupport.api.pojo.vss.v1.V1VSSResponse;
+import org.keysupport.api.pojo.vss.v1.V1ValidationFailureData;
+import org.keysupport.api.pojo.vss.v1.V1WantBackTypeToken;
+import org.keysupport.api.singletons.ValidationCacheSingleton;
+import org.keysupport.api.singletons.ValidationExecutorSingleton;
+import org.keysupport.api.singletons.ValidationPoliciesSingleton;
+import org.keysupport.api.testpki.TestPKI;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * `/vss/rest`: each distinct certificate of the batch is validated once, and;
+ * the results are mapped back to every certificate, in request order.
+ * Revocation is disabled, so no responder is needed.
+ */
+class ValidateControllerV1Test {
+
+	private final static String UNDECODABLE = "not a certificate";
+
+	private static TestPKI pki;
+
+	private static List<X509Certificate> endEntities = new ArrayList<>();
+
+	private final ValidateController controller = new ValidateController();
+
+	@BeforeAll
+	static void generate() throws Exception {
+		TestPKI.Options options = new TestPKI.Options();
+		options.bridge = false;
+		options.affiliateRoots = 1;
+		options.issuingCasPerRoot = 1;
+		options.endEntitiesPerCa = 3;
+		options.revokedFraction = 0;
+		options.expiredFraction = 0;
+		options.unknownIssuerEndEntities = 0;
+		pki = TestPKI.generate(options);
+		for (TestPKI.EndEntity ee : pki.getEndEntities()) {
+			endEntities.add(ee.getCertificate());
+		}
+		ServiceConfiguration.configureSecurity(false, false, false, false);
+		ValidationCacheSingleton.getInstance().configure(false, 0, 0, 0);
+		ValidationExecutorSingleton.getInstance().configure(8, 64, 20);
+		ValidationPoliciesSingleton policies = ValidationPoliciesSingleton.getInstance();
+		policies.setMaxPathLen(5);
+		assertTrue(policies.loadValidationPolicies(pki.policiesJson(),
+				IndexedCertStore.getInstance(pki.getIntermediates())));
+	}
+
+	@AfterAll
+	static void reset() {
+		ValidationPoliciesSingleton.getInstance().setMaxPathLen(0);
+	}
+
+	private static String encoded(X509Certificate cert) throws Exception {
+		return Base64.getEncoder().encodeToString(cert.getEncoded());
+	}
+
+	private static String vssCertId(X509Certificate cert) {
+		return X509Util.byteArrayToHexString(Base64.getUrlDecoder().decode(X509Util.x5tS256(cert)));
+	}
+
+	private V1VSSResponse validate(String... x509Certificates) {
+		V1VSSRequest request = new V1VSSRequest();
+		request.validationPolicy = TestPKI.VALIDATION_POLICY_ID;
+		V1WantBackTypeToken certPath = new V1WantBackTypeToken();
+		certPath.wantBackTypeToken = "certPath";
+		request.wantBackList = List.of(certPath);
+		request.x509CertificateList = new ArrayList<>();
+		for (String x509Certificate : x509Certificates) {
+			JsonX509Certificate cert = new JsonX509Certificate();
+			cert.x509Certificate = x509Certificate;
+			request.x509CertificateList.add(cert);
+		}
+		ResponseEntity<V1VSSResponse> entity = controller.validateV1(request, Map.of());
+		assertEquals(HttpStatus.OK, entity.getStatusCode());
+		return entity.getBody();
+	}
+
+	private static V1ResultByCertificateData result(V1VSSResponse response, int n) {
+		return response.validationResult.resultsByCertificateList.get(n).resultByCertificate;
+	}
+
+	private static void assertFail(V1ValidationFailureData failDetail, boolean isAffirmativelyInvalid,
+			String invalidityReasonText) {
+		assertEquals(isAffirmativelyInvalid, failDetail.isAffirmativelyInvalid);
+		assertEquals(1, failDetail.invalidityReasonList.size());
+		V1InvalidityReason reason = failDetail.invalidityReasonList.get(0);
+		assertEquals(ValidationResult.FAIL_VALUE, reason.invalidityReasonToken);
+		assertEquals(invalidityReasonText, reason.invalidityReasonText);
+	}
+
+	@Test
+	void duplicatesAreAnsweredInRequestOrder() throws Exception {
+		X509Certificate a = endEntities.get(0);
+		X509Certificate b = endEntities.get(1);
+		X509Certificate c = endEntities.get(2);
+		V1VSSResponse response = validate(encoded(a), encoded(b), encoded(a), encoded(c), encoded(b));
+		assertEquals("SUCCESS", response.transactionResult.transactionResultToken);
+		List<X509Certificate> expected = List.of(a, b, a, c, b);
+		assertEquals(expected.size(), response.validationResult.resultsByCertificateList.size());
+		for (int n = 0; n < expected.size(); n++) {
+			V1ResultByCertificateData data = result(response, n);
+			assertEquals(vssCertId(expected.get(n)), data.vssCertId);
+			assertEquals(ValidationResult.SUCCESS_VALUE, data.validationResultToken);
+			assertFalse(data.validationSuccessData.wantBackResultList.isEmpty());
+		}
+		/*
+		 * Each duplicate is given the result of the one validation
+		 */
+		assertEquals(result(response, 0).validationTime, result(response, 2).validationTime);
+		assertEquals(result(response, 1).validationTime, result(response, 4).validationTime);
+	}
+
+	@Test
+	void undecodableCertificateFailsAlone() throws Exception {
+		V1VSSResponse response = validate(encoded(endEntities.get(0)), UNDECODABLE);
+		assertEquals("SUCCESS", response.transactionResult.transactionResultToken);
+		assertEquals(ValidationResult.SUCCESS_VALUE, result(response, 0).validationResultToken);
+		V1ResultByCertificateData failed = result(response, 1);
+		assertEquals(ValidationResult.FAIL_VALUE, failed.validationResultToken);
+		assertFail(failed.validationFailureData, false, "Error decoding x509Certificate");
+	}
+
+	@Test
+	void serviceFailOnlyIfNoCertificateWasValidated() {
+		V1VSSResponse response = validate(UNDECODABLE, UNDECODABLE);
+		assertEquals("SERVICEFAIL", response.transactionResult.transactionResultToken);
+		assertEquals("Error decoding x509Certificate", response.transactionResult.transactionResultText);
+		assertNull(response.validationResult);
+	}
+
+	@Test
+	void failureDataCarriesOneReason() {
+		assertFail(ValidateController.v1FailureData(true, "Certificate has been revoked"), true,
+				"Certificate has been revoked");
+		assertFail(ValidateController.v1FailureData(false, "Validation deadline exceeded"), false,
+				"Validation deadline exceeded");
+	}
+
+}
@@ -0,0 +1,313 @@
+package org.keysupport.api.pkix;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CRLException;
+import java.security.cert.CRLReason;
+import java.security.cert.CertificateRevokedException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLDistPoint;
+import org.bouncycastle.asn1.x509.DistributionPoint;
+import org.bouncycastle.asn1.x509.DistributionPointName;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.IssuingDistributionPoint;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CRLConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.keysupport.api.testpki.TestPKI;
+
+/**
+ * Round trips of the compact CRL index through
+ * {@link CachedCrl#fromX509Crl(String, X509CRL, List, int)}, and;
+ * {@link CachedCrl#writeTo(DataOutputStream)} /
+ * {@link CachedCrl#readFrom(DataInputStream)}.
+ */
+class CachedCrlTest {
+
+	private final static String URI = "http://127.0.0.1/crl/issuing-1-1.crl";
+
+	private final static String OTHER_URI = "http://127.0.0.1/crl/issuing-1-1-other.crl";
+
+	private final static X500Principal PARTITIONED = new X500Principal("CN=Test Partitioned CA, O=KeySupport Test, C=US");
+
+	private static TestPKI pki;
+
+	private static TestPKI.Authority issuing;
+
+	@BeforeAll
+	static void generate() throws Exception {
+		TestPKI.Options options = new TestPKI.Options();
+		options.bridge = false;
+		options.affiliateRoots = 1;
+		options.issuingCasPerRoot = 1;
+		options.endEntitiesPerCa = 40;
+		options.revokedFraction = 0.5;
+		options.expiredFraction = 0;
+		options.unknownIssuerEndEntities = 1;
+		pki = TestPKI.generate(options);
+		issuing = pki.getAuthority("issuing-1-1");
+	}
+
+	private static CachedCrl cache(TestPKI.Authority authority) throws Exception {
+		X509CRL crl = authority.getCrl();
+		return CachedCrl.fromX509Crl(URI, crl, List.of(authority.getPublicKey()), crl.getEncoded().length);
+	}
+
+	private static CachedCrl roundTrip(CachedCrl crl) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			crl.writeTo(out);
+		}
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			return CachedCrl.readFrom(in);
+		}
+	}
+
+	@Test
+	void everyRevokedSerialIsFound() throws Exception {
+		X509CRL x509Crl = issuing.getCrl();
+		assertFalse(x509Crl.getRevokedCertificates().isEmpty());
+		for (CachedCrl crl : List.of(cache(issuing), roundTrip(cache(issuing)))) {
+			assertEquals(x509Crl.getRevokedCertificates().size(), crl.size());
+			for (X509CRLEntry entry : x509Crl.getRevokedCertificates()) {
+				int index = crl.indexOf(entry.getSerialNumber());
+				assertTrue(index >= 0, "revoked serial " + entry.getSerialNumber() + " not found");
+				CertificateRevokedException cre = crl.revokedException(index);
+				assertEquals(entry.getRevocationDate(), cre.getRevocationDate());
+				assertEquals(entry.getRevocationReason(), cre.getRevocationReason());
+				assertEquals(x509Crl.getIssuerX500Principal(), cre.getAuthorityName());
+			}
+		}
+	}
+
+	@Test
+	void firstAndLastEntriesOfTheIndexAreFound() throws Exception {
+		CachedCrl crl = roundTrip(cache(issuing));
+		Set<Integer> indexes = new HashSet<>();
+		for (X509CRLEntry entry : issuing.getCrl().getRevokedCertificates()) {
+			indexes.add(crl.indexOf(entry.getSerialNumber()));
+		}
+		/*
+		 * Each entry has its own slot, from the first to the last
+		 */
+		assertEquals(crl.size(), indexes.size());
+		assertTrue(indexes.contains(0));
+		assertTrue(indexes.contains(crl.size() - 1));
+	}
+
+	@Test
+	void absentSerialsAreNotFound() throws Exception {
+		CachedCrl crl = roundTrip(cache(issuing));
+		int checked = 0;
+		for (TestPKI.EndEntity ee : pki.getEndEntities()) {
+			if (ee.getIssuer() == issuing && !ee.isRevoked()) {
+				assertEquals(-1, crl.indexOf(ee.getCertificate().getSerialNumber()));
+				checked++;
+			}
+		}
+		assertTrue(checked > 0);
+		/*
+		 * Below, and; above, every serial in the index, and; of other encoded lengths
+		 */
+		assertEquals(-1, crl.indexOf(BigInteger.ZERO));
+		assertEquals(-1, crl.indexOf(BigInteger.ONE.negate()));
+		assertEquals(-1, crl.indexOf(BigInteger.TWO.pow(159)));
+	}
+
+	@Test
+	void fieldsSurviveTheRoundTrip() throws Exception {
+		CachedCrl crl = cache(issuing);
+		CachedCrl restored = roundTrip(crl);
+		assertEquals(crl.getUri(), restored.getUri());
+		assertEquals(crl.getIssuer(), restored.getIssuer());
+		assertEquals(crl.getIssuerKey(), restored.getIssuerKey());
+		assertEquals(crl.getThisUpdate(), restored.getThisUpdate());
+		assertEquals(crl.getNextUpdate(), restored.getNextUpdate());
+		assertEquals(crl.getCrlNumber(), restored.getCrlNumber());
+		assertEquals(crl.getEncodedLength(), restored.getEncodedLength());
+		assertEquals(crl.getIndexSize(), restored.getIndexSize());
+	}
+
+	@Test
+	void coversOnlyCertificatesOfItsIssuer() throws Exception {
+		CachedCrl crl = roundTrip(cache(issuing));
+		for (TestPKI.EndEntity ee : pki.getEndEntities()) {
+			assertEquals(ee.getIssuer() == issuing, crl.covers(ee.getCertificate()), ee.getCategory().value());
+		}
+	}
+
+	@Test
+	void emptyCrlRoundTrips() throws Exception {
+		/*
+		 * The affiliate root has not revoked its issuing CA
+		 */
+		TestPKI.Authority root = pki.getAuthority("root-1");
+		assertNull(root.getCrl().getRevokedCertificates());
+		CachedCrl crl = roundTrip(cache(root));
+		assertEquals(0, crl.size());
+		assertEquals(-1, crl.indexOf(issuing.getCertificates().get(0).getSerialNumber()));
+	}
+
+	@Test
+	void crlFromAnotherIssuerIsRejected() {
+		X509CRL crl = issuing.getCrl();
+		TestPKI.Authority other = pki.getAuthority("unknown");
+		assertNotNull(other);
+		assertThrows(CRLException.class,
+				() -> CachedCrl.fromX509Crl(URI, crl, List.of(other.getPublicKey()), crl.getEncoded().length));
+	}
+
+	/*
+	 * Signed by the partitioned CA key; with a cRLDistributionPoint of `uri`, or;
+	 * none if null
+	 */
+	private static X509Certificate endEntity(KeyPair caKeys, long serial, String uri) throws Exception {
+		long now = System.currentTimeMillis();
+		X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(PARTITIONED, BigInteger.valueOf(serial),
+				new Date(now - TimeUnit.DAYS.toMillis(1)), new Date(now + TimeUnit.DAYS.toMillis(365)),
+				new X500Principal("CN=Test End Entity " + serial + ", O=KeySupport Test, C=US"), caKeys.getPublic());
+		builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(false));
+		if (null != uri) {
+			DistributionPointName dpName = new DistributionPointName(
+					new GeneralNames(new GeneralName(GeneralName.uniformResourceIdentifier, uri)));
+			builder.addExtension(Extension.cRLDistributionPoints, false,
+					new CRLDistPoint(new DistributionPoint[] { new DistributionPoint(dpName, null, null) }));
+		}
+		return new JcaX509CertificateConverter().getCertificate(builder.build(signer(caKeys)));
+	}
+
+	private static ContentSigner signer(KeyPair keys) throws Exception {
+		return new JcaContentSignerBuilder("SHA256withRSA").setProvider("BCFIPS").build(keys.getPrivate());
+	}
+
+	@Test
+	void crlScopedToADistributionPointCoversOnlyItsCertificates() throws Exception {
+		KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA", "BCFIPS");
+		kpg.initialize(2048);
+		KeyPair caKeys = kpg.generateKeyPair();
+		long now = System.currentTimeMillis();
+		X509v2CRLBuilder builder = new JcaX509v2CRLBuilder(PARTITIONED, new Date(now - TimeUnit.MINUTES.toMillis(5)));
+		builder.setNextUpdate(new Date(now + TimeUnit.DAYS.toMillis(7)));
+		DistributionPointName idpName = new DistributionPointName(
+				new GeneralNames(new GeneralName(GeneralName.uniformResourceIdentifier, URI)));
+		builder.addExtension(Extension.issuingDistributionPoint, true,
+				new IssuingDistributionPoint(idpName, false, false, null, false, false));
+		X509CRL x509Crl = new JcaX509CRLConverter().getCRL(builder.build(signer(caKeys)));
+		CachedCrl crl = CachedCrl.fromX509Crl(URI, x509Crl, List.of(caKeys.getPublic()), x509Crl.getEncoded().length);
+		X509Certificate inScope = endEntity(caKeys, 1, URI);
+		X509Certificate otherScope = endEntity(caKeys, 2, OTHER_URI);
+		X509Certificate noScope = endEntity(caKeys, 3, null);
+		for (CachedCrl c : List.of(crl, roundTrip(crl))) {
+			assertTrue(c.covers(inScope));
+			assertFalse(c.covers(otherScope));
+			assertFalse(c.covers(noScope));
+		}
+	}
+
+	/*
+	 * An index of two one byte serials, laid out as written by
+	 * CachedCrl.writeTo(DataOutputStream)
+	 */
+	private static DataInputStream index(int[] offsets, byte[] reasons) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeUTF(URI);
+			byte[] name = issuing.getName().getEncoded();
+			out.writeInt(name.length);
+			out.write(name);
+			out.writeUTF(issuing.getPublicKey().getAlgorithm());
+			byte[] key = issuing.getPublicKey().getEncoded();
+			out.writeInt(key.length);
+			out.write(key);
+			out.writeLong(System.currentTimeMillis());
+			out.writeLong(Long.MAX_VALUE);
+			out.writeInt(-1);
+			out.writeBoolean(false);
+			out.writeBoolean(false);
+			out.writeInt(-1);
+			out.writeInt(2);
+			out.write(new byte[] { 1, 2 });
+			out.writeInt(offsets.length);
+			for (int offset : offsets) {
+				out.writeInt(offset);
+			}
+			out.writeInt(reasons.length);
+			out.write(reasons);
+			out.writeInt(reasons.length);
+			for (int i = 0; i < reasons.length; i++) {
+				out.writeLong(System.currentTimeMillis());
+			}
+			out.writeInt(0);
+			out.writeLong(System.currentTimeMillis());
+		}
+		return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+	}
+
+	@Test
+	void inconsistentIndexEntriesAreRejected() throws Exception {
+		byte keyCompromise = (byte) CRLReason.KEY_COMPROMISE.ordinal();
+		CachedCrl crl = CachedCrl.readFrom(index(new int[] { 0, 1, 2 }, new byte[] { keyCompromise, keyCompromise }));
+		assertEquals(1, crl.indexOf(BigInteger.TWO));
+		/*
+		 * Offsets out of order, or; an empty serial
+		 */
+		assertThrows(IOException.class,
+				() -> CachedCrl.readFrom(index(new int[] { 0, 2, 2 }, new byte[] { keyCompromise, keyCompromise })));
+		assertThrows(IOException.class,
+				() -> CachedCrl.readFrom(index(new int[] { 1, 0, 2 }, new byte[] { keyCompromise, keyCompromise })));
+		/*
+		 * Reasons that are not a CRLReason
+		 */
+		assertThrows(IOException.class,
+				() -> CachedCrl.readFrom(index(new int[] { 0, 1, 2 }, new byte[] { keyCompromise, 11 })));
+		assertThrows(IOException.class,
+				() -> CachedCrl.readFrom(index(new int[] { 0, 1, 2 }, new byte[] { -1, keyCompromise })));
+	}
+
+	@Test
+	void truncatedInputIsRejected() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			cache(issuing).writeTo(out);
+		}
+		byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 1);
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(truncated))) {
+			assertThrows(IOException.class, () -> CachedCrl.readFrom(in));
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+package org.keysupport.api.pkix;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.RespID;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.keysupport.api.config.ServiceConfiguration;
+
+/**
+ * Verification of OCSP responses by
+ * {@link CachedOcspResponse#fromResponse(String, byte[], CertificateID, X509Certificate, Date)}:
+ * signed by the issuer, or; a delegated responder with the OCSPSigning EKU,
+ * and; answering for the requested CertID.
+ */
+class CachedOcspResponseTest {
+
+	private final static String URI = "http://127.0.0.1/ocsp/issuing";
+
+	private final static X500Principal ISSUING = new X500Principal("CN=Test Issuing CA, O=KeySupport Test, C=US");
+
+	private final static BigInteger SERIAL = BigInteger.valueOf(10);
+
+	private final static long NOW = System.currentTimeMillis();
+
+	private static KeyPair issuerKeys;
+
+	private static KeyPair otherKeys;
+
+	private static X509Certificate issuer;
+
+	private static X509CertificateHolder responder;
+
+	private static X509CertificateHolder responderWithoutEku;
+
+	private static KeyPair responderKeys;
+
+	private static CertificateID certId;
+
+	@BeforeAll
+	static void generate() throws Exception {
+		ServiceConfiguration.configureSecurity(false, false, false, false);
+		KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA", "BCFIPS");
+		kpg.initialize(2048);
+		issuerKeys = kpg.generateKeyPair();
+		otherKeys = kpg.generateKeyPair();
+		responderKeys = kpg.generateKeyPair();
+		X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(ISSUING, BigInteger.ONE,
+				new Date(NOW - TimeUnit.DAYS.toMillis(1)), new Date(NOW + TimeUnit.DAYS.toMillis(3650)), ISSUING,
+				issuerKeys.getPublic());
+		builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+		builder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+		issuer = new JcaX509CertificateConverter().getCertificate(builder.build(signer(issuerKeys)));
+		responder = responder(2, true);
+		responderWithoutEku = responder(3, false);
+		certId = CachedOcspResponse.certificateId(issuer, SERIAL);
+	}
+
+	private static ContentSigner signer(KeyPair keys) throws Exception {
+		return new JcaContentSignerBuilder("SHA256withRSA").setProvider("BCFIPS").build(keys.getPrivate());
+	}
+
+	/*
+	 * Issued by the issuing CA to the responder key, with, or; without, the
+	 * OCSPSigning EKU
+	 */
+	private static X509CertificateHolder responder(long serial, boolean ocspSigning) throws Exception {
+		X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(ISSUING, BigInteger.valueOf(serial),
+				new Date(NOW - TimeUnit.DAYS.toMillis(1)), new Date(NOW + TimeUnit.DAYS.toMillis(30)),
+				new X500Principal("CN=Test OCSP Responder " + serial + ", O=KeySupport Test, C=US"),
+				responderKeys.getPublic());
+		builder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.digitalSignature));
+		if (ocspSigning) {
+			builder.addExtension(Extension.extendedKeyUsage, false,
+					new ExtendedKeyUsage(KeyPurposeId.id_kp_OCSPSigning));
+		}
+		return new JcaX509CertificateHolder(
+				new JcaX509CertificateConverter().getCertificate(builder.build(signer(issuerKeys))));
+	}
+
+	/*
+	 * A response for `responseId`, signed with `signerKeys` (and; carrying
+	 * `chain`), valid until `nextUpdate` (none if null)
+	 */
+	private static byte[] response(CertificateID responseId, CertificateStatus status, KeyPair signerKeys,
+			X509CertificateHolder[] chain, Date nextUpdate) throws Exception {
+		Date thisUpdate = new Date(NOW - TimeUnit.MINUTES.toMillis(5));
+		BasicOCSPRespBuilder builder = new BasicOCSPRespBuilder(
+				new RespID(X500Name.getInstance(ISSUING.getEncoded())));
+		builder.addResponse(responseId, status, thisUpdate, nextUpdate, null);
+		return new OCSPRespBuilder()
+				.build(OCSPRespBuilder.SUCCESSFUL, builder.build(signer(signerKeys), chain, thisUpdate)).getEncoded();
+	}
+
+	private static Date inAnHour() {
+		return new Date(NOW + TimeUnit.HOURS.toMillis(1));
+	}
+
+	private static CachedOcspResponse verify(byte[] encoded) throws OCSPException {
+		return CachedOcspResponse.fromResponse(URI, encoded, certId, issuer, new Date(NOW));
+	}
+
+	@Test
+	void signedByTheIssuer() throws Exception {
+		CachedOcspResponse response = verify(
+				response(certId, CertificateStatus.GOOD, issuerKeys, null, inAnHour()));
+		assertEquals(CachedOcspResponse.Status.GOOD, response.getStatus());
+		assertTrue(response.isCacheable());
+		assertTrue(response.isCurrent(new Date(NOW)));
+		assertEquals(CachedOcspResponse.cacheKey(certId), response.getCertId());
+	}
+
+	@Test
+	void signedByAnotherKeyIsRejected() throws Exception {
+		byte[] encoded = response(certId, CertificateStatus.GOOD, otherKeys, null, inAnHour());
+		assertThrows(OCSPException.class, () -> verify(encoded));
+	}
+
+	@Test
+	void delegatedResponderWithOcspSigning() throws Exception {
+		CachedOcspResponse response = verify(response(certId,
+				new RevokedStatus(new Date(NOW - TimeUnit.DAYS.toMillis(1)), CRLReason.keyCompromise),
+				responderKeys, new X509CertificateHolder[] { responder }, inAnHour()));
+		assertEquals(CachedOcspResponse.Status.REVOKED, response.getStatus());
+		assertEquals(java.security.cert.CRLReason.KEY_COMPROMISE, response.revokedException().getRevocationReason());
+	}
+
+	@Test
+	void delegatedResponderWithoutOcspSigningIsRejected() throws Exception {
+		byte[] encoded = response(certId, CertificateStatus.GOOD, responderKeys,
+				new X509CertificateHolder[] { responderWithoutEku }, inAnHour());
+		assertThrows(OCSPException.class, () -> verify(encoded));
+	}
+
+	@Test
+	void responseForAnotherCertIdIsRejected() throws Exception {
+		CertificateID other = CachedOcspResponse.certificateId(issuer, SERIAL.add(BigInteger.ONE));
+		byte[] encoded = response(other, CertificateStatus.GOOD, issuerKeys, null, inAnHour());
+		assertThrows(OCSPException.class, () -> verify(encoded));
+	}
+
+	/*
+	 * Usable for this validation, but; not cached
+	 */
+	@Test
+	void responseWithoutNextUpdateIsNotCacheable() throws Exception {
+		CachedOcspResponse response = verify(response(certId, CertificateStatus.GOOD, issuerKeys, null, null));
+		assertEquals(CachedOcspResponse.Status.GOOD, response.getStatus());
+		assertFalse(response.isCacheable());
+		assertFalse(response.isCurrent(new Date(NOW)));
+	}
+
+	@Test
+	void expiredResponseIsRejected() throws Exception {
+		byte[] encoded = response(certId, CertificateStatus.GOOD, issuerKeys, null,
+				new Date(NOW - TimeUnit.MINUTES.toMillis(1)));
+		assertThrows(OCSPException.class, () -> verify(encoded));
+	}
+
+}
@@ -0,0 +1,160 @@
+package org.keysupport.api.pkix;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CertPathBuilderException;
+import java.security.cert.PKIXBuilderParameters;
+import java.security.cert.PKIXCertPathBuilderResult;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CertSelector;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.keysupport.api.config.ServiceConfiguration;
+
+/**
+ * The {@link IssuerPathCache} with two issuing CAs that share a DN (as after a
+ * rekey), and; end entities without an AKI, so both CAs have the same cache
+ * key.
+ */
+class IssuerPathCacheTest {
+
+	private final static X500Principal ROOT = new X500Principal("CN=Test Root CA, O=KeySupport Test, C=US");
+
+	private final static X500Principal ISSUING = new X500Principal("CN=Test Issuing CA, O=KeySupport Test, C=US");
+
+	private final static long NOW = System.currentTimeMillis();
+
+	private static KeyPairGenerator kpg;
+
+	private static X509Certificate root;
+
+	private static X509Certificate issuingOld;
+
+	private static X509Certificate issuingNew;
+
+	private static X509Certificate leafOld;
+
+	private static X509Certificate leafNew;
+
+	private static X509Certificate leafExpired;
+
+	@BeforeAll
+	static void generate() throws Exception {
+		ServiceConfiguration.configureSecurity(false, false, false, false);
+		kpg = KeyPairGenerator.getInstance("RSA", "BCFIPS");
+		kpg.initialize(2048);
+		KeyPair rootKeys = kpg.generateKeyPair();
+		KeyPair oldKeys = kpg.generateKeyPair();
+		KeyPair newKeys = kpg.generateKeyPair();
+		KeyPair leafKeys = kpg.generateKeyPair();
+		root = certificate(ROOT, rootKeys, ROOT, rootKeys, true, 1, 3650);
+		issuingOld = certificate(ROOT, rootKeys, ISSUING, oldKeys, true, 2, 3650);
+		issuingNew = certificate(ROOT, rootKeys, ISSUING, newKeys, true, 3, 3650);
+		X500Principal leaf = new X500Principal("CN=Test End Entity, O=KeySupport Test, C=US");
+		leafOld = certificate(ISSUING, oldKeys, leaf, leafKeys, false, 10, 365);
+		leafNew = certificate(ISSUING, newKeys, leaf, leafKeys, false, 11, 365);
+		leafExpired = certificate(ISSUING, oldKeys, leaf, leafKeys, false, 12, -30);
+	}
+
+	/*
+	 * Without an AKI; valid from a day ago, for `days` (expired if negative)
+	 */
+	private static X509Certificate certificate(X500Principal issuer, KeyPair issuerKeys, X500Principal subject,
+			KeyPair subjectKeys, boolean ca, long serial, int days) throws Exception {
+		Date notBefore = new Date(NOW - TimeUnit.DAYS.toMillis((days < 0) ? 60 : 1));
+		Date notAfter = new Date(NOW + TimeUnit.DAYS.toMillis(days));
+		X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(issuer, BigInteger.valueOf(serial),
+				notBefore, notAfter, subject, subjectKeys.getPublic());
+		builder.addExtension(Extension.subjectKeyIdentifier, false,
+				new JcaX509ExtensionUtils().createSubjectKeyIdentifier(subjectKeys.getPublic()));
+		builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(ca));
+		builder.addExtension(Extension.keyUsage, true,
+				new KeyUsage(ca ? (KeyUsage.keyCertSign | KeyUsage.cRLSign) : KeyUsage.digitalSignature));
+		return new JcaX509CertificateConverter().getCertificate(builder.build(
+				new JcaContentSignerBuilder("SHA256withRSA").setProvider("BCFIPS").build(issuerKeys.getPrivate())));
+	}
+
+	private static PKIXBuilderParameters params(X509Certificate cert) throws Exception {
+		X509CertSelector selector = new X509CertSelector();
+		selector.setCertificate(cert);
+		PKIXBuilderParameters params = new PKIXBuilderParameters(Set.of(new TrustAnchor(root, null)), selector);
+		params.setRevocationEnabled(false);
+		params.addCertStore(IndexedCertStore.getInstance(List.of(issuingOld, issuingNew)));
+		params.setDate(new Date(NOW));
+		return params;
+	}
+
+	private static PKIXCertPathBuilderResult build(X509Certificate cert) throws Exception {
+		return (PKIXCertPathBuilderResult) CompiledValidationPolicy.newCertPathBuilder().build(params(cert));
+	}
+
+	private static long size(IssuerPathCache cache) {
+		return (long) cache.getStats().get("estimatedSize");
+	}
+
+	@Test
+	void pathOfTheSameIssuerIsReused() throws Exception {
+		IssuerPathCache cache = new IssuerPathCache(16);
+		assertNull(cache.validate(leafOld, params(leafOld)));
+		cache.put(leafOld, build(leafOld));
+		PKIXCertPathBuilderResult result = cache.validate(leafOld, params(leafOld));
+		assertNotNull(result);
+		assertEquals(List.of(leafOld, issuingOld), result.getCertPath().getCertificates());
+	}
+
+	@Test
+	void pathOfAnotherKeyFallsBackToTheBuilder() throws Exception {
+		IssuerPathCache cache = new IssuerPathCache(16);
+		cache.put(leafOld, build(leafOld));
+		assertEquals(1, size(cache));
+		/*
+		 * The cached CA has the wrong key for this end entity; the failure (index 0)
+		 * is not returned, and; the entry is removed
+		 */
+		assertNull(cache.validate(leafNew, params(leafNew)));
+		assertEquals(0, size(cache));
+		PKIXCertPathBuilderResult built = build(leafNew);
+		assertEquals(List.of(leafNew, issuingNew), built.getCertPath().getCertificates());
+		cache.put(leafNew, built);
+		assertNotNull(cache.validate(leafNew, params(leafNew)));
+	}
+
+	@Test
+	void failureOfTheCertificateIsLeftToTheBuilder() throws Exception {
+		IssuerPathCache cache = new IssuerPathCache(16);
+		cache.put(leafOld, build(leafOld));
+		assertNull(cache.validate(leafExpired, params(leafExpired)));
+		assertEquals(0, size(cache));
+		assertThrows(CertPathBuilderException.class, () -> build(leafExpired));
+	}
+
+	@Test
+	void disabledCacheReturnsNothing() throws Exception {
+		IssuerPathCache cache = new IssuerPathCache(0);
+		cache.put(leafOld, build(leafOld));
+		assertNull(cache.validate(leafOld, params(leafOld)));
+	}
+
+}
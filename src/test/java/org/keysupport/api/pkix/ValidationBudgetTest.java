@@ -0,0 +1,131 @@
+package org.keysupport.api.pkix;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ServerSocket;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.keysupport.api.config.ServiceConfiguration;
+import org.keysupport.api.pojo.vss.Fail;
+import org.keysupport.api.pojo.vss.Success;
+import org.keysupport.api.pojo.vss.ValidationPolicy;
+import org.keysupport.api.pojo.vss.VssResponse;
+import org.keysupport.api.singletons.CrlCacheSingleton;
+import org.keysupport.api.singletons.HTTPClientSingleton;
+import org.keysupport.api.singletons.OcspCacheSingleton;
+import org.keysupport.api.singletons.ValidationPoliciesSingleton;
+import org.keysupport.api.testpki.TestPKI;
+import org.keysupport.api.testpki.TestPKIServer;
+
+/**
+ * A validation whose OCSP, and; CRL, fetches outlast the revocation budget is
+ * cut off at the budget, with the OCSP, and; CRL, caches disabled.
+ */
+class ValidationBudgetTest {
+
+	/*
+	 * Every response of the server is delayed by this long
+	 */
+	private final static long LATENCY = 3000;
+
+	private final static long REVOCATION_BUDGET = 500;
+
+	private static TestPKI pki;
+
+	private static TestPKIServer server;
+
+	private static X509Certificate endEntity;
+
+	private static ValidationPolicy policy;
+
+	@BeforeAll
+	static void serve() throws Exception {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		TestPKI.Options options = new TestPKI.Options();
+		options.baseUri = "http://127.0.0.1:" + port;
+		options.bridge = false;
+		options.affiliateRoots = 1;
+		options.issuingCasPerRoot = 1;
+		options.endEntitiesPerCa = 1;
+		options.revokedFraction = 0;
+		options.expiredFraction = 0;
+		options.unknownIssuerEndEntities = 0;
+		pki = TestPKI.generate(options);
+		server = new TestPKIServer(pki, port, LATENCY, 0);
+		server.start();
+		endEntity = pki.getEndEntities().get(0).getCertificate();
+		ServiceConfiguration.configureSecurity(false, false, false, false);
+		HTTPClientSingleton.getInstance().configure(10, 10);
+		OcspCacheSingleton.getInstance().configure(false, 300, 1024);
+		CrlCacheSingleton.getInstance().configure(false, 16 * 1024 * 1024, 300, 86400, 1024);
+		ValidationPoliciesSingleton policies = ValidationPoliciesSingleton.getInstance();
+		policies.setMaxPathLen(5);
+		policies.setRevocationEnabled(true);
+		policies.setRevocationEeOnly(true);
+		policies.setOcspEnabled(true);
+		policies.setCrlEnabled(true);
+		policies.setIssuerPathCacheSize(0);
+		assertTrue(policies.loadValidationPolicies(pki.policiesJson(),
+				IndexedCertStore.getInstance(pki.getIntermediates())));
+		policy = policies.getCompiledPolicy(TestPKI.VALIDATION_POLICY_ID).getValidationPolicy();
+	}
+
+	@AfterAll
+	static void stop() {
+		server.close();
+		ValidationPoliciesSingleton policies = ValidationPoliciesSingleton.getInstance();
+		policies.setMaxPathLen(0);
+		policies.setRevocationEnabled(false);
+		policies.setRevocationEeOnly(false);
+		policies.setOcspEnabled(false);
+		policies.setCrlEnabled(false);
+	}
+
+	@AfterEach
+	void unlimited() {
+		ValidationBudget.configure(0, 0, 0, 0, 0);
+	}
+
+	@SuppressWarnings("try")
+	private static VssResponse validate() {
+		try (ValidationBudget budget = ValidationBudget.start()) {
+			return ValidatePKIX.validate(endEntity, "x5t", policy, new Date());
+		}
+	}
+
+	@Test
+	void revocationOverrunIsCutOff() {
+		ValidationBudget.configure(0, 0, 0, REVOCATION_BUDGET, 0);
+		long start = System.currentTimeMillis();
+		VssResponse response = validate();
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue(elapsed < LATENCY, "took " + elapsed + "ms");
+		assertTrue(response.validationResult instanceof Fail, String.valueOf(response.validationResult));
+		Fail fail = (Fail) response.validationResult;
+		assertFalse(fail.isAffirmativelyInvalid);
+		assertEquals("Validation deadline exceeded during revocation", fail.invalidityReasonText);
+	}
+
+	/*
+	 * Without a budget, the same fetches (uncached) determine the status
+	 */
+	@Test
+	void uncachedRevocationWithoutABudget() {
+		long start = System.currentTimeMillis();
+		VssResponse response = validate();
+		assertTrue(System.currentTimeMillis() - start >= LATENCY);
+		assertTrue(response.validationResult instanceof Success, String.valueOf(response.validationResult));
+		assertEquals(0, OcspCacheSingleton.getInstance().getStats().get("size"));
+	}
+
+}
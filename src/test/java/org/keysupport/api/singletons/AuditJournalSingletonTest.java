@@ -0,0 +1,235 @@
+package org.keysupport.api.singletons;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.keysupport.api.pkix.X509Util;
+import org.keysupport.api.pojo.vss.AuditRecord;
+import org.keysupport.api.pojo.vss.Fail;
+import org.keysupport.api.pojo.vss.Success;
+import org.keysupport.api.pojo.vss.ValidationResult;
+import org.keysupport.api.pojo.vss.VssResponse;
+
+/**
+ * The segment format of the {@link AuditJournalSingleton}: the index search of
+ * sealed segments, and; the recovery of the active segment after a restart.
+ * Each configure() stands in for a restart of the service.
+ */
+class AuditJournalSingletonTest {
+
+	private final static long SEGMENT_SIZE = 1024 * 1024;
+
+	private final static long START = 1_700_000_000_000L;
+
+	@TempDir
+	Path directory;
+
+	private final AuditJournalSingleton journal = AuditJournalSingleton.getInstance();
+
+	private int requests;
+
+	@AfterEach
+	void closeJournal() {
+		journal.configure(false, directory.toString(), SEGMENT_SIZE, 2);
+	}
+
+	private void restart() {
+		journal.configure(true, directory.toString(), SEGMENT_SIZE, 10);
+		assertTrue(journal.isEnabled());
+	}
+
+	/*
+	 * A base64url x5t#S256 whose first 8 bytes (the index key) are prefix
+	 */
+	private static String x5t(long prefix, int suffix) {
+		ByteBuffer x5t = ByteBuffer.allocate(32);
+		x5t.putLong(prefix);
+		x5t.putInt(suffix);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(x5t.array());
+	}
+
+	/*
+	 * Records a validation of x5t at START + n seconds; FAIL (expired) if n is odd
+	 */
+	private void record(String x5t, int n) {
+		ValidationResult result;
+		if (n % 2 == 0) {
+			result = new Success();
+		} else {
+			Fail fail = new Fail();
+			fail.isAffirmativelyInvalid = true;
+			fail.invalidityReasonText = "NotAfter: Sat Jan 01 00:00:00 UTC 2000";
+			result = fail;
+		}
+		VssResponse response = new VssResponse();
+		response.validationPolicyId = "1.3.6.1.5.5.7.19.1";
+		response.x5tS256 = x5t;
+		response.validationResult = result;
+		journal.record(requestId(++requests), response, START + (n * 1000L));
+	}
+
+	private static String requestId(int n) {
+		byte[] requestId = new byte[32];
+		Arrays.fill(requestId, (byte) n);
+		return HexFormat.of().formatHex(requestId);
+	}
+
+	/*
+	 * The validation times of the history
+	 */
+	private List<String> times(String x5t) {
+		List<String> times = new ArrayList<>();
+		for (AuditRecord record : journal.history(x5t, 1000)) {
+			assertEquals(x5t, record.x5tS256);
+			assertEquals("1.3.6.1.5.5.7.19.1", record.validationPolicyId);
+			times.add(record.validationTime);
+		}
+		return times;
+	}
+
+	/*
+	 * The validation times of the records made at START + n seconds, in the order
+	 * given
+	 */
+	private static List<String> at(int... n) {
+		List<String> times = new ArrayList<>();
+		for (int i : n) {
+			times.add(X509Util.ISO8601DateString(new Date(START + (i * 1000L))));
+		}
+		return times;
+	}
+
+	/*
+	 * The data file of the active segment (the highest sequence)
+	 */
+	private Path activeSegment() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(f -> f.getFileName().toString().endsWith(".dat")).sorted().reduce((a, b) -> b)
+					.orElseThrow();
+		}
+	}
+
+	@Test
+	void historyIsNewestFirstBeforeAndAfterARestart() {
+		restart();
+		String a = x5t(42, 1);
+		String b = x5t(43, 1);
+		record(a, 0);
+		record(b, 1);
+		record(a, 2);
+		record(a, 3);
+		assertEquals(at(3, 2, 0), times(a));
+		assertEquals(at(1), times(b));
+		/*
+		 * The active segment is sealed, and; searched through its index
+		 */
+		restart();
+		assertEquals(at(3, 2, 0), times(a));
+		assertEquals(at(1), times(b));
+		record(a, 4);
+		assertEquals(at(4, 3, 2, 0), times(a));
+		assertEquals(2, journal.history(a, 2).size());
+		AuditRecord newest = journal.history(a, 1).get(0);
+		assertEquals("SUCCESS", newest.result);
+		assertEquals(requestId(5), newest.requestId.toLowerCase());
+		AuditRecord failed = journal.history(b, 1).get(0);
+		assertEquals("FAIL", failed.result);
+		assertEquals("expired", failed.reason);
+		assertTrue(failed.isAffirmativelyInvalid);
+	}
+
+	@Test
+	void indexSearchFindsTheFirstAndLastKeys() {
+		restart();
+		long[] prefixes = { Long.MIN_VALUE, -1, 0, 1, Long.MAX_VALUE };
+		/*
+		 * Interleaved, so each key's records are spread through the segment
+		 */
+		for (int n = 0; n < 6; n++) {
+			for (long prefix : prefixes) {
+				record(x5t(prefix, 1), n);
+			}
+		}
+		restart();
+		for (long prefix : prefixes) {
+			assertEquals(at(5, 4, 3, 2, 1, 0), times(x5t(prefix, 1)), Long.toString(prefix));
+		}
+		assertTrue(journal.history(x5t(2, 1), 10).isEmpty());
+		assertTrue(journal.history(x5t(Long.MAX_VALUE - 1, 1), 10).isEmpty());
+	}
+
+	@Test
+	void certificatesSharingAnIndexKeyAreToldApart() {
+		restart();
+		String a = x5t(7, 1);
+		String b = x5t(7, 2);
+		record(a, 0);
+		record(b, 1);
+		record(a, 2);
+		for (int i = 0; i < 2; i++) {
+			assertEquals(at(2, 0), times(a));
+			assertEquals(at(1), times(b));
+			assertTrue(journal.history(x5t(7, 3), 10).isEmpty());
+			restart();
+		}
+	}
+
+	@Test
+	void recoveryTruncatesATornFinalRecord() throws IOException {
+		restart();
+		String a = x5t(42, 1);
+		for (int n = 0; n < 5; n++) {
+			record(a, n);
+		}
+		Path segment = activeSegment();
+		long size = Files.size(segment);
+		/*
+		 * A crash part way through appending a copy of the last record
+		 */
+		byte[] bytes = Files.readAllBytes(segment);
+		byte[] torn = Arrays.copyOfRange(bytes, bytes.length - (bytes.length / 5), bytes.length - 20);
+		Files.write(segment, torn, StandardOpenOption.APPEND);
+		restart();
+		assertEquals(size, Files.size(segment));
+		assertTrue(Files.exists(directory.resolve(segment.getFileName().toString().replace(".dat", ".idx"))));
+		assertEquals(at(4, 3, 2, 1, 0), times(a));
+		record(a, 5);
+		assertEquals(at(5, 4, 3, 2, 1, 0), times(a));
+	}
+
+	@Test
+	void recoveryDropsAFinalRecordWithABadCrc() throws IOException {
+		restart();
+		String a = x5t(42, 1);
+		for (int n = 0; n < 3; n++) {
+			record(a, n);
+		}
+		Path segment = activeSegment();
+		byte[] bytes = Files.readAllBytes(segment);
+		/*
+		 * The last byte of the final record's validationPolicyId
+		 */
+		bytes[bytes.length - 1] ^= 0x01;
+		Files.write(segment, bytes);
+		restart();
+		assertEquals((bytes.length / 3) * 2, Files.size(segment));
+		assertEquals(at(1, 0), times(a));
+	}
+
+}
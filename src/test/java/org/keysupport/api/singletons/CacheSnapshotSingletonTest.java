@@ -0,0 +1,232 @@
+package org.keysupport.api.singletons;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.keysupport.api.pkix.IndexedCertStore;
+import org.keysupport.api.pkix.X509Util;
+import org.keysupport.api.pojo.vss.Success;
+import org.keysupport.api.pojo.vss.VssResponse;
+import org.keysupport.api.testpki.TestPKI;
+import org.keysupport.api.testpki.TestPKIServer;
+
+/**
+ * Round trips of the {@link CacheSnapshotSingleton} file, with the OCSP, and;
+ * CRL caches filled from a {@link TestPKIServer}.
+ */
+class CacheSnapshotSingletonTest {
+
+	private final static String REQUEST_ID = "a1b2c3";
+
+	private static TestPKI pki;
+
+	private static TestPKIServer server;
+
+	private static X509Certificate endEntity;
+
+	private static X509Certificate issuer;
+
+	private static String crlUri;
+
+	@TempDir
+	Path directory;
+
+	private Path file;
+
+	private final CacheSnapshotSingleton snapshot = CacheSnapshotSingleton.getInstance();
+
+	private final ValidationCacheSingleton validations = ValidationCacheSingleton.getInstance();
+
+	private final OcspCacheSingleton ocsp = OcspCacheSingleton.getInstance();
+
+	private final CrlCacheSingleton crls = CrlCacheSingleton.getInstance();
+
+	@BeforeAll
+	static void serve() throws Exception {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		TestPKI.Options options = new TestPKI.Options();
+		options.baseUri = "http://127.0.0.1:" + port;
+		options.bridge = false;
+		options.affiliateRoots = 1;
+		options.issuingCasPerRoot = 1;
+		options.endEntitiesPerCa = 2;
+		options.revokedFraction = 0;
+		options.expiredFraction = 0;
+		options.unknownIssuerEndEntities = 0;
+		pki = TestPKI.generate(options);
+		server = new TestPKIServer(pki, port, 0, 0);
+		server.start();
+		HTTPClientSingleton.getInstance().configure(5, 10);
+		TestPKI.Authority issuing = pki.getAuthority("issuing-1-1");
+		issuer = issuing.getCertificates().get(0);
+		for (TestPKI.EndEntity ee : pki.getEndEntities()) {
+			if (ee.getIssuer() == issuing) {
+				endEntity = ee.getCertificate();
+			}
+		}
+		crlUri = X509Util.getCrlDistributionPointUris(endEntity).get(0);
+	}
+
+	@AfterAll
+	static void stop() {
+		server.close();
+	}
+
+	@BeforeEach
+	void configure() throws Exception {
+		file = directory.resolve("caches.bin");
+		validations.configure(true, 16 * 1024 * 1024, 3600, 60);
+		ocsp.configure(true, 300, 1024);
+		crls.configure(true, 16 * 1024 * 1024, 300, 86400, 1024);
+		snapshot.configure(true, file.toString(), 0);
+		publish();
+	}
+
+	@AfterEach
+	void invalidate() {
+		invalidateAll();
+		snapshot.configure(false, file.toString(), 0);
+	}
+
+	/*
+	 * Each publication increments the snapshot version
+	 */
+	private static void publish() throws Exception {
+		assertTrue(ValidationPoliciesSingleton.getInstance().loadValidationPolicies(pki.policiesJson(),
+				IndexedCertStore.getInstance(pki.getIntermediates())));
+	}
+
+	private void invalidateAll() {
+		validations.invalidateAll();
+		ocsp.invalidateAll();
+		crls.invalidateAll();
+	}
+
+	/*
+	 * A validation, an OCSP response, and; a CRL, then save them
+	 */
+	private void fillAndSave() {
+		VssResponse response = new VssResponse();
+		response.validationPolicyId = TestPKI.VALIDATION_POLICY_ID;
+		response.x5tS256 = "x5t";
+		response.validationResult = new Success();
+		validations.put(REQUEST_ID, response, System.currentTimeMillis() + 3_600_000,
+				ValidationPoliciesSingleton.getInstance().getSnapshotVersion());
+		assertNotNull(ocsp.get(endEntity, issuer, new Date()));
+		assertNotNull(crls.get(crlUri, List.of(issuer.getPublicKey()), new Date()));
+		snapshot.save();
+		assertTrue(Files.isRegularFile(file));
+		invalidateAll();
+		assertNull(validations.get(REQUEST_ID));
+		assertEquals(0, ocsp.getStats().get("size"));
+		assertEquals(0, crls.getStats().get("size"));
+	}
+
+	private static long fetches(Map<String, Object> stats) {
+		return ((Number) stats.get("fetchCount")).longValue();
+	}
+
+	/*
+	 * The OCSP response, and; CRL, are served from the cache, without a fetch
+	 */
+	private void assertRevocationRestored() {
+		assertEquals(1, ocsp.getStats().get("size"));
+		assertEquals(1, crls.getStats().get("size"));
+		long ocspFetches = fetches(ocsp.getStats());
+		long crlFetches = fetches(crls.getStats());
+		assertNotNull(ocsp.get(endEntity, issuer, new Date()));
+		assertNotNull(crls.getCurrent(crlUri, new Date()));
+		assertNotNull(crls.get(crlUri, List.of(issuer.getPublicKey()), new Date()));
+		assertEquals(ocspFetches, fetches(ocsp.getStats()));
+		assertEquals(crlFetches, fetches(crls.getStats()));
+	}
+
+	private void assertNothingRestored() {
+		assertNull(validations.get(REQUEST_ID));
+		assertEquals(0, ocsp.getStats().get("size"));
+		assertEquals(0, crls.getStats().get("size"));
+	}
+
+	@Test
+	void cachesRoundTrip() {
+		fillAndSave();
+		snapshot.restore(true);
+		VssResponse restored = validations.get(REQUEST_ID);
+		assertNotNull(restored);
+		assertEquals("x5t", restored.x5tS256);
+		assertTrue(restored.validationResult instanceof Success);
+		assertRevocationRestored();
+	}
+
+	@Test
+	void validationsOfAnotherSnapshotVersionAreDropped() throws Exception {
+		fillAndSave();
+		publish();
+		snapshot.restore(true);
+		assertNull(validations.get(REQUEST_ID));
+		assertRevocationRestored();
+	}
+
+	@Test
+	void validationsAreDroppedIfTheSnapshotWasNotLoaded() {
+		fillAndSave();
+		snapshot.restore(false);
+		assertNull(validations.get(REQUEST_ID));
+		assertRevocationRestored();
+	}
+
+	@Test
+	void crcMismatchRestoresNothing() throws Exception {
+		fillAndSave();
+		byte[] bytes = Files.readAllBytes(file);
+		bytes[bytes.length / 2] ^= 0x01;
+		Files.write(file, bytes);
+		snapshot.restore(true);
+		assertNothingRestored();
+	}
+
+	@Test
+	void unknownFormatRestoresNothing() throws Exception {
+		fillAndSave();
+		byte[] bytes = Files.readAllBytes(file);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		buffer.putInt(4, 99);
+		/*
+		 * With a valid CRC, so only the format is checked
+		 */
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - 8);
+		buffer.putLong(bytes.length - 8, crc.getValue());
+		Files.write(file, bytes);
+		snapshot.restore(true);
+		assertNothingRestored();
+	}
+
+	@Test
+	void missingFileRestoresNothing() {
+		snapshot.restore(true);
+		assertNothingRestored();
+	}
+
+}
@@ -0,0 +1,137 @@
+package org.keysupport.api.singletons;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ServerSocket;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keysupport.api.pkix.CachedCrl;
+import org.keysupport.api.pkix.X509Util;
+import org.keysupport.api.testpki.TestPKI;
+import org.keysupport.api.testpki.TestPKIServer;
+
+/**
+ * Fetches of the {@link CrlCacheSingleton} from a {@link TestPKIServer} that
+ * delays every CRL by `LATENCY`: concurrent misses share one fetch, and; a CRL
+ * that can not be cached is not fetched again within the backoff.
+ */
+class CrlCacheSingletonTest {
+
+	private final static long LATENCY = 1000;
+
+	private final static int CALLERS = 8;
+
+	private static TestPKI pki;
+
+	private static TestPKIServer server;
+
+	private static String crlUri;
+
+	private static List<PublicKey> issuerKeys;
+
+	private final CrlCacheSingleton crls = CrlCacheSingleton.getInstance();
+
+	@BeforeAll
+	static void serve() throws Exception {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		TestPKI.Options options = new TestPKI.Options();
+		options.baseUri = "http://127.0.0.1:" + port;
+		options.bridge = false;
+		options.affiliateRoots = 1;
+		options.issuingCasPerRoot = 1;
+		options.endEntitiesPerCa = 1;
+		options.revokedFraction = 0;
+		options.expiredFraction = 0;
+		options.unknownIssuerEndEntities = 0;
+		pki = TestPKI.generate(options);
+		server = new TestPKIServer(pki, port, LATENCY, 0);
+		server.start();
+		HTTPClientSingleton.getInstance().configure(5, 10);
+		TestPKI.Authority issuing = pki.getAuthority("issuing-1-1");
+		X509Certificate endEntity = pki.getEndEntities().get(0).getCertificate();
+		crlUri = X509Util.getCrlDistributionPointUris(endEntity).get(0);
+		issuerKeys = List.of(issuing.getPublicKey());
+	}
+
+	@AfterAll
+	static void stop() {
+		server.close();
+		CrlCacheSingleton.getInstance().configure(false, 16 * 1024 * 1024, 300, 86400, 1024);
+	}
+
+	@BeforeEach
+	void configure() {
+		crls.configure(true, 16 * 1024 * 1024, 300, 86400, 1024);
+	}
+
+	@AfterEach
+	void invalidate() {
+		crls.invalidateAll();
+	}
+
+	private long stat(String name) {
+		return ((Number) crls.getStats().get(name)).longValue();
+	}
+
+	@Test
+	void concurrentMissesShareOneFetch() throws Exception {
+		long fetches = stat("fetchCount");
+		long coalesced = stat("coalescedCount");
+		/*
+		 * Every caller misses well within the latency of the one fetch
+		 */
+		List<CompletableFuture<CachedCrl>> callers = new ArrayList<>();
+		for (int i = 0; i < CALLERS; i++) {
+			callers.add(CompletableFuture.supplyAsync(() -> crls.get(crlUri, issuerKeys, new Date())));
+		}
+		CachedCrl first = callers.get(0).get(5 * LATENCY, TimeUnit.MILLISECONDS);
+		assertNotNull(first);
+		for (CompletableFuture<CachedCrl> caller : callers) {
+			assertSame(first, caller.get(5 * LATENCY, TimeUnit.MILLISECONDS));
+		}
+		assertEquals(fetches + 1, stat("fetchCount"));
+		assertEquals(coalesced + CALLERS - 1, stat("coalescedCount"));
+	}
+
+	/*
+	 * A CRL that can not be verified (with the wrong issuer key) is not cached,
+	 * and; is not fetched again, even with the right key, within the backoff
+	 */
+	@Test
+	void uncacheableCrlIsNotFetchedAgain() throws Exception {
+		List<PublicKey> wrongKeys = List.of(pki.getAuthority("root-1").getPublicKey());
+		long fetches = stat("fetchCount");
+		assertNull(crls.get(crlUri, wrongKeys, new Date()));
+		assertTrue(crls.isUnsupported(crlUri));
+		assertEquals(fetches + 1, stat("fetchCount"));
+		long start = System.currentTimeMillis();
+		assertNull(crls.get(crlUri, issuerKeys, new Date()));
+		assertTrue(System.currentTimeMillis() - start < LATENCY);
+		assertEquals(fetches + 1, stat("fetchCount"));
+		/*
+		 * Until the backoff is cleared
+		 */
+		crls.invalidateAll();
+		assertNotNull(crls.get(crlUri, issuerKeys, new Date()));
+		assertEquals(fetches + 2, stat("fetchCount"));
+	}
+
+}
@@ -0,0 +1,128 @@
+package org.keysupport.api.singletons;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.keysupport.api.pkix.ValidationBudget;
+import org.keysupport.api.pkix.X509Util;
+import org.keysupport.api.testpki.TestPKI;
+import org.keysupport.api.testpki.TestPKIServer;
+
+/**
+ * Fetches by the {@link HTTPClientSingleton} from a {@link TestPKIServer}:
+ * conditional, size-capped, and; bounded by the validation budget. The CRL is
+ * served after `LATENCY`, the policies without delay.
+ */
+class HTTPClientSingletonTest {
+
+	private final static long LATENCY = 500;
+
+	private final static String HOST = "127.0.0.1";
+
+	private static TestPKIServer server;
+
+	private static URI policiesUri;
+
+	private static URI crlUri;
+
+	private final HTTPClientSingleton http = HTTPClientSingleton.getInstance();
+
+	@BeforeAll
+	static void serve() throws Exception {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		TestPKI.Options options = new TestPKI.Options();
+		options.baseUri = "http://" + HOST + ":" + port;
+		options.bridge = false;
+		options.affiliateRoots = 1;
+		options.issuingCasPerRoot = 1;
+		options.endEntitiesPerCa = 1;
+		options.revokedFraction = 0;
+		options.expiredFraction = 0;
+		options.unknownIssuerEndEntities = 0;
+		TestPKI pki = TestPKI.generate(options);
+		server = new TestPKIServer(pki, port, LATENCY, 0);
+		server.start();
+		HTTPClientSingleton.getInstance().configure(5, 10);
+		policiesUri = URI.create(options.baseUri + "/policies.json");
+		X509Certificate endEntity = pki.getEndEntities().get(0).getCertificate();
+		crlUri = URI.create(X509Util.getCrlDistributionPointUris(endEntity).get(0));
+	}
+
+	@AfterAll
+	static void stop() {
+		server.close();
+	}
+
+	@AfterEach
+	void unlimited() {
+		ValidationBudget.configure(0, 0, 0, 0, 0);
+	}
+
+	@SuppressWarnings("unchecked")
+	private long stat(String name) {
+		Map<String, Object> host = (Map<String, Object>) http.getStats().get(HOST);
+		return (null == host) ? 0 : ((Number) host.get(name)).longValue();
+	}
+
+	@Test
+	void unchangedRepresentationIsNotModified() {
+		FetchResult<String> first = http.getTextIfModified(policiesUri, null);
+		assertNotNull(first.getValue());
+		assertFalse(first.isNotModified());
+		assertTrue(first.getValidators().isPresent());
+		long notModified = stat("notModifiedCount");
+		FetchResult<String> second = http.getTextIfModified(policiesUri, first.getValidators());
+		assertTrue(second.isNotModified());
+		assertNull(second.getValue());
+		assertSame(first.getValidators(), second.getValidators());
+		assertEquals(notModified + 1, stat("notModifiedCount"));
+	}
+
+	@Test
+	void unchangedCrlIsNotModified() {
+		FetchResult<X509CRL> first = http.getCrlIfModified(crlUri, 1000000, null);
+		assertNotNull(first.getValue());
+		FetchResult<X509CRL> second = http.getCrlIfModified(crlUri, 1000000, first.getValidators());
+		assertTrue(second.isNotModified());
+		assertNull(second.getValue());
+	}
+
+	@Test
+	void entityLargerThanTheLimitIsRefused() {
+		long failures = stat("failureCount");
+		assertNull(http.getCrl(crlUri, 64));
+		assertEquals(failures + 1, stat("failureCount"));
+		assertNotNull(http.getCrl(crlUri, 1000000));
+	}
+
+	@SuppressWarnings("try")
+	@Test
+	void fetchIsBoundedByTheBudget() {
+		ValidationBudget.configure(LATENCY / 5, 0, 0, 0, 0);
+		long failures = stat("failureCount");
+		long start = System.currentTimeMillis();
+		try (ValidationBudget budget = ValidationBudget.start()) {
+			assertNull(http.getCrl(crlUri, 1000000));
+		}
+		assertTrue(System.currentTimeMillis() - start < LATENCY, "waited for the response");
+		assertEquals(failures + 1, stat("failureCount"));
+	}
+
+}
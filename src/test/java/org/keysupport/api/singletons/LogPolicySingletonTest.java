@@ -0,0 +1,132 @@
+package org.keysupport.api.singletons;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.keysupport.api.pojo.vss.JsonX509Certificate;
+import org.keysupport.api.pojo.vss.v1.V1VSSRequest;
+import org.keysupport.api.singletons.LogPolicySingleton.Outcome;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The {@link LogPolicySingleton} redaction of logged requests, the sampling of
+ * full logs by outcome, and; the stack trace limit.
+ */
+class LogPolicySingletonTest {
+
+	private final static int REQUESTS = 10000;
+
+	/*
+	 * In the stack trace of an exception thrown by the test below
+	 */
+	private final static String FRAME = ".stackTracesAreLimitedPerType(";
+
+	/*
+	 * Thrown only here, so no other test has used its limit
+	 */
+	private static class LimitedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private final LogPolicySingleton policy = LogPolicySingleton.getInstance();
+
+	@AfterEach
+	void reset() {
+		policy.configure(1.0, 1.0, 1.0, Set.of(), 10);
+	}
+
+	/*
+	 * A `requestId`, as the hex SHA-256 digest the controllers derive it from
+	 */
+	private static String requestId(int n) throws Exception {
+		byte[] digest = MessageDigest.getInstance("SHA-256").digest(("request " + n).getBytes(StandardCharsets.UTF_8));
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	private static V1VSSRequest request(String... x509Certificates) {
+		V1VSSRequest request = new V1VSSRequest();
+		request.validationPolicy = "policy";
+		request.x509CertificateList = new ArrayList<>();
+		for (String x509Certificate : x509Certificates) {
+			JsonX509Certificate cert = new JsonX509Certificate();
+			cert.x509Certificate = x509Certificate;
+			request.x509CertificateList.add(cert);
+		}
+		return request;
+	}
+
+	@Test
+	void nothingConfiguredIsNotRedacted() {
+		V1VSSRequest request = request("MIIB");
+		assertSame(request, policy.redact(request));
+	}
+
+	@Test
+	void configuredFieldsAreRedactedWithinArrays() {
+		policy.configure(1.0, 1.0, 1.0, Set.of("x509Certificate"), 10);
+		JsonNode tree = (JsonNode) policy.redact(request("MIIB", "MIIC"));
+		assertEquals("policy", tree.get("validationPolicy").asText());
+		JsonNode list = tree.get("x509CertificateList");
+		assertEquals(2, list.size());
+		for (JsonNode cert : list) {
+			assertEquals("[redacted]", cert.get("x509Certificate").asText());
+		}
+	}
+
+	@Test
+	void samplingIsDeterministicAtEachRate() throws Exception {
+		policy.configure(0.1, 1.0, 0.0, Set.of(), 10);
+		List<String> sampled = new ArrayList<>();
+		for (int n = 0; n < REQUESTS; n++) {
+			String requestId = requestId(n);
+			boolean success = policy.isSampled(requestId, Outcome.SUCCESS);
+			assertEquals(success, policy.isSampled(requestId, Outcome.SUCCESS));
+			assertTrue(policy.isSampled(requestId, Outcome.FAIL));
+			assertFalse(policy.isSampled(requestId, Outcome.ERROR));
+			if (success) {
+				sampled.add(requestId);
+			}
+		}
+		assertTrue(sampled.size() > REQUESTS * 0.08 && sampled.size() < REQUESTS * 0.12, "sampled " + sampled.size());
+		/*
+		 * A higher rate keeps every validation sampled at the lower one
+		 */
+		policy.configure(0.5, 1.0, 0.0, Set.of(), 10);
+		for (String requestId : sampled) {
+			assertTrue(policy.isSampled(requestId, Outcome.SUCCESS));
+		}
+	}
+
+	@Test
+	void stackTracesAreLimitedPerType() {
+		policy.configure(1.0, 1.0, 1.0, Set.of(), 2);
+		List<String> traces = new ArrayList<>();
+		for (int n = 0; n < 3; n++) {
+			traces.add(policy.stackTrace(new LimitedException()));
+		}
+		assertTrue(traces.get(0).contains(FRAME));
+		assertTrue(traces.get(1).contains(FRAME));
+		assertFalse(traces.get(2).contains(FRAME));
+		assertTrue(traces.get(2).contains("stack trace suppressed"));
+		/*
+		 * Another type has a limit of its own
+		 */
+		assertTrue(policy.stackTrace(new ArithmeticException("other")).contains(FRAME));
+	}
+
+}
@@ -0,0 +1,54 @@
+package org.keysupport.api.singletons;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The cache statistics gauges of the {@link MetricsSingleton}, after their
+ * suppliers have had every chance to be collected.
+ */
+class MetricsSingletonTest {
+
+	private final MetricsSingleton metrics = MetricsSingleton.getInstance();
+
+	@BeforeAll
+	static void enable() {
+		ValidationCacheSingleton.getInstance().configure(true, 16 * 1024 * 1024, 3600, 60);
+		MetricsSingleton.getInstance().configure(true);
+	}
+
+	@AfterAll
+	static void disable() {
+		MetricsSingleton.getInstance().configure(false);
+		ValidationCacheSingleton.getInstance().configure(false, 0, 0, 0);
+	}
+
+	/*
+	 * The value of the (untagged) gauge in the Prometheus text format
+	 */
+	private static String gauge(String scrape, String name) {
+		for (String line : scrape.split("\n")) {
+			if (line.startsWith(name + " ")) {
+				return line.substring(name.length() + 1).trim();
+			}
+		}
+		return null;
+	}
+
+	@Test
+	void statisticsGaugesSurviveGarbageCollection() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		String scrape = metrics.scrape();
+		assertNotNull(scrape);
+		assertEquals("1.0", gauge(scrape, "vss_cache_validation_enabled"));
+		assertEquals("0.0", gauge(scrape, "vss_cache_validation_in_flight"));
+	}
+
+}
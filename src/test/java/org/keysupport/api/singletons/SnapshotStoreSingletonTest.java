@@ -0,0 +1,137 @@
+package org.keysupport.api.singletons;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.keysupport.api.pkix.IndexedCertStore;
+import org.keysupport.api.pkix.ValidationSnapshot;
+import org.keysupport.api.testpki.TestPKI;
+
+/**
+ * Round trips of the {@link SnapshotStoreSingleton} file, and; the files it
+ * must refuse to load.
+ */
+class SnapshotStoreSingletonTest {
+
+	private static TestPKI pki;
+
+	@TempDir
+	Path directory;
+
+	private Path file;
+
+	private final SnapshotStoreSingleton store = SnapshotStoreSingleton.getInstance();
+
+	@BeforeAll
+	static void generate() throws Exception {
+		TestPKI.Options options = new TestPKI.Options();
+		options.bridge = true;
+		options.affiliateRoots = 2;
+		options.issuingCasPerRoot = 2;
+		options.endEntitiesPerCa = 1;
+		pki = TestPKI.generate(options);
+	}
+
+	@BeforeEach
+	void configure() {
+		file = directory.resolve("snapshot.bin");
+		store.configure(true, file.toString());
+	}
+
+	@AfterEach
+	void disable() {
+		store.configure(false, file.toString());
+	}
+
+	private static ValidationSnapshot snapshot(long version) throws Exception {
+		return new ValidationSnapshot(version, pki.policiesJson(), null, Map.of(), Map.of(),
+				IndexedCertStore.getInstance(pki.getIntermediates()),
+				new FetchResult.Validators("\"policies-1\"", "Tue, 14 Nov 2023 22:13:20 GMT"), null);
+	}
+
+	/*
+	 * Write the int at offset of the saved file
+	 */
+	private void overwriteInt(int offset, int value) throws Exception {
+		byte[] bytes = Files.readAllBytes(file);
+		ByteBuffer.wrap(bytes).putInt(offset, value);
+		Files.write(file, bytes);
+	}
+
+	@Test
+	void snapshotRoundTrips() throws Exception {
+		long before = System.currentTimeMillis();
+		store.save(snapshot(7));
+		SnapshotStoreSingleton.Persisted persisted = store.load();
+		assertNotNull(persisted);
+		assertEquals(7, persisted.version());
+		assertTrue(persisted.savedAt() >= before && persisted.savedAt() <= System.currentTimeMillis());
+		assertEquals(pki.policiesJson(), persisted.policiesJson());
+		assertFalse(pki.getIntermediates().isEmpty());
+		assertEquals(new HashSet<>(pki.getIntermediates()), new HashSet<>(persisted.intermediates()));
+		assertEquals("\"policies-1\"", persisted.policiesValidators().getEtag());
+		assertEquals("Tue, 14 Nov 2023 22:13:20 GMT", persisted.policiesValidators().getLastModified());
+		assertNull(persisted.intermediatesValidators());
+		/*
+		 * A later save replaces the file, and; leaves no partial file behind
+		 */
+		store.save(snapshot(8));
+		assertEquals(8, store.load().version());
+		assertFalse(Files.exists(directory.resolve("snapshot.bin.tmp")));
+	}
+
+	@Test
+	void missingFileLoadsNothing() {
+		assertNull(store.load());
+	}
+
+	@Test
+	void crcMismatchLoadsNothing() throws Exception {
+		store.save(snapshot(7));
+		byte[] bytes = Files.readAllBytes(file);
+		/*
+		 * Within the DER of the intermediates, so the file still parses
+		 */
+		bytes[bytes.length - 100] ^= 0x01;
+		Files.write(file, bytes);
+		assertNull(store.load());
+	}
+
+	@Test
+	void unknownFormatLoadsNothing() throws Exception {
+		store.save(snapshot(7));
+		overwriteInt(4, 2);
+		assertNull(store.load());
+	}
+
+	@Test
+	void unknownMagicLoadsNothing() throws Exception {
+		store.save(snapshot(7));
+		overwriteInt(0, 0);
+		assertNull(store.load());
+	}
+
+	@Test
+	void truncatedFileLoadsNothing() throws Exception {
+		store.save(snapshot(7));
+		byte[] bytes = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(bytes, bytes.length - 4));
+		assertNull(store.load());
+	}
+
+}
@@ -0,0 +1,271 @@
+package org.keysupport.api.singletons;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keysupport.api.pkix.IndexedCertStore;
+import org.keysupport.api.pkix.ValidationBudget;
+import org.keysupport.api.pojo.vss.Success;
+import org.keysupport.api.pojo.vss.VssResponse;
+import org.keysupport.api.testpki.TestPKI;
+
+/**
+ * The {@link ValidationCacheSingleton} coalescing of concurrent validations,
+ * and; across the publication of a new validation policy snapshot. Each leader
+ * is held on a latch, so the order of callers is deterministic.
+ */
+class ValidationCacheSingletonTest {
+
+	private final static String REQUEST_ID = "d4e5f6";
+
+	private static TestPKI pki;
+
+	private final ValidationCacheSingleton validations = ValidationCacheSingleton.getInstance();
+
+	@BeforeAll
+	static void generate() throws Exception {
+		TestPKI.Options options = new TestPKI.Options();
+		options.bridge = false;
+		options.affiliateRoots = 1;
+		options.issuingCasPerRoot = 1;
+		options.endEntitiesPerCa = 1;
+		options.revokedFraction = 0;
+		options.expiredFraction = 0;
+		options.unknownIssuerEndEntities = 0;
+		pki = TestPKI.generate(options);
+	}
+
+	@AfterAll
+	static void disable() {
+		ValidationCacheSingleton.getInstance().configure(false, 0, 0, 0);
+	}
+
+	@BeforeEach
+	void configure() throws Exception {
+		validations.configure(true, 16 * 1024 * 1024, 3600, 60);
+		publish();
+	}
+
+	@AfterEach
+	void unlimited() {
+		ValidationBudget.configure(0, 0, 0, 0, 0);
+	}
+
+	/*
+	 * Each publication increments the snapshot version
+	 */
+	private static long publish() throws Exception {
+		assertTrue(ValidationPoliciesSingleton.getInstance().loadValidationPolicies(pki.policiesJson(),
+				IndexedCertStore.getInstance(pki.getIntermediates())));
+		return ValidationPoliciesSingleton.getInstance().getSnapshotVersion();
+	}
+
+	private static VssResponse response(String x5tS256) {
+		VssResponse response = new VssResponse();
+		response.validationPolicyId = TestPKI.VALIDATION_POLICY_ID;
+		response.x5tS256 = x5tS256;
+		response.validationResult = new Success();
+		return response;
+	}
+
+	private static long expiry() {
+		return System.currentTimeMillis() + 3_600_000;
+	}
+
+	/*
+	 * Coalesce on another thread; once started, the validation waits for
+	 * `release`, then returns (or throws) whatever `validation` does
+	 */
+	private CompletableFuture<VssResponse> leader(long snapshotVersion, CountDownLatch started,
+			CountDownLatch release, Supplier<VssResponse> validation) {
+		return CompletableFuture.supplyAsync(() -> validations.coalesce(REQUEST_ID, snapshotVersion, () -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return validation.get();
+		}, () -> null));
+	}
+
+	/*
+	 * A validation that must not run, since the caller should have been coalesced
+	 */
+	private static VssResponse notCoalesced() {
+		throw new AssertionError("validated, rather than coalesced");
+	}
+
+	/*
+	 * Wait for `count` callers to be waiting on a leader
+	 */
+	private void awaitWaiting(long count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (((Number) validations.getStats().get("coalescedWaiting")).longValue() < count) {
+			assertTrue(System.currentTimeMillis() < deadline, "no caller waiting");
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	void waiterSharesTheResultOfTheLeader() throws Exception {
+		long version = ValidationPoliciesSingleton.getInstance().getSnapshotVersion();
+		VssResponse response = response("leader");
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CompletableFuture<VssResponse> leader = leader(version, started, release, () -> response);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		CompletableFuture<VssResponse> waiter = CompletableFuture.supplyAsync(
+				() -> validations.coalesce(REQUEST_ID, version, ValidationCacheSingletonTest::notCoalesced, () -> null));
+		awaitWaiting(1);
+		release.countDown();
+		assertSame(response, leader.get(5, TimeUnit.SECONDS));
+		assertSame(response, waiter.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void failureOfTheLeaderReachesTheWaiters() throws Exception {
+		long version = ValidationPoliciesSingleton.getInstance().getSnapshotVersion();
+		IllegalStateException failure = new IllegalStateException("leader failed");
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CompletableFuture<VssResponse> leader = leader(version, started, release, () -> {
+			throw failure;
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		CompletableFuture<VssResponse> waiter = CompletableFuture.supplyAsync(
+				() -> validations.coalesce(REQUEST_ID, version, ValidationCacheSingletonTest::notCoalesced, () -> null));
+		awaitWaiting(1);
+		release.countDown();
+		for (CompletableFuture<VssResponse> caller : List.of(leader, waiter)) {
+			ExecutionException e = assertThrows(ExecutionException.class, () -> caller.get(5, TimeUnit.SECONDS));
+			Throwable cause = (e.getCause() instanceof CompletionException) ? e.getCause().getCause() : e.getCause();
+			assertSame(failure, cause);
+		}
+		/*
+		 * Nothing is left in flight, so the next caller validates
+		 */
+		assertEquals(0, validations.getStats().get("inFlight"));
+		VssResponse response = response("next");
+		assertSame(response, validations.coalesce(REQUEST_ID, version, () -> response, () -> null));
+	}
+
+	@SuppressWarnings("try")
+	@Test
+	void waiterBudgetExpiresBeforeTheLeader() throws Exception {
+		long version = ValidationPoliciesSingleton.getInstance().getSnapshotVersion();
+		VssResponse response = response("leader");
+		VssResponse exceeded = response("exceeded");
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CompletableFuture<VssResponse> leader = leader(version, started, release, () -> response);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		ValidationBudget.configure(200, 0, 0, 0, 0);
+		try (ValidationBudget budget = ValidationBudget.start()) {
+			assertSame(exceeded, validations.coalesce(REQUEST_ID, version, ValidationCacheSingletonTest::notCoalesced,
+					() -> exceeded));
+			assertTrue(budget.isExceeded());
+		}
+		/*
+		 * The leader is unaffected
+		 */
+		release.countDown();
+		assertSame(response, leader.get(5, TimeUnit.SECONDS));
+	}
+
+	/*
+	 * A leader that finds a result cached (after its caller's cache check) returns
+	 * it, without validating, or; counting a cache hit
+	 */
+	@Test
+	void leaderReturnsAResultCachedSinceItsCheck() throws Exception {
+		long version = ValidationPoliciesSingleton.getInstance().getSnapshotVersion();
+		VssResponse response = response("cached");
+		validations.put(REQUEST_ID, response, expiry(), version);
+		long hits = ((Number) validations.getStats().get("hitCount")).longValue();
+		assertSame(response,
+				validations.coalesce(REQUEST_ID, version, ValidationCacheSingletonTest::notCoalesced, () -> null));
+		assertEquals(hits, ((Number) validations.getStats().get("hitCount")).longValue());
+	}
+
+	@Test
+	void resultOfAnOlderSnapshotIsNotCached() throws Exception {
+		long older = ValidationPoliciesSingleton.getInstance().getSnapshotVersion();
+		publish();
+		validations.put(REQUEST_ID, response("older"), expiry(), older);
+		assertNull(validations.get(REQUEST_ID));
+	}
+
+	/*
+	 * A validation in flight while a new snapshot is published neither caches its
+	 * result, nor; shares it with a caller of the new snapshot
+	 */
+	@Test
+	void validationInFlightDuringASwap() throws Exception {
+		long older = ValidationPoliciesSingleton.getInstance().getSnapshotVersion();
+		VssResponse olderResponse = response("older");
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CompletableFuture<VssResponse> leader = leader(older, started, release, () -> {
+			validations.put(REQUEST_ID, olderResponse, expiry(), older);
+			return olderResponse;
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		long newer = publish();
+		assertNotEquals(older, newer);
+		/*
+		 * Not joined to the leader, which is still blocked
+		 */
+		VssResponse newerResponse = response("newer");
+		VssResponse joined = assertTimeoutPreemptively(Duration.ofSeconds(5),
+				() -> validations.coalesce(REQUEST_ID, newer, () -> {
+					validations.put(REQUEST_ID, newerResponse, expiry(), newer);
+					return newerResponse;
+				}, () -> null));
+		assertSame(newerResponse, joined);
+		release.countDown();
+		assertSame(olderResponse, leader.get(5, TimeUnit.SECONDS));
+		assertSame(newerResponse, validations.get(REQUEST_ID));
+	}
+
+	/*
+	 * The leader of the older snapshot completes after the publication, with
+	 * nothing cached for the newer one
+	 */
+	@Test
+	void leaderOfAnOlderSnapshotLeavesNothingBehind() throws Exception {
+		long older = ValidationPoliciesSingleton.getInstance().getSnapshotVersion();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CompletableFuture<VssResponse> leader = leader(older, started, release, () -> {
+			VssResponse response = response("older");
+			validations.put(REQUEST_ID, response, expiry(), older);
+			return response;
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		publish();
+		release.countDown();
+		leader.get(5, TimeUnit.SECONDS);
+		assertNull(validations.get(REQUEST_ID));
+	}
+
+}
@@ -0,0 +1,134 @@
+package org.keysupport.api.singletons;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.keysupport.api.LoggingUtil;
+import org.keysupport.api.pkix.CompiledValidationPolicy;
+import org.keysupport.api.pkix.IndexedCertStore;
+import org.keysupport.api.pkix.ValidationSnapshot;
+import org.keysupport.api.pojo.vss.ValidationPolicies;
+import org.keysupport.api.pojo.vss.ValidationPolicy;
+import org.keysupport.api.testpki.TestPKI;
+import org.keysupport.api.testpki.TestPKIServer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Publication of a {@link ValidationPoliciesSingleton} snapshot with a policy
+ * that can not be compiled, and; the refresh of a snapshot from a
+ * {@link TestPKIServer}.
+ */
+class ValidationPoliciesSingletonTest {
+
+	private final static String UNCOMPILABLE_POLICY_ID = "2.16.840.1.101.3.2.1.48.999";
+
+	private final static String HOST = "127.0.0.1";
+
+	private static TestPKI pki;
+
+	private static TestPKIServer server;
+
+	private static String baseUri;
+
+	@BeforeAll
+	static void generate() throws Exception {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		baseUri = "http://" + HOST + ":" + port;
+		TestPKI.Options options = new TestPKI.Options();
+		options.baseUri = baseUri;
+		options.bridge = false;
+		options.affiliateRoots = 1;
+		options.issuingCasPerRoot = 1;
+		options.endEntitiesPerCa = 1;
+		options.revokedFraction = 0;
+		options.expiredFraction = 0;
+		options.unknownIssuerEndEntities = 0;
+		pki = TestPKI.generate(options);
+		server = new TestPKIServer(pki, port, 0, 0);
+		server.start();
+		HTTPClientSingleton.getInstance().configure(5, 10);
+	}
+
+	@AfterAll
+	static void stop() {
+		server.close();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static long notModified() {
+		Map<String, Object> host = (Map<String, Object>) HTTPClientSingleton.getInstance().getStats().get(HOST);
+		return (null == host) ? 0 : ((Number) host.get("notModifiedCount")).longValue();
+	}
+
+	/*
+	 * The generated policy, and; one without trust anchors, which PKIX can not be
+	 * configured with
+	 */
+	private static String withUncompilablePolicy() throws Exception {
+		ValidationPolicies policies = new ObjectMapper().readValue(pki.policiesJson(), ValidationPolicies.class);
+		ValidationPolicy uncompilable = new ValidationPolicy();
+		uncompilable.validationPolicyId = UNCOMPILABLE_POLICY_ID;
+		uncompilable.validationPolicyName = "uncompilable";
+		uncompilable.trustAnchors = new ArrayList<>();
+		policies.validationPolicies = new ArrayList<>(policies.validationPolicies);
+		policies.validationPolicies.add(uncompilable);
+		return LoggingUtil.pojoToJson(policies);
+	}
+
+	@Test
+	void uncompilablePolicyKeepsTheCurrentSnapshot() throws Exception {
+		ValidationPoliciesSingleton singleton = ValidationPoliciesSingleton.getInstance();
+		IndexedCertStore intermediates = IndexedCertStore.getInstance(pki.getIntermediates());
+		assertTrue(singleton.loadValidationPolicies(pki.policiesJson(), intermediates));
+		long version = singleton.getSnapshotVersion();
+		CompiledValidationPolicy compiled = singleton.getCompiledPolicy(TestPKI.VALIDATION_POLICY_ID);
+		assertFalse(singleton.loadValidationPolicies(withUncompilablePolicy(), intermediates));
+		assertEquals(version, singleton.getSnapshotVersion());
+		assertSame(compiled, singleton.getCompiledPolicy(TestPKI.VALIDATION_POLICY_ID));
+		assertNull(singleton.getCompiledPolicy(UNCOMPILABLE_POLICY_ID));
+		assertEquals(1, singleton.getValidationPolicies().validationPolicies.size());
+	}
+
+	/*
+	 * A refresh publishes a new snapshot only when the policies, or;
+	 * intermediates, have changed; otherwise, or; when the fetch fails, the
+	 * current snapshot (and; its warm caches) is kept
+	 */
+	@Test
+	void refreshKeepsTheSnapshotUnlessChanged() throws Exception {
+		ValidationPoliciesSingleton singleton = ValidationPoliciesSingleton.getInstance();
+		String policiesUri = baseUri + "/policies.json";
+		String intermediatesUri = baseUri + "/intermediates.p7b";
+		assertTrue(singleton.loadValidationPolicies(pki.policiesJson(), IndexedCertStore.getInstance(List.of())));
+		long version = singleton.getSnapshotVersion();
+		singleton.updateValidationPolicies(policiesUri, intermediatesUri);
+		ValidationSnapshot published = singleton.getSnapshot();
+		assertEquals(version + 1, published.getVersion());
+		assertEquals(pki.getIntermediates().size(), published.getIntermediates().size());
+		/*
+		 * Both are fetched conditionally, and; are not modified
+		 */
+		long notModified = notModified();
+		singleton.updateValidationPolicies(policiesUri, intermediatesUri);
+		assertSame(published, singleton.getSnapshot());
+		assertEquals(notModified + 2, notModified());
+		singleton.updateValidationPolicies(baseUri + "/missing.json", intermediatesUri);
+		assertSame(published, singleton.getSnapshot());
+	}
+
+}
@@ -0,0 +1,541 @@
+package org.keysupport.api.testpki;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLDistPoint;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.CertificatePolicies;
+import org.bouncycastle.asn1.x509.DistributionPoint;
+import org.bouncycastle.asn1.x509.DistributionPointName;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.asn1.x509.PolicyInformation;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cert.jcajce.JcaX509CRLConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.CMSAbsentContent;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.keysupport.api.LoggingUtil;
+import org.keysupport.api.config.ServiceConfiguration;
+import org.keysupport.api.pojo.vss.JsonTrustAnchor;
+import org.keysupport.api.pojo.vss.ValidationPolicies;
+import org.keysupport.api.pojo.vss.ValidationPolicy;
+
+/**
+ * A generated PKI, shaped like the Federal PKI, for reproducible performance
+ * testing without the live repositories.
+ *
+ * <pre>
+ *
+ * Test Common Root CA (trust anchor)
+ *   Test Bridge CA
+ *     Test Affiliate Root CA 1 (cross-certificate)
+ *       Test Issuing CA 1.1
+ *         end entities
+ *       ...
+ *     ...
+ *
+ * </pre>
+ *
+ * Without a bridge, each affiliate root is self-signed, and; is a trust anchor
+ * of the validation policy.
+ *
+ * Every issued certificate asserts `POLICY_OID`, and; has a CRL distribution
+ * point, a caIssuers (p7c) URI, and; an OCSP URI, so either revocation method
+ * can be checked for the whole path. All URIs are relative to `baseUri`, and;
+ * are served by
+ * {@link TestPKIServer}. A random (but seeded) subset of the end entities of
+ * each issuing CA is revoked, or; expired. End entities of an unknown issuer
+ * (a CA outside of the validation policy) are also generated.
+ */
+public final class TestPKI {
+
+	/*
+	 * NIST test-policy-1
+	 */
+	public final static String POLICY_OID = "2.16.840.1.101.3.2.1.48.1";
+
+	/*
+	 * The validationPolicyId in the generated policies JSON
+	 */
+	public final static String VALIDATION_POLICY_ID = "2.16.840.1.101.3.2.1.48.1";
+
+	private final static String SIG_ALG = "SHA256withRSA";
+
+	private final static String JCE_PROVIDER = "BCFIPS";
+
+	/**
+	 * The shape of the generated PKI
+	 */
+	public static final class Options {
+
+		/*
+		 * Base URI of the TestPKIServer, without a trailing slash
+		 */
+		public String baseUri = "http://127.0.0.1:8080";
+
+		public boolean bridge = true;
+
+		public int affiliateRoots = 2;
+
+		public int issuingCasPerRoot = 2;
+
+		public int endEntitiesPerCa = 50;
+
+		/*
+		 * Fraction of the end entities of each issuing CA that are revoked
+		 */
+		public double revokedFraction = 0.1;
+
+		/*
+		 * Fraction of the end entities of each issuing CA that are expired
+		 */
+		public double expiredFraction = 0.05;
+
+		/*
+		 * End entities issued by a CA that does not chain to a trust anchor
+		 */
+		public int unknownIssuerEndEntities = 10;
+
+		public int keySize = 2048;
+
+		public long seed = 1;
+
+	}
+
+	/**
+	 * A certification authority, its key, and; the certificates issued to it
+	 */
+	public static final class Authority {
+
+		private final String id;
+
+		private final X500Principal name;
+
+		private final KeyPair keys;
+
+		private final List<X509Certificate> certificates = new ArrayList<>();
+
+		private final Map<BigInteger, Date> revoked = new LinkedHashMap<>();
+
+		private final AtomicLong serial = new AtomicLong(1);
+
+		private X509CRL crl;
+
+		private Authority(String id, X500Principal name, KeyPair keys) {
+			this.id = id;
+			this.name = name;
+			this.keys = keys;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public X500Principal getName() {
+			return name;
+		}
+
+		public PublicKey getPublicKey() {
+			return keys.getPublic();
+		}
+
+		PrivateKey getPrivateKey() {
+			return keys.getPrivate();
+		}
+
+		/**
+		 * @return the certificates issued to this authority (self-signed, or;
+		 *         cross-certificates)
+		 */
+		public List<X509Certificate> getCertificates() {
+			return Collections.unmodifiableList(certificates);
+		}
+
+		/**
+		 * @param serialNumber
+		 * @return the revocation date, or null if not revoked
+		 */
+		public Date getRevocationDate(BigInteger serialNumber) {
+			return revoked.get(serialNumber);
+		}
+
+		/**
+		 * @param serialNumber
+		 * @return true if this authority issued a certificate with serialNumber
+		 */
+		public boolean isIssued(BigInteger serialNumber) {
+			return serialNumber.signum() > 0 && serialNumber.compareTo(BigInteger.valueOf(serial.get())) < 0;
+		}
+
+		public X509CRL getCrl() {
+			return crl;
+		}
+
+	}
+
+	/**
+	 * The expected status of an end entity
+	 */
+	public enum Category {
+
+		VALID, REVOKED, EXPIRED, UNKNOWN_ISSUER;
+
+		/**
+		 * @return the category as named in a load test corpus (e.g. `unknown_issuer`)
+		 */
+		public String value() {
+			return name().toLowerCase();
+		}
+
+	}
+
+	/**
+	 * An end entity certificate, and; its expected status
+	 */
+	public static final class EndEntity {
+
+		private final X509Certificate certificate;
+
+		private final Authority issuer;
+
+		private final Category category;
+
+		private EndEntity(X509Certificate certificate, Authority issuer, Category category) {
+			this.certificate = certificate;
+			this.issuer = issuer;
+			this.category = category;
+		}
+
+		public X509Certificate getCertificate() {
+			return certificate;
+		}
+
+		public Authority getIssuer() {
+			return issuer;
+		}
+
+		public Category getCategory() {
+			return category;
+		}
+
+		public boolean isRevoked() {
+			return Category.REVOKED == category;
+		}
+
+	}
+
+	private final Options options;
+
+	private final KeyPairGenerator kpg;
+
+	private final Random random;
+
+	private final long now = System.currentTimeMillis();
+
+	private final Map<String, Authority> authorities = new LinkedHashMap<>();
+
+	private final List<Authority> trustAnchors = new ArrayList<>();
+
+	private final List<X509Certificate> intermediates = new ArrayList<>();
+
+	private final List<EndEntity> endEntities = new ArrayList<>();
+
+	private TestPKI(Options options) throws Exception {
+		this.options = options;
+		this.kpg = KeyPairGenerator.getInstance("RSA", JCE_PROVIDER);
+		this.kpg.initialize(options.keySize);
+		this.random = new Random(options.seed);
+	}
+
+	/**
+	 * @param options
+	 * @return TestPKI
+	 * @throws Exception
+	 */
+	public static TestPKI generate(Options options) throws Exception {
+		ServiceConfiguration.configureSecurity(false, false, false, false);
+		TestPKI pki = new TestPKI(options);
+		pki.generate();
+		return pki;
+	}
+
+	private void generate() throws Exception {
+		Authority bridge = null;
+		if (options.bridge) {
+			Authority common = authority("common", "Test Common Root CA");
+			selfSign(common);
+			trustAnchors.add(common);
+			bridge = authority("bridge", "Test Bridge CA");
+			intermediates.add(certify(common, bridge));
+		}
+		for (int r = 1; r <= options.affiliateRoots; r++) {
+			Authority root = authority("root-" + r, "Test Affiliate Root CA " + r);
+			if (null != bridge) {
+				intermediates.add(certify(bridge, root));
+			} else {
+				selfSign(root);
+				trustAnchors.add(root);
+			}
+			for (int i = 1; i <= options.issuingCasPerRoot; i++) {
+				Authority issuing = authority("issuing-" + r + "-" + i, "Test Issuing CA " + r + "." + i);
+				intermediates.add(certify(root, issuing));
+				issueEndEntities(issuing);
+			}
+		}
+		if (options.unknownIssuerEndEntities > 0) {
+			/*
+			 * Self-signed, but; neither a trust anchor, nor an intermediate
+			 */
+			Authority unknown = authority("unknown", "Test Unknown Issuing CA");
+			selfSign(unknown);
+			KeyPair keys = kpg.generateKeyPair();
+			for (int e = 1; e <= options.unknownIssuerEndEntities; e++) {
+				issueEndEntity(unknown, keys, e, Category.UNKNOWN_ISSUER);
+			}
+		}
+		for (Authority authority : authorities.values()) {
+			authority.crl = crl(authority);
+		}
+	}
+
+	private Authority authority(String id, String commonName) {
+		X500Principal name = new X500Principal("CN=" + commonName + ", OU=Test PKI, O=KeySupport Test, C=US");
+		Authority authority = new Authority(id, name, kpg.generateKeyPair());
+		authorities.put(id, authority);
+		return authority;
+	}
+
+	private void selfSign(Authority authority) throws Exception {
+		X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(authority.name,
+				BigInteger.valueOf(authority.serial.getAndIncrement()), new Date(now - TimeUnit.DAYS.toMillis(1)),
+				new Date(now + TimeUnit.DAYS.toMillis(3650)), authority.name, authority.getPublicKey());
+		JcaX509ExtensionUtils extUtils = new JcaX509ExtensionUtils();
+		builder.addExtension(Extension.subjectKeyIdentifier, false,
+				extUtils.createSubjectKeyIdentifier(authority.getPublicKey()));
+		builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+		builder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+		authority.certificates.add(sign(builder, authority));
+	}
+
+	/*
+	 * Issue a CA certificate (or cross-certificate) for `subject`
+	 */
+	private X509Certificate certify(Authority issuer, Authority subject) throws Exception {
+		X509v3CertificateBuilder builder = builder(issuer, subject.name, subject.getPublicKey(),
+				new Date(now - TimeUnit.DAYS.toMillis(1)), new Date(now + TimeUnit.DAYS.toMillis(3650)));
+		builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+		builder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+		builder.addExtension(Extension.authorityInfoAccess, false, aia(issuer));
+		X509Certificate cert = sign(builder, issuer);
+		subject.certificates.add(cert);
+		return cert;
+	}
+
+	private void issueEndEntities(Authority issuer) throws Exception {
+		/*
+		 * End entities share a key, since only the signatures of the issuer are
+		 * verified
+		 */
+		KeyPair keys = kpg.generateKeyPair();
+		for (int e = 1; e <= options.endEntitiesPerCa; e++) {
+			double draw = random.nextDouble();
+			Category category = Category.VALID;
+			if (draw < options.revokedFraction) {
+				category = Category.REVOKED;
+			} else if (draw < options.revokedFraction + options.expiredFraction) {
+				category = Category.EXPIRED;
+			}
+			issueEndEntity(issuer, keys, e, category);
+		}
+	}
+
+	private void issueEndEntity(Authority issuer, KeyPair keys, int e, Category category) throws Exception {
+		BigInteger serial = BigInteger.valueOf(issuer.serial.get());
+		X500Principal name = new X500Principal(
+				"CN=Test End Entity " + issuer.id + "-" + e + ", OU=People, OU=Test PKI, O=KeySupport Test, C=US");
+		Date notBefore = new Date(now - TimeUnit.DAYS.toMillis(1));
+		Date notAfter = new Date(now + TimeUnit.DAYS.toMillis(365));
+		if (Category.EXPIRED == category) {
+			notBefore = new Date(now - TimeUnit.DAYS.toMillis(396));
+			notAfter = new Date(now - TimeUnit.DAYS.toMillis(31));
+		}
+		X509v3CertificateBuilder builder = builder(issuer, name, keys.getPublic(), notBefore, notAfter);
+		builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(false));
+		builder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.digitalSignature));
+		builder.addExtension(Extension.subjectAlternativeName, false, new GeneralNames(new GeneralName[] {
+				new GeneralName(GeneralName.rfc822Name, "end.entity." + e + "@" + issuer.id + ".test.example"),
+				new GeneralName(GeneralName.uniformResourceIdentifier,
+						"urn:uuid:" + UUID.nameUUIDFromBytes(name.getEncoded())) }));
+		builder.addExtension(Extension.authorityInfoAccess, false, aia(issuer));
+		X509Certificate cert = sign(builder, issuer);
+		if (Category.REVOKED == category) {
+			issuer.revoked.put(serial, new Date(now - TimeUnit.HOURS.toMillis(1)));
+		}
+		endEntities.add(new EndEntity(cert, issuer, category));
+	}
+
+	/*
+	 * A certificate issued by `issuer`, asserting the test policy, with a CRL
+	 * distribution point
+	 */
+	private X509v3CertificateBuilder builder(Authority issuer, X500Principal subject, PublicKey subjectKey,
+			Date notBefore, Date notAfter) throws Exception {
+		X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(issuer.name,
+				BigInteger.valueOf(issuer.serial.getAndIncrement()), notBefore, notAfter, subject, subjectKey);
+		JcaX509ExtensionUtils extUtils = new JcaX509ExtensionUtils();
+		builder.addExtension(Extension.subjectKeyIdentifier, false, extUtils.createSubjectKeyIdentifier(subjectKey));
+		builder.addExtension(Extension.authorityKeyIdentifier, false,
+				extUtils.createAuthorityKeyIdentifier(issuer.getPublicKey()));
+		builder.addExtension(Extension.certificatePolicies, false,
+				new CertificatePolicies(new PolicyInformation(new ASN1ObjectIdentifier(POLICY_OID))));
+		DistributionPointName dpName = new DistributionPointName(new GeneralNames(uri(crlPath(issuer))));
+		builder.addExtension(Extension.cRLDistributionPoints, false,
+				new CRLDistPoint(new DistributionPoint[] { new DistributionPoint(dpName, null, null) }));
+		return builder;
+	}
+
+	private X509Certificate sign(X509v3CertificateBuilder builder, Authority issuer) throws Exception {
+		ContentSigner signer = new JcaContentSignerBuilder(SIG_ALG).setProvider(JCE_PROVIDER)
+				.build(issuer.getPrivateKey());
+		/*
+		 * Use the default (SUN) CertificateFactory, as the service does
+		 */
+		return new JcaX509CertificateConverter().getCertificate(builder.build(signer));
+	}
+
+	private X509CRL crl(Authority issuer) throws Exception {
+		X509v2CRLBuilder builder = new JcaX509v2CRLBuilder(issuer.name, new Date(now - TimeUnit.MINUTES.toMillis(5)));
+		builder.setNextUpdate(new Date(now + TimeUnit.DAYS.toMillis(7)));
+		issuer.revoked.forEach((serial, date) -> builder.addCRLEntry(serial, date, CRLReason.keyCompromise));
+		JcaX509ExtensionUtils extUtils = new JcaX509ExtensionUtils();
+		builder.addExtension(Extension.authorityKeyIdentifier, false,
+				extUtils.createAuthorityKeyIdentifier(issuer.getPublicKey()));
+		builder.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(now)));
+		ContentSigner signer = new JcaContentSignerBuilder(SIG_ALG).setProvider(JCE_PROVIDER)
+				.build(issuer.getPrivateKey());
+		return new JcaX509CRLConverter().getCRL(builder.build(signer));
+	}
+
+	private AuthorityInformationAccess aia(Authority issuer) {
+		return new AuthorityInformationAccess(
+				new AccessDescription[] { new AccessDescription(AccessDescription.id_ad_caIssuers, uri(aiaPath(issuer))),
+						new AccessDescription(AccessDescription.id_ad_ocsp, uri(ocspPath(issuer))) });
+	}
+
+	private GeneralName uri(String path) {
+		return new GeneralName(GeneralName.uniformResourceIdentifier, options.baseUri + path);
+	}
+
+	static String crlPath(Authority authority) {
+		return "/crl/" + authority.id + ".crl";
+	}
+
+	static String aiaPath(Authority authority) {
+		return "/aia/" + authority.id + ".p7c";
+	}
+
+	static String ocspPath(Authority authority) {
+		return "/ocsp/" + authority.id;
+	}
+
+	/**
+	 * @param id
+	 * @return the authority, or null
+	 */
+	public Authority getAuthority(String id) {
+		return authorities.get(id);
+	}
+
+	public Collection<Authority> getAuthorities() {
+		return Collections.unmodifiableCollection(authorities.values());
+	}
+
+	public List<Authority> getTrustAnchors() {
+		return Collections.unmodifiableList(trustAnchors);
+	}
+
+	/**
+	 * @return the CA certificates, other than the trust anchors
+	 */
+	public List<X509Certificate> getIntermediates() {
+		return Collections.unmodifiableList(intermediates);
+	}
+
+	public List<EndEntity> getEndEntities() {
+		return Collections.unmodifiableList(endEntities);
+	}
+
+	/**
+	 * @return the policies JSON (`service.policies.uri`), with a single policy
+	 *         requiring `POLICY_OID`
+	 * @throws Exception
+	 */
+	public String policiesJson() throws Exception {
+		ValidationPolicy policy = new ValidationPolicy();
+		policy.validationPolicyId = VALIDATION_POLICY_ID;
+		policy.validationPolicyName = "test";
+		policy.validationPolicyDescription = "Generated test PKI";
+		policy.trustAnchors = new ArrayList<>();
+		for (Authority anchor : trustAnchors) {
+			JsonTrustAnchor jta = new JsonTrustAnchor();
+			jta.x509SubjectName = anchor.name.toString();
+			jta.x509Certificate = Base64.getEncoder().encodeToString(anchor.certificates.get(0).getEncoded());
+			policy.trustAnchors.add(jta);
+		}
+		policy.userPolicySet = List.of(POLICY_OID);
+		policy.inhibitPolicyMapping = false;
+		policy.requireExplicitPolicy = true;
+		policy.inhibitAnyPolicy = true;
+		ValidationPolicies policies = new ValidationPolicies();
+		policies.validationPolicies = List.of(policy);
+		return LoggingUtil.pojoToJson(policies);
+	}
+
+	/**
+	 * @param certificates
+	 * @return a CMS certs-only SignedData (as served for
+	 *         `service.intermediates.uri`, and; AIA)
+	 * @throws Exception
+	 */
+	public static byte[] certsOnly(List<X509Certificate> certificates) throws Exception {
+		CMSSignedDataGenerator generator = new CMSSignedDataGenerator();
+		generator.addCertificates(new JcaCertStore(certificates));
+		return generator.generate(new CMSAbsentContent()).getEncoded();
+	}
+
+}
@@ -0,0 +1,332 @@
+package org.keysupport.api.testpki;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.Req;
+import org.bouncycastle.cert.ocsp.RespID;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.UnknownStatus;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.keysupport.api.LoggingUtil;
+import org.keysupport.api.pojo.vss.VssRequest;
+import org.keysupport.api.testpki.TestPKI.Authority;
+import org.keysupport.api.testpki.TestPKI.Category;
+import org.keysupport.api.testpki.TestPKI.EndEntity;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves a {@link TestPKI} as the service expects to find it, so the service
+ * can be load tested offline, and; reproducibly.
+ *
+ * <pre>
+ *
+ * /policies.json         service.policies.uri
+ * /intermediates.p7b     service.intermediates.uri (CMS certs-only)
+ * /crl/{id}.crl          CRL distribution points
+ * /ocsp/{id}             OCSP (POST, or; GET with the base64 request appended)
+ * /aia/{id}.p7c          caIssuers (CMS certs-only)
+ * /certs.ndjson          a VssRequest per end entity, with its `category`
+ *
+ * </pre>
+ *
+ * Latency (plus uniform jitter) is injected into the CRL, OCSP, and; AIA
+ * responses, to stand in for the remote repositories. Static content has an
+ * ETag, so conditional fetches can be exercised.
+ *
+ * Run with:
+ *
+ * mvn -P benchmark test-compile exec:java
+ * -Dexec.mainClass=org.keysupport.api.testpki.TestPKIServer
+ * -Dexec.args="--port 8081 --end-entities 100 --latency 50"
+ */
+public final class TestPKIServer implements AutoCloseable {
+
+	private final static String POLICIES_PATH = "/policies.json";
+
+	private final static String INTERMEDIATES_PATH = "/intermediates.p7b";
+
+	private final static String CERTS_PATH = "/certs.ndjson";
+
+	private final static String SIG_ALG = "SHA256withRSA";
+
+	private final static String JCE_PROVIDER = "BCFIPS";
+
+	/*
+	 * Validity of OCSP responses
+	 */
+	private final static long OCSP_VALIDITY_MS = TimeUnit.HOURS.toMillis(1);
+
+	private final TestPKI pki;
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	private final long latencyMs;
+
+	private final long jitterMs;
+
+	private final Map<String, byte[]> aia = new HashMap<>();
+
+	private final Map<String, byte[]> crls = new HashMap<>();
+
+	private final byte[] policies;
+
+	private final byte[] intermediates;
+
+	private final byte[] certs;
+
+	/**
+	 * @param pki       generated with a `baseUri` of this server
+	 * @param port
+	 * @param latencyMs injected into CRL, OCSP, and; AIA responses
+	 * @param jitterMs  uniform, added to latencyMs
+	 * @throws Exception
+	 */
+	public TestPKIServer(TestPKI pki, int port, long latencyMs, long jitterMs) throws Exception {
+		this.pki = pki;
+		this.latencyMs = latencyMs;
+		this.jitterMs = jitterMs;
+		this.policies = pki.policiesJson().getBytes(StandardCharsets.UTF_8);
+		this.intermediates = TestPKI.certsOnly(pki.getIntermediates());
+		StringBuilder sb = new StringBuilder();
+		for (EndEntity ee : pki.getEndEntities()) {
+			VssRequest request = new VssRequest();
+			request.validationPolicyId = TestPKI.VALIDATION_POLICY_ID;
+			request.x509Certificate = Base64.getEncoder().encodeToString(ee.getCertificate().getEncoded());
+			request.setAdditionalProperty("category", ee.getCategory().value());
+			sb.append(LoggingUtil.pojoToJson(request)).append('\n');
+		}
+		this.certs = sb.toString().getBytes(StandardCharsets.UTF_8);
+		for (Authority authority : pki.getAuthorities()) {
+			aia.put(TestPKI.aiaPath(authority), TestPKI.certsOnly(authority.getCertificates()));
+			crls.put(TestPKI.crlPath(authority), authority.getCrl().getEncoded());
+		}
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.executor = Executors.newVirtualThreadPerTaskExecutor();
+		server.setExecutor(executor);
+		server.createContext(POLICIES_PATH, exchange -> serve(exchange, "application/json", policies, false));
+		server.createContext(INTERMEDIATES_PATH,
+				exchange -> serve(exchange, "application/pkcs7-mime", intermediates, false));
+		server.createContext(CERTS_PATH, exchange -> serve(exchange, "application/x-ndjson", certs, false));
+		server.createContext("/crl/",
+				exchange -> serve(exchange, "application/pkix-crl", crls.get(exchange.getRequestURI().getPath()), true));
+		server.createContext("/aia/",
+				exchange -> serve(exchange, "application/pkcs7-mime", aia.get(exchange.getRequestURI().getPath()), true));
+		server.createContext("/ocsp/", this::ocsp);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdown();
+	}
+
+	private void delay() {
+		long delay = latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void serve(HttpExchange exchange, String contentType, byte[] body, boolean remote) throws IOException {
+		if (null == body) {
+			respond(exchange, 404, null, null, null);
+			return;
+		}
+		if (remote) {
+			delay();
+		}
+		String etag = etag(body);
+		if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+			respond(exchange, 304, null, null, etag);
+		} else {
+			respond(exchange, 200, contentType, body, etag);
+		}
+	}
+
+	private void ocsp(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		String id = path.substring("/ocsp/".length());
+		byte[] encoded;
+		if ("POST".equals(exchange.getRequestMethod())) {
+			encoded = exchange.getRequestBody().readAllBytes();
+		} else {
+			/*
+			 * RFC 6960 Appendix A.1: /ocsp/{id}/{url-encoded base64 request}
+			 */
+			int slash = id.indexOf('/');
+			if (slash < 0) {
+				respond(exchange, 400, null, null, null);
+				return;
+			}
+			try {
+				encoded = Base64.getDecoder().decode(id.substring(slash + 1));
+			} catch (IllegalArgumentException e) {
+				respond(exchange, 400, null, null, null);
+				return;
+			}
+			id = id.substring(0, slash);
+		}
+		Authority issuer = pki.getAuthority(id);
+		if (null == issuer) {
+			respond(exchange, 404, null, null, null);
+			return;
+		}
+		delay();
+		byte[] response;
+		try {
+			response = ocspResponse(issuer, new OCSPReq(encoded));
+		} catch (Exception e) {
+			respond(exchange, 400, null, null, null);
+			return;
+		}
+		respond(exchange, 200, "application/ocsp-response", response, null);
+	}
+
+	/*
+	 * Signed by the issuer (no delegated responder), no nonce
+	 */
+	private static byte[] ocspResponse(Authority issuer, OCSPReq request) throws Exception {
+		Date now = new Date();
+		Date nextUpdate = new Date(now.getTime() + OCSP_VALIDITY_MS);
+		BasicOCSPRespBuilder builder = new BasicOCSPRespBuilder(
+				new RespID(X500Name.getInstance(issuer.getName().getEncoded())));
+		for (Req req : request.getRequestList()) {
+			CertificateID certId = req.getCertID();
+			BigInteger serial = certId.getSerialNumber();
+			Date revoked = issuer.getRevocationDate(serial);
+			CertificateStatus status;
+			if (null != revoked) {
+				status = new RevokedStatus(revoked, CRLReason.keyCompromise);
+			} else if (issuer.isIssued(serial)) {
+				status = CertificateStatus.GOOD;
+			} else {
+				status = new UnknownStatus();
+			}
+			builder.addResponse(certId, status, now, nextUpdate, null);
+		}
+		return new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL,
+				builder.build(new JcaContentSignerBuilder(SIG_ALG).setProvider(JCE_PROVIDER)
+						.build(issuer.getPrivateKey()), null, now))
+				.getEncoded();
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType, byte[] body, String etag)
+			throws IOException {
+		if (null != contentType) {
+			exchange.getResponseHeaders().set("Content-Type", contentType);
+		}
+		if (null != etag) {
+			exchange.getResponseHeaders().set("ETag", etag);
+		}
+		exchange.sendResponseHeaders(status, null == body ? -1 : body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			if (null != body) {
+				out.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static String etag(byte[] body) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+			return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + "\"";
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * --port, --bridge, --roots, --issuing-cas, --end-entities, --revoked,
+	 * --expired, --unknown-issuer, --latency, --jitter, --seed
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		TestPKI.Options options = new TestPKI.Options();
+		int port = 8081;
+		long latencyMs = 0;
+		long jitterMs = 0;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("--bridge".equals(arg)) {
+				options.bridge = Boolean.parseBoolean(args[++i]);
+				continue;
+			}
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + arg);
+			}
+			String value = args[++i];
+			switch (arg) {
+			case "--port" -> port = Integer.parseInt(value);
+			case "--roots" -> options.affiliateRoots = Integer.parseInt(value);
+			case "--issuing-cas" -> options.issuingCasPerRoot = Integer.parseInt(value);
+			case "--end-entities" -> options.endEntitiesPerCa = Integer.parseInt(value);
+			case "--revoked" -> options.revokedFraction = Double.parseDouble(value);
+			case "--expired" -> options.expiredFraction = Double.parseDouble(value);
+			case "--unknown-issuer" -> options.unknownIssuerEndEntities = Integer.parseInt(value);
+			case "--latency" -> latencyMs = Long.parseLong(value);
+			case "--jitter" -> jitterMs = Long.parseLong(value);
+			case "--seed" -> options.seed = Long.parseLong(value);
+			default -> throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+		options.baseUri = "http://127.0.0.1:" + port;
+		TestPKI pki = TestPKI.generate(options);
+		TestPKIServer server = new TestPKIServer(pki, port, latencyMs, jitterMs);
+		server.start();
+		Map<Category, Long> categories = pki.getEndEntities().stream()
+				.collect(Collectors.groupingBy(EndEntity::getCategory, TreeMap::new, Collectors.counting()));
+		System.out.println("Test PKI: " + pki.getIntermediates().size() + " intermediates, "
+				+ pki.getEndEntities().size() + " end entities " + categories + ", at " + options.baseUri);
+		System.out.println("Start the service with:");
+		System.out.println("  --service.policies.uri=" + options.baseUri + POLICIES_PATH);
+		System.out.println("  --service.intermediates.uri=" + options.baseUri + INTERMEDIATES_PATH);
+		System.out.println("Requests (validationPolicyId " + TestPKI.VALIDATION_POLICY_ID + "): " + options.baseUri
+				+ CERTS_PATH);
+		Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+	}
+
+}